@@ -37,6 +37,7 @@ public abstract class BioDBConverter extends DBConverter
     private String dataSourceName = null;
     private Set<String> synonyms = new HashSet<String>();
     private String sequenceOntologyRefId;
+    private int threads = 1;
 
     /**
      * Create a new BioDBConverter object.  The constructor will automatically create a
@@ -84,6 +85,33 @@ public abstract class BioDBConverter extends DBConverter
         this.dataSourceName = name;
     }
 
+    /**
+     * Set the number of worker threads, each with its own connection, that processIdRanges()
+     * reads the source database with.
+     * @param threads the number of threads, defaults to 1
+     */
+    public void setThreads(String threads) {
+        this.threads = Integer.parseInt(threads.trim());
+    }
+
+    /**
+     * Read the source database in ranges of a numeric id on the configured number of threads,
+     * and handle the data of each range in increasing order of id on the calling thread.  The
+     * handler may create and store Items, the query must not.
+     * @param minId the exclusive lower bound of the ids to read
+     * @param maxId the inclusive upper bound of the ids to read
+     * @param rangeSize the number of ids in each range
+     * @param query reads the data for one range
+     * @param handler creates and stores Items for one range
+     * @param <T> the type of the data read for each range
+     * @throws Exception if reading or handling fails
+     */
+    protected <T> void processIdRanges(long minId, long maxId, long rangeSize,
+            IdRangeReader.RangeQuery<T> query, IdRangeReader.RangeHandler<T> handler)
+        throws Exception {
+        new IdRangeReader<T>(getDatabase(), threads, rangeSize).run(minId, maxId, query, handler);
+    }
+
     /**
      * Return the data source name set by setDataSourceName().
      * @return the data source name
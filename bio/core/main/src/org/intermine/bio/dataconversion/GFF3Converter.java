@@ -24,7 +24,7 @@ import java.util.Properties;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
-import org.intermine.bio.io.gff3.GFF3Parser;
+import org.intermine.bio.io.gff3.BackgroundGFF3Parser;
 import org.intermine.bio.io.gff3.GFF3Record;
 import org.intermine.bio.util.BioConverterUtil;
 import org.intermine.dataconversion.DataConverter;
@@ -238,27 +238,33 @@ public class GFF3Converter extends DataConverter
         boolean duplicates = false;
         Set<String> processedIds = new HashSet<String>();
         Set<String> duplicatedIds = new HashSet<String>();
-        for (Iterator<?> i = GFF3Parser.parse(bReader); i.hasNext();) {
-            record = (GFF3Record) i.next();
+        // records are parsed in another thread while this one processes them
+        BackgroundGFF3Parser records = new BackgroundGFF3Parser(bReader);
+        try {
+            while (records.hasNext()) {
+                record = records.next();
 
-            // we only care about dupes if we are NOT creating locations
-            if (processedIds.contains(record.getId()) && dontCreateLocations) {
-                duplicates = true;
-                duplicatedIds.add(record.getId());
-            } else {
-                if (record.getId() != null) {
-                    processedIds.add(record.getId());
+                // we only care about dupes if we are NOT creating locations
+                if (processedIds.contains(record.getId()) && dontCreateLocations) {
+                    duplicates = true;
+                    duplicatedIds.add(record.getId());
+                } else {
+                    if (record.getId() != null) {
+                        processedIds.add(record.getId());
+                    }
+                }
+                if (!duplicates) {
+                    process(record);
+                }
+                opCount++;
+                if (opCount % 1000 == 0) {
+                    now = System.currentTimeMillis();
+                    LOG.info("processed " + opCount + " lines --took " + (now - start) + " ms");
+                    start = System.currentTimeMillis();
                 }
             }
-            if (!duplicates) {
-                process(record);
-            }
-            opCount++;
-            if (opCount % 1000 == 0) {
-                now = System.currentTimeMillis();
-                LOG.info("processed " + opCount + " lines --took " + (now - start) + " ms");
-                start = System.currentTimeMillis();
-            }
+        } finally {
+            records.close();
         }
         if (duplicates) {
             LOG.error("Duplicated IDs in GFF file: " + duplicatedIds);
@@ -495,18 +501,13 @@ public class GFF3Converter extends DataConverter
     private void addOtherAttributes(GFF3Record record, String term,
             Item feature, List<String> primeAttrList) {
         Map<String, String> attrMapOrg = configAttr.get(this.orgTaxonId);
-        Map<String, String> attrMapClone = new HashMap<String, String>();
-        // Deep copy of a map
-        for (Entry<String, String> e : attrMapOrg.entrySet()) {
-            attrMapClone.put(e.getKey(), e.getValue());
-        }
+        Map<String, String> attrClassMap = configAttrClass.get(this.orgTaxonId);
 
-        for (String pa : primeAttrList) {
-            attrMapClone.remove(pa);
-        }
-
-        for (Entry<String, String> e : attrMapClone.entrySet()) {
-            String cls = configAttrClass.get(this.orgTaxonId).get(e.getKey());
+        for (Entry<String, String> e : attrMapOrg.entrySet()) {
+            if (primeAttrList.contains(e.getKey())) {
+                continue;
+            }
+            String cls = attrClassMap.get(e.getKey());
             if ("all".equals(cls) || term.equals(cls)) {
                 String attr = e.getValue();
                 if (attr.contains("Dbxref") && record.getDbxrefs() != null) {
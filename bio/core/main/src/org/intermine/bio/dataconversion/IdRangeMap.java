@@ -0,0 +1,109 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * A map from the long ids of one IdRangeReader range (from, to] to values, held in an array
+ * indexed by id, so lookups need neither boxing nor hashing.  Ids are iterated in increasing
+ * order.
+ *
+ * @param <V> the type of the values
+ * @author chenyian
+ */
+public class IdRangeMap<V>
+{
+    private final long from;
+    private final Object[] values;
+    private int size = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param from the exclusive lower bound of the range
+     * @param to the inclusive upper bound of the range
+     */
+    public IdRangeMap(long from, long to) {
+        if (to < from || to - from > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid range (" + from + ", " + to + "]");
+        }
+        this.from = from;
+        this.values = new Object[(int) (to - from)];
+    }
+
+    /**
+     * Map an id to a value.
+     *
+     * @param id an id within the range
+     * @param value the value, or null to remove the mapping
+     */
+    public void put(long id, V value) {
+        int index = index(id);
+        if (values[index] == null && value != null) {
+            size++;
+        } else if (values[index] != null && value == null) {
+            size--;
+        }
+        values[index] = value;
+    }
+
+    /**
+     * Get the value of an id.
+     *
+     * @param id an id within the range
+     * @return the value, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long id) {
+        return (V) values[index(id)];
+    }
+
+    /**
+     * Returns the number of ids with a value.
+     *
+     * @return the size of the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the first id with a value that is greater than the given id, so that the ids can
+     * be iterated with: for (long id = map.next(map.getFrom()); id != -1; id = map.next(id)).
+     *
+     * @param id an id, or the lower bound of the range to start at the beginning
+     * @return the next id with a value, or -1 if there is none
+     */
+    public long next(long id) {
+        for (long i = Math.max(id, from) + 1; i <= from + values.length; i++) {
+            if (values[(int) (i - from - 1)] != null) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the exclusive lower bound of the range.
+     *
+     * @return an id
+     */
+    public long getFrom() {
+        return from;
+    }
+
+    private int index(long id) {
+        if (id <= from || id > from + values.length) {
+            throw new IndexOutOfBoundsException("Id " + id + " is not in range (" + from + ", "
+                    + (from + values.length) + "]");
+        }
+        return (int) (id - from - 1);
+    }
+}
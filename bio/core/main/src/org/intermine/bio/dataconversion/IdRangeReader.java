@@ -0,0 +1,240 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.intermine.sql.Database;
+
+/**
+ * Reads a source database in disjoint ranges of a numeric id, with several worker threads that
+ * each have their own connection.  The data read for each range is handed to a single handler,
+ * on the calling thread, in increasing order of id, so the handler can create and store Items
+ * exactly as a serial converter would.  Workers are allowed to get at most two ranges each ahead
+ * of the handler, which bounds the memory used.
+ *
+ * Ranges are half open: a range (from, to] covers ids greater than from and less than or equal
+ * to to, which matches queries of the form "WHERE id &gt; from AND id &lt;= to".
+ *
+ * @param <T> the type of the data read for each range
+ * @author chenyian
+ */
+public class IdRangeReader<T>
+{
+    private static final Logger LOG = Logger.getLogger(IdRangeReader.class);
+
+    private final Database database;
+    private final int threads;
+    private final long rangeSize;
+
+    private final Map<Long, Result<T>> results = new HashMap<Long, Result<T>>();
+    private long nextRange = 0;
+    private long handledRanges = 0;
+    private long rangeCount = 0;
+    private boolean aborted = false;
+
+    /**
+     * Reads the rows of one range.  This is called on the worker threads, so must not create or
+     * store Items or touch any other state of the converter.
+     *
+     * @param <T> the type of the data read for each range
+     */
+    public interface RangeQuery<T>
+    {
+        /**
+         * Read the data for one range.
+         *
+         * @param connection a connection owned by the calling worker
+         * @param from the exclusive lower bound of the range
+         * @param to the inclusive upper bound of the range
+         * @return the data for the range
+         * @throws SQLException if the database cannot be read
+         */
+        T read(Connection connection, long from, long to) throws SQLException;
+    }
+
+    /**
+     * Handles the data of one range.  This is called on the thread that called run(), one range
+     * at a time, in increasing order of id.
+     *
+     * @param <T> the type of the data read for each range
+     */
+    public interface RangeHandler<T>
+    {
+        /**
+         * Handle the data for one range.
+         *
+         * @param from the exclusive lower bound of the range
+         * @param to the inclusive upper bound of the range
+         * @param data the data returned by the RangeQuery for this range
+         * @throws Exception if the data cannot be handled
+         */
+        void handle(long from, long to, T data) throws Exception;
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param database the database to read from
+     * @param threads the number of worker threads, each using one connection
+     * @param rangeSize the number of ids in each range
+     */
+    public IdRangeReader(Database database, int threads, long rangeSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1, was " + threads);
+        }
+        if (rangeSize < 1) {
+            throw new IllegalArgumentException("rangeSize must be at least 1, was " + rangeSize);
+        }
+        this.database = database;
+        this.threads = threads;
+        this.rangeSize = rangeSize;
+    }
+
+    /**
+     * Read and handle all the ranges covering (minId, maxId].  The last range may extend
+     * beyond maxId.
+     *
+     * @param minId the exclusive lower bound of the ids to read
+     * @param maxId the inclusive upper bound of the ids to read
+     * @param query reads the data for one range
+     * @param handler handles the data for one range
+     * @throws Exception if reading or handling fails
+     */
+    public void run(long minId, long maxId, RangeQuery<T> query, RangeHandler<T> handler)
+        throws Exception {
+        synchronized (results) {
+            results.clear();
+            nextRange = 0;
+            handledRanges = 0;
+            rangeCount = (maxId > minId ? (maxId - minId + rangeSize - 1) / rangeSize : 0);
+            aborted = false;
+        }
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Worker(minId, query), "IdRangeReader worker " + i);
+            workers[i].start();
+        }
+        long start = System.currentTimeMillis();
+        try {
+            for (long range = 0; range < rangeCount; range++) {
+                Result<T> result;
+                synchronized (results) {
+                    while (!results.containsKey(range)) {
+                        results.wait();
+                    }
+                    result = results.remove(range);
+                }
+                long from = minId + range * rangeSize;
+                if (result.failure instanceof Exception) {
+                    throw (Exception) result.failure;
+                } else if (result.failure != null) {
+                    throw new RuntimeException("Failed to read ids (" + from + ", "
+                            + (from + rangeSize) + "]", result.failure);
+                }
+                handler.handle(from, from + rangeSize, result.data);
+                synchronized (results) {
+                    handledRanges = range + 1;
+                    results.notifyAll();
+                }
+                if ((range + 1) % 100 == 0) {
+                    LOG.info("Handled " + (range + 1) + " of " + rangeCount + " ranges in "
+                            + (System.currentTimeMillis() - start) + " ms");
+                }
+            }
+        } finally {
+            synchronized (results) {
+                aborted = true;
+                results.notifyAll();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+        LOG.info("Handled " + rangeCount + " ranges with " + threads + " threads in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private class Worker implements Runnable
+    {
+        private final long minId;
+        private final RangeQuery<T> query;
+
+        Worker(long minId, RangeQuery<T> query) {
+            this.minId = minId;
+            this.query = query;
+        }
+
+        public void run() {
+            Connection connection = null;
+            try {
+                connection = database.getConnection();
+                while (true) {
+                    long range;
+                    synchronized (results) {
+                        while (!aborted && nextRange < rangeCount
+                                && nextRange >= handledRanges + 2 * threads) {
+                            results.wait();
+                        }
+                        if (aborted || nextRange >= rangeCount) {
+                            return;
+                        }
+                        range = nextRange++;
+                    }
+                    Result<T> result = new Result<T>();
+                    long from = minId + range * rangeSize;
+                    try {
+                        result.data = query.read(connection, from, from + rangeSize);
+                    } catch (Throwable t) {
+                        // stored for the handler, which would otherwise wait for it for ever
+                        result.failure = t;
+                    }
+                    synchronized (results) {
+                        results.put(range, result);
+                        results.notifyAll();
+                    }
+                    if (result.failure != null) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // the reader has been abandoned
+            } catch (Throwable t) {
+                // report the failure against the next range the handler will wait for
+                synchronized (results) {
+                    Result<T> result = new Result<T>();
+                    result.failure = t;
+                    long range = nextRange++;
+                    results.put(range, result);
+                    results.notifyAll();
+                }
+            } finally {
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (SQLException e) {
+                        LOG.warn("Failed to close connection", e);
+                    }
+                }
+            }
+        }
+    }
+
+    private static class Result<T>
+    {
+        T data;
+        Throwable failure;
+    }
+}
@@ -57,6 +57,9 @@ public class IdResolver
     @SuppressWarnings("unchecked")
     protected Map<MultiKey, Map<String, Set<String>>> orgIdSynMaps = new MultiKeyMap();
 
+    // contents read from a cache, looked up alongside the maps above
+    private IdResolverSnapshot snapshot = null;
+
     /**
      * Construct and empty IdResolver
      */
@@ -79,7 +82,7 @@ public class IdResolver
      * @param className which class to resolve
      */
     protected void checkTaxonId(String taxonId, String className) {
-        if (!orgIdMaps.containsKey(new MultiKey(taxonId, className))) {
+        if (!hasTaxonAndClassName(taxonId, className)) {
             throw new IllegalArgumentException(className + " IdResolver has no data for taxonId: '"
                                                + taxonId + "'.");
         }
@@ -94,7 +97,9 @@ public class IdResolver
      */
     public boolean isPrimaryIdentifier(String taxonId, String className, String id) {
         checkTaxonId(taxonId, className);
-        return orgIdMaps.get(new MultiKey(taxonId, className)).containsKey(id);
+        Map<String, Set<String>> idMap = orgIdMaps.get(new MultiKey(taxonId, className));
+        return (idMap != null && idMap.containsKey(id))
+            || (snapshot != null && snapshot.isPrimaryIdentifier(taxonId, className, id));
     }
 
     /**
@@ -122,17 +127,35 @@ public class IdResolver
         if (isPrimaryIdentifier(taxonId, className, id)) {
             return Collections.singleton(id);
         }
-        if (orgMainMaps.containsKey(new MultiKey(taxonId, className))
-            && orgMainMaps.get(new MultiKey(taxonId, className)).containsKey(id)) {
-            return orgMainMaps.get(new MultiKey(taxonId, className)).get(id);
+        Set<String> mainIds = lookup(orgMainMaps, taxonId, className, id,
+                snapshot == null ? null : snapshot.getPrimaryIdsOfMainId(taxonId, className, id));
+        if (mainIds != null) {
+            return mainIds;
         }
-        if (orgSynMaps.containsKey(new MultiKey(taxonId, className))
-            && orgSynMaps.get(new MultiKey(taxonId, className)).containsKey(id)) {
-            return orgSynMaps.get(new MultiKey(taxonId, className)).get(id);
+        Set<String> synonyms = lookup(orgSynMaps, taxonId, className, id,
+                snapshot == null ? null : snapshot.getPrimaryIdsOfSynonym(taxonId, className, id));
+        if (synonyms != null) {
+            return synonyms;
         }
         return Collections.emptySet();
     }
 
+    // Look an id up in one of the maps, adding anything found for it in the snapshot.
+    private static Set<String> lookup(Map<MultiKey, Map<String, Set<String>>> maps,
+            String taxonId, String className, String id, Set<String> fromSnapshot) {
+        Map<String, Set<String>> map = maps.get(new MultiKey(taxonId, className));
+        Set<String> found = (map == null) ? null : map.get(id);
+        if (found == null) {
+            return fromSnapshot;
+        }
+        if (fromSnapshot == null) {
+            return found;
+        }
+        Set<String> both = new LinkedHashSet<String>(fromSnapshot);
+        both.addAll(found);
+        return both;
+    }
+
     /**
      * For the given set of ids return a map of matching primary identifiers in the given
      * taxonId.  In many cases the set will have just one element. Some will have
@@ -195,7 +218,10 @@ public class IdResolver
         if (!isPrimaryIdentifier(taxonId, className, primaryIdentifier)) {
             return null;
         }
-        return orgIdMaps.get(new MultiKey(taxonId, className)).get(primaryIdentifier);
+        Set<String> ids = lookup(orgIdMaps, taxonId, className, primaryIdentifier,
+                snapshot == null ? null
+                        : snapshot.getAllIds(taxonId, className, primaryIdentifier));
+        return (ids == null) ? new LinkedHashSet<String>() : ids;
     }
 
     /**
@@ -248,7 +274,7 @@ public class IdResolver
      */
     public boolean hasTaxons(Set<String> taxonIds) {
         Set<String> taxonIdSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             taxonIdSet.add((String) key.getKey(0));
         }
         return taxonIdSet.containsAll(taxonIds);
@@ -260,7 +286,7 @@ public class IdResolver
      */
     public Set<String> getTaxons() {
         Set<String> taxonIdSet = new LinkedHashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             taxonIdSet.add((String) key.getKey(0));
         }
         return taxonIdSet;
@@ -273,7 +299,7 @@ public class IdResolver
      */
     public boolean hasClassName(String className) {
         Set<String> clsNameSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             clsNameSet.add((String) key.getKey(1));
         }
         return clsNameSet.contains(className);
@@ -285,7 +311,7 @@ public class IdResolver
      */
     public Set<String> getClassNames() {
         Set<String> clsNameSet = new HashSet<String>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             clsNameSet.add((String) key.getKey(1));
         }
         return clsNameSet;
@@ -298,7 +324,8 @@ public class IdResolver
      * @return true if the resolver has data for this taxon ID and data type
      */
     public boolean hasTaxonAndClassName(String taxonId, String className) {
-        return orgIdMaps.keySet().contains(new MultiKey(taxonId, className));
+        return orgIdMaps.keySet().contains(new MultiKey(taxonId, className))
+            || (snapshot != null && snapshot.hasKey(taxonId, className));
     }
 
     /**
@@ -344,7 +371,17 @@ public class IdResolver
             }
         }
 
-        return orgIdMaps.keySet().containsAll(keySet);
+        return getKeys().containsAll(keySet);
+    }
+
+    // The (taxon id, class name) keys of the maps and the snapshot.
+    private Set<MultiKey> getKeys() {
+        if (snapshot == null) {
+            return orgIdMaps.keySet();
+        }
+        Set<MultiKey> keys = new LinkedHashSet<MultiKey>(snapshot.getKeys());
+        keys.addAll(orgIdMaps.keySet());
+        return keys;
     }
 
     /**
@@ -353,7 +390,7 @@ public class IdResolver
      */
     public Map<String, Set<String>> getTaxonsAndClassNames() {
         Map<String, Set<String>> taxonIdAndClsNameMap = new HashMap<String, Set<String>>();
-        for (MultiKey key : orgIdMaps.keySet()) {
+        for (MultiKey key : getKeys()) {
             String taxonId = (String) key.getKey(0);
             String className = (String) key.getKey(1);
             if (taxonIdAndClsNameMap.get(taxonId) == null) {
@@ -545,6 +582,26 @@ public class IdResolver
                 fw.write(sb.toString());
             }
         }
+        if (snapshot != null) {
+            for (MultiKey key : snapshot.getKeys()) {
+                String taxonId = (String) key.getKey(0);
+                String className = (String) key.getKey(1);
+                for (String primaryId : snapshot.getPrimaryIdentifiers(taxonId, className)) {
+                    StringBuffer sb = new StringBuffer();
+                    sb.append(taxonId + "\t" + className + "\t" + primaryId + "\t");
+                    Set<String> mainIds = snapshot.getMainIds(taxonId, className, primaryId);
+                    if (mainIds != null) {
+                        sb.append(StringUtils.join(mainIds, ","));
+                    }
+                    Set<String> synonyms = snapshot.getSynonyms(taxonId, className, primaryId);
+                    if (synonyms != null) {
+                        sb.append("\t").append(StringUtils.join(synonyms, ","));
+                    }
+                    sb.append(System.getProperty("line.separator"));
+                    fw.write(sb.toString());
+                }
+            }
+        }
         fw.flush();
         fw.close();
     }
@@ -587,6 +644,35 @@ public class IdResolver
         reader.close();
     }
 
+    /**
+     * Read the contents of an IdResolver from a cache file through a binary snapshot of it.
+     * The snapshot is written next to the file the first time, and again whenever the file has
+     * changed, and is then memory-mapped rather than read into this resolver's maps, so that
+     * every converter of a build shares one copy of a large resolver instead of parsing the
+     * file into its own heap.
+     *
+     * @param f the cache file, as written by writeToFile
+     * @throws IOException if problem reading from file or writing the snapshot
+     */
+    public void populateFromSnapshot(File f) throws IOException {
+        File snapshotFile = new File(f.getPath() + IdResolverSnapshot.SUFFIX);
+        IdResolverSnapshot loaded = null;
+        if (snapshotFile.exists()) {
+            try {
+                loaded = IdResolverSnapshot.open(snapshotFile);
+            } catch (IOException e) {
+                LOG.warn("Could not read id resolver snapshot " + snapshotFile, e);
+            }
+        }
+        if (loaded == null || !loaded.isSnapshotOf(f)) {
+            IdResolver fromFile = new IdResolver();
+            fromFile.populateFromFile(f);
+            IdResolverSnapshot.write(fromFile, f, snapshotFile);
+            loaded = IdResolverSnapshot.open(snapshotFile);
+        }
+        snapshot = loaded;
+    }
+
     // TODO populate part from file with given taxons and classes, what if there
     // are some data nonexists? Maybe not a good idea...
 
@@ -68,7 +68,9 @@ public abstract class IdResolverFactory
     }
 
     /**
-     * Read IdResolver contents from a file, allows for caching during build.
+     * Read IdResolver contents from a file, allows for caching during build.  The file is read
+     * through a memory-mapped binary snapshot, which is made from the file when it is first read
+     * or has changed, so the converters of a build don't each parse it into their own heap.
      *
      * @param f the file to read from
      * @return a created IdResolver
@@ -77,7 +79,7 @@ public abstract class IdResolverFactory
     protected boolean restoreFromFile(File f)
         throws IOException {
         if (f.exists()) {
-            resolver.populateFromFile(f);
+            resolver.populateFromSnapshot(f);
             return true;
         }
         return false;
@@ -91,12 +93,7 @@ public abstract class IdResolverFactory
      */
     protected boolean restoreFromFile()
         throws IOException {
-        File f = new File(idResolverCachedFileName);
-        if (f.exists()) {
-            resolver.populateFromFile(f);
-            return true;
-        }
-        return false;
+        return restoreFromFile(new File(idResolverCachedFileName));
     }
 
     /**
@@ -0,0 +1,507 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.collections.keyvalue.MultiKey;
+import org.apache.log4j.Logger;
+
+/**
+ * An immutable binary copy of the contents of an IdResolver, written once from the cached
+ * resolver file and memory-mapped read-only by every converter that needs it, instead of each
+ * converter parsing the text file into maps of strings.
+ *
+ * <p>
+ * For each taxon id and class the snapshot holds a dictionary of every identifier, sorted by
+ * its UTF-8 bytes and looked up by binary search, and five lists of dictionary positions per
+ * identifier: the primary identifiers it is a main id of, the primary identifiers it is a
+ * synonym of, and, for primary identifiers, their main ids, their synonyms and both together.
+ * The lists keep the order of the resolver they were written from, so lookups return the same
+ * sets in the same order.
+ * </p>
+ *
+ * <p>
+ * The snapshot records the length and modification time of the text file it was made from, so
+ * it can tell when the text file has been added to since.
+ * </p>
+ *
+ * @author chenyian
+ */
+public final class IdResolverSnapshot
+{
+    private static final Logger LOG = Logger.getLogger(IdResolverSnapshot.class);
+
+    /** Appended to the name of the text cache to give the name of its snapshot. */
+    public static final String SUFFIX = ".snapshot";
+
+    private static final int MAGIC = 0x49445253;
+    private static final int VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // the lists held for each identifier
+    private static final int MAIN_OF = 0;
+    private static final int SYNONYM_OF = 1;
+    private static final int MAIN_IDS = 2;
+    private static final int SYNONYMS = 3;
+    private static final int IDS = 4;
+    private static final int LISTS = 5;
+
+    private static final Comparator<byte[]> UNSIGNED_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            int n = Math.min(a.length, b.length);
+            for (int i = 0; i < n; i++) {
+                int diff = (a[i] & 0xff) - (b[i] & 0xff);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    private final long sourceLength;
+    private final long sourceModified;
+    private final Map<MultiKey, Section> sections;
+
+    private IdResolverSnapshot(long sourceLength, long sourceModified,
+            Map<MultiKey, Section> sections) {
+        this.sourceLength = sourceLength;
+        this.sourceModified = sourceModified;
+        this.sections = sections;
+    }
+
+    /**
+     * @param source a text resolver cache
+     * @return true if this snapshot was made from the current contents of the file
+     */
+    public boolean isSnapshotOf(File source) {
+        return source.length() == sourceLength && source.lastModified() == sourceModified;
+    }
+
+    /**
+     * @return the (taxon id, class name) keys this snapshot has data for
+     */
+    public Set<MultiKey> getKeys() {
+        return Collections.unmodifiableSet(sections.keySet());
+    }
+
+    /**
+     * @param taxonId taxon id
+     * @param className class name
+     * @return true if this snapshot has data for the taxon and class
+     */
+    public boolean hasKey(String taxonId, String className) {
+        return sections.containsKey(new MultiKey(taxonId, className));
+    }
+
+    /**
+     * @param taxonId taxon id
+     * @param className class name
+     * @param id an identifier
+     * @return true if the identifier is a primary identifier
+     */
+    public boolean isPrimaryIdentifier(String taxonId, String className, String id) {
+        Section section = sections.get(new MultiKey(taxonId, className));
+        return section != null && section.isPrimary(section.find(id));
+    }
+
+    /**
+     * @param taxonId taxon id
+     * @param className class name
+     * @param id an identifier
+     * @return the primary identifiers the identifier is a main id of, or null if none
+     */
+    public Set<String> getPrimaryIdsOfMainId(String taxonId, String className, String id) {
+        return lookup(taxonId, className, id, MAIN_OF);
+    }
+
+    /**
+     * @param taxonId taxon id
+     * @param className class name
+     * @param id an identifier
+     * @return the primary identifiers the identifier is a synonym of, or null if none
+     */
+    public Set<String> getPrimaryIdsOfSynonym(String taxonId, String className, String id) {
+        return lookup(taxonId, className, id, SYNONYM_OF);
+    }
+
+    /**
+     * @param taxonId taxon id
+     * @param className class name
+     * @param primaryId a primary identifier
+     * @return the main ids of the primary identifier, or null if none
+     */
+    public Set<String> getMainIds(String taxonId, String className, String primaryId) {
+        return lookup(taxonId, className, primaryId, MAIN_IDS);
+    }
+
+    /**
+     * @param taxonId taxon id
+     * @param className class name
+     * @param primaryId a primary identifier
+     * @return the synonyms of the primary identifier, or null if none
+     */
+    public Set<String> getSynonyms(String taxonId, String className, String primaryId) {
+        return lookup(taxonId, className, primaryId, SYNONYMS);
+    }
+
+    /**
+     * @param taxonId taxon id
+     * @param className class name
+     * @return the primary identifiers, in the order they were added to the resolver
+     */
+    public List<String> getPrimaryIdentifiers(String taxonId, String className) {
+        Section section = sections.get(new MultiKey(taxonId, className));
+        if (section == null) {
+            return Collections.emptyList();
+        }
+        List<String> ids = new ArrayList<String>(section.primaries);
+        for (int i = 0; i < section.primaries; i++) {
+            ids.add(section.getString(section.buffer.getInt(section.primaryOrder + 4 * i)));
+        }
+        return ids;
+    }
+
+    /**
+     * @param taxonId taxon id
+     * @param className class name
+     * @param primaryId a primary identifier
+     * @return the main ids and synonyms of the primary identifier, or null if none
+     */
+    public Set<String> getAllIds(String taxonId, String className, String primaryId) {
+        return lookup(taxonId, className, primaryId, IDS);
+    }
+
+    private Set<String> lookup(String taxonId, String className, String id, int list) {
+        Section section = sections.get(new MultiKey(taxonId, className));
+        if (section == null) {
+            return null;
+        }
+        return section.getList(section.find(id), list);
+    }
+
+    /**
+     * Map a snapshot file.
+     *
+     * @param f the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static IdResolverSnapshot open(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, raf.length() - 8, 8);
+            long indexStart = trailer.getLong(0);
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexStart,
+                    raf.length() - 8 - indexStart);
+            if (index.getInt() != MAGIC || index.getInt() != VERSION) {
+                throw new IOException(f + " is not an id resolver snapshot");
+            }
+            long sourceLength = index.getLong();
+            long sourceModified = index.getLong();
+            int count = index.getInt();
+            Map<MultiKey, Section> sections = new LinkedHashMap<MultiKey, Section>();
+            for (int i = 0; i < count; i++) {
+                String taxonId = readString(index);
+                String className = readString(index);
+                long offset = index.getLong();
+                long length = index.getLong();
+                sections.put(new MultiKey(taxonId, className), new Section(
+                        channel.map(FileChannel.MapMode.READ_ONLY, offset, length)));
+            }
+            LOG.info("Mapped id resolver snapshot " + f + " with " + count + " sections");
+            return new IdResolverSnapshot(sourceLength, sourceModified, sections);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Write the contents of a resolver as a snapshot.  The snapshot is written to a temporary
+     * file which then replaces the target, so that converters running at the same time never
+     * read half a snapshot.
+     *
+     * @param resolver the resolver to write
+     * @param source the text file the resolver was read from
+     * @param f the snapshot file to write
+     * @throws IOException if the snapshot cannot be written
+     */
+    public static void write(IdResolver resolver, File source, File f) throws IOException {
+        File dir = f.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(f.getName(), ".tmp", dir);
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+            Map<MultiKey, long[]> positions = new LinkedHashMap<MultiKey, long[]>();
+            for (MultiKey key : resolver.orgIdMaps.keySet()) {
+                out.flush();
+                long start = fos.getChannel().position();
+                writeSection(out, resolver, key);
+                out.flush();
+                positions.put(key, new long[] {start, fos.getChannel().position() - start});
+            }
+            long indexStart = fos.getChannel().position();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeInt(positions.size());
+            for (Map.Entry<MultiKey, long[]> entry : positions.entrySet()) {
+                writeString(out, (String) entry.getKey().getKey(0));
+                writeString(out, (String) entry.getKey().getKey(1));
+                out.writeLong(entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+            out.writeLong(indexStart);
+            out.flush();
+        } finally {
+            fos.close();
+        }
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp + " to " + f);
+        }
+        LOG.info("Wrote id resolver snapshot " + f + " (" + f.length() + " bytes)");
+    }
+
+    // Section layout, all ints: identifiers n, primaries p, lengths of the five lists, length of
+    // the string bytes, primary bitmap, order of primaries, string offsets (n + 1), for each list
+    // its offsets (n + 1) and values, then the UTF-8 bytes of the sorted identifiers.
+    private static void writeSection(DataOutputStream out, IdResolver resolver, MultiKey key)
+        throws IOException {
+        Map<String, Set<String>> idMap = resolver.orgIdMaps.get(key);
+        List<Map<String, Set<String>>> maps = new ArrayList<Map<String, Set<String>>>(LISTS);
+        maps.add(MAIN_OF, resolver.orgMainMaps.get(key));
+        maps.add(SYNONYM_OF, resolver.orgSynMaps.get(key));
+        maps.add(MAIN_IDS, resolver.orgIdMainMaps.get(key));
+        maps.add(SYNONYMS, resolver.orgIdSynMaps.get(key));
+        maps.add(IDS, idMap);
+
+        Set<String> all = new LinkedHashSet<String>(idMap.keySet());
+        for (Map<String, Set<String>> map : maps) {
+            if (map != null) {
+                for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+                    all.add(entry.getKey());
+                    all.addAll(entry.getValue());
+                }
+            }
+        }
+        byte[][] strings = new byte[all.size()][];
+        int n = 0;
+        for (String s : all) {
+            strings[n++] = s.getBytes(UTF8);
+        }
+        all = null;
+        Arrays.sort(strings, UNSIGNED_ORDER);
+        Map<String, Integer> positions = new HashMap<String, Integer>(n * 2);
+        int blobLength = 0;
+        for (int i = 0; i < n; i++) {
+            positions.put(new String(strings[i], UTF8), Integer.valueOf(i));
+            blobLength += strings[i].length;
+        }
+
+        int[] listLengths = new int[LISTS];
+        for (int l = 0; l < LISTS; l++) {
+            if (maps.get(l) != null) {
+                for (Set<String> values : maps.get(l).values()) {
+                    listLengths[l] += values.size();
+                }
+            }
+        }
+
+        out.writeInt(n);
+        out.writeInt(idMap.size());
+        for (int l = 0; l < LISTS; l++) {
+            out.writeInt(listLengths[l]);
+        }
+        out.writeInt(blobLength);
+
+        int[] primaryBits = new int[(n + 31) / 32];
+        for (String primary : idMap.keySet()) {
+            int i = positions.get(primary).intValue();
+            primaryBits[i >>> 5] |= 1 << (i & 31);
+        }
+        for (int word : primaryBits) {
+            out.writeInt(word);
+        }
+        for (String primary : idMap.keySet()) {
+            out.writeInt(positions.get(primary).intValue());
+        }
+        int offset = 0;
+        for (int i = 0; i < n; i++) {
+            out.writeInt(offset);
+            offset += strings[i].length;
+        }
+        out.writeInt(offset);
+
+        for (int l = 0; l < LISTS; l++) {
+            Map<String, Set<String>> map = maps.get(l);
+            int[] starts = new int[n + 1];
+            int[][] values = new int[n][];
+            if (map != null) {
+                for (Map.Entry<String, Set<String>> entry : map.entrySet()) {
+                    int i = positions.get(entry.getKey()).intValue();
+                    values[i] = new int[entry.getValue().size()];
+                    int j = 0;
+                    for (String value : entry.getValue()) {
+                        values[i][j++] = positions.get(value).intValue();
+                    }
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                starts[i + 1] = starts[i] + (values[i] == null ? 0 : values[i].length);
+            }
+            for (int start : starts) {
+                out.writeInt(start);
+            }
+            for (int[] v : values) {
+                if (v != null) {
+                    for (int value : v) {
+                        out.writeInt(value);
+                    }
+                }
+            }
+        }
+        for (byte[] s : strings) {
+            out.write(s);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * The mapped data of one taxon id and class, with the positions of its arrays.
+     */
+    private static final class Section
+    {
+        final ByteBuffer buffer;
+        final int identifiers;
+        final int primaries;
+        final int primaryBits;
+        final int primaryOrder;
+        final int stringOffsets;
+        final int[] listOffsets = new int[LISTS];
+        final int[] listValues = new int[LISTS];
+        final int strings;
+
+        Section(ByteBuffer buffer) {
+            this.buffer = buffer;
+            identifiers = buffer.getInt(0);
+            primaries = buffer.getInt(4);
+            int position = 4 * (2 + LISTS + 1);
+            primaryBits = position;
+            position += 4 * ((identifiers + 31) / 32);
+            primaryOrder = position;
+            position += 4 * primaries;
+            stringOffsets = position;
+            position += 4 * (identifiers + 1);
+            for (int l = 0; l < LISTS; l++) {
+                listOffsets[l] = position;
+                position += 4 * (identifiers + 1);
+                listValues[l] = position;
+                position += 4 * buffer.getInt(4 * (2 + l));
+            }
+            strings = position;
+        }
+
+        // Binary search of the sorted identifiers, comparing the UTF-8 bytes of the id.
+        int find(String id) {
+            byte[] key = id.getBytes(UTF8);
+            int low = 0;
+            int high = identifiers - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(mid, key);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        private int compare(int i, byte[] key) {
+            int start = strings + buffer.getInt(stringOffsets + 4 * i);
+            int length = strings + buffer.getInt(stringOffsets + 4 * (i + 1)) - start;
+            int n = Math.min(length, key.length);
+            for (int j = 0; j < n; j++) {
+                int diff = (buffer.get(start + j) & 0xff) - (key[j] & 0xff);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return length - key.length;
+        }
+
+        boolean isPrimary(int i) {
+            return i >= 0 && (buffer.getInt(primaryBits + 4 * (i >>> 5)) & (1 << (i & 31))) != 0;
+        }
+
+        String getString(int i) {
+            int start = buffer.getInt(stringOffsets + 4 * i);
+            byte[] bytes = new byte[buffer.getInt(stringOffsets + 4 * (i + 1)) - start];
+            for (int j = 0; j < bytes.length; j++) {
+                bytes[j] = buffer.get(strings + start + j);
+            }
+            return new String(bytes, UTF8);
+        }
+
+        Set<String> getList(int i, int list) {
+            if (i < 0) {
+                return null;
+            }
+            int from = buffer.getInt(listOffsets[list] + 4 * i);
+            int to = buffer.getInt(listOffsets[list] + 4 * (i + 1));
+            if (from == to) {
+                return null;
+            }
+            Set<String> values = new LinkedHashSet<String>();
+            for (int j = from; j < to; j++) {
+                values.add(getString(buffer.getInt(listValues[list] + 4 * j)));
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.intermine.bio.io;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * A view of part of a char array, used to look at the fields of a record without copying them.
+ * A CharSlice is reused by its owner, so its contents change when the owner moves on - call
+ * toString() to keep a value.
+ *
+ * @author chenyian
+ */
+public final class CharSlice implements CharSequence
+{
+    private char[] chars;
+    private int start;
+    private int end;
+
+    /**
+     * Create an empty slice.
+     */
+    public CharSlice() {
+        this.chars = new char[0];
+    }
+
+    /**
+     * Point this slice at part of an array.
+     *
+     * @param newChars the array
+     * @param newStart the index of the first char
+     * @param newEnd the index after the last char
+     */
+    void set(char[] newChars, int newStart, int newEnd) {
+        this.chars = newChars;
+        this.start = newStart;
+        this.end = newEnd;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int length() {
+        return end - start;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public char charAt(int index) {
+        if (index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of slice of length "
+                    + (end - start));
+        }
+        return chars[start + index];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to > end - start || from > to) {
+            throw new IndexOutOfBoundsException("Invalid sub sequence " + from + ", " + to
+                    + " of slice of length " + (end - start));
+        }
+        CharSlice ret = new CharSlice();
+        ret.set(chars, start + from, start + to);
+        return ret;
+    }
+
+    /**
+     * Returns true if the slice has no chars.
+     *
+     * @return a boolean
+     */
+    public boolean isEmpty() {
+        return end == start;
+    }
+
+    /**
+     * Returns true if the slice has the same chars as a String.
+     *
+     * @param s a String
+     * @return a boolean
+     */
+    public boolean contentEquals(String s) {
+        if (s == null || s.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (chars[start + i] != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the slice starts with a String.
+     *
+     * @param prefix a String
+     * @return a boolean
+     */
+    public boolean startsWith(String prefix) {
+        if (prefix.length() > end - start) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (chars[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the index of the first occurrence of a char in the slice.
+     *
+     * @param c a char
+     * @return the index relative to the start of the slice, or -1 if the char is not present
+     */
+    public int indexOf(char c) {
+        for (int i = start; i < end; i++) {
+            if (chars[i] == c) {
+                return i - start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse the slice as a decimal int, without creating a String.
+     *
+     * @return the int value
+     * @throws NumberFormatException if the slice is not a valid int
+     */
+    public int parseInt() {
+        if (end == start) {
+            throw new NumberFormatException("Empty value is not an int");
+        }
+        int i = start;
+        boolean negative = false;
+        if (chars[i] == '-' || chars[i] == '+') {
+            negative = chars[i] == '-';
+            i++;
+            if (i == end) {
+                throw new NumberFormatException("For input string: \"" + toString() + "\"");
+            }
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("For input string: \"" + toString() + "\"");
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("For input string: \"" + toString() + "\"");
+            }
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+            throw new NumberFormatException("For input string: \"" + toString() + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns the chars of the slice as a new String.
+     *
+     * @return a String
+     */
+    @Override
+    public String toString() {
+        return new String(chars, start, end - start);
+    }
+}
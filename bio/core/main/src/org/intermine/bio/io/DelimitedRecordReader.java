@@ -0,0 +1,639 @@
+package org.intermine.bio.io;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A streaming reader for tab, comma or otherwise delimited files.  Records are read into one
+ * reusable buffer and their fields are exposed as CharSlice views of that buffer, so reading a
+ * record creates no objects unless the caller asks for Strings.  The slices returned are only
+ * valid until the next call to next().
+ *
+ * As with FormattedTextParser, records whose first field starts with # are skipped and an empty
+ * line is returned as a record with one empty field.  When a quote character is given, fields
+ * may be quoted, may then contain the delimiter or line breaks, and a doubled quote stands for
+ * one quote.
+ *
+ * Usage:
+ * <pre>
+ * DelimitedRecordReader records = new DelimitedRecordReader(reader, '\t');
+ * while (records.next()) {
+ *     String id = records.getString(0);
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author chenyian
+ */
+public class DelimitedRecordReader implements Closeable
+{
+    /** The value to pass as the quote character when fields are never quoted. */
+    public static final char NO_QUOTE = '\0';
+
+    private static final int INITIAL_BUFFER = 64 * 1024;
+    private static final int INITIAL_FIELDS = 16;
+
+    private final Reader reader;
+    private final char delim;
+    private final char quote;
+    private boolean skipComments = true;
+
+    private char[] buffer = new char[INITIAL_BUFFER];
+    private int position = 0;
+    private int limit = 0;
+    private boolean eof = false;
+
+    private int[] starts = new int[INITIAL_FIELDS];
+    private int[] ends = new int[INITIAL_FIELDS];
+    private int fieldCount = 0;
+    private int lineNumber = 0;
+
+    private final CharSlice slice = new CharSlice();
+    private final SubFields subFields = new SubFields();
+
+    /**
+     * Create a reader for fields that are never quoted, like
+     * FormattedTextParser.parseDelimitedReader().
+     *
+     * @param reader the Reader to read from
+     * @param delim the field delimiter, eg. '\t'
+     */
+    public DelimitedRecordReader(Reader reader, char delim) {
+        this(reader, delim, NO_QUOTE);
+    }
+
+    /**
+     * Create a reader for fields that may be quoted.
+     *
+     * @param reader the Reader to read from
+     * @param delim the field delimiter, eg. ','
+     * @param quote the quote character, eg. '"', or NO_QUOTE
+     */
+    public DelimitedRecordReader(Reader reader, char delim, char quote) {
+        if (delim == quote) {
+            throw new IllegalArgumentException("The delimiter and the quote must differ");
+        }
+        this.reader = reader;
+        this.delim = delim;
+        this.quote = quote;
+    }
+
+    /**
+     * Open a file for reading with unquoted fields.  Files ending in .gz are decompressed, other
+     * files are read through memory mapped buffers rather than a stream.  Both are decoded as
+     * UTF-8.
+     *
+     * @param file the file to read
+     * @param delim the field delimiter
+     * @return a new DelimitedRecordReader
+     * @throws IOException if the file cannot be opened
+     */
+    public static DelimitedRecordReader open(File file, char delim) throws IOException {
+        return open(file, delim, NO_QUOTE);
+    }
+
+    /**
+     * Open a file for reading.  Files ending in .gz are decompressed, other files are read
+     * through memory mapped buffers rather than a stream.  Both are decoded as UTF-8.
+     *
+     * @param file the file to read
+     * @param delim the field delimiter
+     * @param quote the quote character, or NO_QUOTE
+     * @return a new DelimitedRecordReader
+     * @throws IOException if the file cannot be opened
+     */
+    public static DelimitedRecordReader open(File file, char delim, char quote)
+        throws IOException {
+        Charset utf8 = Charset.forName("UTF-8");
+        Reader reader;
+        if (file.getName().endsWith(".gz")) {
+            reader = new InputStreamReader(new GZIPInputStream(new FileInputStream(file),
+                    INITIAL_BUFFER), utf8);
+        } else {
+            reader = new MappedFileReader(file, utf8);
+        }
+        return new DelimitedRecordReader(reader, delim, quote);
+    }
+
+    /**
+     * Set whether records whose first field starts with # are skipped.  The default is true.
+     *
+     * @param skipComments false to return comment records
+     */
+    public void setSkipComments(boolean skipComments) {
+        this.skipComments = skipComments;
+    }
+
+    /**
+     * Move to the next record.
+     *
+     * @return false if there are no more records
+     * @throws IOException if the underlying Reader fails
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int end = findRecordEnd();
+            if (end < 0) {
+                fieldCount = 0;
+                return false;
+            }
+            int recordEnd = end;
+            int newPosition = end;
+            if (end < limit) {
+                // skip the \n, and a \r before it
+                newPosition = end + 1;
+                if (recordEnd > position && buffer[recordEnd - 1] == '\r') {
+                    recordEnd--;
+                }
+            }
+            parseFields(position, recordEnd);
+            position = newPosition;
+            if (skipComments && ends[0] > starts[0] && buffer[starts[0]] == '#') {
+                continue;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns the number of fields in the current record.
+     *
+     * @return the number of fields
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * Returns the number of the line the current record ended on, counting from 1.
+     *
+     * @return a line number
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Returns a field of the current record.  The same CharSlice is returned by every call, so
+     * take a copy with toString() to keep the value.
+     *
+     * @param index the index of the field
+     * @return the field
+     */
+    public CharSlice getField(int index) {
+        checkIndex(index);
+        slice.set(buffer, starts[index], ends[index]);
+        return slice;
+    }
+
+    /**
+     * Returns a field of the current record as a String.
+     *
+     * @param index the index of the field
+     * @return the field
+     */
+    public String getString(int index) {
+        checkIndex(index);
+        return new String(buffer, starts[index], ends[index] - starts[index]);
+    }
+
+    /**
+     * Returns a field of the current record as a String, or null if the record has no such
+     * field or the field is empty.
+     *
+     * @param index the index of the field
+     * @return the field or null
+     */
+    public String getStringOrNull(int index) {
+        if (index >= fieldCount || ends[index] == starts[index]) {
+            return null;
+        }
+        return getString(index);
+    }
+
+    /**
+     * Returns true if a field of the current record is empty.
+     *
+     * @param index the index of the field
+     * @return a boolean
+     */
+    public boolean isEmpty(int index) {
+        checkIndex(index);
+        return ends[index] == starts[index];
+    }
+
+    /**
+     * Returns true if a field of the current record equals a String.
+     *
+     * @param index the index of the field
+     * @param value a String
+     * @return a boolean
+     */
+    public boolean fieldEquals(int index, String value) {
+        return getField(index).contentEquals(value);
+    }
+
+    /**
+     * Parse a field of the current record as an int.
+     *
+     * @param index the index of the field
+     * @return the int value
+     * @throws NumberFormatException if the field is not an int
+     */
+    public int getInt(int index) {
+        return getField(index).parseInt();
+    }
+
+    /**
+     * Copy the current record into an array of Strings, as returned by FormattedTextParser.
+     *
+     * @return the fields
+     */
+    public String[] toArray() {
+        String[] ret = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            ret[i] = getString(i);
+        }
+        return ret;
+    }
+
+    /**
+     * Split a field of the current record into sub-fields, eg. the "|" separated values of a
+     * multi-valued column.  The same SubFields is returned by every call, and is only valid
+     * until the next call to split() or next().
+     *
+     * @param index the index of the field
+     * @param separator the sub-field separator
+     * @return the sub-fields
+     */
+    public SubFields split(int index, char separator) {
+        return split(index, separator, false);
+    }
+
+    /**
+     * Split a field of the current record into sub-fields, optionally dropping trailing empty
+     * sub-fields as String.split() does, so "D001,D002," gives two sub-fields rather than three.
+     * The same SubFields is returned by every call, and is only valid until the next call to
+     * split() or next().
+     *
+     * @param index the index of the field
+     * @param separator the sub-field separator
+     * @param dropTrailingEmpty if true, empty sub-fields at the end of the field are dropped
+     * @return the sub-fields
+     */
+    public SubFields split(int index, char separator, boolean dropTrailingEmpty) {
+        checkIndex(index);
+        subFields.split(buffer, starts[index], ends[index], separator);
+        if (dropTrailingEmpty) {
+            subFields.dropTrailingEmpty();
+        }
+        return subFields;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + index + " requested from a record with "
+                    + fieldCount + " fields at line " + lineNumber);
+        }
+    }
+
+    /**
+     * Find the end of the record starting at position, reading more input as needed.
+     *
+     * @return the index of the \n ending the record, limit if the input ends without one, or -1
+     * if there is no record left
+     */
+    private int findRecordEnd() throws IOException {
+        int scanned = position;
+        boolean quoted = false;
+        boolean fieldStart = true;
+        while (true) {
+            if (quote == NO_QUOTE) {
+                for (int i = scanned; i < limit; i++) {
+                    if (buffer[i] == '\n') {
+                        lineNumber++;
+                        return i;
+                    }
+                }
+            }
+            for (int i = scanned; i < limit && quote != NO_QUOTE; i++) {
+                char c = buffer[i];
+                if (quoted) {
+                    if (c == quote) {
+                        // a doubled quote stays inside the field
+                        if (i + 1 >= limit && !eof) {
+                            scanned = i;
+                            break;
+                        }
+                        if (i + 1 < limit && buffer[i + 1] == quote) {
+                            i++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else if (c == '\n') {
+                        lineNumber++;
+                    }
+                } else if (c == '\n') {
+                    lineNumber++;
+                    return i;
+                } else if (fieldStart && c == quote && quote != NO_QUOTE) {
+                    quoted = true;
+                } else {
+                    fieldStart = (c == delim);
+                    continue;
+                }
+                fieldStart = false;
+                scanned = i + 1;
+            }
+            if (!quoted || scanned >= limit) {
+                // otherwise the scan stopped at a quote that may be doubled by the next read
+                scanned = limit;
+            }
+            if (eof) {
+                if (limit > position) {
+                    lineNumber++;
+                    return limit;
+                }
+                return -1;
+            }
+            int offset = position;
+            fill();
+            scanned -= offset;
+        }
+    }
+
+    /**
+     * Move the current record to the start of the buffer, growing it if it is full, and read
+     * more input after it.
+     */
+    private void fill() throws IOException {
+        int remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            char[] newBuffer = new char[buffer.length * 2];
+            System.arraycopy(buffer, 0, newBuffer, 0, remaining);
+            buffer = newBuffer;
+        }
+        position = 0;
+        limit = remaining;
+        int read = reader.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    /**
+     * Find the fields of the record in buffer[from, to).  Quoted fields are unescaped in place.
+     */
+    private void parseFields(int from, int to) {
+        fieldCount = 0;
+        int i = from;
+        while (true) {
+            if (fieldCount == starts.length) {
+                int[] newStarts = new int[starts.length * 2];
+                int[] newEnds = new int[ends.length * 2];
+                System.arraycopy(starts, 0, newStarts, 0, fieldCount);
+                System.arraycopy(ends, 0, newEnds, 0, fieldCount);
+                starts = newStarts;
+                ends = newEnds;
+            }
+            if (quote != NO_QUOTE && i < to && buffer[i] == quote) {
+                // copy the unescaped contents of the quoted field down over the quotes
+                int out = i;
+                starts[fieldCount] = out;
+                i++;
+                while (i < to) {
+                    char c = buffer[i];
+                    if (c == quote) {
+                        if (i + 1 < to && buffer[i + 1] == quote) {
+                            buffer[out++] = quote;
+                            i += 2;
+                            continue;
+                        }
+                        i++;
+                        break;
+                    }
+                    buffer[out++] = c;
+                    i++;
+                }
+                // anything between the closing quote and the delimiter is kept, as opencsv does
+                while (i < to && buffer[i] != delim) {
+                    buffer[out++] = buffer[i++];
+                }
+                ends[fieldCount] = out;
+            } else {
+                starts[fieldCount] = i;
+                while (i < to && buffer[i] != delim) {
+                    i++;
+                }
+                ends[fieldCount] = i;
+            }
+            fieldCount++;
+            if (i >= to) {
+                return;
+            }
+            // skip the delimiter
+            i++;
+        }
+    }
+
+    /**
+     * The sub-fields of one field of a record, as CharSlice views of the record buffer.
+     */
+    public static final class SubFields
+    {
+        private char[] chars;
+        private int[] subStarts = new int[INITIAL_FIELDS];
+        private int[] subEnds = new int[INITIAL_FIELDS];
+        private int count = 0;
+        private final CharSlice subSlice = new CharSlice();
+
+        SubFields() {
+            // created by DelimitedRecordReader
+        }
+
+        void split(char[] newChars, int from, int to, char separator) {
+            chars = newChars;
+            count = 0;
+            if (from == to) {
+                return;
+            }
+            int start = from;
+            for (int i = from; i <= to; i++) {
+                if (i == to || chars[i] == separator) {
+                    if (count == subStarts.length) {
+                        int[] newStarts = new int[count * 2];
+                        int[] newEnds = new int[count * 2];
+                        System.arraycopy(subStarts, 0, newStarts, 0, count);
+                        System.arraycopy(subEnds, 0, newEnds, 0, count);
+                        subStarts = newStarts;
+                        subEnds = newEnds;
+                    }
+                    subStarts[count] = start;
+                    subEnds[count] = i;
+                    count++;
+                    start = i + 1;
+                }
+            }
+        }
+
+        void dropTrailingEmpty() {
+            while (count > 0 && subStarts[count - 1] == subEnds[count - 1]) {
+                count--;
+            }
+        }
+
+        /**
+         * Returns the number of sub-fields.  An empty field has no sub-fields.
+         *
+         * @return the number of sub-fields
+         */
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Returns a sub-field.  The same CharSlice is returned by every call.
+         *
+         * @param index the index of the sub-field
+         * @return the sub-field
+         */
+        public CharSlice get(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Sub-field " + index + " requested from "
+                        + count + " sub-fields");
+            }
+            subSlice.set(chars, subStarts[index], subEnds[index]);
+            return subSlice;
+        }
+
+        /**
+         * Returns a sub-field as a String.
+         *
+         * @param index the index of the sub-field
+         * @return the sub-field
+         */
+        public String getString(int index) {
+            return get(index).toString();
+        }
+    }
+
+    /**
+     * Decodes a file from memory mapped windows, so the file is read by the operating system's
+     * page cache rather than copied through a stream.  Bytes are moved from the window to a small
+     * heap buffer in bulk before decoding, as decoders are much faster on heap buffers.
+     */
+    private static final class MappedFileReader extends Reader
+    {
+        private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+        private static final int STAGING_SIZE = 64 * 1024;
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final long size;
+        private final CharsetDecoder decoder;
+        private final ByteBuffer staging = ByteBuffer.allocate(STAGING_SIZE);
+        private ByteBuffer window = null;
+        private long windowEnd = 0;
+        private boolean flushed = false;
+
+        MappedFileReader(File file, Charset charset) throws IOException {
+            this.file = new RandomAccessFile(file, "r");
+            this.channel = this.file.getChannel();
+            this.size = channel.size();
+            this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            staging.flip();
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (flushed) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+            while (true) {
+                boolean last = isExhausted();
+                CoderResult result = decoder.decode(staging, out, last);
+                if (result.isError()) {
+                    result.throwException();
+                }
+                if (out.position() > off) {
+                    return out.position() - off;
+                }
+                if (last) {
+                    decoder.flush(out);
+                    flushed = true;
+                    return out.position() > off ? out.position() - off : -1;
+                }
+                // the staging buffer is empty or ends part way through a char
+                refill();
+            }
+        }
+
+        private boolean isExhausted() {
+            return windowEnd >= size && (window == null || !window.hasRemaining());
+        }
+
+        private void refill() throws IOException {
+            staging.compact();
+            while (staging.hasRemaining() && !isExhausted()) {
+                if (window == null || !window.hasRemaining()) {
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd,
+                            Math.min(WINDOW_SIZE, size - windowEnd));
+                    windowEnd += window.limit();
+                }
+                int count = Math.min(staging.remaining(), window.remaining());
+                ByteBuffer chunk = window.duplicate();
+                chunk.limit(window.position() + count);
+                staging.put(chunk);
+                window.position(window.position() + count);
+            }
+            staging.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            file.close();
+        }
+    }
+}
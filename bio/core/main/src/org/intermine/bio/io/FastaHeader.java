@@ -0,0 +1,69 @@
+package org.intermine.bio.io;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * The header line of a FASTA record, split into a name and a description the way BioJava splits
+ * it: the name is everything up to the first whitespace and the description is the rest.
+ *
+ * @author chenyian
+ */
+public class FastaHeader
+{
+    private final String line;
+    private final String name;
+    private final String description;
+
+    /**
+     * Create a header from the text of a header line.
+     *
+     * @param line the header line, without the leading '&gt;'
+     */
+    public FastaHeader(String line) {
+        this.line = line.trim();
+        int space = 0;
+        while (space < this.line.length() && !Character.isWhitespace(this.line.charAt(space))) {
+            space++;
+        }
+        name = this.line.substring(0, space);
+        description = this.line.substring(space);
+    }
+
+    /**
+     * @return the whole header line, without the leading '&gt;' (BioJava's "description_line")
+     */
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * @return the name of the record: the header up to the first whitespace
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the rest of the header after the name, including the whitespace before it
+     * (BioJava's "description")
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return line;
+    }
+}
@@ -0,0 +1,270 @@
+package org.intermine.bio.io;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A streaming reader of FASTA files.  The header of each record is read as a whole, but the
+ * residues are handed out a buffer at a time, so a record of any length can be read in memory
+ * bounded by the caller's buffer:
+ *
+ * <pre>
+ * FastaReader reader = FastaReader.open(file);
+ * char[] page = new char[PAGE_SIZE];
+ * while (reader.next()) {
+ *     String name = reader.getName();
+ *     int n;
+ *     while ((n = reader.read(page)) &gt; 0) {
+ *         ...
+ *     }
+ * }
+ * reader.close();
+ * </pre>
+ *
+ * <p>
+ * Whitespace in the residues is skipped, as are comment lines starting with ';'.  Residues are
+ * returned as they appear in the file: checking them against an alphabet and changing their case
+ * is left to the caller.  The name and description of a record are split from the header the way
+ * BioJava splits them, see FastaHeader.
+ * </p>
+ *
+ * @author chenyian
+ */
+public class FastaReader implements Closeable
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int limit = 0;
+    private boolean atLineStart = true;
+    private boolean inRecord = false;
+    private boolean eof = false;
+    private int lineNumber = 1;
+
+    private FastaHeader header;
+
+    /**
+     * Create a reader of FASTA records.
+     *
+     * @param reader the Reader to read from
+     */
+    public FastaReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Open a FASTA file for reading.  Files ending in .gz are decompressed as they are read.
+     *
+     * @param file the file to read
+     * @return a new FastaReader
+     * @throws IOException if the file cannot be opened
+     */
+    public static FastaReader open(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in, BUFFER_SIZE);
+        }
+        return new FastaReader(new InputStreamReader(in, Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Move to the next record, skipping any residues of the current one that have not been read.
+     *
+     * @return false if there are no more records
+     * @throws IOException if the input cannot be read, or there is text before the first header
+     */
+    public boolean next() throws IOException {
+        // skip to the start of the next header line
+        while (true) {
+            if (pos == limit && !fill()) {
+                inRecord = false;
+                return false;
+            }
+            char c = buffer[pos];
+            if (atLineStart && c == '>') {
+                pos++;
+                break;
+            }
+            if (atLineStart && c == ';') {
+                skipLine();
+                continue;
+            }
+            if (!inRecord && !isWhitespace(c)) {
+                throw new IOException("Expected a FASTA header at line " + lineNumber);
+            }
+            advance(c);
+        }
+        header = new FastaHeader(readLine());
+        inRecord = true;
+        return true;
+    }
+
+    /**
+     * @return the header of the current record
+     */
+    public FastaHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the name of the current record: the header up to the first whitespace
+     */
+    public String getName() {
+        return header.getName();
+    }
+
+    /**
+     * @return the rest of the header after the name, including the whitespace before it
+     */
+    public String getDescription() {
+        return header.getDescription();
+    }
+
+    /**
+     * @return the number of the line the reader has reached
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Read residues of the current record into a buffer.  The buffer is filled unless the record
+     * ends first.
+     *
+     * @param cbuf the buffer to read into
+     * @return the number of residues read, or -1 at the end of the record
+     * @throws IOException if the input cannot be read
+     */
+    public int read(char[] cbuf) throws IOException {
+        return read(cbuf, 0, cbuf.length);
+    }
+
+    /**
+     * Read residues of the current record into part of a buffer.  The given length is filled
+     * unless the record ends first.
+     *
+     * @param cbuf the buffer to read into
+     * @param off the position in the buffer to start at
+     * @param len the number of residues wanted
+     * @return the number of residues read, or -1 at the end of the record
+     * @throws IOException if the input cannot be read
+     */
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (!inRecord) {
+            return -1;
+        }
+        int n = 0;
+        while (n < len) {
+            if (pos == limit && !fill()) {
+                break;
+            }
+            char c = buffer[pos];
+            if (atLineStart && (c == '>' || c == ';')) {
+                if (c == '>') {
+                    break;
+                }
+                skipLine();
+                continue;
+            }
+            if (isWhitespace(c)) {
+                advance(c);
+                continue;
+            }
+            // copy the run of residues up to the end of the line or the buffer
+            int end = pos;
+            int max = Math.min(limit, pos + len - n);
+            while (end < max && !isWhitespace(buffer[end])) {
+                end++;
+            }
+            System.arraycopy(buffer, pos, cbuf, off + n, end - pos);
+            n += end - pos;
+            pos = end;
+            atLineStart = false;
+        }
+        return (n == 0) ? -1 : n;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int n = reader.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            eof = true;
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private void advance(char c) {
+        pos++;
+        if (c == '\n') {
+            lineNumber++;
+            atLineStart = true;
+        } else if (c != '\r') {
+            atLineStart = false;
+        }
+    }
+
+    private void skipLine() throws IOException {
+        while (pos < limit || fill()) {
+            char c = buffer[pos];
+            advance(c);
+            if (c == '\n') {
+                return;
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        while (pos < limit || fill()) {
+            int start = pos;
+            while (pos < limit && buffer[pos] != '\n') {
+                pos++;
+            }
+            sb.append(buffer, start, pos - start);
+            if (pos < limit) {
+                pos++;
+                lineNumber++;
+                atLineStart = true;
+                return sb.toString();
+            }
+        }
+        atLineStart = true;
+        return sb.toString();
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == '\n' || c == '\r' || c == ' ' || c == '\t';
+    }
+}
@@ -0,0 +1,323 @@
+package org.intermine.bio.io;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A part of a line based file that can be read independently of the other parts, so that a large
+ * file can be parsed by several threads at once.  A range owns the lines that start inside it:
+ * opening a range skips the end of the line that crosses its start and reads on past its end to
+ * finish its last line.
+ *
+ * Plain files are split at arbitrary byte offsets.  Files ending in .gz are split between the
+ * blocks of BGZF (blocked gzip, as written by bgzip for tabix indexing), where each block is a
+ * separate gzip member whose compressed and uncompressed sizes can be read without decompressing
+ * it.  Other gzip files cannot be split and give a single range.
+ *
+ * @author chenyian
+ */
+public final class FileRange
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // the fixed part of a gzip member header, up to and including XLEN
+    private static final int GZIP_HEADER = 12;
+    private static final int FEXTRA = 4;
+
+    private final File file;
+    private final boolean gzip;
+    private final long offset;
+    private final long skip;
+    private final boolean first;
+    private final long length;
+
+    private FileRange(File file, boolean gzip, long offset, long skip, boolean first,
+            long length) {
+        this.file = file;
+        this.gzip = gzip;
+        this.offset = offset;
+        this.skip = skip;
+        this.first = first;
+        this.length = length;
+    }
+
+    /**
+     * Split a file into ranges of roughly the given size.  For BGZF files the size is measured in
+     * compressed bytes.
+     *
+     * @param file the file to split
+     * @param targetSize the size of range wanted
+     * @return the ranges, in the order of the file
+     * @throws IOException if the file cannot be read or is not valid gzip
+     */
+    public static List<FileRange> split(File file, long targetSize) throws IOException {
+        if (targetSize <= 0) {
+            throw new IllegalArgumentException("targetSize must be positive: " + targetSize);
+        }
+        List<FileRange> ranges = new ArrayList<FileRange>();
+        if (!file.getName().endsWith(".gz")) {
+            long size = file.length();
+            int count = (int) Math.max(1, (size + targetSize - 1) / targetSize);
+            for (int i = 0; i < count; i++) {
+                long start = size * i / count;
+                long end = size * (i + 1) / count;
+                if (i == 0) {
+                    ranges.add(new FileRange(file, false, 0, 0, true, end));
+                } else {
+                    ranges.add(new FileRange(file, false, start - 1, 0, false, end - start));
+                }
+            }
+            return ranges;
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            List<long[]> blocks = readBlocks(raf);
+            if (blocks == null) {
+                ranges.add(new FileRange(file, true, 0, 0, true, Long.MAX_VALUE));
+                return ranges;
+            }
+            // the last block before the current range that decompresses to something
+            long[] previous = null;
+            int i = 0;
+            while (i < blocks.size()) {
+                long rangeStart = blocks.get(i)[0];
+                long uncompressed = 0;
+                long[] last = previous;
+                int j = i;
+                while (j < blocks.size()
+                        && (j == i || blocks.get(j)[0] - rangeStart < targetSize)) {
+                    uncompressed += blocks.get(j)[2];
+                    if (blocks.get(j)[2] > 0) {
+                        last = blocks.get(j);
+                    }
+                    j++;
+                }
+                if (previous == null) {
+                    ranges.add(new FileRange(file, true, rangeStart, 0, true, uncompressed));
+                } else {
+                    ranges.add(new FileRange(file, true, previous[0], previous[2] - 1, false,
+                            uncompressed));
+                }
+                previous = last;
+                i = j;
+            }
+            return ranges;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Read the offset, compressed size and uncompressed size of every BGZF block of a file.
+     *
+     * @return the blocks, or null if the file is gzip but not BGZF
+     */
+    private static List<long[]> readBlocks(RandomAccessFile raf) throws IOException {
+        List<long[]> blocks = new ArrayList<long[]>();
+        long size = raf.length();
+        long blockOffset = 0;
+        byte[] header = new byte[GZIP_HEADER];
+        while (blockOffset < size) {
+            raf.seek(blockOffset);
+            raf.readFully(header);
+            if ((header[0] & 0xff) != 31 || (header[1] & 0xff) != 139) {
+                throw new IOException("Not in gzip format at offset " + blockOffset);
+            }
+            if ((header[3] & FEXTRA) == 0) {
+                return null;
+            }
+            int extraLength = readShort(header, 10);
+            byte[] extra = new byte[extraLength];
+            raf.readFully(extra);
+            int blockSize = -1;
+            int pos = 0;
+            while (pos + 4 <= extraLength) {
+                int subLength = readShort(extra, pos + 2);
+                if (extra[pos] == 'B' && extra[pos + 1] == 'C' && subLength == 2) {
+                    blockSize = readShort(extra, pos + 4) + 1;
+                }
+                pos += 4 + subLength;
+            }
+            if (blockSize < 0) {
+                return null;
+            }
+            byte[] isize = new byte[4];
+            raf.seek(blockOffset + blockSize - 4);
+            raf.readFully(isize);
+            long uncompressed = (readShort(isize, 0) | ((long) readShort(isize, 2) << 16));
+            blocks.add(new long[] {blockOffset, blockSize, uncompressed});
+            blockOffset += blockSize;
+        }
+        return blocks;
+    }
+
+    private static int readShort(byte[] bytes, int pos) {
+        return (bytes[pos] & 0xff) | ((bytes[pos + 1] & 0xff) << 8);
+    }
+
+    /**
+     * Returns the number of uncompressed bytes in this range, not counting the end of the line
+     * read beyond it.
+     *
+     * @return a length in bytes, or Long.MAX_VALUE for a gzip file that cannot be split
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Open a stream of the lines that start in this range.
+     *
+     * @return a new InputStream, which the caller must close
+     * @throws IOException if the file cannot be read
+     */
+    public InputStream open() throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        InputStream in;
+        try {
+            fis.getChannel().position(offset);
+            in = new BufferedInputStream(fis, BUFFER_SIZE);
+            if (gzip) {
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+            }
+            long toSkip = skip;
+            while (toSkip > 0) {
+                long skipped = in.skip(toSkip);
+                if (skipped <= 0) {
+                    throw new IOException("Unexpected end of " + file + " while skipping to a "
+                            + "range");
+                }
+                toSkip -= skipped;
+            }
+        } catch (IOException e) {
+            fis.close();
+            throw e;
+        }
+        return new RangeInputStream(in, first, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return file + "[" + offset + (gzip ? ", gzip" : "") + ", " + length + " bytes]";
+    }
+
+    /**
+     * Passes on the lines that start before a given position.  Unless the stream is at the start
+     * of the file, it is positioned one byte before the range, and everything up to the first
+     * line break is dropped.
+     */
+    private static final class RangeInputStream extends FilterInputStream
+    {
+        private final long length;
+        private boolean started;
+        private boolean done = false;
+        // the position relative to the start of the range
+        private long pos;
+
+        RangeInputStream(InputStream in, boolean first, long length) {
+            super(in);
+            this.length = length;
+            this.started = first;
+            this.pos = first ? 0 : -1;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return (n < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) {
+                return -1;
+            }
+            if (!started) {
+                int c;
+                do {
+                    c = in.read();
+                    pos++;
+                } while (c >= 0 && c != '\n');
+                started = true;
+                if (c < 0 || pos >= length) {
+                    done = true;
+                    return -1;
+                }
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (pos < length) {
+                int n = in.read(b, off, (int) Math.min(len, length - pos));
+                if (n < 0) {
+                    done = true;
+                    return -1;
+                }
+                pos += n;
+                if (pos >= length && b[off + n - 1] == '\n') {
+                    // the next line starts in the next range
+                    done = true;
+                }
+                return n;
+            }
+            // finish the line that crosses the end of the range
+            int n = in.read(b, off, len);
+            if (n < 0) {
+                done = true;
+                return -1;
+            }
+            for (int i = 0; i < n; i++) {
+                if (b[off + i] == '\n') {
+                    done = true;
+                    return i + 1;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            byte[] b = new byte[(int) Math.min(n, BUFFER_SIZE)];
+            long skipped = 0;
+            while (skipped < n) {
+                int r = read(b, 0, (int) Math.min(b.length, n - skipped));
+                if (r < 0) {
+                    break;
+                }
+                skipped += r;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return done ? 0 : in.available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
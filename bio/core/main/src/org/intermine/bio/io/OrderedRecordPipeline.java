@@ -0,0 +1,307 @@
+package org.intermine.bio.io;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An Iterator that reads records on one thread, transforms them on a pool of worker threads and
+ * returns the results in the order the records were read.
+ *
+ * The source is read in a thread of its own and its records are handed to the workers in
+ * batches.  Only a fixed number of batches can be waiting or in progress at once, so a source
+ * that is faster than its consumer is held back rather than filling memory.  The caller iterates
+ * over the results on its own thread, which makes the pipeline suitable for converters that must
+ * create and store items on one thread, in the same order as before.
+ *
+ * An error from the source or from a transformation is thrown by hasNext() or next() once the
+ * results before it have been returned.  The caller should close() the pipeline if it stops
+ * before the end.  Closing stops the threads but does not close whatever the source reads from.
+ *
+ * @param <R> the type of the records read
+ * @param <T> the type of the results
+ * @author chenyian
+ */
+public class OrderedRecordPipeline<R, T> implements Iterator<T>, Closeable
+{
+    private static final int BATCH_SIZE = 500;
+    private static final int QUEUED_BATCHES_PER_WORKER = 4;
+
+    private final BlockingQueue<Future<List<T>>> batches;
+    private final ExecutorService pool;
+    private final Thread thread;
+    private List<T> results = Collections.emptyList();
+    private int index = 0;
+    private boolean finished = false;
+
+    /**
+     * Reads records and hands them to a RecordSink.
+     *
+     * @param <R> the type of the records
+     */
+    public interface RecordSource<R>
+    {
+        /**
+         * Read all the records, passing each to the sink in order.
+         *
+         * @param sink the sink to add the records to
+         * @throws Exception if the records cannot be read, or the sink is interrupted
+         */
+        void read(RecordSink<R> sink) throws Exception;
+    }
+
+    /**
+     * Accepts records from a RecordSource.
+     *
+     * @param <R> the type of the records
+     */
+    public interface RecordSink<R>
+    {
+        /**
+         * Add a record, waiting if too many records are already waiting.
+         *
+         * @param record the record
+         * @throws InterruptedException if the pipeline is closed while waiting
+         */
+        void add(R record) throws InterruptedException;
+    }
+
+    /**
+     * Turns a record into a result.  This is called on several threads at once, so anything
+     * shared between calls must be safe to use that way.
+     *
+     * @param <R> the type of the records
+     * @param <T> the type of the results
+     */
+    public interface RecordTransformer<R, T>
+    {
+        /**
+         * @param record a record read from the source
+         * @return the result for the record, or null to leave the record out
+         * @throws Exception if the record cannot be transformed
+         */
+        T transform(R record) throws Exception;
+    }
+
+    /**
+     * Start reading the source.
+     *
+     * @param name a name for the threads
+     * @param source the source of the records
+     * @param transformer the transformation of each record
+     * @param workers the number of threads to transform records on.  With no workers the records
+     * are transformed on the thread that reads them.
+     */
+    public OrderedRecordPipeline(final String name, final RecordSource<R> source,
+            final RecordTransformer<R, T> transformer, int workers) {
+        batches = new ArrayBlockingQueue<Future<List<T>>>(
+                QUEUED_BATCHES_PER_WORKER * Math.max(1, workers));
+        pool = workers > 0 ? createPool(name, workers) : null;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read(source, transformer);
+            }
+        }, name + " reader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static ExecutorService createPool(final String name, int workers) {
+        return new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger number = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread worker = new Thread(r, name + " " + number.incrementAndGet());
+                        worker.setDaemon(true);
+                        return worker;
+                    }
+                });
+    }
+
+    private void read(RecordSource<R> source, final RecordTransformer<R, T> transformer) {
+        BatchingSink sink = new BatchingSink(transformer);
+        try {
+            try {
+                source.read(sink);
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (final Throwable t) {
+                // The records read before the error are returned first
+                sink.flush();
+                put(new Callable<List<T>>() {
+                    @Override
+                    public List<T> call() throws Exception {
+                        if (t instanceof Exception) {
+                            throw (Exception) t;
+                        }
+                        throw (Error) t;
+                    }
+                }, false);
+            }
+            sink.flush();
+            // A null batch marks the end
+            put(new Callable<List<T>>() {
+                @Override
+                public List<T> call() {
+                    return null;
+                }
+            }, false);
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        }
+    }
+
+    private void put(Callable<List<T>> task, boolean useWorkers) throws InterruptedException {
+        Future<List<T>> future;
+        if (useWorkers && pool != null) {
+            future = pool.submit(task);
+        } else {
+            FutureTask<List<T>> inline = new FutureTask<List<T>>(task);
+            inline.run();
+            future = inline;
+        }
+        batches.put(future);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        while (index == results.size() && !finished) {
+            List<T> batch;
+            try {
+                batch = batches.take().get();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted while waiting for records", e);
+            } catch (ExecutionException e) {
+                finished = true;
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new RuntimeException("Failed to read records", cause);
+            }
+            if (batch == null) {
+                finished = true;
+                results = Collections.emptyList();
+            } else {
+                results = batch;
+            }
+            index = 0;
+        }
+        return index < results.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return results.get(index++);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove not supported");
+    }
+
+    /**
+     * @return the number of batches read but not yet taken by the consumer, for logging
+     */
+    public int getWaitingBatches() {
+        return batches.size();
+    }
+
+    /**
+     * Stop the reading and worker threads.
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Collects records into batches and hands each full batch to the workers.
+     */
+    private class BatchingSink implements RecordSink<R>
+    {
+        private final RecordTransformer<R, T> transformer;
+        private List<R> batch = new ArrayList<R>(BATCH_SIZE);
+
+        BatchingSink(RecordTransformer<R, T> transformer) {
+            this.transformer = transformer;
+        }
+
+        @Override
+        public void add(R record) throws InterruptedException {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            batch.add(record);
+            if (batch.size() == BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() throws InterruptedException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            final List<R> records = batch;
+            batch = new ArrayList<R>(BATCH_SIZE);
+            put(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    List<T> transformed = new ArrayList<T>(records.size());
+                    for (R record : records) {
+                        T result = transformer.transform(record);
+                        if (result != null) {
+                            transformed.add(result);
+                        }
+                    }
+                    return transformed;
+                }
+            }, true);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.intermine.bio.io.gff3;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An Iterator over the records of a GFF3 file that reads and parses the file in a separate
+ * thread, handing records over in batches, so that parsing overlaps with whatever the caller does
+ * with the records.  The records and any errors are the same as from GFF3Parser.parse(), and an
+ * error is thrown by next() once the records before it have been returned.
+ *
+ * The caller should close() the parser if it stops before the end of the input.  Closing stops
+ * the parsing thread but does not close the reader.
+ *
+ * @author chenyian
+ */
+public class BackgroundGFF3Parser implements Iterator<GFF3Record>, Closeable
+{
+    private static final int BATCH_SIZE = 1000;
+    private static final int QUEUED_BATCHES = 8;
+
+    private final BlockingQueue<Batch> batches = new ArrayBlockingQueue<Batch>(QUEUED_BATCHES);
+    private final Thread thread;
+    private List<GFF3Record> records = Collections.emptyList();
+    private int index = 0;
+    private boolean finished = false;
+    private Throwable failure = null;
+
+    /**
+     * Start parsing GFF3 lines from a BufferedReader.  The first record is checked before the
+     * parsing thread starts.
+     * @param reader the Reader to read from
+     * @throws IOException if there is an error reading or parsing up to the first record
+     */
+    public BackgroundGFF3Parser(final BufferedReader reader) throws IOException {
+        final Map<String, String> strings = new HashMap<String, String>();
+        final String firstLine = GFF3Parser.readFirstRecordLine(reader, strings);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                parse(reader, firstLine, strings);
+            }
+        }, "GFF3 parser");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void parse(BufferedReader reader, String firstLine, Map<String, String> strings) {
+        String line = firstLine;
+        List<GFF3Record> batch = new ArrayList<GFF3Record>(BATCH_SIZE);
+        Throwable error = null;
+        try {
+            try {
+                while (GFF3Parser.hasRecord(line)) {
+                    batch.add(new GFF3Record(line, strings));
+                    if (batch.size() == BATCH_SIZE) {
+                        batches.put(new Batch(batch, false, null));
+                        batch = new ArrayList<GFF3Record>(BATCH_SIZE);
+                    }
+                    line = GFF3Parser.readRecordLine(reader);
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Throwable t) {
+                error = t;
+            }
+            batches.put(new Batch(batch, true, error));
+        } catch (InterruptedException e) {
+            // closed by the consumer
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        while (index == records.size() && !finished) {
+            Batch batch;
+            try {
+                batch = batches.take();
+            } catch (InterruptedException e) {
+                throw new RuntimeException("Interrupted while waiting for GFF records", e);
+            }
+            records = batch.records;
+            index = 0;
+            finished = batch.last;
+            failure = batch.failure;
+        }
+        return index < records.size() || failure != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public GFF3Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (index < records.size()) {
+            return records.get(index++);
+        }
+        Throwable t = failure;
+        failure = null;
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        throw new RuntimeException("IOException while getting next GFF record", t);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove not supported");
+    }
+
+    /**
+     * Stop the parsing thread.
+     */
+    @Override
+    public void close() {
+        thread.interrupt();
+    }
+
+    private static class Batch
+    {
+        private final List<GFF3Record> records;
+        private final boolean last;
+        private final Throwable failure;
+
+        Batch(List<GFF3Record> records, boolean last, Throwable failure) {
+            this.records = records;
+            this.last = last;
+            this.failure = failure;
+        }
+    }
+}
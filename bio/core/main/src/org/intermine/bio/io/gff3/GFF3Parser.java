@@ -10,7 +10,9 @@ package org.intermine.bio.io.gff3;
  *
  */
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import java.io.BufferedReader;
@@ -35,28 +37,14 @@ public final class GFF3Parser
      * @throws IOException if there is an error during reading or parsing
      */
     public static Iterator<?> parse(final BufferedReader reader) throws IOException {
-        String line = null;
-
-        while ((line = reader.readLine()) != null) {
-            String trimmedLine = line.trim();
-
-            if (trimmedLine.length() == 0 || trimmedLine.startsWith("#")) {
-                continue;
-            }
-
-            // throws IOException if the first GFF line isn't valid
-            new GFF3Record(trimmedLine);
-
-            break;
-        }
-
-        final String firstGFFLine = line;
+        final Map<String, String> strings = new HashMap<String, String>();
+        final String firstGFFLine = readFirstRecordLine(reader, strings);
 
         return new Iterator<Object>() {
             String currentLine = firstGFFLine;
             @Override
             public boolean hasNext() {
-                return currentLine != null && !currentLine.startsWith(">");
+                return hasRecord(currentLine);
             }
 
             @Override
@@ -66,14 +54,8 @@ public final class GFF3Parser
                 }
                 Object objectToReturn = null;
                 try {
-                    objectToReturn = new GFF3Record(currentLine);
-                    while ((currentLine = reader.readLine()) != null) {
-                        String trimmedLine = currentLine.trim();
-                        if (trimmedLine.length() == 0 || trimmedLine.startsWith("#")) {
-                            continue;
-                        }
-                        break;
-                    }
+                    objectToReturn = new GFF3Record(currentLine, strings);
+                    currentLine = readRecordLine(reader);
                 } catch (IOException e) {
                     throw new RuntimeException("IOException while getting next GFF record", e);
                 }
@@ -86,4 +68,49 @@ public final class GFF3Parser
             }
         };
     }
+
+    /**
+     * Read up to the first GFF3 line, checking that it can be parsed.
+     * @param reader the Reader to read from
+     * @param strings the Strings shared between records
+     * @return the first line, or null if there are no records
+     * @throws IOException if there is an error during reading, or the first line isn't valid
+     */
+    static String readFirstRecordLine(BufferedReader reader, Map<String, String> strings)
+        throws IOException {
+        String line = readRecordLine(reader);
+        if (line != null) {
+            // throws IOException if the first GFF line isn't valid
+            new GFF3Record(line.trim(), strings);
+        }
+        return line;
+    }
+
+    /**
+     * Read the next line that isn't empty or a comment.
+     * @param reader the Reader to read from
+     * @return the line, or null at the end of the input
+     * @throws IOException if there is an error during reading
+     */
+    static String readRecordLine(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String trimmedLine = line.trim();
+            if (trimmedLine.length() == 0 || trimmedLine.startsWith("#")) {
+                continue;
+            }
+            break;
+        }
+        return line;
+    }
+
+    /**
+     * Return true if a line read by readRecordLine() is a GFF3 record, rather than the end of the
+     * input or the start of the FASTA section.
+     * @param line the line
+     * @return true if there is a record
+     */
+    static boolean hasRecord(String line) {
+        return line != null && !line.startsWith(">");
+    }
 }
@@ -19,7 +19,6 @@ import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 
 import org.intermine.metadata.StringUtil;
 import org.intermine.util.XmlUtil;
@@ -34,6 +33,8 @@ import org.apache.commons.lang.StringUtils;
 
 public class GFF3Record
 {
+    private static final int MAX_SHARED_STRINGS = 100000;
+
     private String sequenceID;
     private String source;
     private String type;
@@ -50,19 +51,46 @@ public class GFF3Record
      * @throws IOException if there is an error during parsing the line
      */
     public GFF3Record(String line) throws IOException {
-        StringTokenizer st = new StringTokenizer(line, "\t", false);
+        this(line, null);
+    }
+
+    /**
+     * Create a GFF3Record from a line of a GFF3 file, sharing the Strings of repeated values such
+     * as the sequence, source, type and attribute names with earlier records.
+     * @param line the String to parse
+     * @param strings the Strings seen so far, or null
+     * @throws IOException if there is an error during parsing the line
+     */
+    GFF3Record(String line, Map<String, String> strings) throws IOException {
+        // empty fields are skipped, as StringTokenizer does
+        String[] fields = new String[9];
+        int fieldCount = 0;
+        int pos = 0;
+        int length = line.length();
+        while (pos < length && fieldCount < fields.length) {
+            int tab = line.indexOf('\t', pos);
+            if (tab < 0) {
+                tab = length;
+            }
+            if (tab > pos) {
+                fields[fieldCount++] = line.substring(pos, tab);
+            }
+            pos = tab + 1;
+        }
 
-        if (st.countTokens() < 8) {
-            throw new IOException("GFF line too short (" + st.countTokens() + " fields): " + line);
+        if (fieldCount < 8) {
+            throw new IOException("GFF line too short (" + fieldCount + " fields): " + line);
         }
 
-        sequenceID = XmlUtil.fixEntityNames(URLDecoder.decode(st.nextToken(), "UTF-8")).trim();
-        source = st.nextToken().trim();
+        sequenceID = share(strings, XmlUtil.fixEntityNames(decode(fields[0])).trim());
+        source = fields[1].trim();
         if ("".equals(source) || ".".equals(source)) {
             source = null;
+        } else {
+            source = share(strings, source);
         }
-        type = st.nextToken().trim();
-        String startString = st.nextToken().trim();
+        type = share(strings, fields[2].trim());
+        String startString = fields[3].trim();
         try {
             if (".".equals(startString)) {
                 start = -1;
@@ -74,7 +102,7 @@ public class GFF3Record
                                   + " from line: " + line);
         }
 
-        String endString = st.nextToken().trim();
+        String endString = fields[4].trim();
         try {
             if (".".equals(endString)) {
                 end = -1;
@@ -86,7 +114,7 @@ public class GFF3Record
                                   + " from line: " + line);
         }
 
-        String scoreString = st.nextToken().trim();
+        String scoreString = fields[5].trim();
 
         if ("".equals(scoreString) || ".".equals(scoreString)) {
             score = null;
@@ -99,19 +127,23 @@ public class GFF3Record
             }
         }
 
-        strand = st.nextToken().trim();
+        strand = fields[6].trim();
 
         if ("".equals(strand) || ".".equals(strand)) {
             strand = null;
+        } else {
+            strand = share(strings, strand);
         }
 
-        phase = st.nextToken().trim();
+        phase = fields[7].trim();
         if ("".equals(phase) || ".".equals(phase)) {
             phase = null;
+        } else {
+            phase = share(strings, phase);
         }
 
-        if (st.hasMoreTokens()) {
-            parseAttribute(st.nextToken(), line);
+        if (fields[8] != null) {
+            parseAttribute(fields[8], line, strings);
         }
     }
 
@@ -145,54 +177,63 @@ public class GFF3Record
         this.attributes = attributes;
     }
 
-    private void parseAttribute(String argAttributeString, String line) throws IOException {
+    private void parseAttribute(String argAttributeString, String line,
+            Map<String, String> strings) throws IOException {
         String attributeString = argAttributeString;
-        attributeString = StringUtils.replaceEach(attributeString,
-                new String[] {"&amp;", "&quot;", "&lt;", "&gt;"},
-                new String[] {"&", "\"", "<", ">"});
-        StringTokenizer sTok = new StringTokenizer(attributeString, ";", false);
-
-        while (sTok.hasMoreTokens()) {
-            String attVal = sTok.nextToken().trim();
+        if (attributeString.indexOf('&') >= 0) {
+            attributeString = StringUtils.replaceEach(attributeString,
+                    new String[] {"&amp;", "&quot;", "&lt;", "&gt;"},
+                    new String[] {"&", "\"", "<", ">"});
+        }
+        int pos = 0;
+        int length = attributeString.length();
+        while (pos < length) {
+            int semicolon = attributeString.indexOf(';', pos);
+            if (semicolon < 0) {
+                semicolon = length;
+            }
+            String attVal = attributeString.substring(pos, semicolon).trim();
+            pos = semicolon + 1;
 
             if (attVal.length() == 0) {
                 continue;
             }
 
             String attName;
-            List<String> valList = new ArrayList<String>();
+            List<String> valList = new ArrayList<String>(4);
             int spaceIndx = attVal.indexOf("=");
             if (spaceIndx == -1) {
                 throw new IOException("the attributes section must contain name=value pairs, "
                                       + "while parsing: " + line);
             }
-            attName = attVal.substring(0, spaceIndx);
-            attributeString = attVal.substring(spaceIndx + 1).trim();
-
-            if (!"\"\"".equals(attributeString)) {
-                while (attributeString.length() > 0) {
-                    if (attributeString.startsWith("\"")) {
-                        attributeString = attributeString.substring(1);
-                        int quoteIndx = attributeString.indexOf("\"");
-                        if (quoteIndx > 0) {
-                            valList.add(attributeString.substring(0, quoteIndx));
-                            attributeString = attributeString.substring(quoteIndx + 1).trim();
-                            if (attributeString.startsWith(",")) {
-                                attributeString = attributeString.substring(1).trim();
+            attName = share(strings, attVal.substring(0, spaceIndx));
+            String values = attVal.substring(spaceIndx + 1).trim();
+
+            if (!"\"\"".equals(values)) {
+                int valPos = 0;
+                int valLength = values.length();
+                while (valPos < valLength) {
+                    if (values.charAt(valPos) == '"') {
+                        int quoteIndx = values.indexOf('"', valPos + 1);
+                        if (quoteIndx > valPos + 1) {
+                            valList.add(values.substring(valPos + 1, quoteIndx));
+                            valPos = skipSpaces(values, quoteIndx + 1);
+                            if (valPos < valLength && values.charAt(valPos) == ',') {
+                                valPos = skipSpaces(values, valPos + 1);
                             }
                         } else {
                             throw new IOException("unmatched quote in this line: " + line
                                                   + " (reading attribute: " + attName + ", "
-                                                  + attributeString + ")");
+                                                  + values.substring(valPos + 1) + ")");
                         }
                     } else {
-                        int commaIndx = attributeString.indexOf(",");
+                        int commaIndx = values.indexOf(',', valPos);
                         if (commaIndx == -1) {
-                            valList.add(attributeString);
-                            attributeString = "";
+                            valList.add(values.substring(valPos));
+                            valPos = valLength;
                         } else {
-                            valList.add(attributeString.substring(0, commaIndx));
-                            attributeString = attributeString.substring(commaIndx + 1).trim();
+                            valList.add(values.substring(valPos, commaIndx));
+                            valPos = skipSpaces(values, commaIndx + 1);
                         }
                     }
                 }
@@ -201,7 +242,7 @@ public class GFF3Record
             for (int i = 0; i < valList.size(); i++) {
                 String value = valList.get(i);
                 if (!"Target".equals(attName) && !"Gap".equals(attName)) {
-                    value = URLDecoder.decode(value, "UTF-8");
+                    value = decode(value);
                 }
                 value = XmlUtil.fixEntityNames(value);
                 valList.set(i, value);
@@ -210,6 +251,44 @@ public class GFF3Record
         }
     }
 
+    /**
+     * URL decode a value.  Values without escapes are returned as they are, which is what
+     * URLDecoder would do, only without copying them.
+     */
+    private static String decode(String value) throws UnsupportedEncodingException {
+        if (value.indexOf('%') < 0 && value.indexOf('+') < 0) {
+            return value;
+        }
+        return URLDecoder.decode(value, "UTF-8");
+    }
+
+    private static int skipSpaces(String s, int from) {
+        int pos = from;
+        // the same characters as String.trim()
+        while (pos < s.length() && s.charAt(pos) <= ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Return the String equal to value that was seen first, so that repeated values share one
+     * String.  Once many Strings have been seen, new values are no longer remembered.
+     */
+    private static String share(Map<String, String> strings, String value) {
+        if (strings == null) {
+            return value;
+        }
+        String shared = strings.get(value);
+        if (shared == null) {
+            shared = value;
+            if (strings.size() < MAX_SHARED_STRINGS) {
+                strings.put(value, value);
+            }
+        }
+        return shared;
+    }
+
     /**
      * Return the sequenceID field of this record.
      * @return the sequenceID field of this record
@@ -0,0 +1,70 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class IdRangeMapTest extends TestCase
+{
+    public IdRangeMapTest(String name) {
+        super(name);
+    }
+
+    public void testPutGet() throws Exception {
+        IdRangeMap<String> map = new IdRangeMap<String>(10000, 20000);
+        assertEquals(0, map.size());
+        map.put(10001, "first");
+        map.put(20000, "last");
+        map.put(15000, "middle");
+        assertEquals(3, map.size());
+        assertEquals("first", map.get(10001));
+        assertEquals("middle", map.get(15000));
+        assertEquals("last", map.get(20000));
+        assertNull(map.get(15001));
+
+        map.put(15000, null);
+        assertEquals(2, map.size());
+        assertNull(map.get(15000));
+    }
+
+    public void testOutOfRange() throws Exception {
+        IdRangeMap<String> map = new IdRangeMap<String>(10000, 20000);
+        try {
+            map.put(10000, "lower bound is exclusive");
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        try {
+            map.get(20001);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+
+    public void testNext() throws Exception {
+        IdRangeMap<String> map = new IdRangeMap<String>(0, 100);
+        assertEquals(-1, map.next(map.getFrom()));
+        map.put(100, "c");
+        map.put(7, "b");
+        map.put(1, "a");
+        List<Long> ids = new ArrayList<Long>();
+        for (long id = map.next(map.getFrom()); id != -1; id = map.next(id)) {
+            ids.add(Long.valueOf(id));
+        }
+        assertEquals(Arrays.asList(Long.valueOf(1), Long.valueOf(7), Long.valueOf(100)), ids);
+    }
+}
@@ -0,0 +1,142 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.intermine.sql.Database;
+
+public class IdRangeReaderTest extends TestCase
+{
+    // the queries never use their connection
+    private static final Database DATABASE = new Database() {
+        @Override
+        public Connection getConnection() {
+            return null;
+        }
+    };
+
+    private List<String> read;
+    private List<String> handled;
+
+    public IdRangeReaderTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public void setUp() {
+        read = Collections.synchronizedList(new ArrayList<String>());
+        handled = new ArrayList<String>();
+    }
+
+    public void testRanges() throws Exception {
+        new IdRangeReader<String>(DATABASE, 1, 10).run(100, 125, new Query(0), new Handler());
+        List<String> expected = Arrays.asList("100-110", "110-120", "120-130");
+        assertEquals(expected, read);
+        assertEquals(expected, handled);
+    }
+
+    public void testRangesInOrder() throws Exception {
+        // later ranges are read more quickly, but are still handled in order
+        new IdRangeReader<String>(DATABASE, 4, 1).run(0, 20, new Query(20), new Handler());
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            expected.add(i + "-" + (i + 1));
+        }
+        assertEquals(expected, handled);
+        assertEquals(20, read.size());
+        Collections.sort(read, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return Integer.valueOf(a.substring(0, a.indexOf('-')))
+                    .compareTo(Integer.valueOf(b.substring(0, b.indexOf('-'))));
+            }
+        });
+        assertEquals(expected, read);
+    }
+
+    public void testEmpty() throws Exception {
+        new IdRangeReader<String>(DATABASE, 2, 10).run(50, 50, new Query(0), new Handler());
+        new IdRangeReader<String>(DATABASE, 2, 10).run(50, 10, new Query(0), new Handler());
+        assertEquals(Collections.emptyList(), read);
+        assertEquals(Collections.emptyList(), handled);
+    }
+
+    public void testSingleId() throws Exception {
+        new IdRangeReader<String>(DATABASE, 3, 1).run(41, 42, new Query(0), new Handler());
+        new IdRangeReader<String>(DATABASE, 3, 1000).run(41, 42, new Query(0), new Handler());
+        List<String> expected = Arrays.asList("41-42", "41-1041");
+        assertEquals(expected, read);
+        assertEquals(expected, handled);
+    }
+
+    public void testQueryFailure() throws Exception {
+        IdRangeReader.RangeQuery<String> failing = new IdRangeReader.RangeQuery<String>() {
+            @Override
+            public String read(Connection connection, long from, long to) throws SQLException {
+                if (from == 20) {
+                    throw new SQLException("range " + from);
+                }
+                return from + "-" + to;
+            }
+        };
+        try {
+            new IdRangeReader<String>(DATABASE, 2, 10).run(0, 50, failing, new Handler());
+            fail("Expected SQLException");
+        } catch (SQLException e) {
+            assertEquals("range 20", e.getMessage());
+        }
+        assertEquals(Arrays.asList("0-10", "10-20"), handled);
+    }
+
+    /**
+     * Records the ranges read, waiting longer for the earlier ones.
+     */
+    private class Query implements IdRangeReader.RangeQuery<String>
+    {
+        private final long slowest;
+
+        Query(long slowest) {
+            this.slowest = slowest;
+        }
+
+        @Override
+        public String read(Connection connection, long from, long to) {
+            if (from < slowest) {
+                try {
+                    Thread.sleep(slowest - from);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            String range = from + "-" + to;
+            read.add(range);
+            return range;
+        }
+    }
+
+    private class Handler implements IdRangeReader.RangeHandler<String>
+    {
+        @Override
+        public void handle(long from, long to, String data) {
+            assertEquals(from + "-" + to, data);
+            handled.add(data);
+        }
+    }
+}
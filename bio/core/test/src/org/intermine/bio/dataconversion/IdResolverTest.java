@@ -3,6 +3,7 @@ package org.intermine.bio.dataconversion;
 import java.io.File;
 import java.io.IOException;
 import java.sql.Date;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -224,4 +225,51 @@ public class IdResolverTest extends TestCase
         assertEquals(resolver.orgMainMaps, readFromFile.orgMainMaps);
         assertEquals(resolver.orgSynMaps, readFromFile.orgSynMaps);
     }
+
+    public void testSnapshotRoundTrip() throws Exception {
+        File f = getResolverCache();
+        resolver.writeToFile(f);
+        File snapshotFile = new File(f.getPath() + IdResolverSnapshot.SUFFIX);
+        snapshotFile.deleteOnExit();
+
+        IdResolver fromFile = new IdResolver();
+        fromFile.populateFromFile(f);
+        IdResolver fromSnapshot = new IdResolver();
+        fromSnapshot.populateFromSnapshot(f);
+        assertTrue(snapshotFile.exists());
+        assertTrue(fromSnapshot.orgIdMaps.isEmpty());
+
+        assertEquals(fromFile.getTaxonsAndClassNames(), fromSnapshot.getTaxonsAndClassNames());
+        String[] ids = new String[] {primaryId1, primaryId2, primaryId3, mainId1, mainId2, mainId3,
+            mainId4, synonym1, synonym2, synonym3, synonym4, "unknown"};
+        for (MultiKey key : fromFile.orgIdMaps.keySet()) {
+            String taxonId = (String) key.getKey(0);
+            String className = (String) key.getKey(1);
+            for (String id : ids) {
+                assertEquals(fromFile.isPrimaryIdentifier(taxonId, className, id),
+                        fromSnapshot.isPrimaryIdentifier(taxonId, className, id));
+                assertEquals(new ArrayList<String>(fromFile.resolveId(taxonId, className, id)),
+                        new ArrayList<String>(fromSnapshot.resolveId(taxonId, className, id)));
+                assertEquals(fromFile.countResolutions(taxonId, className, id),
+                        fromSnapshot.countResolutions(taxonId, className, id));
+                assertEquals(fromFile.getSynonyms(taxonId, className, id),
+                        fromSnapshot.getSynonyms(taxonId, className, id));
+            }
+        }
+
+        // entries added after reading the snapshot are looked up alongside it
+        fromSnapshot.addSynonyms(taxId1, clsName1, primaryId3, SynonymSet2);
+        assertEquals(new LinkedHashSet<String>(Arrays.asList(primaryId2, primaryId3)),
+                fromSnapshot.resolveId(taxId1, clsName1, synonym3));
+        assertTrue(fromSnapshot.isPrimaryIdentifier(taxId1, clsName1, primaryId1));
+
+        // a changed cache file is snapshotted again
+        fromFile.addSynonyms(taxId2, clsName1, primaryId2, SynonymSet1);
+        assertTrue(f.delete());
+        fromFile.writeToFile(f);
+        IdResolver updated = new IdResolver();
+        updated.populateFromSnapshot(f);
+        assertEquals(Collections.singleton(primaryId2),
+                updated.resolveId(taxId2, clsName1, synonym1));
+    }
 }
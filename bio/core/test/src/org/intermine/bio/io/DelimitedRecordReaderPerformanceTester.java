@@ -0,0 +1,143 @@
+package org.intermine.bio.io;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.Iterator;
+
+import org.intermine.util.FormattedTextParser;
+
+/**
+ * Simple comparison of the time taken to read a tab delimited file with String.split(),
+ * FormattedTextParser and DelimitedRecordReader.  Run with the path of a file to read, or with
+ * no arguments to generate a file of a million GWAS-like rows.  Each reader is run a few times
+ * so that later runs are measured with a warm JIT and page cache.
+ *
+ * @author chenyian
+ */
+public final class DelimitedRecordReaderPerformanceTester
+{
+    private static final int RUNS = 5;
+
+    private DelimitedRecordReaderPerformanceTester() {
+        // don't
+    }
+
+    public static void main(String[] args) throws IOException {
+        File file;
+        if (args.length > 0) {
+            file = new File(args[0]);
+        } else {
+            file = File.createTempFile("delimited", ".tsv");
+            file.deleteOnExit();
+            writeTestFile(file, 1000000);
+        }
+        System.out.println("Reading " + file + " (" + file.length() + " bytes)");
+        for (int run = 0; run < RUNS; run++) {
+            report("String.split", readWithSplit(file));
+            report("FormattedTextParser", readWithFormattedTextParser(file));
+            report("DelimitedRecordReader", readWithDelimitedRecordReader(file));
+            report("DelimitedRecordReader (mapped)", readMapped(file));
+        }
+    }
+
+    private static void report(String name, long[] result) {
+        System.out.println(name + ": " + result[1] + " fields in " + result[0] + "ms ("
+                + new DecimalFormat("#0.000").format(result[0] * 1000.0 / result[1])
+                + "ms per thousand fields)");
+    }
+
+    private static long[] readWithSplit(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        long fields = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] cols = line.split("\t");
+                for (String col : cols) {
+                    fields += col.length() > 0 ? 1 : 0;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new long[] {System.currentTimeMillis() - start, fields};
+    }
+
+    private static long[] readWithFormattedTextParser(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        long fields = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            Iterator<String[]> iter = FormattedTextParser.parseTabDelimitedReader(reader);
+            while (iter.hasNext()) {
+                for (String col : iter.next()) {
+                    fields += col.length() > 0 ? 1 : 0;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new long[] {System.currentTimeMillis() - start, fields};
+    }
+
+    private static long[] readWithDelimitedRecordReader(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        DelimitedRecordReader records =
+            new DelimitedRecordReader(new BufferedReader(new FileReader(file)), '\t');
+        long fields = countFields(records);
+        return new long[] {System.currentTimeMillis() - start, fields};
+    }
+
+    private static long[] readMapped(File file) throws IOException {
+        long start = System.currentTimeMillis();
+        long fields = countFields(DelimitedRecordReader.open(file, '\t'));
+        return new long[] {System.currentTimeMillis() - start, fields};
+    }
+
+    private static long countFields(DelimitedRecordReader records) throws IOException {
+        long fields = 0;
+        try {
+            while (records.next()) {
+                for (int i = 0; i < records.getFieldCount(); i++) {
+                    fields += records.isEmpty(i) ? 0 : 1;
+                }
+            }
+        } finally {
+            records.close();
+        }
+        return fields;
+    }
+
+    private static void writeTestFile(File file, int rows) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        try {
+            for (int i = 0; i < rows; i++) {
+                writer.write("2012/01/" + (i % 28 + 1) + "\t" + (20000000 + i)
+                        + "\tJournal of Genetics\tGenome-wide association study of trait " + i
+                        + "\tEuropean ancestry\t" + (i % 22 + 1) + "q" + (i % 30) + "\t"
+                        + (i % 22 + 1) + "\t" + (1000000 + i * 17) + "\tGENE" + (i % 5000)
+                        + "\t" + (i % 100000) + "\trs" + i + "-A\trs" + i + "\t"
+                        + (i % 2 == 0 ? "intergenic" : "") + "\t0." + (i % 100) + "\t"
+                        + (i % 9 + 1) + "E-" + (i % 20 + 5) + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.intermine.bio.io;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+import org.intermine.util.FormattedTextParser;
+
+public class DelimitedRecordReaderTest extends TestCase
+{
+    public DelimitedRecordReaderTest(String name) {
+        super(name);
+    }
+
+    public void testTabDelimited() throws Exception {
+        String input = "# comment\na\tb\tc\n\n1\t\t3\r\nlast\tline";
+        List<List<String>> expected = new ArrayList<List<String>>();
+        expected.add(Arrays.asList("a", "b", "c"));
+        expected.add(Arrays.asList(""));
+        expected.add(Arrays.asList("1", "", "3"));
+        expected.add(Arrays.asList("last", "line"));
+        assertEquals(expected, readAll(new DelimitedRecordReader(new StringReader(input), '\t')));
+    }
+
+    public void testSameAsFormattedTextParser() throws Exception {
+        String input = "x\ty\t\n#skip\tme\n\tlead\n\"not\"\tquoted\n";
+        List<List<String>> expected = new ArrayList<List<String>>();
+        Iterator<String[]> iter =
+            FormattedTextParser.parseTabDelimitedReader(new StringReader(input));
+        while (iter.hasNext()) {
+            expected.add(Arrays.asList(iter.next()));
+        }
+        assertEquals(expected, readAll(new DelimitedRecordReader(new StringReader(input), '\t')));
+    }
+
+    public void testQuoted() throws Exception {
+        String input = "\"a,b\",\"say \"\"hi\"\"\",plain\n\"multi\nline\",2\n";
+        List<List<String>> expected = new ArrayList<List<String>>();
+        expected.add(Arrays.asList("a,b", "say \"hi\"", "plain"));
+        expected.add(Arrays.asList("multi\nline", "2"));
+        DelimitedRecordReader records =
+            new DelimitedRecordReader(new StringReader(input), ',', '"');
+        assertEquals(expected, readAll(records));
+        assertEquals(3, records.getLineNumber());
+    }
+
+    public void testSmallReads() throws Exception {
+        // records and doubled quotes split across many reads, and a record longer than the buffer
+        StringBuilder longField = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            longField.append((char) ('a' + i % 26));
+        }
+        String input = "\"q\"\"q\",x\n" + longField + ",y\n";
+        List<List<String>> expected = new ArrayList<List<String>>();
+        expected.add(Arrays.asList("q\"q", "x"));
+        expected.add(Arrays.asList(longField.toString(), "y"));
+        assertEquals(expected, readAll(new DelimitedRecordReader(
+                new OneCharReader(new StringReader(input)), ',', '"')));
+    }
+
+    public void testFieldAccess() throws Exception {
+        DelimitedRecordReader records =
+            new DelimitedRecordReader(new StringReader("42\tGO:1|GO:2||GO:3\t\t-7\n"), '\t');
+        assertTrue(records.next());
+        assertEquals(4, records.getFieldCount());
+        assertEquals(42, records.getInt(0));
+        assertEquals(-7, records.getInt(3));
+        assertTrue(records.isEmpty(2));
+        assertNull(records.getStringOrNull(2));
+        assertNull(records.getStringOrNull(10));
+        assertTrue(records.fieldEquals(0, "42"));
+        assertFalse(records.fieldEquals(0, "4"));
+        assertTrue(records.getField(1).startsWith("GO:"));
+
+        DelimitedRecordReader.SubFields subFields = records.split(1, '|');
+        assertEquals(4, subFields.size());
+        assertEquals("GO:1", subFields.getString(0));
+        assertEquals("", subFields.getString(2));
+        assertEquals("GO:3", subFields.get(3).toString());
+        assertEquals(0, records.split(2, '|').size());
+        assertEquals(4, records.split(1, '|', true).size());
+
+        try {
+            records.getField(4);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        assertFalse(records.next());
+    }
+
+    public void testTrailingSeparators() throws Exception {
+        String[] values = new String[] {"D001,D002,", ",D001", "D001,,", ",,", "D001"};
+        StringBuilder data = new StringBuilder();
+        for (String value : values) {
+            data.append("1\t").append(value).append('\n');
+        }
+        DelimitedRecordReader records =
+            new DelimitedRecordReader(new StringReader(data.toString()), '\t');
+        for (String value : values) {
+            assertTrue(records.next());
+            String[] expected = value.split(",");
+            DelimitedRecordReader.SubFields subFields = records.split(1, ',', true);
+            assertEquals(value, expected.length, subFields.size());
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(value, expected[i], subFields.getString(i));
+            }
+        }
+        assertFalse(records.next());
+
+        records = new DelimitedRecordReader(new StringReader("1\tD001,D002,\n"), '\t');
+        assertTrue(records.next());
+        assertEquals(3, records.split(1, ',').size());
+        assertEquals(2, records.split(1, ',', true).size());
+    }
+
+    public void testOpenFiles() throws Exception {
+        String input = "a\tb\né\t中\n";
+        List<List<String>> expected = new ArrayList<List<String>>();
+        expected.add(Arrays.asList("a", "b"));
+        expected.add(Arrays.asList("é", "中"));
+
+        File plain = File.createTempFile("delimited", ".tsv");
+        File gzipped = File.createTempFile("delimited", ".tsv.gz");
+        try {
+            write(new FileOutputStream(plain), input);
+            write(new GZIPOutputStream(new FileOutputStream(gzipped)), input);
+            assertEquals(expected, readAll(DelimitedRecordReader.open(plain, '\t')));
+            assertEquals(expected, readAll(DelimitedRecordReader.open(gzipped, '\t')));
+        } finally {
+            plain.delete();
+            gzipped.delete();
+        }
+    }
+
+    private static void write(OutputStream out, String s) throws IOException {
+        try {
+            out.write(s.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<List<String>> readAll(DelimitedRecordReader records) throws IOException {
+        List<List<String>> ret = new ArrayList<List<String>>();
+        try {
+            while (records.next()) {
+                ret.add(Arrays.asList(records.toArray()));
+            }
+        } finally {
+            records.close();
+        }
+        return ret;
+    }
+
+    private static class OneCharReader extends Reader
+    {
+        private final Reader reader;
+
+        OneCharReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            return reader.read(cbuf, off, Math.min(len, 1));
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package org.intermine.bio.io;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+public class FastaReaderTest extends TestCase
+{
+    public FastaReaderTest(String name) {
+        super(name);
+    }
+
+    public void testRecords() throws Exception {
+        String input = "\n;comment\n>seq1 first sequence\nACGT\nAC GT\r\n\n"
+            + ">seq2\n;inner comment\nMK\n>empty\n>last one\nNNN";
+        FastaReader reader = new FastaReader(new StringReader(input));
+        List<String> expected = Arrays.asList("seq1| first sequence|ACGTACGT", "seq2||MK",
+                "empty||", "last| one|NNN");
+        assertEquals(expected, readAll(reader, 1000));
+    }
+
+    public void testPages() throws Exception {
+        StringBuilder residues = new StringBuilder();
+        StringBuilder input = new StringBuilder(">chr1 long\n");
+        for (int i = 0; i < 1000; i++) {
+            String line = "ACGTN".substring(i % 5) + "TTGCA".substring(0, i % 5);
+            residues.append(line);
+            input.append(line).append('\n');
+        }
+        FastaReader reader = new FastaReader(new StringReader(input.toString()));
+        assertTrue(reader.next());
+        char[] page = new char[7];
+        StringBuilder read = new StringBuilder();
+        int n;
+        while ((n = reader.read(page)) > 0) {
+            if (read.length() + n < residues.length()) {
+                assertEquals(page.length, n);
+            }
+            read.append(page, 0, n);
+        }
+        assertEquals(residues.toString(), read.toString());
+        assertFalse(reader.next());
+    }
+
+    public void testSkipUnreadResidues() throws Exception {
+        String input = ">a\nAAAA\nAAAA\n>b\nCC\n";
+        FastaReader reader = new FastaReader(new StringReader(input));
+        assertTrue(reader.next());
+        assertEquals(3, reader.read(new char[3]));
+        assertTrue(reader.next());
+        assertEquals("b", reader.getName());
+        char[] buf = new char[10];
+        assertEquals(2, reader.read(buf));
+        assertEquals(-1, reader.read(buf));
+        assertFalse(reader.next());
+    }
+
+    public void testNotFasta() throws Exception {
+        FastaReader reader = new FastaReader(new StringReader("ACGT\n>a\nA\n"));
+        try {
+            reader.next();
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    public void testGzip() throws Exception {
+        File f = File.createTempFile("fasta-reader-test", ".fa.gz");
+        f.deleteOnExit();
+        OutputStream out = new GZIPOutputStream(new FileOutputStream(f));
+        out.write(">x desc\nMKV\nLL\n".getBytes("UTF-8"));
+        out.close();
+        FastaReader reader = FastaReader.open(f);
+        assertEquals(Arrays.asList("x| desc|MKVLL"), readAll(reader, 2));
+        reader.close();
+    }
+
+    private static List<String> readAll(FastaReader reader, int pageSize) throws IOException {
+        List<String> records = new ArrayList<String>();
+        char[] page = new char[pageSize];
+        while (reader.next()) {
+            StringBuilder sb = new StringBuilder();
+            int n;
+            while ((n = reader.read(page)) > 0) {
+                sb.append(page, 0, n);
+            }
+            records.add(reader.getName() + "|" + reader.getDescription() + "|" + sb);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,151 @@
+package org.intermine.bio.io;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+public class FileRangeTest extends TestCase
+{
+    private File file;
+
+    public FileRangeTest(String name) {
+        super(name);
+    }
+
+    @Override
+    public void tearDown() {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    public void testPlainFile() throws Exception {
+        byte[] content = lines(500);
+        file = File.createTempFile("file-range-test", ".vcf");
+        write(new FileOutputStream(file), content);
+        for (long target : new long[] {1, 7, 100, 1000, content.length, content.length * 2L}) {
+            List<FileRange> ranges = FileRange.split(file, target);
+            assertEquals(new String(content, "UTF-8"), readAll(ranges));
+        }
+        assertEquals(1, FileRange.split(file, content.length).size());
+    }
+
+    public void testNoFinalLineBreak() throws Exception {
+        byte[] content = "a\tb\nc\td\ne\tf".getBytes("UTF-8");
+        file = File.createTempFile("file-range-test", ".vcf");
+        write(new FileOutputStream(file), content);
+        for (long target = 1; target <= content.length; target++) {
+            assertEquals("a\tb\nc\td\ne\tf", readAll(FileRange.split(file, target)));
+        }
+    }
+
+    public void testBgzfFile() throws Exception {
+        byte[] content = lines(2000);
+        file = File.createTempFile("file-range-test", ".vcf.gz");
+        OutputStream out = new FileOutputStream(file);
+        // blocks of varying sizes, some ending exactly at a line break
+        int pos = 0;
+        int size = 1;
+        while (pos < content.length) {
+            int end = Math.min(content.length, pos + size);
+            while (end < content.length && content[end - 1] != '\n' && size % 3 == 0) {
+                end++;
+            }
+            out.write(bgzfBlock(content, pos, end - pos));
+            pos = end;
+            size = size * 7 % 997 + 1;
+        }
+        // an empty block marks the end of the file
+        out.write(bgzfBlock(content, 0, 0));
+        out.close();
+        for (long target : new long[] {1, 50, 1000, 100000}) {
+            List<FileRange> ranges = FileRange.split(file, target);
+            assertEquals(new String(content, "UTF-8"), readAll(ranges));
+        }
+        assertTrue(FileRange.split(file, 50).size() > 10);
+    }
+
+    public void testPlainGzipFile() throws Exception {
+        byte[] content = lines(100);
+        file = File.createTempFile("file-range-test", ".vcf.gz");
+        write(new GZIPOutputStream(new FileOutputStream(file)), content);
+        List<FileRange> ranges = FileRange.split(file, 10);
+        assertEquals(1, ranges.size());
+        assertEquals(new String(content, "UTF-8"), readAll(ranges));
+    }
+
+    private static byte[] lines(int count) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("chr").append(i % 23).append('\t').append(i * 37).append('\t');
+            for (int j = 0; j < i % 13; j++) {
+                sb.append("ACGT".charAt(j % 4));
+            }
+            sb.append('\n');
+        }
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    private static void write(OutputStream out, byte[] content) throws IOException {
+        out.write(content);
+        out.close();
+    }
+
+    private static String readAll(List<FileRange> ranges) throws IOException {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        byte[] buf = new byte[5];
+        for (FileRange range : ranges) {
+            InputStream in = range.open();
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                all.write(buf, 0, n);
+            }
+            in.close();
+        }
+        return new String(all.toByteArray(), "UTF-8");
+    }
+
+    private static byte[] bgzfBlock(byte[] content, int off, int len) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content, off, len);
+        deflater.finish();
+        byte[] compressed = new byte[len + 1024];
+        int clen = deflater.deflate(compressed);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(content, off, len);
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        int blockSize = 18 + clen + 8;
+        block.write(new byte[] {31, (byte) 139, 8, 4, 0, 0, 0, 0, 0, (byte) 255, 6, 0, 'B', 'C',
+            2, 0, (byte) (blockSize - 1), (byte) ((blockSize - 1) >> 8)});
+        block.write(compressed, 0, clen);
+        writeInt(block, crc.getValue());
+        writeInt(block, len);
+        return block.toByteArray();
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, long value) {
+        for (int i = 0; i < 4; i++) {
+            out.write((int) (value >> (8 * i)) & 0xff);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.intermine.bio.io;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.intermine.bio.io.OrderedRecordPipeline.RecordSink;
+import org.intermine.bio.io.OrderedRecordPipeline.RecordSource;
+import org.intermine.bio.io.OrderedRecordPipeline.RecordTransformer;
+
+public class OrderedRecordPipelineTest extends TestCase
+{
+    public OrderedRecordPipelineTest(String name) {
+        super(name);
+    }
+
+    /**
+     * Reads the numbers from 0 up to a limit, then throws an error if there is one.
+     */
+    private static class Numbers implements RecordSource<Integer>
+    {
+        private final int count;
+        private final Exception error;
+        private final AtomicInteger read = new AtomicInteger();
+
+        Numbers(int count, Exception error) {
+            this.count = count;
+            this.error = error;
+        }
+
+        @Override
+        public void read(RecordSink<Integer> sink) throws Exception {
+            for (int i = 0; i < count; i++) {
+                sink.add(i);
+                read.incrementAndGet();
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Doubles numbers, leaving out multiples of 7, and taking longer over some than others so
+     * that batches finish out of order.
+     */
+    private static class Doubler implements RecordTransformer<Integer, String>
+    {
+        private final int failAt;
+
+        Doubler(int failAt) {
+            this.failAt = failAt;
+        }
+
+        @Override
+        public String transform(Integer record) throws Exception {
+            if (record.intValue() == failAt) {
+                throw new IllegalStateException("Failed at " + failAt);
+            }
+            if (record.intValue() % 1000 == 3) {
+                Thread.sleep(20);
+            }
+            return record.intValue() % 7 == 0 ? null : String.valueOf(record.intValue() * 2);
+        }
+    }
+
+    private static List<String> expected(int count) {
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            if (i % 7 != 0) {
+                expected.add(String.valueOf(i * 2));
+            }
+        }
+        return expected;
+    }
+
+    private static List<String> readAll(OrderedRecordPipeline<Integer, String> pipeline) {
+        List<String> results = new ArrayList<String>();
+        while (pipeline.hasNext()) {
+            results.add(pipeline.next());
+        }
+        return results;
+    }
+
+    public void testOrder() throws Exception {
+        for (int workers : new int[] {0, 1, 4}) {
+            OrderedRecordPipeline<Integer, String> pipeline
+                = new OrderedRecordPipeline<Integer, String>("test", new Numbers(10000, null),
+                        new Doubler(-1), workers);
+            assertEquals(expected(10000), readAll(pipeline));
+            assertFalse(pipeline.hasNext());
+            pipeline.close();
+        }
+    }
+
+    public void testEmpty() throws Exception {
+        OrderedRecordPipeline<Integer, String> pipeline
+            = new OrderedRecordPipeline<Integer, String>("test", new Numbers(0, null),
+                    new Doubler(-1), 2);
+        assertFalse(pipeline.hasNext());
+        pipeline.close();
+    }
+
+    public void testSourceError() throws Exception {
+        OrderedRecordPipeline<Integer, String> pipeline
+            = new OrderedRecordPipeline<Integer, String>("test",
+                    new Numbers(1234, new IOException("broken")), new Doubler(-1), 3);
+        List<String> results = new ArrayList<String>();
+        try {
+            while (pipeline.hasNext()) {
+                results.add(pipeline.next());
+            }
+            fail("Expected a RuntimeException");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertEquals("broken", e.getCause().getMessage());
+        }
+        // Every record read before the error was returned
+        assertEquals(expected(1234), results);
+        pipeline.close();
+    }
+
+    public void testTransformError() throws Exception {
+        OrderedRecordPipeline<Integer, String> pipeline
+            = new OrderedRecordPipeline<Integer, String>("test", new Numbers(5000, null),
+                    new Doubler(2600), 3);
+        List<String> results = new ArrayList<String>();
+        try {
+            while (pipeline.hasNext()) {
+                results.add(pipeline.next());
+            }
+            fail("Expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            assertEquals("Failed at 2600", e.getMessage());
+        }
+        // The batches before the one that failed were returned
+        assertEquals(expected(2500), results);
+        pipeline.close();
+    }
+
+    public void testBounded() throws Exception {
+        Numbers numbers = new Numbers(1000000, null);
+        OrderedRecordPipeline<Integer, String> pipeline
+            = new OrderedRecordPipeline<Integer, String>("test", numbers, new Doubler(-1), 2);
+        assertEquals("2", pipeline.next());
+        Thread.sleep(200);
+        // Batches of 500, 8 waiting, one being added to and one being read
+        assertTrue("Read " + numbers.read.get(), numbers.read.get() <= 10 * 500);
+        pipeline.close();
+        Thread.sleep(100);
+        int read = numbers.read.get();
+        Thread.sleep(100);
+        assertEquals(read, numbers.read.get());
+    }
+}
@@ -10,6 +10,7 @@ package org.intermine.bio.io.gff3;
  *
  */
 
+import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -158,4 +159,76 @@ public class GFF3ParserTest extends TestCase
         assertEquals(expected, record.getParents());
     }
 
+    public void testDecodingOnlyWhenEscaped() throws Exception {
+        String[] values = new String[] {"plain", "a+b", "caf%C3%A9", "x%2Cy", "a%26agr%3B"};
+        for (String value : values) {
+            String gff = "chr%201\t.\tgene\t1\t2\t.\t+\t.\tID=" + value + ";Gap=" + value + "\n";
+            GFF3Record record = new GFF3Record(gff);
+            assertEquals("chr 1", record.getSequenceID());
+            assertEquals(XmlUtil.fixEntityNames(URLDecoder.decode(value, "UTF-8")), record.getId());
+            assertEquals(XmlUtil.fixEntityNames(value), record.getGap());
+        }
+    }
+
+    public void testQuotedValues() throws Exception {
+        String gff = "4\t.\texon\t1\t2\t.\t-\t.\tName= a , \"b,c\" ,d;;Note=\"\";Alias=\"x\"y";
+        GFF3Record record = new GFF3Record(gff);
+        assertEquals(Arrays.asList("a ", "b,c", "d"), record.getNames());
+        assertEquals(new ArrayList<String>(), record.getAttributes().get("Note"));
+        assertEquals(Arrays.asList("x", "y"), record.getAliases());
+        try {
+            new GFF3Record("4\t.\texon\t1\t2\t.\t-\t.\tName=\"unclosed");
+            fail("expected an IOException");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+    }
+
+    public void testBackgroundParser() throws Exception {
+        List<String> expected = new ArrayList<String>();
+        Iterator iter = GFF3Parser.parse(new BufferedReader(new InputStreamReader(
+                getClass().getClassLoader().getResourceAsStream("gff_test_data.gff3"))));
+        while (iter.hasNext()) {
+            expected.add(((GFF3Record) iter.next()).toGFF3());
+        }
+
+        List<String> actual = new ArrayList<String>();
+        BackgroundGFF3Parser parser = new BackgroundGFF3Parser(new BufferedReader(
+                new InputStreamReader(getClass().getClassLoader().getResourceAsStream(
+                        "gff_test_data.gff3"))));
+        while (parser.hasNext()) {
+            actual.add(parser.next().toGFF3());
+        }
+        parser.close();
+        assertEquals(22, actual.size());
+        assertEquals(expected, actual);
+    }
+
+    public void testBackgroundParserError() throws Exception {
+        StringBuilder gff = new StringBuilder("##gff-version 3\n");
+        for (int i = 0; i < 2500; i++) {
+            gff.append("4\t.\texon\t" + (i + 1) + "\t22528\t.\t-\t.\tID=e" + i + "\n");
+        }
+        gff.append("4\t.\texon\tx\t22528\t.\t-\t.\tID=bad\n");
+        BackgroundGFF3Parser parser =
+            new BackgroundGFF3Parser(new BufferedReader(new StringReader(gff.toString())));
+        int count = 0;
+        try {
+            while (parser.hasNext()) {
+                assertEquals("e" + count, parser.next().getId());
+                count++;
+            }
+            fail("expected an exception");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof java.io.IOException);
+        }
+        assertEquals(2500, count);
+
+        try {
+            new BackgroundGFF3Parser(new BufferedReader(new StringReader("not gff\n")));
+            fail("expected an IOException");
+        } catch (java.io.IOException e) {
+            // expected
+        }
+    }
 }
@@ -10,22 +10,25 @@ package org.intermine.bio.dataconversion;
  *
  */
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.apache.tools.ant.BuildException;
-import org.biojava.bio.BioException;
-import org.biojava.bio.seq.Sequence;
-import org.biojava.bio.seq.SequenceIterator;
-import org.biojava.bio.seq.io.SeqIOTools;
+import org.intermine.bio.io.FastaHeader;
+import org.intermine.bio.io.FastaReader;
 import org.intermine.bio.util.OrganismData;
 import org.intermine.bio.util.OrganismRepository;
 import org.intermine.model.InterMineObject;
@@ -34,14 +37,18 @@ import org.intermine.model.bio.DataSet;
 import org.intermine.model.bio.DataSource;
 import org.intermine.model.bio.Organism;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.objectstore.query.PendingClob;
+import org.intermine.objectstore.query.Clob;
+import org.intermine.objectstore.query.ClobAccess;
 import org.intermine.task.FileDirectDataLoaderTask;
-import org.intermine.metadata.Util;
 
 /**
  * A task that can read a set of FASTA files and create the corresponding Sequence objects in an
  * ObjectStore.
  *
+ * Residues are streamed from the file into the pages of a Clob, so the memory used does not depend
+ * on the length of the sequences.  If more than one thread is configured, the files are read,
+ * checked and checksummed in parallel while the objects are stored by the thread running the task.
+ *
  * @author Kim Rutherford
  * @author Peter Mclaren
  */
@@ -50,6 +57,9 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
 {
     private static final Logger LOG = Logger.getLogger(FastaLoaderTask.class);
 
+    // the number of pages of residues the reading threads may get ahead of the storing thread
+    private static final int QUEUED_PAGES = 64;
+
     private String sequenceType = "dna";
     private String classAttribute = "primaryIdentifier";
     private Organism org;
@@ -72,6 +82,11 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
 
     private Map<String, DataSet> dataSets = new HashMap<String, DataSet>();
 
+    private int threads = 1;
+    private ExecutorService readers = null;
+    private BlockingQueue<Chunk> chunks = null;
+    private int filesReading = 0;
+
     /**
      * Set the Taxon Id of the Organism we are loading.  Can be space delimited list of taxonIds
      * @param fastaTaxonId the taxon id to set.
@@ -93,6 +108,17 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         }
     }
 
+    /**
+     * Set the number of files to read in parallel.  The default is 1, which reads the files one at
+     * a time in the thread running the task.
+     * @param threads the number of threads
+     */
+    public void setThreads(String threads) {
+        if (!StringUtils.isEmpty(threads) && !"${fasta.threads}".equals(threads)) {
+            this.threads = Integer.parseInt(threads);
+        }
+    }
+
     /**
      * Set the suffix to add to identifiers from the FASTA file when creating
      * BioEnitys.
@@ -161,6 +187,7 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         try {
             storeCount++;
             super.process();
+            finishFiles();
             getIntegrationWriter().commitTransaction();
             getIntegrationWriter().beginTransaction();
             getDirectDataLoader().close();
@@ -189,6 +216,7 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
             for (int i = 0; i < files.length; i++) {
                 processFile(files[i]);
             }
+            finishFiles();
         } else {
             // this will call processFile() for each file
             super.execute();
@@ -197,55 +225,203 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
 
 
     /**
-     * Handles each fasta file. Factored out so we can supply files for testing.
+     * Handles each fasta file. Factored out so we can supply files for testing.  If reading in
+     * parallel, the file is handed to a reading thread and is finished by finishFiles().
      *
      * @param file the File to process.
      * @throws BuildException if the is a problem
      */
     @Override
     public void processFile(File file) {
+        System.err .println("reading " + sequenceType + " sequence from: " + file);
+        if (threads > 1) {
+            readInBackground(file);
+            return;
+        }
         try {
-            FileReader fileReader = new FileReader(file);
-            BufferedReader reader = new BufferedReader(fileReader);
+            readFile(file, new ChunkHandler() {
+                public boolean handle(Chunk chunk) throws ObjectStoreException {
+                    return store(chunk);
+                }
+            });
+        } catch (FileNotFoundException e) {
+            throw new BuildException("problem reading file - file not found: " + file, e);
+        } catch (IOException e) {
+            throw new BuildException("sequence not in fasta format or wrong alphabet for: "
+                    + file, e);
+        } catch (ObjectStoreException e) {
+            throw new BuildException("ObjectStore problem while processing: " + file, e);
+        } catch (InterruptedException e) {
+            throw new BuildException("interrupted while processing: " + file, e);
+        }
+    }
 
-            System.err .println("reading " + sequenceType + " sequence from: " + file);
+    /**
+     * Read the records of a file, passing the header, the pages of residues and the end of each
+     * record to a handler.
+     */
+    private void readFile(File file, ChunkHandler handler)
+        throws IOException, ObjectStoreException, InterruptedException {
+        FastaReader reader = FastaReader.open(file);
+        try {
+            char[] page = new char[Clob.CLOB_PAGE_SIZE];
+            boolean found = false;
+            while (reader.next()) {
+                found = true;
+                Record record = new Record(reader.getHeader());
+                if (!handler.handle(new Chunk(record, null))) {
+                    continue;
+                }
+                int n;
+                while ((n = reader.read(page)) > 0) {
+                    handler.handle(new Chunk(record, record.addResidues(page, n)));
+                }
+                handler.handle(new Chunk(record, Chunk.END));
+            }
+            if (!found) {
+                System.err .println("no fasta sequences found in: " + file);
+            }
+        } finally {
+            reader.close();
+        }
+    }
 
-            SequenceIterator iter =
-                    (SequenceIterator) SeqIOTools.fileToBiojava("fasta", sequenceType, reader);
+    /**
+     * Store one chunk of a record.  Must be called by the thread running the task.
+     * @return false if the rest of the record should be skipped
+     */
+    private boolean store(Chunk chunk) throws ObjectStoreException {
+        Record record = chunk.record;
+        if (chunk.residues == null) {
+            // some fasta files are not filtered - they contain sequences from organisms not
+            // specified in project.xml
+            record.organism = getOrganism(record.header);
+            if (record.organism == null) {
+                return false;
+            }
+            record.clob = getIntegrationWriter().createClob();
+        } else if (record.organism == null) {
+            // a skipped record that was read in the background
+            return false;
+        } else if (chunk.residues == Chunk.END) {
+            processSequence(record);
+        } else {
+            getIntegrationWriter().writeClobPage(record.clob, record.pages++, chunk.residues);
+        }
+        return true;
+    }
 
-            if (!iter.hasNext()) {
-                System.err .println("no fasta sequences found - exiting");
-                return;
+    private void readInBackground(final File file) {
+        if (readers == null) {
+            readers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger number = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r) {
+                    // daemons, so that a reader still blocked on the queue can't keep Ant running
+                    Thread thread = new Thread(r, "FastaLoaderTask reader "
+                            + number.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            chunks = new ArrayBlockingQueue<Chunk>(QUEUED_PAGES);
+        }
+        filesReading++;
+        // the field is cleared when reading stops
+        final BlockingQueue<Chunk> queue = chunks;
+        readers.execute(new Runnable() {
+            public void run() {
+                try {
+                    readFile(file, new ChunkHandler() {
+                        public boolean handle(Chunk chunk) throws InterruptedException {
+                            queue.put(chunk);
+                            return true;
+                        }
+                    });
+                    queue.put(new Chunk(file, null));
+                } catch (InterruptedException e) {
+                    // the task has failed and is shutting down
+                } catch (Exception e) {
+                    try {
+                        queue.put(new Chunk(file, e));
+                    } catch (InterruptedException e2) {
+                        // the task has failed and is shutting down
+                    }
+                }
             }
+        });
+        // store whatever has been read so far, so that reading and storing overlap
+        boolean stored = false;
+        try {
+            Chunk chunk;
+            while ((chunk = chunks.poll()) != null) {
+                storeInBackground(chunk);
+            }
+            stored = true;
+        } finally {
+            if (!stored) {
+                stopReading();
+            }
+        }
+    }
 
-            while (iter.hasNext()) {
-                Sequence bioJavaSequence = iter.nextSequence();
-                processSequence(getOrganism(bioJavaSequence), bioJavaSequence);
+    /**
+     * Wait for the files being read in the background and store the rest of their sequences.
+     */
+    private void finishFiles() {
+        if (readers == null) {
+            return;
+        }
+        try {
+            while (filesReading > 0) {
+                storeInBackground(chunks.take());
             }
+        } catch (InterruptedException e) {
+            throw new BuildException("interrupted while storing sequences", e);
+        } finally {
+            stopReading();
+        }
+    }
 
-            reader.close();
-            fileReader.close();
-        } catch (BioException e) {
+    /**
+     * Stop the threads reading files, whether or not they have finished.
+     */
+    private void stopReading() {
+        if (readers != null) {
+            readers.shutdownNow();
+            readers = null;
+            chunks = null;
+            filesReading = 0;
+        }
+    }
+
+    private void storeInBackground(Chunk chunk) {
+        if (chunk.record != null) {
+            try {
+                store(chunk);
+            } catch (ObjectStoreException e) {
+                throw new BuildException("ObjectStore problem while processing: "
+                        + chunk.record.header, e);
+            }
+            return;
+        }
+        filesReading--;
+        if (chunk.failure instanceof FileNotFoundException) {
+            throw new BuildException("problem reading file - file not found: " + chunk.file,
+                    chunk.failure);
+        } else if (chunk.failure != null) {
             throw new BuildException("sequence not in fasta format or wrong alphabet for: "
-                    + file, e);
-        } catch (NoSuchElementException e) {
-            throw new BuildException("no fasta sequences in: " + file, e);
-        } catch (FileNotFoundException e) {
-            throw new BuildException("problem reading file - file not found: " + file, e);
-        } catch (ObjectStoreException e) {
-            throw new BuildException("ObjectStore problem while processing: " + file, e);
-        } catch (IOException e) {
-            throw new BuildException("error while closing FileReader for: " + file, e);
+                    + chunk.file, chunk.failure);
         }
     }
 
     /**
      * Get and store() the Organism object to reference when creating new objects.
-     * @param bioJavaSequence the biojava sequence to be parsed
+     * @param header the header of the fasta record
      * @throws ObjectStoreException if there is a problem
      * @return the new Organism
      */
-    protected Organism getOrganism(Sequence bioJavaSequence) throws ObjectStoreException {
+    protected Organism getOrganism(FastaHeader header) throws ObjectStoreException {
         if (org == null) {
             org = getDirectDataLoader().createObject(Organism.class);
             org.setTaxonId(new Integer(fastaTaxonId));
@@ -255,25 +431,20 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
     }
 
     /**
-     * Create a FlyMine Sequence and an object of type className for the given BioJava Sequence.
-     * @param organism the Organism to reference from new objects
-     * @param bioJavaSequence the Sequence object
+     * Create a FlyMine Sequence and an object of type className for a record whose residues have
+     * been written to its Clob.
+     * @param record the record
      * @throws ObjectStoreException if store() fails
      */
-    private void processSequence(Organism organism, Sequence bioJavaSequence)
-        throws ObjectStoreException {
-        // some fasta files are not filtered - they contain sequences from organisms not
-        // specified in project.xml
-        if (organism == null) {
-            return;
-        }
+    private void processSequence(Record record) throws ObjectStoreException {
+        Organism organism = record.organism;
+        FastaHeader header = record.header;
         org.intermine.model.bio.Sequence flymineSequence = getDirectDataLoader().createObject(
                 org.intermine.model.bio.Sequence.class);
 
-        String sequence = bioJavaSequence.seqString();
-        String md5checksum = Util.getMd5checksum(sequence);
-        flymineSequence.setResidues(new PendingClob(sequence));
-        flymineSequence.setLength(bioJavaSequence.length());
+        String md5checksum = record.getMd5checksum();
+        flymineSequence.setResidues(new ClobAccess(getIntegrationWriter(), record.clob));
+        flymineSequence.setLength(record.length);
         flymineSequence.setMd5checksum(md5checksum);
         Class<? extends InterMineObject> imClass;
         Class<?> c;
@@ -291,7 +462,7 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
         }
         BioEntity imo = (BioEntity) getDirectDataLoader().createObject(imClass);
 
-        String attributeValue = getIdentifier(bioJavaSequence);
+        String attributeValue = getIdentifier(header);
 
         try {
             imo.setFieldValue(classAttribute, attributeValue);
@@ -320,7 +491,7 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
             // Ignore - we don't care if the field doesn't exist.
         }
 
-        extraProcessing(bioJavaSequence, flymineSequence, imo, organism, getDataSet());
+        extraProcessing(header, flymineSequence, imo, organism, getDataSet());
 
         if (StringUtils.isEmpty(dataSetTitle)) {
             throw new RuntimeException("DataSet title (fasta.dataSetTitle) not set");
@@ -361,28 +532,28 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
     /**
      * Do any extra processing needed for this record (extra attributes, objects, references etc.)
      * This method is called before the new objects are stored
-     * @param bioJavaSequence the BioJava Sequence
+     * @param header the header of the fasta record
      * @param flymineSequence the FlyMine Sequence
      * @param bioEntity the object that references the flymineSequence
      * @param organism the Organism object for the new InterMineObject
      * @param dataSet the DataSet object
      * @throws ObjectStoreException if a store() fails during processing
      */
-    protected void  extraProcessing(Sequence bioJavaSequence, org.intermine.model.bio.Sequence
+    protected void  extraProcessing(FastaHeader header, org.intermine.model.bio.Sequence
             flymineSequence, BioEntity bioEntity, Organism organism, DataSet dataSet)
         throws ObjectStoreException {
         // default - no extra processing
     }
 
     /**
-     * For the given BioJava Sequence object, return an identifier to be used when creating
-     * the corresponding BioEntity.
+     * For the given fasta header, return an identifier to be used when creating the
+     * corresponding BioEntity.
      * if | is present the middle bit is returned, eg sp|Q9V8R9-2|41_DROME
-     * @param bioJavaSequence the Sequenece
+     * @param header the header of the fasta record
      * @return an identifier
      */
-    protected String getIdentifier(Sequence bioJavaSequence) {
-        String name = bioJavaSequence.getName() + idSuffix;
+    protected String getIdentifier(FastaHeader header) {
+        String name = header.getName() + idSuffix;
         // description_line=sp|Q9V8R9-2|41_DROME
         if (name.contains("|")) {
             String[] bits = name.split("\\|");
@@ -435,5 +606,106 @@ public class FastaLoaderTask extends FileDirectDataLoaderTask
             taxonIds.put(name, taxonId);
         }
     }
-}
 
+    /**
+     * Receives the chunks of the records read from a file.
+     */
+    private interface ChunkHandler
+    {
+        /**
+         * @param chunk the header, a page of residues or the end of a record
+         * @return false if the rest of the record should be skipped
+         */
+        boolean handle(Chunk chunk) throws ObjectStoreException, InterruptedException;
+    }
+
+    /**
+     * The start of a record (no residues), a page of its residues, or its end.  A chunk with no
+     * record marks the end of a file read in the background, and carries any failure.
+     */
+    private static class Chunk
+    {
+        private static final String END = new String();
+
+        private final Record record;
+        private final String residues;
+        private final File file;
+        private final Exception failure;
+
+        Chunk(Record record, String residues) {
+            this.record = record;
+            this.residues = residues;
+            this.file = null;
+            this.failure = null;
+        }
+
+        Chunk(File file, Exception failure) {
+            this.record = null;
+            this.residues = null;
+            this.file = file;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * A fasta record being loaded.  The residues are checked and checksummed by the thread reading
+     * them; the organism, clob and page count are used only by the thread storing them.
+     */
+    private class Record
+    {
+        private final FastaHeader header;
+        private final MessageDigest md5;
+        private int length = 0;
+        private Organism organism;
+        private Clob clob;
+        private int pages = 0;
+
+        Record(FastaHeader header) {
+            this.header = header;
+            try {
+                md5 = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Check a page of residues and convert it to the case BioJava uses for the sequence type:
+         * lower case for nucleotides and upper case for proteins.
+         */
+        String addResidues(char[] page, int n) throws IOException {
+            boolean protein = "protein".equals(sequenceType);
+            byte[] bytes = new byte[n];
+            for (int i = 0; i < n; i++) {
+                char c = page[i];
+                if (c >= 'a' && c <= 'z') {
+                    if (protein) {
+                        c = (char) (c - 'a' + 'A');
+                    }
+                } else if (c >= 'A' && c <= 'Z') {
+                    if (!protein) {
+                        c = (char) (c - 'A' + 'a');
+                    }
+                } else if (c != '-' && c != '*') {
+                    throw new IOException("illegal residue '" + c + "' in sequence: "
+                            + header.getName());
+                }
+                page[i] = c;
+                bytes[i] = (byte) c;
+            }
+            md5.update(bytes);
+            length += n;
+            return new String(page, 0, n);
+        }
+
+        String getMd5checksum() {
+            byte[] bits = md5.digest();
+            StringBuilder checksum = new StringBuilder();
+            for (int i = 0; i < bits.length; i++) {
+                checksum.append(Integer.toHexString((0x000000ff & bits[i]) | 0xffffff00)
+                        .substring(6));
+            }
+            return checksum.toString();
+        }
+    }
+}
@@ -13,8 +13,7 @@ package org.intermine.bio.dataconversion;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.biojava.bio.Annotation;
-import org.biojava.bio.seq.Sequence;
+import org.intermine.bio.io.FastaHeader;
 import org.intermine.metadata.Model;
 import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
@@ -38,12 +37,11 @@ public class FlyBaseCDSFastaLoaderTask extends FlyBaseFeatureFastaLoaderTask
      * {@inheritDoc}
      */
     @Override
-    protected void extraProcessing(Sequence bioJavaSequence,
+    protected void extraProcessing(FastaHeader fastaHeader,
             org.intermine.model.bio.Sequence flymineSequence,
             BioEntity bioEntity, Organism organism, DataSet dataSet)
         throws ObjectStoreException {
-        Annotation annotation = bioJavaSequence.getAnnotation();
-        String header = (String) annotation.getProperty("description");
+        String header = fastaHeader.getDescription();
         String mrnaIdentifier = getMRNAIdentifier(header);
 
         ObjectStore os = getIntegrationWriter().getObjectStore();
@@ -73,9 +71,8 @@ public class FlyBaseCDSFastaLoaderTask extends FlyBaseFeatureFastaLoaderTask
      * {@inheritDoc}
      */
     @Override
-    protected String getIdentifier(Sequence bioJavaSequence) {
-        Annotation annotation = bioJavaSequence.getAnnotation();
-        String header = (String) annotation.getProperty("description");
+    protected String getIdentifier(FastaHeader fastaHeader) {
+        String header = fastaHeader.getDescription();
 
         final String regexp = ".*FlyBase_Annotation_IDs:([^, =;]+).*";
         Pattern p = Pattern.compile(regexp);
@@ -16,8 +16,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
-import org.biojava.bio.Annotation;
-import org.biojava.bio.seq.Sequence;
+import org.intermine.bio.io.FastaHeader;
 import org.intermine.metadata.Model;
 import org.intermine.model.FastPathObject;
 import org.intermine.model.InterMineObject;
@@ -45,13 +44,12 @@ public class FlyBaseUTRFastaLoaderTask extends FlyBaseFeatureFastaLoaderTask
      * {@inheritDoc}
      */
     @Override
-    protected void extraProcessing(Sequence bioJavaSequence,
+    protected void extraProcessing(FastaHeader fastaHeader,
             @SuppressWarnings("unused") org.intermine.model.bio.Sequence flymineSequence,
             BioEntity bioEntity, Organism organism,
             @SuppressWarnings("unused") DataSet dataSet)
         throws ObjectStoreException {
-        Annotation annotation = bioJavaSequence.getAnnotation();
-        String mrnaIdentifier = bioJavaSequence.getName();
+        String mrnaIdentifier = fastaHeader.getName();
 
         ObjectStore os = getIntegrationWriter().getObjectStore();
         Model model = os.getModel();
@@ -68,7 +66,7 @@ public class FlyBaseUTRFastaLoaderTask extends FlyBaseFeatureFastaLoaderTask
                 Set<? extends InterMineObject> mrnas = new HashSet(Collections.singleton(mrna));
                 bioEntity.setFieldValue("transcripts", mrnas);
             }
-            String header = (String) annotation.getProperty("description");
+            String header = fastaHeader.getDescription();
             Location loc = getLocationFromHeader(header, (SequenceFeature) bioEntity,
                     organism);
             getDirectDataLoader().store(loc);
@@ -82,10 +80,10 @@ public class FlyBaseUTRFastaLoaderTask extends FlyBaseFeatureFastaLoaderTask
      * {@inheritDoc}
      */
     @Override
-    protected String getIdentifier(Sequence bioJavaSequence) {
+    protected String getIdentifier(FastaHeader fastaHeader) {
         if (getClassName().endsWith(".FivePrimeUTR")) {
-            return bioJavaSequence.getName() + "-5-prime-utr";
+            return fastaHeader.getName() + "-5-prime-utr";
         }
-        return bioJavaSequence.getName() + "-3-prime-utr";
+        return fastaHeader.getName() + "-3-prime-utr";
     }
 }
@@ -54,7 +54,17 @@ public class FastaLoaderTaskTest extends TestCase {
     }
 
     public void testFastaLoad() throws Exception {
+        loadFastaFiles("1");
+    }
+
+    public void testFastaLoadInParallel() throws Exception {
+        // the files are read by background threads while the sequences are stored
+        loadFastaFiles("2");
+    }
+
+    private void loadFastaFiles(String threads) throws Exception {
         FastaLoaderTask flt = new FastaLoaderTask();
+        flt.setThreads(threads);
         flt.setFastaTaxonId("36329");
         flt.setIgnoreDuplicates(true);
         flt.setClassName("org.intermine.model.bio.Gene");
@@ -1,23 +1,19 @@
 package org.intermine.bio.dataconversion;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.intermine.bio.io.DelimitedRecordReader;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.FormattedTextParser;
 import org.intermine.xml.full.Item;
 
 /**
@@ -54,14 +50,13 @@ public class BioassayConverter extends BioFileConverter {
 		readNameMap();
 		readInchikeyMap();
 		
-		Iterator<String[]> iterator = FormattedTextParser.parseTabDelimitedReader(reader);
-		while (iterator.hasNext()) {
+		DelimitedRecordReader records = new DelimitedRecordReader(reader, '\t');
+		while (records.next()) {
 			// aid, name, source, target(gi), target name, symbol 
-			String[] cols = iterator.next();
-			String aid = cols[0];
-			String name = cols[1];
-			String source = cols[2];
-			String gi = cols[3];
+			String aid = records.getString(0);
+			String name = records.getString(1);
+			String source = records.getString(2);
+			String gi = records.getString(3);
 			// So far, we ignore those assay with multiple targets (difficult to interpret) 
 			if (gi.equals("MultipleTargets")) {
 				LOG.info(String.format("Skip AID:%s because multiple targets.", aid));
@@ -210,17 +205,16 @@ public class BioassayConverter extends BioFileConverter {
 
 	private void readGiMapping() {
 		try {
-			Iterator<String[]> iterator = FormattedTextParser
-					.parseTabDelimitedReader(new FileReader(giUniprotaccFile));
-			while (iterator.hasNext()) {
-				String[] cols = iterator.next();
-				if (!cols[1].startsWith("?")) {
-					giMapping.put(cols[0], new HashSet<String>(Arrays.asList(cols[1].split(","))));
+			DelimitedRecordReader records = DelimitedRecordReader.open(giUniprotaccFile, '\t');
+			try {
+				while (records.next()) {
+					if (!records.getField(1).startsWith("?")) {
+						giMapping.put(records.getString(0), toSet(records.split(1, ',', true)));
+					}
 				}
+			} finally {
+				records.close();
 			}
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -229,15 +223,14 @@ public class BioassayConverter extends BioFileConverter {
 
 	private void readInchikeyMap() {
 		try {
-			Iterator<String[]> iterator = FormattedTextParser
-					.parseTabDelimitedReader(new FileReader(inchikeyFile));
-			while (iterator.hasNext()) {
-				String[] cols = iterator.next();
-				inchikeyMap.put(cols[0], cols[1]);
+			DelimitedRecordReader records = DelimitedRecordReader.open(inchikeyFile, '\t');
+			try {
+				while (records.next()) {
+					inchikeyMap.put(records.getString(0), records.getString(1));
+				}
+			} finally {
+				records.close();
 			}
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -246,15 +239,14 @@ public class BioassayConverter extends BioFileConverter {
 
 	private void readNameMap() {
 		try {
-			Iterator<String[]> iterator = FormattedTextParser
-					.parseTabDelimitedReader(new FileReader(nameFile));
-			while (iterator.hasNext()) {
-				String[] cols = iterator.next();
-				nameMap.put(cols[0], cols[1]);
+			DelimitedRecordReader records = DelimitedRecordReader.open(nameFile, '\t');
+			try {
+				while (records.next()) {
+					nameMap.put(records.getString(0), records.getString(1));
+				}
+			} finally {
+				records.close();
 			}
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -263,15 +255,14 @@ public class BioassayConverter extends BioFileConverter {
 
 	private void readCidMapping() {
 		try {
-			Iterator<String[]> iterator = FormattedTextParser
-					.parseTabDelimitedReader(new FileReader(aidActivecidFile));
-			while (iterator.hasNext()) {
-				String[] cols = iterator.next();
-				cidMapping.put(cols[0], new HashSet<String>(Arrays.asList(cols[1].split(","))));
+			DelimitedRecordReader records = DelimitedRecordReader.open(aidActivecidFile, '\t');
+			try {
+				while (records.next()) {
+					cidMapping.put(records.getString(0), toSet(records.split(1, ',', true)));
+				}
+			} finally {
+				records.close();
 			}
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -280,24 +271,30 @@ public class BioassayConverter extends BioFileConverter {
 
 	private void readPubmedMapping() {
 		try {
-			Iterator<String[]> iterator = FormattedTextParser
-					.parseTabDelimitedReader(new FileReader(aidPubmedidFile));
-			while (iterator.hasNext()) {
-				String[] cols = iterator.next();
-				if (StringUtils.isNotEmpty(cols[1])) {
-					pubmedMapping.put(cols[0],
-							new HashSet<String>(Arrays.asList(cols[1].split(","))));
+			DelimitedRecordReader records = DelimitedRecordReader.open(aidPubmedidFile, '\t');
+			try {
+				while (records.next()) {
+					if (!records.isEmpty(1)) {
+						pubmedMapping.put(records.getString(0), toSet(records.split(1, ',', true)));
+					}
 				}
+			} finally {
+				records.close();
 			}
-		} catch (FileNotFoundException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
 
+	private static Set<String> toSet(DelimitedRecordReader.SubFields values) {
+		Set<String> ret = new HashSet<String>();
+		for (int i = 0; i < values.size(); i++) {
+			ret.add(values.getString(i));
+		}
+		return ret;
+	}
+
 	private void setSynonyms(Item subject, String value) throws ObjectStoreException {
 		Item syn = createItem("CompoundSynonym");
 		syn.setAttribute("value", value);
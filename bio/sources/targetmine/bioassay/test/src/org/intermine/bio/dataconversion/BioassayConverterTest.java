@@ -0,0 +1,62 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.HashMap;
+
+import org.intermine.dataconversion.ItemsTestCase;
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Item;
+
+public class BioassayConverterTest extends ItemsTestCase
+{
+    Model model = Model.getInstanceByName("genomic");
+    BioassayConverter converter;
+    MockItemWriter itemWriter;
+
+    public BioassayConverterTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        itemWriter = new MockItemWriter(new HashMap<String, Item>());
+        converter = new BioassayConverter(itemWriter, model);
+        converter.setGiUniprotaccFile(getFile("gi_uniprotacc.txt"));
+        converter.setAidPubmedidFile(getFile("aid_pubmedid.txt"));
+        converter.setAidActivecidFile(getFile("aid_activecid.txt"));
+        converter.setNameFile(getFile("cid_name.txt"));
+        converter.setInchikeyFile(getFile("cid_inchikey.txt"));
+    }
+
+    public void testProcess() throws Exception {
+        File srcFile = getFile("bioassay.txt");
+        converter.setCurrentFile(srcFile);
+        converter.process(new FileReader(srcFile));
+        converter.close();
+
+        // the id lists in the mapping files end with a comma, which doesn't add an empty id
+        assertEquals(1, countItemByClass(itemWriter.getItems(), "CompoundProteinInteractionAssay"));
+        assertEquals(2, countItemByClass(itemWriter.getItems(), "Publication"));
+        assertEquals(2, countItemByClass(itemWriter.getItems(), "Protein"));
+        assertEquals(2, countItemByClass(itemWriter.getItems(), "PubChemCompound"));
+        assertEquals(4, countItemByClass(itemWriter.getItems(), "BioAssayInteraction"));
+        assertEquals(4, countItemByClass(itemWriter.getItems(), "Activity"));
+        assertEquals(1, countItemByClass(itemWriter.getItems(), "CompoundGroup"));
+    }
+
+    private File getFile(String name) throws Exception {
+        return new File(getClass().getClassLoader().getResource(name).toURI());
+    }
+}
@@ -26,6 +26,10 @@ import java.util.Stack;
 import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.intermine.bio.io.OrderedRecordPipeline;
+import org.intermine.bio.io.OrderedRecordPipeline.RecordSink;
+import org.intermine.bio.io.OrderedRecordPipeline.RecordSource;
+import org.intermine.bio.io.OrderedRecordPipeline.RecordTransformer;
 import org.intermine.bio.util.OrganismData;
 import org.intermine.bio.util.OrganismRepository;
 import org.intermine.dataconversion.ItemWriter;
@@ -38,6 +42,7 @@ import org.intermine.xml.full.ReferenceList;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
 
 
@@ -78,7 +83,8 @@ public class BiogridLegacyConverter extends BioFileConverter
     private static final OrganismRepository OR = OrganismRepository.getOrganismRepository();
     private Map<MultiKey, Item> idsToExperiments;
     private Map<String, String> strains = new HashMap<String, String>();
-    private Map<MultiKey, Item> interactions = new HashMap<MultiKey, Item>();
+    // gene1 and gene2 refIds to interaction refId
+    private Map<MultiKey, String> interactions = new HashMap<MultiKey, String>();
     private static final String SPOKE_MODEL = "prey";
     private static final String BLANK_EXPERIMENT_NAME = "NAME NOT AVAILABLE";
 
@@ -124,12 +130,26 @@ public class BiogridLegacyConverter extends BioFileConverter
             rslv = IdResolverService.getIdResolverByOrganism(taxonIds);
         }
 
+        // the XML is parsed in a thread of its own and the events replayed to the handler here,
+        // so that items are created and stored in the same order as when parsing directly
         BioGridHandler handler = new BioGridHandler();
+        OrderedRecordPipeline<SaxEvent, SaxEvent> events
+            = new OrderedRecordPipeline<SaxEvent, SaxEvent>("BioGRID", new SaxEventSource(reader),
+                    new RecordTransformer<SaxEvent, SaxEvent>() {
+                        @Override
+                        public SaxEvent transform(SaxEvent event) {
+                            return event;
+                        }
+                    }, 0);
         try {
-            SAXParser.parse(new InputSource(reader), handler);
+            while (events.hasNext()) {
+                events.next().replay(handler);
+            }
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException(e);
+        } finally {
+            events.close();
         }
     }
 
@@ -379,14 +399,8 @@ public class BiogridLegacyConverter extends BioFileConverter
          */
         @Override
         public void characters(char[] ch, int start, int length) {
-            int st = start;
-            int l = length;
-            if (attName != null) {
-                if (l > 0) {
-                    StringBuffer s = new StringBuffer();
-                    s.append(ch, st, l);
-                    attValue.append(s);
-                }
+            if (attName != null && length > 0) {
+                attValue.append(ch, start, length);
             }
         }
 
@@ -492,17 +506,19 @@ public class BiogridLegacyConverter extends BioFileConverter
             }
         }
 
-        private Item getInteraction(String refId, String gene2RefId) throws ObjectStoreException {
+        private String getInteraction(String refId, String gene2RefId)
+            throws ObjectStoreException {
             MultiKey key = new MultiKey(refId, gene2RefId);
-            Item interaction = interactions.get(key);
-            if (interaction == null) {
-                interaction = createItem("Interaction");
+            String interactionRefId = interactions.get(key);
+            if (interactionRefId == null) {
+                Item interaction = createItem("Interaction");
                 interaction.setReference("gene1", refId);
                 interaction.setReference("gene2", gene2RefId);
-                interactions.put(key, interaction);
+                interactionRefId = interaction.getIdentifier();
+                interactions.put(key, interactionRefId);
                 store(interaction);
             }
-            return interaction;
+            return interactionRefId;
         }
 
 
@@ -533,7 +549,7 @@ public class BiogridLegacyConverter extends BioFileConverter
                         continue;
                     }
 
-                    Item interaction = getInteraction(refId, gene2RefId);
+                    String interactionRefId = getInteraction(refId, gene2RefId);
                     Item detail = createItem("InteractionDetail");
 
                     String role1 = gene1Interactor.role;
@@ -559,7 +575,7 @@ public class BiogridLegacyConverter extends BioFileConverter
                     } else {
                         detail.setAttribute("name", h.name);
                     }
-                    detail.setReference("interaction", interaction);
+                    detail.setReference("interaction", interactionRefId);
                     detail.addCollection(allInteractors);
                     store(detail);
                 }
@@ -874,6 +890,86 @@ public class BiogridLegacyConverter extends BioFileConverter
 
     }
 
+    /**
+     * The start or end of an element, with the attributes of a start and the text just before an
+     * end.  The text before a start is left out as the handler discards it.
+     */
+    private static final class SaxEvent
+    {
+        private final String qName;
+        private final Attributes attrs;
+        private final String text;
+
+        private SaxEvent(String qName, Attributes attrs, String text) {
+            this.qName = qName;
+            this.attrs = attrs;
+            this.text = text;
+        }
+
+        private void replay(DefaultHandler handler) throws SAXException {
+            if (attrs != null) {
+                handler.startElement("", "", qName, attrs);
+            } else {
+                if (text != null) {
+                    handler.characters(text.toCharArray(), 0, text.length());
+                }
+                handler.endElement("", "", qName);
+            }
+        }
+    }
+
+    /**
+     * Parses the XML and adds an event to the sink for each start and end of an element.
+     */
+    private static final class SaxEventSource extends DefaultHandler
+        implements RecordSource<SaxEvent>
+    {
+        private static final Attributes NO_ATTRIBUTES = new AttributesImpl();
+        private final Reader reader;
+        private final StringBuilder text = new StringBuilder();
+        private RecordSink<SaxEvent> sink;
+
+        private SaxEventSource(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public void read(RecordSink<SaxEvent> eventSink) throws Exception {
+            this.sink = eventSink;
+            SAXParser.parse(new InputSource(reader), this);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attrs)
+            throws SAXException {
+            text.setLength(0);
+            add(new SaxEvent(qName,
+                    attrs.getLength() == 0 ? NO_ATTRIBUTES : new AttributesImpl(attrs), null));
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName)
+            throws SAXException {
+            add(new SaxEvent(qName, null, text.length() == 0 ? null : text.toString()));
+            text.setLength(0);
+        }
+
+        private void add(SaxEvent event) throws SAXException {
+            try {
+                sink.add(event);
+            } catch (InterruptedException e) {
+                // keep the interrupt so that the pipeline stops rather than reporting an error
+                Thread.currentThread().interrupt();
+                throw new SAXException(e);
+            }
+        }
+    }
+
     /**
      * Holder object for Experiment.  Holds all information about an experiment until
      * an interaction is verified to have only valid organisms
@@ -0,0 +1,56 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.HashMap;
+import java.util.Set;
+
+import org.intermine.dataconversion.ItemsTestCase;
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Item;
+
+public class BiogridLegacyConverterTest extends ItemsTestCase
+{
+    Model model = Model.getInstanceByName("genomic");
+    BiogridLegacyConverter converter;
+    MockItemWriter itemWriter;
+
+    public BiogridLegacyConverterTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        itemWriter = new MockItemWriter(new HashMap<String, Item>());
+        converter = new BiogridLegacyConverter(itemWriter, model);
+        converter.setBiogridOrganisms("9606 10090");
+        converter.rslv = IdResolverService.getMockIdResolver("Gene");
+    }
+
+    public void testProcess() throws Exception {
+        File srcFile = new File(getClass().getClassLoader()
+                .getResource("BIOGRID-ORGANISM-Homo_sapiens-3.4.psi25.xml").toURI());
+        converter.setCurrentFile(srcFile);
+        converter.process(new FileReader(srcFile));
+        converter.close();
+
+        // uncomment to write out a new target items file
+        //writeItemsFile(itemWriter.getItems(), "biogrid-legacy-tgt-items.xml");
+
+        Set<org.intermine.xml.full.Item> expected =
+            readItemSet("BiogridLegacyConverterTest_tgt.xml");
+
+        assertEquals(expected, itemWriter.getItems());
+    }
+}
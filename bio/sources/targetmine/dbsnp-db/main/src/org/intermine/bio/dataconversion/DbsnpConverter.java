@@ -2,6 +2,7 @@ package org.intermine.bio.dataconversion;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -45,6 +46,8 @@ public class DbsnpConverter extends BioDBConverter
 	private static final int CDS_REFERENCE = 8;
 	private static final String REF = "ref";
 
+	private Map<Integer, String> functionMap = new HashMap<Integer, String>();
+
     /**
      * Construct a new DbsnpConverter.
      * @param database the database to read from
@@ -68,7 +71,6 @@ public class DbsnpConverter extends BioDBConverter
 		Statement stmt = connection.createStatement();
 		String querySnpFunc = "SELECT fxn_class, abbrev, descrip, SO_id FROM SnpFunctionCode;";
 		ResultSet snpFuncRes = stmt.executeQuery(querySnpFunc);
-		Map<Integer, String> functionMap = new HashMap<Integer, String>();
 		while (snpFuncRes.next()) {
 			int classId = snpFuncRes.getInt("fxn_class");
 			Item item = createItem("SNPFunction");
@@ -86,56 +88,69 @@ public class DbsnpConverter extends BioDBConverter
 		} else {
 			throw new RuntimeException("CANNOT get the maximal snp id.");
 		}
-		
-		for (int i = 0; i < maxSnpId; i = i + BATCH_SIZE) {
-			
+
+		stmt.close();
+		connection.close();
+
+		// the queries for each snp_id range run on their own connection (see setThreads), the
+		// items are created here in order of snp_id
+		processIdRanges(0, maxSnpId, BATCH_SIZE, new IdRangeReader.RangeQuery<SnpRange>() {
+			public SnpRange read(Connection conn, long from, long to) throws SQLException {
+				return readRange(conn, from, to);
+			}
+		}, new IdRangeReader.RangeHandler<SnpRange>() {
+			public void handle(long from, long to, SnpRange range) throws Exception {
+				processRange(from, to, range);
+			}
+		});
+	}
+
+	/**
+	 * Runs the queries for one snp_id range. Called on a worker thread, so only reads.
+	 */
+	private SnpRange readRange(Connection conn, long from, long to) throws SQLException {
+		Statement stmt = conn.createStatement();
+		try {
+			SnpRange range = new SnpRange(from, to);
+
 			// get allele
 			String querySnpAllele = String.format(" SELECT snp_id, var_str " + 
 					" FROM SNP JOIN UniVariation ON SNP.univar_id = UniVariation.univar_id " + 
-					" WHERE SNP.snp_id > %d " + " AND SNP.snp_id <= %d ", i, i + BATCH_SIZE);
+					" WHERE SNP.snp_id > %d " + " AND SNP.snp_id <= %d ", from, to);
 			ResultSet snpAlleleRes = stmt.executeQuery(querySnpAllele);
-			Map<String, String> alleleMap = new HashMap<String, String>(); 
 			while (snpAlleleRes.next()) {
-				String snpId = snpAlleleRes.getString("snp_id");
-				String allele = snpAlleleRes.getString("var_str");
-				alleleMap.put(snpId, allele);
+				range.alleles.put(snpAlleleRes.getLong("snp_id"), snpAlleleRes.getString("var_str"));
 			}
-			if (alleleMap.size() == 0) {
-				System.out.println(String.format("%d - %d skipped!", i, i + BATCH_SIZE));  // to be deleted
-				LOG.info(String.format("%d - %d skipped!", i, i + BATCH_SIZE));
-				continue;
+			if (range.alleles.size() == 0) {
+				return range;
 			}
-			System.out.println(String.format("do some process for %d - %d", i, i + BATCH_SIZE));  // to be deleted
-			LOG.info(String.format("do some process for %d - %d", i, i + BATCH_SIZE));
 
 			// get pubmed
 			String queryPubmed = String.format(" SELECT snp_id, pubmed_id " + 
-					" FROM SNPPubmed " + " WHERE snp_id > %d AND snp_id <= %d ", i, i + BATCH_SIZE);
+					" FROM SNPPubmed " + " WHERE snp_id > %d AND snp_id <= %d ", from, to);
 			ResultSet pubmedRes = stmt.executeQuery(queryPubmed);
-			Map<String, Set<String>> pubmedMap = new HashMap<String, Set<String>>(); 
 			while (pubmedRes.next()) {
-				String snpId = pubmedRes.getString("snp_id");
+				long snpId = pubmedRes.getLong("snp_id");
 				String pubmedId = pubmedRes.getString("pubmed_id");
-				if (pubmedMap.get(snpId) == null) {
-					pubmedMap.put(snpId, new HashSet<String>());
+				if (range.pubmeds.get(snpId) == null) {
+					range.pubmeds.put(snpId, new HashSet<String>());
 				}
-				pubmedMap.get(snpId).add(pubmedId);
+				range.pubmeds.get(snpId).add(pubmedId);
 			}
 
 			// get snp position
 			String queryPosition = String.format(" SELECT snp_id, contig_chr, orientation, phys_pos_from, asn_from, asn_to, group_term" + 
 					" FROM SNPContigLoc JOIN ContigInfo ON SNPContigLoc.ctg_id = ContigInfo.ctg_id " + 
-					" WHERE snp_id > %d AND snp_id <= %d ", i, i + BATCH_SIZE);
+					" WHERE snp_id > %d AND snp_id <= %d ", from, to);
 			ResultSet positionRes = stmt.executeQuery(queryPosition);
-			Map<String, Map<String, Set<LocationHolder>>> snpInfoMap = new HashMap<String, Map<String, Set<LocationHolder>>>();
 			while (positionRes.next()) {
-				String snpId = positionRes.getString("snp_id");
-				if (snpInfoMap.get(snpId) == null) {
-					snpInfoMap.put(snpId, new HashMap<String, Set<LocationHolder>>());
+				long snpId = positionRes.getLong("snp_id");
+				if (range.positions.get(snpId) == null) {
+					range.positions.put(snpId, new HashMap<String, Set<LocationHolder>>());
 				}
 				String groupTerm = positionRes.getString("group_term");
-				if (snpInfoMap.get(snpId).get(groupTerm) == null) {
-					snpInfoMap.get(snpId).put(groupTerm, new HashSet<LocationHolder>());
+				if (range.positions.get(snpId).get(groupTerm) == null) {
+					range.positions.get(snpId).put(groupTerm, new HashSet<LocationHolder>());
 				}
 				
 				String chr = positionRes.getString("contig_chr");
@@ -144,82 +159,9 @@ public class DbsnpConverter extends BioDBConverter
 				int asnFrom = positionRes.getInt("asn_from");
 				int asnTo = positionRes.getInt("asn_to");
 				
-				snpInfoMap.get(snpId).get(groupTerm).add(new LocationHolder(chr, orient, pos, asnFrom, asnTo));
+				range.positions.get(snpId).get(groupTerm).add(new LocationHolder(chr, orient, pos, asnFrom, asnTo));
 			}
-			
-			Map<String, String> snpItemMap = new HashMap<String, String>();
-			for (String snpId: snpInfoMap.keySet()) {
-				Item item = createItem("SNP");
-				item.setAttribute("identifier", "rs" + snpId);
-				
-				Set<String> chrSet = new HashSet<String>();
-				if (snpInfoMap.get(snpId).get(PRIMARY_ASSEMBLY) != null) {
-					for (LocationHolder lh: snpInfoMap.get(snpId).get(PRIMARY_ASSEMBLY)) {
-						item.setAttribute("orientation", lh.orient);
-						if (!StringUtils.isEmpty(lh.chr)) {
-							String chromosome = getChromosome(lh.chr);
-							chrSet.add(lh.chr);
-							if (lh.pos > 0) {
-								Item location = createItem("Location");
-								
-								if (lh.asnTo - lh.asnFrom > 0) {
-									location.setAttribute("start", String.valueOf(lh.pos + 1));
-									location.setAttribute("end", String.valueOf(lh.pos + lh.asnTo - lh.asnFrom + 1));
-								} else {
-									String posString = String.valueOf(lh.pos + 1);
-									location.setAttribute("start", posString);
-									location.setAttribute("end", posString);
-								}
-								location.setReference("locatedOn", chromosome);
-								store(location);
-								item.addToCollection("locations", location);
-							}
-						}
-					}
-				} else {
-					LocationHolder lh = snpInfoMap.get(snpId).values().iterator().next().iterator().next();
-					item.setAttribute("orientation", lh.orient);
-					if (!StringUtils.isEmpty(lh.chr)) {
-						String chromosome = getChromosome(lh.chr);
-						chrSet.add(lh.chr);
-						if (lh.pos > 0) {
-							Item location = createItem("Location");
-							
-							if (lh.asnTo - lh.asnFrom > 0) {
-								location.setAttribute("start", String.valueOf(lh.pos + 1));
-								location.setAttribute("end", String.valueOf(lh.pos + lh.asnTo - lh.asnFrom + 1));
-							} else {
-								String posString = String.valueOf(lh.pos + 1);
-								location.setAttribute("start", posString);
-								location.setAttribute("end", posString);
-							}
-							location.setReference("locatedOn", chromosome);
-							store(location);
-							item.addToCollection("locations", location);
-						}
-					}
-				}
 
-				if (chrSet.size() > 0) {
-					String chrString = StringUtils.join(chrSet, "/");
-					item.setAttribute("chromosome", chrString);
-				}
-				
-				String allele = alleleMap.get(snpId);
-				if (allele != null) {
-					item.setAttribute("refseqAllele", allele);
-				}
-				// add publications
-				if (pubmedMap.get(snpId) != null) {
-					for (String pubmedId : pubmedMap.get(snpId)) {
-						item.addToCollection("publications", getPublication(pubmedId));
-					}
-				}
-				
-				store(item);
-				snpItemMap.put(snpId, item.getIdentifier());
-			}
-			
 			// get transcript
 			String queryTranscript = String
 					.format(" SELECT DISTINCT SCLI.snp_id, gene_id, fxn_class, SCLI.mrna_acc, SCLI.mrna_ver, "
@@ -227,23 +169,24 @@ public class DbsnpConverter extends BioDBConverter
 							+ " SCLI.codon, SCLI.protein_acc, SCLI.protein_ver, SCLI.aa_position, SCLI.residue "
 							+ " FROM SNPContigLocusId AS SCLI JOIN SNPContigLoc AS SCL ON SCLI.snp_id = SCL.snp_id "
 							+ " AND SCLI.ctg_id = SCL.ctg_id AND SCLI.asn_from = SCL.asn_from "
-							+ " WHERE mrna_acc NOT LIKE 'X%%' AND SCLI.snp_id > %d AND SCLI.snp_id <= %d ", i, i + BATCH_SIZE);
+							+ " WHERE mrna_acc NOT LIKE 'X%%' AND SCLI.snp_id > %d AND SCLI.snp_id <= %d ", from, to);
 			ResultSet transcriptRes = stmt.executeQuery(queryTranscript);
-			Map<String, Map<String, Map<String, ReferenceHolder>>> referenceDataMap = new HashMap<String, Map<String, Map<String, ReferenceHolder>>>();
-			Map<String, Integer> fxnMap = new HashMap<String, Integer>();
-			Set<String> missingSnps = new HashSet<String>();  // TODO to be remove
 			while (transcriptRes.next()) {
-				String snpId = transcriptRes.getString("snp_id");
+				long snpId = transcriptRes.getLong("snp_id");
 				String geneId = transcriptRes.getString("gene_id");
 				int fxn = transcriptRes.getInt("fxn_class");
 				String mrnaAcc = transcriptRes.getString("mrna_acc") + "." + transcriptRes.getString("mrna_ver");
 				
-				String refKey = snpId + "-" + geneId;
-				if (referenceDataMap.get(refKey) == null) {
-					referenceDataMap.put(refKey, new HashMap<String, Map<String, ReferenceHolder>>());
+				if (range.annotations.get(snpId) == null) {
+					range.annotations.put(snpId, new HashMap<String, GeneAnnotation>());
+				}
+				GeneAnnotation annotation = range.annotations.get(snpId).get(geneId);
+				if (annotation == null) {
+					annotation = new GeneAnnotation();
+					range.annotations.get(snpId).put(geneId, annotation);
 				}
-				if (referenceDataMap.get(refKey).get(mrnaAcc) == null) {
-					referenceDataMap.get(refKey).put(mrnaAcc, new HashMap<String, ReferenceHolder>());
+				if (annotation.references.get(mrnaAcc) == null) {
+					annotation.references.put(mrnaAcc, new HashMap<String, ReferenceHolder>());
 				}
 				
 				int mrnaStart = transcriptRes.getInt("mrna_start");
@@ -270,47 +213,105 @@ public class DbsnpConverter extends BioDBConverter
 				int aaPos = transcriptRes.getInt("aa_position");
 				String residue = transcriptRes.getString("residue");
 				
+				Map<String, ReferenceHolder> snpRefMap = annotation.references.get(mrnaAcc);
 				if (fxn == CDS_REFERENCE) {
-					referenceDataMap.get(refKey).get(mrnaAcc).put(REF, new ReferenceHolder(
+					snpRefMap.put(REF, new ReferenceHolder(
 							mrnaPos, orientation, allele, codon, proteinAcc, aaPos, residue));
 				} else {
-					int size = referenceDataMap.get(refKey).get(mrnaAcc).size();
-					referenceDataMap.get(refKey).get(mrnaAcc).put(String.format("%d_%d", fxn, size),
+					int size = snpRefMap.size();
+					snpRefMap.put(String.format("%d_%d", fxn, size),
 							new ReferenceHolder(mrnaPos, orientation, allele, codon, proteinAcc,
 									aaPos, residue));
 					
-					fxnMap.put(refKey, Integer.valueOf(fxn));
+					annotation.fxn = Integer.valueOf(fxn);
+				}
+			}
+			return range;
+		} finally {
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Creates and stores the items for one snp_id range. Called in order of snp_id.
+	 */
+	private void processRange(long from, long to, SnpRange range) throws ObjectStoreException {
+		if (range.alleles.size() == 0) {
+			LOG.info(String.format("%d - %d skipped!", from, to));
+			return;
+		}
+		LOG.info(String.format("do some process for %d - %d", from, to));
+
+		IdRangeMap<String> snpItemMap = new IdRangeMap<String>(from, to);
+		for (long snpId = range.positions.next(from); snpId != -1; snpId = range.positions.next(snpId)) {
+			Map<String, Set<LocationHolder>> snpInfo = range.positions.get(snpId);
+			Item item = createItem("SNP");
+			item.setAttribute("identifier", "rs" + snpId);
+			
+			Set<String> chrSet = new HashSet<String>();
+			if (snpInfo.get(PRIMARY_ASSEMBLY) != null) {
+				for (LocationHolder lh: snpInfo.get(PRIMARY_ASSEMBLY)) {
+					item.setAttribute("orientation", lh.orient);
+					if (!StringUtils.isEmpty(lh.chr)) {
+						chrSet.add(lh.chr);
+						createLocation(item, lh);
+					}
 				}
-				 // TODO to be remove
-				// collect missing snps 
-				if (snpItemMap.get(snpId) == null) {
-					missingSnps.add(snpId);
+			} else {
+				LocationHolder lh = snpInfo.values().iterator().next().iterator().next();
+				item.setAttribute("orientation", lh.orient);
+				if (!StringUtils.isEmpty(lh.chr)) {
+					chrSet.add(lh.chr);
+					createLocation(item, lh);
 				}
 			}
+
+			if (chrSet.size() > 0) {
+				String chrString = StringUtils.join(chrSet, "/");
+				item.setAttribute("chromosome", chrString);
+			}
 			
-			if (missingSnps.size() != 0) {
-				throw new RuntimeException("null SNP found. snpIds: " + StringUtils.join(missingSnps, ",")); // TODO to be remove
+			String allele = range.alleles.get(snpId);
+			if (allele != null) {
+				item.setAttribute("refseqAllele", allele);
+			}
+			// add publications
+			if (range.pubmeds.get(snpId) != null) {
+				for (String pubmedId : range.pubmeds.get(snpId)) {
+					item.addToCollection("publications", getPublication(pubmedId));
+				}
 			}
 			
-			for (String snpGeneId : referenceDataMap.keySet()) {
-				String[] split = snpGeneId.split("-");
-				String snpId = split[0];
-				String geneId = split[1];
+			store(item);
+			snpItemMap.put(snpId, item.getIdentifier());
+		}
+		
+		Set<Long> missingSnps = new HashSet<Long>();  // TODO to be remove
+		for (long snpId = range.annotations.next(from); snpId != -1; snpId = range.annotations.next(snpId)) {
+			// collect missing snps 
+			if (snpItemMap.get(snpId) == null) {
+				missingSnps.add(Long.valueOf(snpId));
+			}
+		}
+		if (missingSnps.size() != 0) {
+			throw new RuntimeException("null SNP found. snpIds: " + StringUtils.join(missingSnps, ",")); // TODO to be remove
+		}
+		
+		for (long snpId = range.annotations.next(from); snpId != -1; snpId = range.annotations.next(snpId)) {
+			for (Map.Entry<String, GeneAnnotation> entry : range.annotations.get(snpId).entrySet()) {
+				String geneId = entry.getKey();
+				GeneAnnotation annotation = entry.getValue();
 				Item vaItem = createItem("VariationAnnotation");
 				vaItem.setReference("gene", getGene(geneId));
-				String refId = snpItemMap.get(snpId);
-				if (refId == null) {
-					throw new RuntimeException("null SNP, snpId: " + snpId); // TODO to be remove
-				}
-				vaItem.setReference("snp", refId);
-				String funcRef = functionMap.get(fxnMap.get(snpGeneId));
+				vaItem.setReference("snp", snpItemMap.get(snpId));
+				String funcRef = functionMap.get(annotation.fxn);
 				if (funcRef != null) {
 					vaItem.setReference("function", funcRef);
 				}
 				store(vaItem);
 				
-				for (String mrnaAcc: referenceDataMap.get(snpGeneId).keySet()) {
-					Map<String, ReferenceHolder> snpRefMap = referenceDataMap.get(snpGeneId).get(mrnaAcc);
+				for (String mrnaAcc: annotation.references.keySet()) {
+					Map<String, ReferenceHolder> snpRefMap = annotation.references.get(mrnaAcc);
 					Set<String> keys = snpRefMap.keySet();
 					for (String key : keys) {
 						if (key.equals(REF)) {
@@ -344,12 +345,27 @@ public class DbsnpConverter extends BioDBConverter
 					}
 				}
 			}
-
 		}
+	}
 
-		stmt.close();
-		connection.close();
-	   }
+	private void createLocation(Item snpItem, LocationHolder lh) throws ObjectStoreException {
+		String chromosome = getChromosome(lh.chr);
+		if (lh.pos > 0) {
+			Item location = createItem("Location");
+			
+			if (lh.asnTo - lh.asnFrom > 0) {
+				location.setAttribute("start", String.valueOf(lh.pos + 1));
+				location.setAttribute("end", String.valueOf(lh.pos + lh.asnTo - lh.asnFrom + 1));
+			} else {
+				String posString = String.valueOf(lh.pos + 1);
+				location.setAttribute("start", posString);
+				location.setAttribute("end", posString);
+			}
+			location.setReference("locatedOn", chromosome);
+			store(location);
+			snpItem.addToCollection("locations", location);
+		}
+	}
 
 	/**
      * {@inheritDoc}
@@ -449,6 +465,30 @@ public class DbsnpConverter extends BioDBConverter
 		}
 	}
 	
+	/**
+	 * The rows read for one snp_id range, keyed by snp_id.
+	 */
+	static class SnpRange {
+		IdRangeMap<String> alleles;
+		IdRangeMap<Set<String>> pubmeds;
+		IdRangeMap<Map<String, Set<LocationHolder>>> positions;
+		IdRangeMap<Map<String, GeneAnnotation>> annotations;
+		public SnpRange(long from, long to) {
+			alleles = new IdRangeMap<String>(from, to);
+			pubmeds = new IdRangeMap<Set<String>>(from, to);
+			positions = new IdRangeMap<Map<String, Set<LocationHolder>>>(from, to);
+			annotations = new IdRangeMap<Map<String, GeneAnnotation>>(from, to);
+		}
+	}
+
+	/**
+	 * The transcript rows of one snp and gene.
+	 */
+	static class GeneAnnotation {
+		Map<String, Map<String, ReferenceHolder>> references = new HashMap<String, Map<String, ReferenceHolder>>();
+		Integer fxn;
+	}
+
 	static class ReferenceHolder {
 		String mrnaPos;
 		String orientation;
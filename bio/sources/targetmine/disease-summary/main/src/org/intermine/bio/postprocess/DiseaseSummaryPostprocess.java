@@ -1,5 +1,6 @@
 package org.intermine.bio.postprocess;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -27,10 +28,10 @@ import org.intermine.objectstore.query.QueryValue;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
 import org.intermine.objectstore.query.SimpleConstraint;
-import org.intermine.postprocess.PostProcessor;
+import org.intermine.postprocess.PartitionedPostProcessor;
 import org.intermine.util.DynamicUtil;
 
-public class DiseaseSummaryPostprocess extends PostProcessor {
+public class DiseaseSummaryPostprocess extends PartitionedPostProcessor {
 
 	private static final Logger LOG = Logger.getLogger(DiseaseSummaryPostprocess.class);
 
@@ -38,230 +39,265 @@ public class DiseaseSummaryPostprocess extends PostProcessor {
 	private static final List<String> IGNORED_DISEASE_NAMES = Arrays.asList("not specified",
 			"not provided");
 
+	// the number of genes whose SNPs and annotations are loaded at once
+	private static final int BATCH_SIZE = 500;
+
 	private ObjectStore os;
 
 	private Model model;
 
 	public DiseaseSummaryPostprocess(ObjectStoreWriter osw) {
-		super(osw);
+		super(osw, getGeneClass());
 		this.os = osw.getObjectStore();
 		this.model = Model.getInstanceByName("genomic");
 	}
 
 	@SuppressWarnings("unchecked")
-	@Override
-	public void postProcess() throws ObjectStoreException {
+	private static Class<? extends InterMineObject> getGeneClass() {
+		return (Class<? extends InterMineObject>) Model.getInstanceByName("genomic")
+				.getClassDescriptorByName("Gene").getType();
+	}
 
-		osw.beginTransaction();
+	/**
+	 * Create the GeneDiseasePairs for the genes in a range of ids, from GWAS, ClinVar and MeSH.
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	protected int processPartition(Partition partition, ObjectStoreWriter writer)
+			throws ObjectStoreException {
 
-		Iterator<?> iterator = getGwasGenes();
+		Iterator<?> iterator = getGwasGenes(partition);
 		int count = 0;
+		int total = 0;
 		while (iterator.hasNext()) {
-			ResultsRow<?> rr = (ResultsRow<?>) iterator.next();
-			InterMineObject gene = (InterMineObject) rr.get(0);
-			try {
-				String symbol = (String) gene.getFieldValue("symbol");
-				Set<InterMineObject> snps = (Set<InterMineObject>) gene.getFieldValue("snps");
-
-				Map<InterMineObject, Set<InterMineObject>> gwasMap = new HashMap<InterMineObject, Set<InterMineObject>>();
-				Map<InterMineObject, Set<InterMineObject>> snpMap = new HashMap<InterMineObject, Set<InterMineObject>>();
-				Map<InterMineObject, Set<InterMineObject>> publicationMap = new HashMap<InterMineObject, Set<InterMineObject>>();
-
-				for (InterMineObject vaItem : snps) {
-					InterMineObject snpItem = (InterMineObject) vaItem.getFieldValue("snp");
-					Set<InterMineObject> genomeWideAssociations = (Set<InterMineObject>) snpItem
-							.getFieldValue("genomeWideAssociations");
-					for (InterMineObject gwasItem : genomeWideAssociations) {
-						InterMineObject publicationItem = (InterMineObject) gwasItem
-								.getFieldValue("publication");
-						Set<InterMineObject> efoTerms = (Set<InterMineObject>) gwasItem
-								.getFieldValue("efoTerms");
-						for (InterMineObject efot : efoTerms) {
-							if (gwasMap.get(efot) == null) {
-								gwasMap.put(efot, new HashSet<InterMineObject>());
-							}
-							gwasMap.get(efot).add(gwasItem);
-							if (snpMap.get(efot) == null) {
-								snpMap.put(efot, new HashSet<InterMineObject>());
-							}
-							snpMap.get(efot).add(snpItem);
-							if (publicationMap.get(efot) == null) {
-								publicationMap.put(efot, new HashSet<InterMineObject>());
+			for (InterMineObject gene : nextBatch(iterator,
+					"snps.snp.genomeWideAssociations.publication",
+					"snps.snp.genomeWideAssociations.efoTerms")) {
+				try {
+					String symbol = (String) gene.getFieldValue("symbol");
+					Set<InterMineObject> snps = (Set<InterMineObject>) gene.getFieldValue("snps");
+
+					Map<InterMineObject, Set<InterMineObject>> gwasMap = new HashMap<InterMineObject, Set<InterMineObject>>();
+					Map<InterMineObject, Set<InterMineObject>> snpMap = new HashMap<InterMineObject, Set<InterMineObject>>();
+					Map<InterMineObject, Set<InterMineObject>> publicationMap = new HashMap<InterMineObject, Set<InterMineObject>>();
+
+					for (InterMineObject vaItem : snps) {
+						InterMineObject snpItem = (InterMineObject) vaItem.getFieldValue("snp");
+						Set<InterMineObject> genomeWideAssociations = (Set<InterMineObject>) snpItem
+								.getFieldValue("genomeWideAssociations");
+						for (InterMineObject gwasItem : genomeWideAssociations) {
+							InterMineObject publicationItem = (InterMineObject) gwasItem
+									.getFieldValue("publication");
+							Set<InterMineObject> efoTerms = (Set<InterMineObject>) gwasItem
+									.getFieldValue("efoTerms");
+							for (InterMineObject efot : efoTerms) {
+								if (gwasMap.get(efot) == null) {
+									gwasMap.put(efot, new HashSet<InterMineObject>());
+								}
+								gwasMap.get(efot).add(gwasItem);
+								if (snpMap.get(efot) == null) {
+									snpMap.put(efot, new HashSet<InterMineObject>());
+								}
+								snpMap.get(efot).add(snpItem);
+								if (publicationMap.get(efot) == null) {
+									publicationMap.put(efot, new HashSet<InterMineObject>());
+								}
+								publicationMap.get(efot).add(publicationItem);
 							}
-							publicationMap.get(efot).add(publicationItem);
 						}
 					}
-				}
 
-				for (InterMineObject efot : gwasMap.keySet()) {
-					String diseaseName = (String) efot.getFieldValue("name");
-					InterMineObject item = (InterMineObject) DynamicUtil.simpleCreateObject(
-							model.getClassDescriptorByName("GeneDiseasePair").getType());
-					item.setFieldValue("title", String.format("%s > %s", symbol, diseaseName));
-					item.setFieldValue("diseaseTerm", efot);
-					item.setFieldValue("gene", gene);
-					item.setFieldValue("gwas", gwasMap.get(efot));
-					item.setFieldValue("snps", snpMap.get(efot));
-					item.setFieldValue("publications", publicationMap.get(efot));
+					for (InterMineObject efot : gwasMap.keySet()) {
+						String diseaseName = (String) efot.getFieldValue("name");
+						InterMineObject item = (InterMineObject) DynamicUtil.simpleCreateObject(
+								model.getClassDescriptorByName("GeneDiseasePair").getType());
+						item.setFieldValue("title", String.format("%s > %s", symbol, diseaseName));
+						item.setFieldValue("diseaseTerm", efot);
+						item.setFieldValue("gene", gene);
+						item.setFieldValue("gwas", gwasMap.get(efot));
+						item.setFieldValue("snps", snpMap.get(efot));
+						item.setFieldValue("publications", publicationMap.get(efot));
+
+						writer.store(item);
 
-					osw.store(item);
+						// LOG.info("create object: " + String.format("%s > %s", symbol, diseaseName));
+					}
 
-					// LOG.info("create object: " + String.format("%s > %s", symbol, diseaseName));
+				} catch (IllegalAccessException e) {
+					e.printStackTrace();
 				}
 
-			} catch (IllegalAccessException e) {
-				e.printStackTrace();
+				count++;
 			}
-
-			count++;
 		}
-		LOG.info(String.format("Processed %d GWAS related genes.", count));
+		LOG.info(String.format("Processed %d GWAS related genes %s.", count, partition));
+		total += count;
 
 		HashSet<String> ignoredDiseaseNames = new HashSet<String>(IGNORED_DISEASE_NAMES);
-		iterator = getClinvarGenes();
+		iterator = getClinvarGenes(partition);
 		count = 0;
 		while (iterator.hasNext()) {
-			ResultsRow<?> rr = (ResultsRow<?>) iterator.next();
-			InterMineObject gene = (InterMineObject) rr.get(0);
-			try {
-				String symbol = (String) gene.getFieldValue("symbol");
-				Set<InterMineObject> snps = (Set<InterMineObject>) gene.getFieldValue("snps");
-
-				Map<InterMineObject, Set<InterMineObject>> alleleMap = new HashMap<InterMineObject, Set<InterMineObject>>();
-				Map<InterMineObject, Set<InterMineObject>> snpMap = new HashMap<InterMineObject, Set<InterMineObject>>();
-				Map<InterMineObject, Set<InterMineObject>> publicationMap = new HashMap<InterMineObject, Set<InterMineObject>>();
-
-				for (InterMineObject vaItem : snps) {
-					InterMineObject snpItem = (InterMineObject) vaItem.getFieldValue("snp");
-					Set<InterMineObject> alleles = (Set<InterMineObject>) snpItem
-							.getFieldValue("alleles");
-					for (InterMineObject allele : alleles) {
-						Set<InterMineObject> variations = (Set<InterMineObject>) allele
-								.getFieldValue("variations");
-						for (InterMineObject var : variations) {
-							Set<InterMineObject> publications = (Set<InterMineObject>) var
-									.getFieldValue("publications");
-							Set<InterMineObject> diseaseTerms = (Set<InterMineObject>) var
-									.getFieldValue("diseaseTerms");
-							for (InterMineObject dt : diseaseTerms) {
-								String diseaseTitle = (String) dt.getFieldValue("name");
-								if (ignoredDiseaseNames.contains(diseaseTitle)) {
-									continue;
-								}
-								if (alleleMap.get(dt) == null) {
-									alleleMap.put(dt, new HashSet<InterMineObject>());
-								}
-								alleleMap.get(dt).add(allele);
-								if (snpMap.get(dt) == null) {
-									snpMap.put(dt, new HashSet<InterMineObject>());
+			for (InterMineObject gene : nextBatch(iterator,
+					"snps.snp.alleles.variations.publications",
+					"snps.snp.alleles.variations.diseaseTerms")) {
+				try {
+					String symbol = (String) gene.getFieldValue("symbol");
+					Set<InterMineObject> snps = (Set<InterMineObject>) gene.getFieldValue("snps");
+
+					Map<InterMineObject, Set<InterMineObject>> alleleMap = new HashMap<InterMineObject, Set<InterMineObject>>();
+					Map<InterMineObject, Set<InterMineObject>> snpMap = new HashMap<InterMineObject, Set<InterMineObject>>();
+					Map<InterMineObject, Set<InterMineObject>> publicationMap = new HashMap<InterMineObject, Set<InterMineObject>>();
+
+					for (InterMineObject vaItem : snps) {
+						InterMineObject snpItem = (InterMineObject) vaItem.getFieldValue("snp");
+						Set<InterMineObject> alleles = (Set<InterMineObject>) snpItem
+								.getFieldValue("alleles");
+						for (InterMineObject allele : alleles) {
+							Set<InterMineObject> variations = (Set<InterMineObject>) allele
+									.getFieldValue("variations");
+							for (InterMineObject var : variations) {
+								Set<InterMineObject> publications = (Set<InterMineObject>) var
+										.getFieldValue("publications");
+								Set<InterMineObject> diseaseTerms = (Set<InterMineObject>) var
+										.getFieldValue("diseaseTerms");
+								for (InterMineObject dt : diseaseTerms) {
+									String diseaseTitle = (String) dt.getFieldValue("name");
+									if (ignoredDiseaseNames.contains(diseaseTitle)) {
+										continue;
+									}
+									if (alleleMap.get(dt) == null) {
+										alleleMap.put(dt, new HashSet<InterMineObject>());
+									}
+									alleleMap.get(dt).add(allele);
+									if (snpMap.get(dt) == null) {
+										snpMap.put(dt, new HashSet<InterMineObject>());
+									}
+									snpMap.get(dt).add(snpItem);
+									if (publicationMap.get(dt) == null) {
+										publicationMap.put(dt, new HashSet<InterMineObject>());
+									}
+									publicationMap.get(dt).addAll(publications);
 								}
-								snpMap.get(dt).add(snpItem);
-								if (publicationMap.get(dt) == null) {
-									publicationMap.put(dt, new HashSet<InterMineObject>());
-								}
-								publicationMap.get(dt).addAll(publications);
 							}
 						}
 					}
-				}
 
-				for (InterMineObject dt : alleleMap.keySet()) {
-					String diseaseName = (String) dt.getFieldValue("name");
-					InterMineObject item = (InterMineObject) DynamicUtil.simpleCreateObject(
-							model.getClassDescriptorByName("GeneDiseasePair").getType());
-					item.setFieldValue("title", String.format("%s > %s", symbol, diseaseName));
-					item.setFieldValue("diseaseTerm", dt);
-					item.setFieldValue("gene", gene);
-					item.setFieldValue("alleles", alleleMap.get(dt));
-					item.setFieldValue("snps", snpMap.get(dt));
-					item.setFieldValue("publications", publicationMap.get(dt));
+					for (InterMineObject dt : alleleMap.keySet()) {
+						String diseaseName = (String) dt.getFieldValue("name");
+						InterMineObject item = (InterMineObject) DynamicUtil.simpleCreateObject(
+								model.getClassDescriptorByName("GeneDiseasePair").getType());
+						item.setFieldValue("title", String.format("%s > %s", symbol, diseaseName));
+						item.setFieldValue("diseaseTerm", dt);
+						item.setFieldValue("gene", gene);
+						item.setFieldValue("alleles", alleleMap.get(dt));
+						item.setFieldValue("snps", snpMap.get(dt));
+						item.setFieldValue("publications", publicationMap.get(dt));
 
-					osw.store(item);
+						writer.store(item);
 
-					// LOG.info("create object: " + String.format("%s > %s", symbol, diseaseName));
+						// LOG.info("create object: " + String.format("%s > %s", symbol, diseaseName));
+					}
+
+				} catch (IllegalAccessException e) {
+					e.printStackTrace();
 				}
 
-			} catch (IllegalAccessException e) {
-				e.printStackTrace();
+				count++;
 			}
-
-			count++;
 		}
-		LOG.info(String.format("Processed %d ClinVar related genes.", count));
+		LOG.info(String.format("Processed %d ClinVar related genes %s.", count, partition));
+		total += count;
 
-		iterator = getMeshGenes();
+		iterator = getMeshGenes(partition);
 		count = 0;
 		while (iterator.hasNext()) {
-			ResultsRow<?> rr = (ResultsRow<?>) iterator.next();
-			InterMineObject gene = (InterMineObject) rr.get(0);
-			try {
-				String symbol = (String) gene.getFieldValue("symbol");
-				Set<InterMineObject> snps = (Set<InterMineObject>) gene.getFieldValue("snps");
-
-				Map<InterMineObject, Set<InterMineObject>> snpMap = new HashMap<InterMineObject, Set<InterMineObject>>();
-				Map<InterMineObject, Set<InterMineObject>> publicationMap = new HashMap<InterMineObject, Set<InterMineObject>>();
-
-				for (InterMineObject vaItem : snps) {
-					InterMineObject snpItem = (InterMineObject) vaItem.getFieldValue("snp");
-					Set<InterMineObject> publications = (Set<InterMineObject>) snpItem.getFieldValue("publications");
-					for (InterMineObject publicationItem : publications) {
-						Set<InterMineObject> meshTerms = (Set<InterMineObject>) publicationItem
-								.getFieldValue("meshTerms");
-						for (InterMineObject mesh : meshTerms) {
-							Set<InterMineObject> treeNumbers = (Set<InterMineObject>) mesh
-									.getFieldValue("treeNumbers");
-							boolean flag = true;
-							for (InterMineObject tree : treeNumbers) {
-								InterMineObject category = (InterMineObject) tree.getFieldValue("category");
-								String catId = (String) category.getFieldValue("identifier");
-								if (catId.equals("C") || catId.equals("F")) {
-									flag = false;
-									break;
+			for (InterMineObject gene : nextBatch(iterator,
+					"snps.snp.publications.meshTerms.treeNumbers.category")) {
+				try {
+					String symbol = (String) gene.getFieldValue("symbol");
+					Set<InterMineObject> snps = (Set<InterMineObject>) gene.getFieldValue("snps");
+
+					Map<InterMineObject, Set<InterMineObject>> snpMap = new HashMap<InterMineObject, Set<InterMineObject>>();
+					Map<InterMineObject, Set<InterMineObject>> publicationMap = new HashMap<InterMineObject, Set<InterMineObject>>();
+
+					for (InterMineObject vaItem : snps) {
+						InterMineObject snpItem = (InterMineObject) vaItem.getFieldValue("snp");
+						Set<InterMineObject> publications = (Set<InterMineObject>) snpItem.getFieldValue("publications");
+						for (InterMineObject publicationItem : publications) {
+							Set<InterMineObject> meshTerms = (Set<InterMineObject>) publicationItem
+									.getFieldValue("meshTerms");
+							for (InterMineObject mesh : meshTerms) {
+								Set<InterMineObject> treeNumbers = (Set<InterMineObject>) mesh
+										.getFieldValue("treeNumbers");
+								boolean flag = true;
+								for (InterMineObject tree : treeNumbers) {
+									InterMineObject category = (InterMineObject) tree.getFieldValue("category");
+									String catId = (String) category.getFieldValue("identifier");
+									if (catId.equals("C") || catId.equals("F")) {
+										flag = false;
+										break;
+									}
 								}
-							}
 							
-							if (flag) {
-								continue;
-							}
+								if (flag) {
+									continue;
+								}
 							
-							if (snpMap.get(mesh) == null) {
-								snpMap.put(mesh, new HashSet<InterMineObject>());
-							}
-							snpMap.get(mesh).add(snpItem);
-							if (publicationMap.get(mesh) == null) {
-								publicationMap.put(mesh, new HashSet<InterMineObject>());
+								if (snpMap.get(mesh) == null) {
+									snpMap.put(mesh, new HashSet<InterMineObject>());
+								}
+								snpMap.get(mesh).add(snpItem);
+								if (publicationMap.get(mesh) == null) {
+									publicationMap.put(mesh, new HashSet<InterMineObject>());
+								}
+								publicationMap.get(mesh).add(publicationItem);
 							}
-							publicationMap.get(mesh).add(publicationItem);
 						}
 					}
-				}
 
-				for (InterMineObject mesh : publicationMap.keySet()) {
-					String diseaseName = (String) mesh.getFieldValue("name");
-					InterMineObject item = (InterMineObject) DynamicUtil.simpleCreateObject(
-							model.getClassDescriptorByName("GeneDiseasePair").getType());
-					item.setFieldValue("title", String.format("%s > %s", symbol, diseaseName));
-					item.setFieldValue("diseaseTerm", mesh);
-					item.setFieldValue("gene", gene);
-					item.setFieldValue("snps", snpMap.get(mesh));
-					item.setFieldValue("publications", publicationMap.get(mesh));
-
-					osw.store(item);
+					for (InterMineObject mesh : publicationMap.keySet()) {
+						String diseaseName = (String) mesh.getFieldValue("name");
+						InterMineObject item = (InterMineObject) DynamicUtil.simpleCreateObject(
+								model.getClassDescriptorByName("GeneDiseasePair").getType());
+						item.setFieldValue("title", String.format("%s > %s", symbol, diseaseName));
+						item.setFieldValue("diseaseTerm", mesh);
+						item.setFieldValue("gene", gene);
+						item.setFieldValue("snps", snpMap.get(mesh));
+						item.setFieldValue("publications", publicationMap.get(mesh));
+
+						writer.store(item);
+					}
+
+				} catch (IllegalAccessException e) {
+					e.printStackTrace();
 				}
 
-			} catch (IllegalAccessException e) {
-				e.printStackTrace();
+				count++;
 			}
-
-			count++;
 		}
-		LOG.info(String.format("Processed %d MeSH disease term related genes.", count));
+		LOG.info(String.format("Processed %d MeSH disease term related genes %s.", count,
+				partition));
+		total += count;
 
-		
-		osw.commitTransaction();
+		return total;
+	}
+
+	/**
+	 * Read the next batch of genes, and load everything along the paths for all of them at
+	 * once, rather than with a query for each gene, SNP and annotation.
+	 */
+	private List<InterMineObject> nextBatch(Iterator<?> iterator, String... paths)
+			throws ObjectStoreException {
+		List<InterMineObject> genes = new ArrayList<InterMineObject>();
+		while (iterator.hasNext() && genes.size() < BATCH_SIZE) {
+			ResultsRow<?> rr = (ResultsRow<?>) iterator.next();
+			genes.add((InterMineObject) rr.get(0));
+		}
+		os.prefetch(genes, paths);
+		return genes;
 	}
 
-	private Iterator<?> getGwasGenes() throws ObjectStoreException {
+	private Iterator<?> getGwasGenes(Partition partition) throws ObjectStoreException {
 		Query q = new Query();
 		QueryClass qcGene = new QueryClass(
 				os.getModel().getClassDescriptorByName("Gene").getType());
@@ -282,6 +318,7 @@ public class DiseaseSummaryPostprocess extends PostProcessor {
 		QueryCollectionReference qcr1 = new QueryCollectionReference(qcGene, "snps");
 		cs.addConstraint(
 				new ContainsConstraint(qcr1, ConstraintOp.CONTAINS, qcVariationAnnotation));
+		cs.addConstraint(partition.createConstraint(qcGene));
 		QueryObjectReference qor1 = new QueryObjectReference(qcVariationAnnotation, "snp");
 		cs.addConstraint(new ContainsConstraint(qor1, ConstraintOp.CONTAINS, qcSnp));
 		QueryCollectionReference qcr2 = new QueryCollectionReference(qcSnp,
@@ -294,7 +331,7 @@ public class DiseaseSummaryPostprocess extends PostProcessor {
 		return results.iterator();
 	}
 
-	private Iterator<?> getClinvarGenes() throws ObjectStoreException {
+	private Iterator<?> getClinvarGenes(Partition partition) throws ObjectStoreException {
 		Query q = new Query();
 		QueryClass qcGene = new QueryClass(
 				os.getModel().getClassDescriptorByName("Gene").getType());
@@ -318,6 +355,7 @@ public class DiseaseSummaryPostprocess extends PostProcessor {
 		QueryCollectionReference qcr1 = new QueryCollectionReference(qcGene, "snps");
 		cs.addConstraint(
 				new ContainsConstraint(qcr1, ConstraintOp.CONTAINS, qcVariationAnnotation));
+		cs.addConstraint(partition.createConstraint(qcGene));
 		QueryObjectReference qor1 = new QueryObjectReference(qcVariationAnnotation, "snp");
 		cs.addConstraint(new ContainsConstraint(qor1, ConstraintOp.CONTAINS, qcSnp));
 		QueryCollectionReference qcr2 = new QueryCollectionReference(qcSnp, "alleles");
@@ -331,7 +369,7 @@ public class DiseaseSummaryPostprocess extends PostProcessor {
 		return results.iterator();
 	}
 
-	private Iterator<?> getMeshGenes() throws ObjectStoreException {
+	private Iterator<?> getMeshGenes(Partition partition) throws ObjectStoreException {
 		Query q = new Query();
 		QueryClass qcGene = new QueryClass(
 				os.getModel().getClassDescriptorByName("Gene").getType());
@@ -363,6 +401,7 @@ public class DiseaseSummaryPostprocess extends PostProcessor {
 		QueryCollectionReference qcr1 = new QueryCollectionReference(qcGene, "snps");
 		cs.addConstraint(
 				new ContainsConstraint(qcr1, ConstraintOp.CONTAINS, qcVariationAnnotation));
+		cs.addConstraint(partition.createConstraint(qcGene));
 		QueryObjectReference qor1 = new QueryObjectReference(qcVariationAnnotation, "snp");
 		cs.addConstraint(new ContainsConstraint(qor1, ConstraintOp.CONTAINS, qcSnp));
 		QueryCollectionReference qcr2 = new QueryCollectionReference(qcSnp, "publications");
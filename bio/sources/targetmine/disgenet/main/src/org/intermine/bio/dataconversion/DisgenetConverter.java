@@ -2,20 +2,18 @@ package org.intermine.bio.dataconversion;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.intermine.bio.io.DelimitedRecordReader;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.FormattedTextParser;
 import org.intermine.xml.full.Item;
 
 
@@ -73,23 +71,22 @@ public class DisgenetConverter extends BioFileConverter {
     	readPmidMap();
     	readDiseaseMap();
     	
-    	Iterator<String[]> iterator = FormattedTextParser.parseTabDelimitedReader(reader);
+    	DelimitedRecordReader records = new DelimitedRecordReader(reader, '\t');
     	
     	// first line is the header
-    	iterator.next();
+    	records.next();
     	
-    	while (iterator.hasNext()) {
-    		String[] cols = iterator.next();
-    		String diseaseId = cols[2];
-    		String diseaseName = cols[3];
-    		String geneId = cols[0];
-    		String source = cols[7];
+    	while (records.next()) {
+    		String diseaseId = records.getString(2);
+    		String diseaseName = records.getString(3);
+    		String geneId = records.getString(0);
+    		DelimitedRecordReader.SubFields sourceIds = records.split(7, ',', true);
     		
     		Item item = createItem("Disease");
 			item.setReference("diseaseTerm", getDiseaseTerm(diseaseId, diseaseName));
 			item.setReference("gene", getGene(geneId));
-			for (String sourceId: source.split(",")) {
-    			String name = sourceNameMap.get(sourceId);
+			for (int i = 0; i < sourceIds.size(); i++) {
+    			String name = sourceNameMap.get(sourceIds.getString(i));
     			if (name != null) {
     				item.addToCollection("sources", getDataSource(name));
     			}
@@ -112,29 +109,27 @@ public class DisgenetConverter extends BioFileConverter {
 		System.out.println(String.format("Parsing the file %s ......", fn));
 		
 		try {
-			FileReader reader = new FileReader(pmidFile);
-			Iterator<String[]> iterator = FormattedTextParser.parseTabDelimitedReader(reader);
+			DelimitedRecordReader records = DelimitedRecordReader.open(pmidFile, '\t');
 
 			// first line is the header
-	    	iterator.next();
+	    	records.next();
 	    	
-			while (iterator.hasNext()) {
-				String[] cols = iterator.next();
-				String geneId = cols[0];
-				String diseaseId = cols[1];
-				String pmid = cols[4];
+			while (records.next()) {
+				String geneId = records.getString(0);
+				String diseaseId = records.getString(1);
 				try {
-					String key = String.format("%s-%s", geneId, diseaseId);
+					int pmid = records.getInt(4);
+					String key = geneId + "-" + diseaseId;
 					if (pmidMap.get(key) == null) {
 						pmidMap.put(key, new HashSet<Integer>());
 					}
-					pmidMap.get(key).add(Integer.parseInt(pmid));
+					pmidMap.get(key).add(pmid);
 				} catch (NumberFormatException e) {
-					LOG.info(String.format("Unable to process the pmid: %s (%s, %s)", pmid, geneId, diseaseId));
+					LOG.info(String.format("Unable to process the pmid: %s (%s, %s)", records.getString(4), geneId, diseaseId));
 					continue;
 				}
 			}
-			reader.close();
+			records.close();
 			
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -151,33 +146,28 @@ public class DisgenetConverter extends BioFileConverter {
 		System.out.println(String.format("Parsing the file %s ......", fn));
 		
 		try {
-			FileReader reader = new FileReader(diseaseMapFile);
-			Iterator<String[]> iterator = FormattedTextParser.parseTabDelimitedReader(reader);
+			DelimitedRecordReader records = DelimitedRecordReader.open(diseaseMapFile, '\t');
 			
 			// first line is the header
-			iterator.next();
+			records.next();
 			
-			while (iterator.hasNext()) {
-				String[] cols = iterator.next();
-				String diseaseId = cols[0];
-				String ontology = cols[2];
-				String code = cols[3];
-				
+			while (records.next()) {
 				String ontologyId = "";
-				if (ontology.equals("DO")) {
-					ontologyId = "DOID:" + code;
-				} else if (ontology.equals("MSH")) {
-					ontologyId = code;
+				if (records.fieldEquals(2, "DO")) {
+					ontologyId = "DOID:" + records.getString(3);
+				} else if (records.fieldEquals(2, "MSH")) {
+					ontologyId = records.getString(3);
 				} else {
 					continue;
 				}
+				String diseaseId = records.getString(0);
 				
 				if (ontologyIdMap.get(diseaseId) == null) {
 					ontologyIdMap.put(diseaseId, new HashSet<String>());
 				}
 				ontologyIdMap.get(diseaseId).add(ontologyId);
 			}
-			reader.close();
+			records.close();
 			
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
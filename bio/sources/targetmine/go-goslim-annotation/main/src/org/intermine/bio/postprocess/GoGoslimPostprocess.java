@@ -38,15 +38,16 @@ import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryObjectReference;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
-import org.intermine.postprocess.PostProcessor;
+import org.intermine.postprocess.PartitionedPostProcessor;
 
 /**
  * NOTE: borrow from InterMine go-annotation source
  * Take any GOAnnotation objects assigned to proteins and copy them to corresponding genes.
+ * The genes are processed in ranges of id on several threads.
  *
  * @author Richard Smith
  */
-public class GoGoslimPostprocess extends PostProcessor
+public class GoGoslimPostprocess extends PartitionedPostProcessor
 {
     private static final Logger LOG = Logger.getLogger(GoGoslimPostprocess.class);
     protected ObjectStore os;
@@ -57,23 +58,36 @@ public class GoGoslimPostprocess extends PostProcessor
      * @param osw writer on genomic ObjectStore
      */
     public GoGoslimPostprocess(ObjectStoreWriter osw) {
-        super(osw);
+        super(osw, Gene.class);
         this.os = osw.getObjectStore();
     }
 
 
     /**
-     * Copy all GO annotations from the Protein objects to the corresponding Gene(s)
+     * {@inheritDoc}
+     */
+    @Override
+    protected void prepare() throws ObjectStoreException {
+        // The query for each partition can use the precomputed table for the whole query
+        ((ObjectStoreInterMineImpl) os).precompute(createQuery(null),
+                Constants.PRECOMPUTE_CATEGORY);
+    }
+
+    /**
+     * Copy all GO annotations from the Protein objects to the corresponding Gene(s) in a range
+     * of gene ids.
+     * @param partition the range of gene ids
+     * @param writer the writer to store the new annotations and the genes with
+     * @return the number of annotations created
      * @throws ObjectStoreException if anything goes wrong
      */
     @Override
-    public void postProcess() throws ObjectStoreException {
+    protected int processPartition(Partition partition, ObjectStoreWriter writer)
+        throws ObjectStoreException {
 
         long startTime = System.currentTimeMillis();
 
-        osw.beginTransaction();
-
-        Iterator<?> resIter = findProteinProperties(false);
+        Iterator<?> resIter = findProteinProperties(partition);
 
         int count = 0;
         Gene lastGene = null;
@@ -87,12 +101,12 @@ public class GoGoslimPostprocess extends PostProcessor
             // process last set of annotations if this is a new gene
             if (lastGene != null && !(lastGene.equals(thisGene))) {
                 for (GOAnnotation item : annotations.values()) {
-                    osw.store(item);
+                    writer.store(item);
                 }
                 lastGene.setGoAnnotation(new HashSet<GOAnnotation>(annotations.values()));
                 LOG.debug("store gene " + lastGene.getSecondaryIdentifier() + " with "
                         + lastGene.getGoAnnotation().size() + " GO.");
-                osw.store(lastGene);
+                writer.store(lastGene);
 
                 lastGene = thisGene;
                 annotations = new HashMap<OntologyTerm, GOAnnotation>();
@@ -120,17 +134,17 @@ public class GoGoslimPostprocess extends PostProcessor
 
         if (lastGene != null) {
             for (GOAnnotation item : annotations.values()) {
-                osw.store(item);
+                writer.store(item);
             }
             lastGene.setGoAnnotation(new HashSet<GOAnnotation>(annotations.values()));
             LOG.debug("store gene " + lastGene.getSecondaryIdentifier() + " with "
                     + lastGene.getGoAnnotation().size() + " GO.");
-            osw.store(lastGene);
+            writer.store(lastGene);
         }
 
-        LOG.info("Created " + count + " new GOAnnotation objects for Genes"
+        LOG.info("Created " + count + " new GOAnnotation objects for Genes " + partition
                 + " - took " + (System.currentTimeMillis() - startTime) + " ms.");
-        osw.commitTransaction();
+        return count;
     }
 
     private boolean hasDupes(Map<OntologyTerm, GOAnnotation> annotations, OntologyTerm term,
@@ -183,11 +197,19 @@ public class GoGoslimPostprocess extends PostProcessor
      * Query Gene->Protein->Annotation->GOTerm and return an iterator over the Gene,
      *  Protein and GOTerm.
      *
-     * @param restrictToPrimaryGoTermsOnly Only get primary Annotation items linking the gene
-     *  and the go term.
+     * @param partition the range of gene ids to query for
      */
-    private Iterator<?> findProteinProperties(boolean restrictToPrimaryGoTermsOnly)
-        throws ObjectStoreException {
+    private Iterator<?> findProteinProperties(Partition partition) throws ObjectStoreException {
+        Results res = os.execute(createQuery(partition), 5000, true, true, true);
+        return res.iterator();
+    }
+
+    /**
+     * Create the query for Gene->Protein->Annotation, ordered by gene.
+     *
+     * @param partition the range of gene ids to query for, or null for all genes
+     */
+    private Query createQuery(Partition partition) {
         Query q = new Query();
 
         q.setDistinct(false);
@@ -213,10 +235,11 @@ public class GoGoslimPostprocess extends PostProcessor
             new QueryObjectReference(qcAnnotation, "subject");
         cs.addConstraint(new ContainsConstraint(annSubjectRef, ConstraintOp.CONTAINS, qcProtein));
 
-        q.setConstraint(cs);
+        if (partition != null) {
+            cs.addConstraint(partition.createConstraint(qcGene));
+        }
 
-        ((ObjectStoreInterMineImpl) os).precompute(q, Constants.PRECOMPUTE_CATEGORY);
-        Results res = os.execute(q, 5000, true, true, true);
-        return res.iterator();
+        q.setConstraint(cs);
+        return q;
     }
 }
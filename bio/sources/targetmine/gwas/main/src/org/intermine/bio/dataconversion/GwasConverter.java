@@ -2,15 +2,13 @@ package org.intermine.bio.dataconversion;
 
 import java.io.Reader;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.input.ReaderInputStream;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.intermine.bio.io.DelimitedRecordReader;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
@@ -46,22 +44,20 @@ public class GwasConverter extends BioFileConverter {
 		super(writer, model, DATA_SOURCE_NAME, DATASET_TITLE);
 	}
 
-	private static String ENCODING = "utf-8";
-
 	/**
 	 * 
 	 * 
 	 * {@inheritDoc}
 	 */
 	public void process(Reader reader) throws Exception {
-		List<String> lines = IOUtils.readLines(new ReaderInputStream(reader, ENCODING), ENCODING);
-		// sikp header
-//		iterator.next();
-		for (int i = 1; i < lines.size(); i++) {
-			String[] cols = lines.get(i).split("\t");
-			if (cols.length < 2) {
+		DelimitedRecordReader records = new DelimitedRecordReader(reader, '\t');
+		// skip header
+		records.next();
+		while (records.next()) {
+			if (records.getFieldCount() < 2) {
 				continue;
 			}
+			String[] cols = records.toArray();
 			Item gwaItem = createItem("GenomeWideAssociation");
 			gwaItem.setAttribute("accession", cols[36]);
 			gwaItem.setAttribute("date", cols[0]);
@@ -8,18 +8,20 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.intermine.bio.io.DelimitedRecordReader;
+import org.intermine.bio.io.OrderedRecordPipeline;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
-import org.intermine.util.FormattedTextParser;
 import org.intermine.xml.full.Item;
 
 /**
@@ -43,12 +45,15 @@ public class IrefindexConverter extends BioFileConverter {
 	private Map<String, String> pubMap = new HashMap<String, String>();
 	private Map<String, String> miMap = new HashMap<String, String>();
 	private Map<MultiKey, String> expMap = new HashMap<MultiKey, String>();
-	private Map<MultiKey, Item> intMap = new HashMap<MultiKey, Item>();
+	private Map<MultiKey, String> intMap = new HashMap<MultiKey, String>();
 
 	// to prevent duplications
-	private Map<String, String> detailMap = new HashMap<String, String>();
+	private Map<MultiKey, String> detailMap = new HashMap<MultiKey, String>();
 	private Map<String, Item> sourceMap = new HashMap<String, Item>();
 
+	private ConcurrentMap<String, String> identifiers = new ConcurrentHashMap<String, String>();
+	private int threads = 2;
+
 	/**
 	 * Constructor
 	 * 
@@ -62,7 +67,22 @@ public class IrefindexConverter extends BioFileConverter {
 	}
 
 	/**
+	 * Sets the number of threads that parse rows while items are created from the rows
+	 * already parsed.
 	 * 
+	 * @param threads
+	 *            the number of parsing threads
+	 */
+	public void setIrefindexThreads(String threads) {
+		if (StringUtils.isNotBlank(threads)) {
+			this.threads = Integer.parseInt(threads.trim());
+		}
+	}
+
+	/**
+	 * Rows are read and filtered on one thread and parsed into InteractionRecords on a pool of
+	 * workers. Items are created here, from the records in file order, so they are the same as
+	 * when the rows were processed one at a time.
 	 * 
 	 * {@inheritDoc}
 	 */
@@ -71,83 +91,224 @@ public class IrefindexConverter extends BioFileConverter {
 			readInteractionType();
 		}
 
-		Iterator<String[]> iterator = FormattedTextParser
-				.parseTabDelimitedReader(new BufferedReader(reader));
+		OrderedRecordPipeline<String[], InteractionRecord> records =
+				new OrderedRecordPipeline<String[], InteractionRecord>("iRefIndex",
+						new RowSource(reader), new RowParser(), threads);
+		try {
+			while (records.hasNext()) {
+				processRecord(records.next());
+			}
+		} finally {
+			records.close();
+			// the values are only shared within one file
+			identifiers.clear();
+		}
+	}
 
-		// skip header
-		iterator.next();
+	/**
+	 * Reads the rows of a MITAB file, leaving out text mining and predicted interactions before
+	 * copying their fields.
+	 */
+	private static class RowSource implements OrderedRecordPipeline.RecordSource<String[]> {
+		private final Reader reader;
 
-		while (iterator.hasNext()) {
-			String[] cols = iterator.next();
+		RowSource(Reader reader) {
+			this.reader = reader;
+		}
 
-			if (cols[7].equals("OPHID Predicted Protein Interaction")
-					|| cols[7].equals("HPRD Text Mining Confirmation")
-					|| cols[7].equals("MINT Text Mining Confirmation")) {
-				continue;
+		@Override
+		public void read(OrderedRecordPipeline.RecordSink<String[]> sink) throws Exception {
+			DelimitedRecordReader records = new DelimitedRecordReader(reader, '\t');
+
+			// skip header
+			records.next();
+
+			while (records.next()) {
+				if (records.fieldEquals(7, "OPHID Predicted Protein Interaction")
+						|| records.fieldEquals(7, "HPRD Text Mining Confirmation")
+						|| records.fieldEquals(7, "MINT Text Mining Confirmation")) {
+					continue;
+				}
+				sink.add(records.toArray());
 			}
+		}
+	}
+
+	/**
+	 * Parses the columns of a row into an InteractionRecord, or null if the row is not loaded.
+	 */
+	private class RowParser
+			implements OrderedRecordPipeline.RecordTransformer<String[], InteractionRecord> {
 
+		@Override
+		public InteractionRecord transform(String[] cols) {
 			// some data from OPHID are not tagged in the author column
 			String sourceDb = getMiDesc(cols[12]);
 			if (sourceDb.equals("ophid")) {
-				continue;
+				return null;
 			}
 			if (sourceDb.equals("biogrid")) {
-				continue;
+				return null;
 			}
+			InteractionRecord record = new InteractionRecord();
+			record.sourceDb = canonical(sourceDb);
 			String[] ids = cols[13].split("\\|");
-			String sourceId = ids[0];
+			record.sourceId = ids[0];
 
-			Set<String> geneASet = processAltIdentifier(cols[2]);
-			if (geneASet.isEmpty()) {
-				continue;
+			record.geneASet = processAltIdentifier(cols[2]);
+			if (record.geneASet.isEmpty()) {
+				return null;
 			}
-			Set<String> geneBSet = processAltIdentifier(cols[3]);
-			if (geneBSet.isEmpty()) {
-				continue;
+			record.geneBSet = processAltIdentifier(cols[3]);
+			if (record.geneBSet.isEmpty()) {
+				return null;
 			}
-			
+
 			// in case there are redundant entries
 			String[] pmids = cols[8].split("\\|");
-			
-			Set<String> expRefIdSet = new HashSet<String>();
+			for (int i = 0; i < pmids.length; i++) {
+				pmids[i] = canonical(pmids[i]);
+			}
+			record.pmids = pmids;
+			record.author = canonical(cols[7]);
 			String detectioniMethod = cols[6];
 			// these terms were deprecated
 			if (detectioniMethod.equals("MI:0492(in vitro)") || detectioniMethod.equals("MI:0493(in vivo)")) {
 				detectioniMethod = "-";
 			}
-			for (String pmid : pmids) {
-				expRefIdSet.add(getExperiment(pmid, cols[7], detectioniMethod, cols[28]));
-				// , sourceDb, ids[0]
+			record.detectionMethod = canonical(detectioniMethod);
+			record.host = canonical(cols[28]);
+
+			record.role1 = canonical(getMiDesc(cols[18]));
+			record.role2 = canonical(getMiDesc(cols[19]));
+
+			record.self = cols[0].equals(cols[1])
+					|| StringUtils.join(record.geneASet, "_").equals(StringUtils.join(record.geneBSet, "_"));
+			if (!cols[11].equals("-")) {
+				String miType = cols[11].substring(0, 7);
+				if (cols[11].startsWith("psi-mi:")) {
+					miType = cols[11].substring(8, 15);
+				}
+				record.miType = canonical(miType);
 			}
-			List<String> expRefIds = new ArrayList<String>(expRefIdSet);
-			Collections.sort(expRefIds);
+			record.taxonA = canonical(cols[9]);
+			record.taxonB = canonical(cols[10]);
+			return record;
+		}
+	}
+
+	/**
+	 * The columns of one row that are loaded.
+	 */
+	private static class InteractionRecord {
+		private String sourceDb;
+		private String sourceId;
+		private Set<String> geneASet;
+		private Set<String> geneBSet;
+		private String[] pmids;
+		private String author;
+		private String detectionMethod;
+		private String host;
+		private String role1;
+		private String role2;
+		private boolean self;
+		private String miType;
+		private String taxonA;
+		private String taxonB;
+	}
+
+	/**
+	 * Returns the one copy of a value that is kept for all rows of a file, so that values repeated
+	 * in many rows, such as gene identifiers and PubMed ids, are only held once. This is called by
+	 * the parsing threads at the same time.
+	 */
+	private String canonical(String value) {
+		String existing = identifiers.putIfAbsent(value, value);
+		return existing == null ? value : existing;
+	}
+
+	private void processRecord(InteractionRecord record) throws ObjectStoreException {
+		String sourceDb = record.sourceDb;
+		String sourceId = record.sourceId;
+		Set<String> geneASet = record.geneASet;
+		Set<String> geneBSet = record.geneBSet;
+
+		Set<String> expRefIdSet = new HashSet<String>();
+		for (String pmid : record.pmids) {
+			expRefIdSet.add(getExperiment(pmid, record.author, record.detectionMethod, record.host));
+			// , sourceDb, ids[0]
+		}
+		List<String> expRefIds = new ArrayList<String>(expRefIdSet);
+		Collections.sort(expRefIds);
+
+		String role1 = record.role1;
+		String role2 = record.role2;
+
+		if (record.self) {
+			// self-interaction
+			for (String geneA : geneASet) {
+				String geneARef = getGene(geneA, record.taxonA);
+
+				String interaction = getInteraction(geneARef, geneARef);
+
+				for (String expRefId : expRefIds) {
+					MultiKey intKey = new MultiKey(geneA, geneA, expRefId);
+					if (detailMap.get(intKey) != null) {
+						addToSource(sourceDb, sourceId, detailMap.get(intKey), null);
+						continue;
+					}
+					Item detail = createItem("InteractionDetail");
+
+					if (role1 != null) {
+						detail.setAttribute("role1", role1);
+					}
+					if (role2 != null) {
+						detail.setAttribute("role2", role2);
+					}
+					String relationshipType = null;
+					String intType = null;
+					if (record.miType != null) {
+						relationshipType = getInteractionTerm(record.miType);
+						detail.setReference("relationshipType", relationshipType);
+						intType = getInteractionType(record.miType);
+					}
+					if (intType == null) {
+						intType = "unspecified";
+					}
+					detail.setAttribute("type", intType);
+
+					detail.setReference("experiment", expRefId);
+					detail.setAttribute("name", String.format("iRef:%s-%s", geneA, geneA));
+
+					detail.addToCollection("allInteractors", geneARef);
+
+					detail.setReference("interaction", interaction);
+
+					store(detail);
+					detailMap.put(intKey, detail.getIdentifier());
+
+					addToSource(sourceDb, sourceId, detailMap.get(intKey), null);
+				}
+			}
+
+		} else {
+			for (String geneA : geneASet) {
+				for (String geneB : geneBSet) {
+					String geneARef = getGene(geneA, record.taxonA);
+					String geneBRef = getGene(geneB, record.taxonB);
+
+					String interaction = getInteraction(geneARef, geneBRef);
 
-			String role1 = getMiDesc(cols[18]);
-			String role2 = getMiDesc(cols[19]);
-			
-			if (cols[0].equals(cols[1]) || StringUtils.join(geneASet, "_").equals(StringUtils.join(geneBSet, "_"))) {
-				// self-interaction
-				for (String geneA : geneASet) {
-					String geneARef = getGene(geneA, cols[9]);
-					
-					Item interaction = getInteraction(geneARef, geneARef);
-					
 					for (String expRefId : expRefIds) {
-						String intKey = String.format("%s_%s_%s", geneA, geneA, expRefId);
+						MultiKey intKey = new MultiKey(geneA, geneB, expRefId);
+						MultiKey intKey2 = new MultiKey(geneB, geneA, expRefId);
 						if (detailMap.get(intKey) != null) {
-							if (sourceMap.get(sourceId) == null) {
-								Item source = createItem("InteractionSource");
-								source.setAttribute("sourceDb", sourceDb);
-								source.setAttribute("sourceId", sourceId);
-								source.addToCollection("details", detailMap.get(intKey));
-								sourceMap.put(sourceId, source);
-							} else {
-								sourceMap.get(sourceId).addToCollection("details", detailMap.get(intKey));
-							}
+							addToSource(sourceDb, sourceId, detailMap.get(intKey), detailMap.get(intKey2));
 							continue;
 						}
+
 						Item detail = createItem("InteractionDetail");
-						
+
 						if (role1 != null) {
 							detail.setAttribute("role1", role1);
 						}
@@ -156,177 +317,102 @@ public class IrefindexConverter extends BioFileConverter {
 						}
 						String relationshipType = null;
 						String intType = null;
-						if (!cols[11].equals("-")) {
-							String miType = cols[11].substring(0, 7);
-							if (cols[11].startsWith("psi-mi:")) {
-								miType = cols[11].substring(8, 15);
-							}
-							relationshipType = getInteractionTerm(miType);
+						if (record.miType != null) {
+							relationshipType = getInteractionTerm(record.miType);
 							detail.setReference("relationshipType", relationshipType);
-							// physical or genetic
-							String interactionType = interactionTypeMap.get(miType);
-							if (interactionType != null) {
-								intType = interactionType;
-							} else {
-								LOG.error(String.format("Cannot resolve interaction type: %s", miType));
-							}
+							intType = getInteractionType(record.miType);
 						}
 						if (intType == null) {
 							intType = "unspecified";
 						}
 						detail.setAttribute("type", intType);
-						
+
 						detail.setReference("experiment", expRefId);
-						detail.setAttribute("name", String.format("iRef:%s-%s", geneA, geneA));
-						
+						detail.setAttribute("name", String.format("iRef:%s-%s", geneA, geneB));
+
 						detail.addToCollection("allInteractors", geneARef);
-						
+						detail.addToCollection("allInteractors", geneBRef);
+
 						detail.setReference("interaction", interaction);
-						
+
 						store(detail);
 						detailMap.put(intKey, detail.getIdentifier());
-						
-						if (sourceMap.get(sourceId) == null) {
-							Item source = createItem("InteractionSource");
-							source.setAttribute("sourceDb", sourceDb);
-							source.setAttribute("sourceId", sourceId);
-							source.addToCollection("details", detailMap.get(intKey));
-							sourceMap.put(sourceId, source);
-						} else {
-							sourceMap.get(sourceId).addToCollection("details", detailMap.get(intKey));
+
+						String interaction2 = getInteraction(geneBRef, geneARef);
+						Item detail2 = createItem("InteractionDetail");
+
+						if (role1 != null) {
+							detail2.setAttribute("role2", role1);
 						}
-					}
-				}
-				
-			} else {
-				for (String geneA : geneASet) {
-					for (String geneB : geneBSet) {
-						String geneARef = getGene(geneA, cols[9]);
-						String geneBRef = getGene(geneB, cols[10]);
-						
-						Item interaction = getInteraction(geneARef, geneBRef);
-						
-						for (String expRefId : expRefIds) {
-							String intKey = String.format("%s_%s_%s", geneA, geneB, expRefId);
-							String intKey2 = String.format("%s_%s_%s", geneB, geneA, expRefId);
-							if (detailMap.get(intKey) != null) {
-								if (sourceMap.get(sourceId) == null) {
-									Item source = createItem("InteractionSource");
-									source.setAttribute("sourceDb", sourceDb);
-									source.setAttribute("sourceId", sourceId);
-									source.addToCollection("details", detailMap.get(intKey));
-									source.addToCollection("details", detailMap.get(intKey2));
-									sourceMap.put(sourceId, source);
-								} else {
-									sourceMap.get(sourceId).addToCollection("details", detailMap.get(intKey));
-									sourceMap.get(sourceId).addToCollection("details", detailMap.get(intKey2));
-								}
-								continue;
-							}
-							
-							Item detail = createItem("InteractionDetail");
-							
-							if (role1 != null) {
-								detail.setAttribute("role1", role1);
-							}
-							if (role2 != null) {
-								detail.setAttribute("role2", role2);
-							}
-							String relationshipType = null;
-							String intType = null;
-							if (!cols[11].equals("-")) {
-								String miType = cols[11].substring(0, 7);
-								if (cols[11].startsWith("psi-mi:")) {
-									miType = cols[11].substring(8, 15);
-								}
-								relationshipType = getInteractionTerm(miType);
-								detail.setReference("relationshipType", relationshipType);
-								// physical or genetic
-								String interactionType = interactionTypeMap.get(miType);
-								if (interactionType != null) {
-									intType = interactionType;
-								} else {
-									LOG.error(String.format("Cannot resolve interaction type: %s", miType));
-								}
-							}
-							if (intType == null) {
-								intType = "unspecified";
-							}
-							detail.setAttribute("type", intType);
-							
-							detail.setReference("experiment", expRefId);
-							detail.setAttribute("name", String.format("iRef:%s-%s", geneA, geneB));
-							
-							detail.addToCollection("allInteractors", geneARef);
-							detail.addToCollection("allInteractors", geneBRef);
-							
-							detail.setReference("interaction", interaction);
-							
-							store(detail);
-							detailMap.put(intKey, detail.getIdentifier());
-							
-							Item interaction2 = getInteraction(geneBRef, geneARef);
-							Item detail2 = createItem("InteractionDetail");
-							
-							if (role1 != null) {
-								detail2.setAttribute("role2", role1);
-							}
-							if (role2 != null) {
-								detail2.setAttribute("role1", role2);
-							}
-							
-							if (relationshipType != null) {
-								detail2.setReference("relationshipType",relationshipType);
-							}
-							detail2.setAttribute("type", intType);
-							detail2.setReference("experiment", expRefId);
-							detail2.setAttribute("name", String.format("iRef:%s-%s", geneB, geneA));
-							
-							detail2.addToCollection("allInteractors", geneARef);
-							detail2.addToCollection("allInteractors", geneBRef);
-							
-							detail2.setReference("interaction", interaction2);
-							
-							store(detail2);
-							detailMap.put(intKey2, detail2.getIdentifier());
-							
-							if (sourceMap.get(sourceId) == null) {
-								Item source = createItem("InteractionSource");
-								source.setAttribute("sourceDb", sourceDb);
-								source.setAttribute("sourceId", sourceId);
-								source.addToCollection("details", detailMap.get(intKey));
-								source.addToCollection("details", detailMap.get(intKey2));
-								sourceMap.put(sourceId, source);
-							} else {
-								sourceMap.get(sourceId).addToCollection("details", detailMap.get(intKey));
-								sourceMap.get(sourceId).addToCollection("details", detailMap.get(intKey2));
-							}
+						if (role2 != null) {
+							detail2.setAttribute("role1", role2);
 						}
-						
+
+						if (relationshipType != null) {
+							detail2.setReference("relationshipType",relationshipType);
+						}
+						detail2.setAttribute("type", intType);
+						detail2.setReference("experiment", expRefId);
+						detail2.setAttribute("name", String.format("iRef:%s-%s", geneB, geneA));
+
+						detail2.addToCollection("allInteractors", geneARef);
+						detail2.addToCollection("allInteractors", geneBRef);
+
+						detail2.setReference("interaction", interaction2);
+
+						store(detail2);
+						detailMap.put(intKey2, detail2.getIdentifier());
+
+						addToSource(sourceDb, sourceId, detailMap.get(intKey), detailMap.get(intKey2));
 					}
-				
-			}
-			
-			
+
+				}
+
 			}
-			
 		}
+	}
+
+	/**
+	 * Add details to the InteractionSource for a source id, creating it if this is the first
+	 * time the source id is seen.
+	 */
+	private void addToSource(String sourceDb, String sourceId, String detail, String detail2) {
+		Item source = sourceMap.get(sourceId);
+		if (source == null) {
+			source = createItem("InteractionSource");
+			source.setAttribute("sourceDb", sourceDb);
+			source.setAttribute("sourceId", sourceId);
+			sourceMap.put(sourceId, source);
+		}
+		source.addToCollection("details", detail);
+		if (detail2 != null) {
+			source.addToCollection("details", detail2);
+		}
+	}
 
+	// physical or genetic
+	private String getInteractionType(String miType) {
+		String interactionType = interactionTypeMap.get(miType);
+		if (interactionType == null) {
+			LOG.error(String.format("Cannot resolve interaction type: %s", miType));
+		}
+		return interactionType;
 	}
 
 	private String getMiDesc(String s) {
 		return s.substring(8, s.length() - 1);
 	}
 
-    private Item getInteraction(String refId, String gene2RefId) throws ObjectStoreException {
+    private String getInteraction(String refId, String gene2RefId) throws ObjectStoreException {
         MultiKey key = new MultiKey(refId, gene2RefId);
-        Item interaction = intMap.get(key);
+        String interaction = intMap.get(key);
         if (interaction == null) {
-            interaction = createItem("Interaction");
-            interaction.setReference("gene1", refId);
-            interaction.setReference("gene2", gene2RefId);
+            Item item = createItem("Interaction");
+            item.setReference("gene1", refId);
+            item.setReference("gene2", gene2RefId);
+            interaction = item.getIdentifier();
             intMap.put(key, interaction);
-            store(interaction);
+            store(item);
         }
         return interaction;
     }
@@ -431,13 +517,18 @@ public class IrefindexConverter extends BioFileConverter {
 		return ret;
 	}
 
-	private Set<String> processAltIdentifier(String altIdentifier) {
+	private Set<String> processAltIdentifier(String ids) {
 		Set<String> ret = new HashSet<String>();
-		String[] ids = altIdentifier.split("\\|");
-		for (String id : ids) {
-			if (id.startsWith("entrezgene/locuslink:")) {
-				ret.add(id.substring(id.indexOf(":") + 1));
+		int start = 0;
+		while (start < ids.length()) {
+			int end = ids.indexOf('|', start);
+			if (end < 0) {
+				end = ids.length();
+			}
+			if (ids.startsWith("entrezgene/locuslink:", start)) {
+				ret.add(canonical(ids.substring(ids.indexOf(':', start) + 1, end)));
 			}
+			start = end + 1;
 		}
 		return ret;
 	}
@@ -0,0 +1,198 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Collection;
+import java.util.Random;
+
+import org.intermine.dataconversion.ItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Attribute;
+import org.intermine.model.fulldata.Item;
+import org.intermine.model.fulldata.Reference;
+import org.intermine.model.fulldata.ReferenceList;
+
+/**
+ * Measures the time and heap taken by IrefindexConverter to convert a MITAB file with different
+ * numbers of parsing threads.  With no threads the rows are parsed on the thread that creates the
+ * items, as they were before parsing was moved to a pool.  Run with the path of a file to read,
+ * or with no arguments to generate a file of 200,000 rows.  The items are counted and
+ * then discarded, so the heap reported is what the converter itself holds.
+ *
+ * @author chenyian
+ */
+public final class IrefindexConverterPerformanceTester
+{
+    private static final int RUNS = 3;
+    private static final String[] THREADS = new String[] {"0", "1", "2", "4"};
+
+    private static final String[] METHODS = new String[] {"MI:0018(two hybrid)",
+        "MI:0492(in vitro)", "MI:0493(in vivo)", "MI:0004(affinity chromatography)", "-"};
+    private static final String[] TYPES = new String[] {
+        "psi-mi:\"MI:0915\"(physical association)", "MI:0407(direct interaction)", "-",
+        "MI:0914(association)"};
+    private static final String[] DATABASES = new String[] {"MI:0469(intact)", "MI:0471(mint)",
+        "MI:0463(biogrid)", "MI:0468(hprd)", "MI:0465(dip)"};
+    private static final String[] AUTHORS = new String[] {"smith-2005", "jones-2010", "lee-2012",
+        "OPHID Predicted Protein Interaction", "HPRD Text Mining Confirmation"};
+    private static final String[] ROLES = new String[] {"MI:0496(bait)", "MI:0498(prey)",
+        "MI:0499(unspecified role)"};
+    private static final String[] TAXA = new String[] {"taxid:9606(Homo sapiens)",
+        "taxid:10090(Mus musculus)", "-"};
+
+    private IrefindexConverterPerformanceTester() {
+        // don't
+    }
+
+    public static void main(String[] args) throws Exception {
+        File file;
+        if (args.length > 0) {
+            file = new File(args[0]);
+        } else {
+            file = File.createTempFile("irefindex", ".mitab");
+            file.deleteOnExit();
+            writeTestFile(file, 200000, 20000);
+        }
+        System.out.println("Converting " + file + " (" + file.length() + " bytes)");
+        Model model = Model.getInstanceByName("genomic");
+        for (int run = 0; run < RUNS; run++) {
+            for (String threads : THREADS) {
+                convert(model, file, threads);
+            }
+        }
+    }
+
+    private static void convert(Model model, File file, String threads) throws Exception {
+        System.gc();
+        resetPeakUsage();
+        CountingItemWriter writer = new CountingItemWriter();
+        IrefindexConverter converter = new IrefindexConverter(writer, model);
+        converter.setIrefindexThreads(threads);
+        converter.setCurrentFile(file);
+        long start = System.currentTimeMillis();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            converter.process(reader);
+        } finally {
+            reader.close();
+        }
+        converter.close();
+        long time = System.currentTimeMillis() - start;
+        System.out.println(threads + " threads: " + writer.count + " items in " + time + "ms ("
+                + (writer.count * 1000 / Math.max(1, time)) + " items per second), peak heap "
+                + getPeakUsage() / (1024 * 1024) + "MB");
+    }
+
+    private static void resetPeakUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long getPeakUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static void writeTestFile(File file, int rows, int genes) throws IOException {
+        Random random = new Random(42);
+        BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+        try {
+            for (int i = 0; i < 54; i++) {
+                writer.write((i == 0 ? "#col" : "\t#col") + i);
+            }
+            writer.write("\n");
+            for (int i = 0; i < rows; i++) {
+                String[] cols = new String[54];
+                for (int j = 0; j < cols.length; j++) {
+                    cols[j] = "-";
+                }
+                cols[2] = interactor(random, genes);
+                cols[3] = interactor(random, genes);
+                cols[6] = pick(random, METHODS);
+                cols[7] = pick(random, AUTHORS);
+                cols[8] = "pubmed:" + (random.nextInt(genes * 2) + 1);
+                cols[9] = pick(random, TAXA);
+                cols[10] = pick(random, TAXA);
+                cols[11] = pick(random, TYPES);
+                cols[12] = pick(random, DATABASES);
+                cols[13] = "irefindex:" + (random.nextInt(rows / 2) + 1) + "|intact:EBI-" + i;
+                cols[18] = pick(random, ROLES);
+                cols[19] = pick(random, ROLES);
+                cols[28] = "taxid:-1(-)";
+                for (int j = 0; j < cols.length; j++) {
+                    writer.write(j == 0 ? cols[j] : "\t" + cols[j]);
+                }
+                writer.write("\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String interactor(Random random, int genes) {
+        return "entrezgene/locuslink:" + (random.nextInt(genes) + 1) + "|uniprotkb:Q"
+            + random.nextInt(100000);
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    /**
+     * Counts the items stored without keeping them.
+     */
+    private static class CountingItemWriter implements ItemWriter
+    {
+        private long count = 0;
+
+        public Integer store(Item item) {
+            count++;
+            return Integer.valueOf((int) count);
+        }
+
+        public void store(ReferenceList refList, Integer itemId) {
+            // not counted
+        }
+
+        public void store(Reference ref, Integer itemId) {
+            // not counted
+        }
+
+        public void store(Attribute att, Integer itemId) {
+            // not counted
+        }
+
+        public void storeAll(Collection<Item> items) {
+            count += items.size();
+        }
+
+        public void close() {
+            // nothing to close
+        }
+    }
+}
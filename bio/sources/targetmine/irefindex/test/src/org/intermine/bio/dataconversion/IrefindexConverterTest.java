@@ -0,0 +1,63 @@
+package org.intermine.bio.dataconversion;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.HashMap;
+import java.util.Set;
+
+import org.intermine.dataconversion.ItemsTestCase;
+import org.intermine.dataconversion.MockItemWriter;
+import org.intermine.metadata.Model;
+import org.intermine.model.fulldata.Item;
+
+public class IrefindexConverterTest extends ItemsTestCase
+{
+    Model model = Model.getInstanceByName("genomic");
+    IrefindexConverter converter;
+    MockItemWriter itemWriter;
+
+    public IrefindexConverterTest(String arg) {
+        super(arg);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        itemWriter = new MockItemWriter(new HashMap<String, Item>());
+        converter = new IrefindexConverter(itemWriter, model);
+    }
+
+    public void testProcess() throws Exception {
+        process("1");
+    }
+
+    public void testProcessInParallel() throws Exception {
+        // the items are made in file order whatever the number of parsing threads
+        process("3");
+    }
+
+    private void process(String threads) throws Exception {
+        converter.setIrefindexThreads(threads);
+        File srcFile = new File(getClass().getClassLoader()
+                .getResource("IrefindexConverterTest_src.txt").toURI());
+        converter.setCurrentFile(srcFile);
+        converter.process(new FileReader(srcFile));
+        converter.close();
+
+        // uncomment to write out a new target items file
+        //writeItemsFile(itemWriter.getItems(), "irefindex-tgt-items.xml");
+
+        Set<org.intermine.xml.full.Item> expected = readItemSet("IrefindexConverterTest_tgt.xml");
+
+        assertEquals(expected, itemWriter.getItems());
+    }
+}
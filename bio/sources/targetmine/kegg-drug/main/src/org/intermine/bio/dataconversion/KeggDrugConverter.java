@@ -3,7 +3,6 @@ package org.intermine.bio.dataconversion;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
@@ -19,6 +18,7 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.intermine.bio.io.DelimitedRecordReader;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.model.InterMineObject;
@@ -29,7 +29,6 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.ResultsRow;
-import org.intermine.util.FormattedTextParser;
 import org.intermine.xml.full.Item;
 
 /**
@@ -436,17 +435,19 @@ public class KeggDrugConverter extends BioFileConverter {
 	
 	private void readInchikeyFile() {
 		try {
-			Iterator<String[]> iterator = FormattedTextParser.parseTabDelimitedReader(new FileReader(inchikeyFile));
+			DelimitedRecordReader records = DelimitedRecordReader.open(inchikeyFile, '\t');
 			
-			while(iterator.hasNext()) {
-				String[] cols = iterator.next();
-				inchiKeyMap.put(cols[0], cols[1]);
+			while(records.next()) {
+				String keggDrugId = records.getString(0);
+				String inchiKey = records.getString(1);
+				inchiKeyMap.put(keggDrugId, inchiKey);
 				
-				if (inchiKeyKeggDrugMap.get(cols[1]) == null) {
-					inchiKeyKeggDrugMap.put(cols[1], new HashSet<String>());
+				if (inchiKeyKeggDrugMap.get(inchiKey) == null) {
+					inchiKeyKeggDrugMap.put(inchiKey, new HashSet<String>());
 				}
-				inchiKeyKeggDrugMap.get(cols[1]).add(cols[0]);
+				inchiKeyKeggDrugMap.get(inchiKey).add(keggDrugId);
 			}
+			records.close();
 			
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -458,12 +459,12 @@ public class KeggDrugConverter extends BioFileConverter {
 
 	private void readInchiFile() {
 		try {
-			Iterator<String[]> iterator = FormattedTextParser.parseTabDelimitedReader(new FileReader(inchiFile));
+			DelimitedRecordReader records = DelimitedRecordReader.open(inchiFile, '\t');
 			
-			while(iterator.hasNext()) {
-				String[] cols = iterator.next();
-				inchiMap.put(cols[0], cols[1]);
+			while(records.next()) {
+				inchiMap.put(records.getString(0), records.getString(1));
 			}
+			records.close();
 			
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
@@ -9,6 +9,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.log4j.Logger;
+import org.intermine.bio.io.DelimitedRecordReader;
 import org.intermine.dataconversion.ItemWriter;
 import org.intermine.metadata.Model;
 import org.intermine.model.bio.Publication;
@@ -17,7 +18,6 @@ import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.ObjectStoreFactory;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
-import org.intermine.util.FormattedTextParser;
 import org.intermine.xml.full.Item;
 
 
@@ -63,16 +63,15 @@ public class PubmedMeshConverter extends BioFileConverter
     		pubMedIds = getPubMedIds();
     	}
     	
-    	Iterator<String[]> iterator = FormattedTextParser.parseTabDelimitedReader(reader);
-    	while (iterator.hasNext()) {
-    		String[] cols = iterator.next();
-    		String pubMedId = cols[0];
+    	DelimitedRecordReader records = new DelimitedRecordReader(reader, '\t');
+    	while (records.next()) {
+    		String pubMedId = records.getString(0);
     		if (pubMedIds.contains(pubMedId)) {
         		Item publication = createItem("Publication");
         		publication.setAttribute("pubMedId", pubMedId);
-        		String[] meshIds = cols[1].split(",");
-        		for (String meshId : meshIds) {
-					publication.addToCollection("meshTerms", getMeshTerm(meshId));
+        		DelimitedRecordReader.SubFields meshIds = records.split(1, ',', true);
+        		for (int i = 0; i < meshIds.size(); i++) {
+					publication.addToCollection("meshTerms", getMeshTerm(meshIds.getString(i)));
 				}
         		publicationMap.put(pubMedId, publication);
     		}
@@ -10,17 +10,27 @@ package org.intermine.bio.dataconversion;
  *
  */
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
 import org.apache.tools.ant.BuildException;
+import org.intermine.bio.io.CharSlice;
+import org.intermine.bio.io.DelimitedRecordReader;
+import org.intermine.bio.io.FileRange;
 import org.intermine.metadata.TypeUtil;
 import org.intermine.model.InterMineObject;
 import org.intermine.model.bio.Chromosome;
@@ -32,15 +42,26 @@ import org.intermine.model.bio.SequenceAlteration;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.proxy.ProxyReference;
 import org.intermine.task.FileDirectDataLoaderTask;
-import org.intermine.util.FormattedTextParser;
 
 /**
- * Loader for VCF files
+ * Loader for VCF files.
+ *
+ * Each file is split into ranges of lines (between blocks for bgzipped files) which are parsed by
+ * a pool of threads.  The parsed records are passed in batches to the thread running the task,
+ * which creates and stores the objects, so that the chromosomes and the organism are only created
+ * once.
  *
  * @author Julie Sullivan
  */
 public class VcfLoaderTask extends FileDirectDataLoaderTask
 {
+    private static final Logger LOG = Logger.getLogger(VcfLoaderTask.class);
+    private static final long RANGE_SIZE = 64L * 1024 * 1024;
+    private static final int BATCH_SIZE = 1000;
+    // the number of parsed batches the parsing threads may get ahead of the storing thread
+    private static final int QUEUED_BATCHES = 64;
+    private static final int LOG_INTERVAL = 100000;
+
     private String dataSetName = null;
     private String dataSourceName = null;
     private String taxonId = null;
@@ -48,6 +69,9 @@ public class VcfLoaderTask extends FileDirectDataLoaderTask
     private DataSet dataset = null;
     private DataSource datasource = null;
     private Map<String, ProxyReference> chromosomes = new HashMap<String, ProxyReference>();
+    private Map<String, Class<? extends InterMineObject>> classes =
+        new HashMap<String, Class<? extends InterMineObject>>();
+    private int threads = 1;
 
     //Set this if we want to do some testing...
     private File[] files = null;
@@ -81,6 +105,18 @@ public class VcfLoaderTask extends FileDirectDataLoaderTask
         this.dataSetName = dataSetName;
     }
 
+    /**
+     * Sets the number of threads parsing each file.  The default is 1, which parses in parallel
+     * with storing.
+     *
+     * @param threads the number of parsing threads
+     */
+    public void setVcfThreads(String threads) {
+        if (!StringUtils.isEmpty(threads) && !"${vcf.threads}".equals(threads)) {
+            this.threads = Integer.parseInt(threads);
+        }
+    }
+
     /**
      * Process and load the SNP file.
      */
@@ -119,88 +155,104 @@ public class VcfLoaderTask extends FileDirectDataLoaderTask
      * {@inheritDoc}
      */
     public void processFile(File file) {
-
-        FileReader fileReader;
+        List<FileRange> ranges;
         try {
-            fileReader = new FileReader(file);
-            BufferedReader reader = new BufferedReader(fileReader);
-
-            Iterator lineIter = FormattedTextParser.parseTabDelimitedReader(reader);
-            while (lineIter.hasNext()) {
-                String[] line = (String[]) lineIter.next();
-                processRecord(line);
-            }
+            ranges = FileRange.split(file, RANGE_SIZE);
         } catch (FileNotFoundException e) {
             throw new BuildException("problem reading file - file not found: " + file, e);
         } catch (IOException e) {
-            throw new BuildException("error while closing FileReader for: " + file, e);
+            throw new BuildException("problem reading file: " + file, e);
+        }
+        BlockingQueue<Batch> batches = new ArrayBlockingQueue<Batch>(QUEUED_BATCHES);
+        AtomicInteger rangesWaiting = new AtomicInteger(ranges.size());
+        ExecutorService parsers = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(threads, ranges.size())));
+        try {
+            for (FileRange range : ranges) {
+                parsers.execute(new RangeParser(range, batches, rangesWaiting));
+            }
+            parsers.shutdown();
+
+            long startTime = System.currentTimeMillis();
+            long count = 0;
+            int rangesDone = 0;
+            while (rangesDone < ranges.size()) {
+                Batch batch = batches.take();
+                if (batch.failure != null) {
+                    throw new BuildException("error while reading: " + file, batch.failure);
+                }
+                for (Variant variant : batch.variants) {
+                    processRecord(variant);
+                    count++;
+                    if (count % LOG_INTERVAL == 0) {
+                        logProgress(file, count, startTime, batches.size(), rangesWaiting.get());
+                    }
+                }
+                if (batch.last) {
+                    rangesDone++;
+                }
+            }
+            logProgress(file, count, startTime, batches.size(), rangesWaiting.get());
+        } catch (InterruptedException e) {
+            throw new BuildException("interrupted while loading: " + file, e);
         } catch (ObjectStoreException e) {
             throw new BuildException("error while creating objects: " + file, e);
+        } finally {
+            parsers.shutdownNow();
         }
+    }
 
+    private static void logProgress(File file, long count, long startTime, int batchesWaiting,
+            int rangesWaiting) {
+        long time = Math.max(1, System.currentTimeMillis() - startTime);
+        LOG.info("Stored " + count + " records from " + file.getName() + " ("
+                + (count * 1000 / time) + " records/second), " + batchesWaiting
+                + " batches waiting to be stored, " + rangesWaiting
+                + " ranges waiting to be parsed");
     }
 
-    private void processRecord(String[] line)
+    private void processRecord(Variant variant)
         throws ObjectStoreException {
+        ProxyReference chromosome = getChromosome(variant.chromosome);
+        String type = variant.type;
 
-        String chromosomeIdentifier = line[0];
-        ProxyReference chromosome = getChromosome(chromosomeIdentifier);
-        String start = line[1];
-        String identifier = line[2];
-        String referenceSeq = line[3];
-        String variantSeq = line[4];
-//        String qual = line[5];
-//        String filter = line[6];
-        String info = line[7];
-
-        // create SNV by default?
-        String type = "SequenceAlteration";
-
-        // dbSNP_138;TSA=insertion
-        String[] infoColumn = info.split(";");
-        // TSA=insertion
-        if (infoColumn != null && infoColumn.length > 1 && StringUtils.isNotEmpty(infoColumn[1])) {
-            String[] tsaString = infoColumn[1].split("=");
-            if (infoColumn != null && infoColumn.length > 1
-                    && StringUtils.isNotEmpty(infoColumn[1])) {
-                type = tsaString[1];
-            }
-        }
-
-        String className =  TypeUtil.generateClassName(NAMESPACE, type);
-        Class<? extends InterMineObject> imClass;
-        Class<?> c;
-        try {
-            c = Class.forName(className);
-            if (InterMineObject.class.isAssignableFrom(c)) {
-                imClass = (Class<? extends InterMineObject>) c;
-            } else {
-                throw new RuntimeException("Feature className must be a valid class in the "
-                        + "model that inherits from InterMineObject, but was: " + className);
+        Class<? extends InterMineObject> imClass = classes.get(type);
+        if (imClass == null) {
+            String className =  TypeUtil.generateClassName(NAMESPACE, type);
+            Class<?> c;
+            try {
+                c = Class.forName(className);
+                if (InterMineObject.class.isAssignableFrom(c)) {
+                    imClass = (Class<? extends InterMineObject>) c;
+                } else {
+                    throw new RuntimeException("Feature className must be a valid class in the "
+                            + "model that inherits from InterMineObject, but was: " + className);
+                }
+            } catch (ClassNotFoundException e1) {
+                throw new BuildException("unknown class: " + className
+                        + " while creating new SequenceAlteration object");
             }
-        } catch (ClassNotFoundException e1) {
-            throw new BuildException("unknown class: " + className
-                    + " while creating new SequenceAlteration object");
+            classes.put(type, imClass);
         }
         SequenceAlteration snp
             = (SequenceAlteration) getDirectDataLoader().createObject(imClass);
 
-        if (identifier != null) {
-            snp.setPrimaryIdentifier(identifier);
+        if (variant.identifier != null) {
+            snp.setPrimaryIdentifier(variant.identifier);
         }
 
-        if (variantSeq != null) {
-            snp.setVariantSequence(variantSeq);
+        if (variant.variantSeq != null) {
+            snp.setVariantSequence(variant.variantSeq);
         }
 
-        if (referenceSeq != null) {
-            snp.setReferenceSequence(referenceSeq);
+        if (variant.referenceSeq != null) {
+            snp.setReferenceSequence(variant.referenceSeq);
         }
 
         snp.setType(type);
         snp.setLength(1);
         snp.proxyChromosome(chromosome);
-        setLocation(snp, start, chromosome);
+        setLocation(snp, variant.start, chromosome);
         snp.setOrganism(getOrganism());
         getDirectDataLoader().store(snp);
     }
@@ -221,13 +273,13 @@ public class VcfLoaderTask extends FileDirectDataLoaderTask
         return chromosomeRef;
     }
 
-    private Location setLocation(SequenceAlteration snp, String pos, ProxyReference chromosomeRef)
+    private Location setLocation(SequenceAlteration snp, int start,
+            ProxyReference chromosomeRef)
         throws ObjectStoreException {
         // SNPs are always size = 1
         final int length = 1;
         Location location = getDirectDataLoader().createObject(
                 org.intermine.model.bio.Location.class);
-        int start = new Integer(pos);
         int end = start + length;
         if (start < end) {
             location.setStart(start);
@@ -298,4 +350,127 @@ public class VcfLoaderTask extends FileDirectDataLoaderTask
     protected void setFileArray(File[] files) {
         this.files = files;
     }
+
+    /**
+     * The columns of a VCF record that are loaded.
+     */
+    private static class Variant
+    {
+        private String chromosome;
+        private int start;
+        private String identifier;
+        private String referenceSeq;
+        private String variantSeq;
+        private String type;
+    }
+
+    /**
+     * Some parsed records of a range, the end of a range, or a failure to parse one.
+     */
+    private static class Batch
+    {
+        private final List<Variant> variants;
+        private final boolean last;
+        private final Exception failure;
+
+        Batch(List<Variant> variants, boolean last, Exception failure) {
+            this.variants = variants;
+            this.last = last;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Parses the records of one range of a file.  The chromosome and type of consecutive records
+     * are usually the same, so their Strings are shared rather than created for every record.
+     */
+    private static class RangeParser implements Runnable
+    {
+        private final FileRange range;
+        private final BlockingQueue<Batch> batches;
+        private final AtomicInteger rangesWaiting;
+        private final List<String> types = new ArrayList<String>();
+        private String chromosome = null;
+
+        RangeParser(FileRange range, BlockingQueue<Batch> batches, AtomicInteger rangesWaiting) {
+            this.range = range;
+            this.batches = batches;
+            this.rangesWaiting = rangesWaiting;
+        }
+
+        @Override
+        public void run() {
+            rangesWaiting.decrementAndGet();
+            try {
+                DelimitedRecordReader reader = new DelimitedRecordReader(new InputStreamReader(
+                        range.open(), Charset.forName("UTF-8")), '\t');
+                try {
+                    List<Variant> variants = new ArrayList<Variant>(BATCH_SIZE);
+                    while (reader.next()) {
+                        variants.add(parse(reader));
+                        if (variants.size() == BATCH_SIZE) {
+                            batches.put(new Batch(variants, false, null));
+                            variants = new ArrayList<Variant>(BATCH_SIZE);
+                        }
+                    }
+                    batches.put(new Batch(variants, true, null));
+                } finally {
+                    reader.close();
+                }
+            } catch (InterruptedException e) {
+                // the load has failed and is shutting down
+            } catch (Exception e) {
+                try {
+                    batches.put(new Batch(null, true, new IOException("failed to parse " + range,
+                            e)));
+                } catch (InterruptedException e2) {
+                    // the load has failed and is shutting down
+                }
+            }
+        }
+
+        private Variant parse(DelimitedRecordReader reader) {
+            Variant variant = new Variant();
+            CharSlice chromosomeField = reader.getField(0);
+            if (!chromosomeField.contentEquals(chromosome)) {
+                chromosome = chromosomeField.toString();
+            }
+            variant.chromosome = chromosome;
+            variant.start = reader.getField(1).parseInt();
+            variant.identifier = reader.getString(2);
+            variant.referenceSeq = reader.getString(3);
+            variant.variantSeq = reader.getString(4);
+            variant.type = parseType(reader.split(7, ';'));
+            return variant;
+        }
+
+        /**
+         * Find the type of sequence alteration in the INFO column, eg. dbSNP_138;TSA=insertion.
+         * Only the second entry is checked.
+         */
+        private String parseType(DelimitedRecordReader.SubFields info) {
+            // create SNV by default?
+            if (info.size() < 2 || info.get(1).isEmpty()) {
+                return "SequenceAlteration";
+            }
+            CharSlice tsa = info.get(1);
+            int equals = tsa.indexOf('=');
+            if (equals < 0) {
+                return "SequenceAlteration";
+            }
+            CharSlice value = (CharSlice) tsa.subSequence(equals + 1, tsa.length());
+            int nextEquals = value.indexOf('=');
+            if (nextEquals >= 0) {
+                value = (CharSlice) value.subSequence(0, nextEquals);
+            }
+            for (String type : types) {
+                if (value.contentEquals(type)) {
+                    return type;
+                }
+            }
+            String type = value.toString();
+            types.add(type);
+            return type;
+        }
+    }
 }
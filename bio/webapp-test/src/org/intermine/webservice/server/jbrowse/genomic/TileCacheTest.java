@@ -0,0 +1,223 @@
+package org.intermine.webservice.server.jbrowse.genomic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.intermine.webservice.server.jbrowse.Segment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TileCacheTest {
+
+    private File baseDir;
+    private CountingLoader loader;
+
+    @Before
+    public void setup() throws IOException {
+        baseDir = File.createTempFile("tiles", "");
+        baseDir.delete();
+        baseDir.mkdir();
+        loader = new CountingLoader();
+    }
+
+    @After
+    public void tearDown() {
+        delete(baseDir);
+    }
+
+    @Test
+    public void disabled() {
+        assertNull(TileCache.open(null));
+        assertNull(TileCache.open(properties(null)));
+        assertNull(TileCache.open(properties("@project.releaseVersion@")));
+        Properties props = properties("1.0");
+        props.setProperty(TileCache.PROPERTY_PREFIX + "enabled", "false");
+        assertNull(TileCache.open(props));
+    }
+
+    @Test
+    public void featureHits() {
+        TileCache cache = TileCache.open(properties("1.0"));
+        Segment segment = Segment.makeSegment("2L", 150000, 250000);
+        List<Map<String, Object>> expected = Arrays.asList(loader.feature(160000, 170000));
+
+        assertEquals(expected, cache.features("7227", "Gene", segment, loader));
+        assertEquals(2, loader.featureLoads);
+        assertEquals(expected, cache.features("7227", "Gene", segment, loader));
+        assertEquals(2, loader.featureLoads);
+
+        // the tiles are kept on disk for the next cache opened for the release
+        cache = TileCache.open(properties("1.0"));
+        assertEquals(expected, cache.features("7227", "Gene", segment, loader));
+        assertEquals(2, loader.featureLoads);
+
+        // other organisms, chromosomes and types have tiles of their own
+        cache.features("7227", "Gene", Segment.makeSegment("3R", 150000, 250000), loader);
+        cache.features("7227", "Exon", segment, loader);
+        cache.features("9606", "Gene", segment, loader);
+        assertEquals(8, loader.featureLoads);
+    }
+
+    @Test
+    public void featuresListedOnce() {
+        // the feature crossing the edge of the tiles is in both tiles
+        TileCache cache = TileCache.open(properties("1.0"));
+        List<Map<String, Object>> features =
+                cache.features("7227", "Gene", Segment.makeSegment("2L", 0, 300000), loader);
+        assertEquals(Arrays.asList(loader.feature(60000, 70000), loader.feature(99990, 100010),
+                loader.feature(160000, 170000)), features);
+        assertEquals(3, loader.featureLoads);
+    }
+
+    @Test
+    public void densityHits() {
+        TileCache cache = TileCache.open(properties("1.0"));
+        // 3 features start in each 100bp bin, and 1 crosses its first base
+        int[] counts = cache.densities("7227", "Gene", "2L", 0, 1000, 500, loader);
+        assertEquals("[16, 16]", Arrays.toString(counts));
+        assertEquals(1, loader.densityLoads);
+        counts = cache.densities("7227", "Gene", "2L", 500, 1000, 100, loader);
+        assertEquals("[4, 4, 4, 4, 4]", Arrays.toString(counts));
+        assertEquals(1, loader.densityLoads);
+
+        // not aligned to any level
+        assertNull(cache.densities("7227", "Gene", "2L", 50, 1000, 100, loader));
+        assertEquals(1, loader.densityLoads);
+    }
+
+    @Test
+    public void eviction() {
+        // more tiles than are kept in memory, so the first ones are read back from disk
+        TileCache cache = TileCache.open(properties("1.0"));
+        int tiles = 1100;
+        List<List<Map<String, Object>>> expected = new ArrayList<List<Map<String, Object>>>();
+        for (int i = 0; i < tiles; i++) {
+            expected.add(cache.features("7227", "Gene", tileSegment(i), loader));
+        }
+        assertEquals(tiles, loader.featureLoads);
+        for (int i = 1; i < tiles; i++) {
+            assertEquals(expected.get(i), cache.features("7227", "Gene", tileSegment(i), loader));
+        }
+        assertEquals(tiles, loader.featureLoads);
+
+        // with its file gone, the first tile has to be loaded again, but the last is still held
+        File tileDir = new File(new File(new File(new File(baseDir, "1.0"), "7227"), "2L"), "Gene");
+        assertTrue(new File(tileDir, "f-0.tile").delete());
+        assertTrue(new File(tileDir, "f-" + (tiles - 1) + ".tile").delete());
+        assertEquals(expected.get(tiles - 1),
+                cache.features("7227", "Gene", tileSegment(tiles - 1), loader));
+        assertEquals(tiles, loader.featureLoads);
+        assertEquals(expected.get(0), cache.features("7227", "Gene", tileSegment(0), loader));
+        assertEquals(tiles + 1, loader.featureLoads);
+    }
+
+    @Test
+    public void invalidation() {
+        Segment segment = Segment.makeSegment("2L", 150000, 250000);
+        TileCache.open(properties("1.0")).features("7227", "Gene", segment, loader);
+        File unrelated = new File(baseDir, "unrelated");
+        unrelated.mkdir();
+        assertEquals(2, loader.featureLoads);
+
+        // a new release removes the tiles of the old one, but nothing the cache did not make
+        TileCache cache = TileCache.open(properties("2.0"));
+        assertFalse(new File(baseDir, "1.0").exists());
+        assertTrue(unrelated.exists());
+        cache.features("7227", "Gene", segment, loader);
+        assertEquals(4, loader.featureLoads);
+
+        // going back is a new release too
+        cache = TileCache.open(properties("1.0"));
+        assertNotNull(cache);
+        assertFalse(new File(baseDir, "2.0").exists());
+        cache.features("7227", "Gene", segment, loader);
+        assertEquals(6, loader.featureLoads);
+    }
+
+    private Properties properties(String release) {
+        Properties props = new Properties();
+        if (release != null) {
+            props.setProperty("project.releaseVersion", release);
+        }
+        props.setProperty(TileCache.PROPERTY_PREFIX + "dir", baseDir.getPath());
+        return props;
+    }
+
+    private static Segment tileSegment(int tile) {
+        return Segment.makeSegment("2L", tile * TileCache.FEATURE_TILE_WIDTH,
+                (tile + 1) * TileCache.FEATURE_TILE_WIDTH);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Has a feature in every odd tile, one in the first tile and one crossing the edge between
+     * them.
+     */
+    private static class CountingLoader implements TileCache.Loader {
+
+        private int featureLoads = 0;
+        private int densityLoads = 0;
+
+        @Override
+        public List<Map<String, Object>> loadFeatures(Segment tile) {
+            featureLoads++;
+            List<Map<String, Object>> features = new ArrayList<Map<String, Object>>();
+            int start = tile.getStart();
+            if (start == 0) {
+                features.add(feature(60000, 70000));
+            }
+            if (start < 100010 && tile.getEnd() > 99990) {
+                features.add(feature(99990, 100010));
+            }
+            if ((start / TileCache.FEATURE_TILE_WIDTH) % 2 == 1) {
+                features.add(feature(start + 60000, start + 70000));
+            }
+            return features;
+        }
+
+        @Override
+        public int[] loadDensities(Segment tile, int binWidth) {
+            densityLoads++;
+            int[] counts = new int[2 * TileCache.TILE_BINS];
+            Arrays.fill(counts, 0, TileCache.TILE_BINS, 3);
+            Arrays.fill(counts, TileCache.TILE_BINS, counts.length, 1);
+            return counts;
+        }
+
+        Map<String, Object> feature(int start, int end) {
+            Map<String, Object> feature = new HashMap<String, Object>();
+            feature.put("start", start);
+            feature.put("end", end);
+            feature.put("name", "gene-" + start);
+            feature.put("score", Double.valueOf(0.5));
+            feature.put("length", Long.valueOf(end - start));
+            feature.put("strand", null);
+            feature.put("subfeatures", Collections.singletonList(
+                    Collections.singletonMap("type", "exon")));
+            return feature;
+        }
+    }
+}
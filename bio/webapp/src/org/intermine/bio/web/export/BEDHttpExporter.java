@@ -17,7 +17,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
@@ -33,6 +32,7 @@ import org.intermine.web.logic.Constants;
 import org.intermine.web.logic.export.ExportException;
 import org.intermine.web.logic.export.ExportHelper;
 import org.intermine.web.logic.export.Exporter;
+import org.intermine.web.logic.export.ParallelGZIPOutputStream;
 import org.intermine.web.logic.export.ResponseUtil;
 import org.intermine.web.logic.export.http.HttpExportUtil;
 import org.intermine.web.logic.export.http.HttpExporterBase;
@@ -103,7 +103,8 @@ public class BEDHttpExporter extends HttpExporterBase implements TableHttpExport
         try {
             OutputStream out = response.getOutputStream();
             if (doGzip) {
-                out = new GZIPOutputStream(out);
+                // BGZF, so that the file can be indexed by tabix or samtools
+                out = new ParallelGZIPOutputStream(out, true);
             }
             PrintWriter writer = HttpExportUtil.getPrintWriterForClient(request, out);
 
@@ -116,9 +117,9 @@ public class BEDHttpExporter extends HttpExporterBase implements TableHttpExport
 
                 // path collections are not in use in BED exporter
                 exporter.export(iter, unionPathCollection, newPathCollection);
-                if (out instanceof GZIPOutputStream) {
+                if (out instanceof ParallelGZIPOutputStream) {
                     try {
-                        ((GZIPOutputStream) out).finish();
+                        ((ParallelGZIPOutputStream) out).finish();
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
@@ -22,7 +22,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -40,6 +39,7 @@ import org.intermine.web.logic.Constants;
 import org.intermine.web.logic.export.ExportException;
 import org.intermine.web.logic.export.ExportHelper;
 import org.intermine.web.logic.export.Exporter;
+import org.intermine.web.logic.export.ParallelGZIPOutputStream;
 import org.intermine.web.logic.export.ResponseUtil;
 import org.intermine.web.logic.export.http.HttpExportUtil;
 import org.intermine.web.logic.export.http.HttpExporterBase;
@@ -102,7 +102,8 @@ public class GFF3HttpExporter extends HttpExporterBase implements TableHttpExpor
         try {
             OutputStream out = response.getOutputStream();
             if (doGzip) {
-                out = new GZIPOutputStream(out);
+                // BGZF, so that the file can be indexed by tabix or samtools
+                out = new ParallelGZIPOutputStream(out, true);
             }
             PrintWriter writer = HttpExportUtil.getPrintWriterForClient(request, out);
             List<String> paths = new LinkedList<String>();
@@ -132,9 +133,9 @@ public class GFF3HttpExporter extends HttpExporterBase implements TableHttpExpor
                 iter = getResultRows(pt, request);
                 iter.goFaster();
                 exporter.export(iter, unionPathCollection, newPathCollection);
-                if (out instanceof GZIPOutputStream) {
+                if (out instanceof ParallelGZIPOutputStream) {
                     try {
-                        ((GZIPOutputStream) out).finish();
+                        ((ParallelGZIPOutputStream) out).finish();
                     } catch (IOException e) {
                         throw new RuntimeException(e);
                     }
@@ -15,7 +15,6 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -34,6 +33,7 @@ import org.intermine.pathquery.PathException;
 import org.intermine.metadata.StringUtil;
 import org.intermine.web.logic.export.ExportException;
 import org.intermine.web.logic.export.ExportHelper;
+import org.intermine.web.logic.export.ParallelGZIPOutputStream;
 import org.intermine.web.logic.export.ResponseUtil;
 import org.intermine.web.logic.export.http.HttpExporterBase;
 import org.intermine.web.logic.export.http.TableHttpExporter;
@@ -87,7 +87,8 @@ public class SequenceHttpExporter extends HttpExporterBase implements TableHttpE
         try {
             outputStream = response.getOutputStream();
             if (doGzip) {
-                outputStream = new GZIPOutputStream(outputStream);
+                // BGZF, so that the file can be indexed by tabix or samtools
+                outputStream = new ParallelGZIPOutputStream(outputStream, true);
             }
         } catch (IOException e) {
             throw new ExportException("Export failed.", e);
@@ -129,9 +130,9 @@ public class SequenceHttpExporter extends HttpExporterBase implements TableHttpE
             iter = getResultRows(pt, request);
             iter.goFaster();
             exporter.export(iter, unionPathCollection, newPathCollection);
-            if (outputStream instanceof GZIPOutputStream) {
+            if (outputStream instanceof ParallelGZIPOutputStream) {
                 try {
-                    ((GZIPOutputStream) outputStream).finish();
+                    ((ParallelGZIPOutputStream) outputStream).finish();
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -15,6 +15,7 @@ import static java.lang.String.format;
 import static org.intermine.pathquery.Constraints.eq;
 import static org.intermine.webservice.server.jbrowse.Queries.pathQueryToOSQ;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -23,16 +24,12 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.collections.keyvalue.MultiKey;
 import org.apache.log4j.Logger;
 import org.intermine.api.InterMineAPI;
+import org.intermine.api.util.LimitedMap;
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.ConstraintOp;
 import org.intermine.metadata.Model;
@@ -49,15 +46,20 @@ import org.intermine.objectstore.query.QueryExpression;
 import org.intermine.objectstore.query.QueryField;
 import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.QueryObjectReference;
+import org.intermine.objectstore.query.QuerySelectable;
 import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.Results;
 import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.objectstore.query.WidthBucketFunction;
 import org.intermine.pathquery.Constraints;
 import org.intermine.pathquery.PathConstraintRange;
 import org.intermine.pathquery.PathQuery;
 import org.intermine.util.CacheMap;
 import org.intermine.util.DynamicUtil;
+import org.intermine.web.context.InterMineContext;
 import org.intermine.webservice.server.jbrowse.Command;
 import org.intermine.webservice.server.jbrowse.CommandRunner;
+import org.intermine.webservice.server.jbrowse.Commands.Action;
 import org.intermine.webservice.server.jbrowse.Segment;
 
 /**
@@ -87,6 +89,9 @@ public class Engine extends CommandRunner
     private static final Map<Command, Map<String, Object>> STATS_CACHE =
             new CacheMap<Command, Map<String, Object>>("jbrowse.genomic.engine.STATS_CACHE");
 
+    private static TileCache tiles;
+    private static boolean tilesOpened = false;
+
     /**
      * constructor
      * @param api The API
@@ -96,9 +101,32 @@ public class Engine extends CommandRunner
         this.model = api.getModel();
     }
 
+    // The tile cache is opened by the first request, once the web properties are available.
+    private static synchronized TileCache getTiles() {
+        if (!tilesOpened) {
+            tiles = TileCache.open(InterMineContext.getWebProperties());
+            tilesOpened = true;
+        }
+        return tiles;
+    }
+
     @Override
     public void stats(Command command) {
         Map<String, Object> stats;
+        Segment seg = command.getSegment();
+        if (seg != Segment.GLOBAL_SEGMENT && seg.getWidth() != null && seg.getWidth() > 0
+                && getTiles() != null) {
+            int[] counts = getTiles().densities(command.getDomain(),
+                    command.getType("SequenceFeature"), seg.getSection(), seg.getStart(),
+                    seg.getEnd(), seg.getWidth(), getLoader(command));
+            if (counts != null) {
+                stats = new HashMap<String, Object>();
+                stats.put("featureDensity", Double.valueOf(counts[0]) / seg.getWidth());
+                stats.put("featureCount", Long.valueOf(counts[0]));
+                sendMap(stats);
+                return;
+            }
+        }
         Query q = getStatsQuery(command);
         // Stats can be expensive to calculate, so they are independently cached.
         synchronized (STATS_CACHE) {
@@ -145,6 +173,18 @@ public class Engine extends CommandRunner
 
     @Override
     public void features(Command command) {
+        if (command.getSegment() != Segment.NEGATIVE_SEGMENT && getTiles() != null) {
+            List<Map<String, Object>> features = getTiles().features(command.getDomain(),
+                    command.getType("SequenceFeature"), command.getSegment(),
+                    getLoader(command));
+            if (features != null) {
+                Iterator<Map<String, Object>> it = features.iterator();
+                while (it.hasNext()) {
+                    onData(it.next(), it.hasNext());
+                }
+                return;
+            }
+        }
         if (command.getSegment() != Segment.NEGATIVE_SEGMENT) {
             Query q = getFeatureQuery(command);
             Iterator<Object> it = getResults(q).iterator();
@@ -156,66 +196,67 @@ public class Engine extends CommandRunner
         }
     }
 
-    private static List<Segment> sliceUp(int n, Segment segment) {
-        if (n < 1) {
-            throw new IllegalArgumentException("n must be greater than 0");
-        }
-        if (segment == null || segment.getWidth() == null) {
-            throw new IllegalArgumentException("segment must be non null with defined width");
-        }
-        List<Segment> subsegments = new ArrayList<Segment>();
-        int sliceWidth = segment.getWidth() / n;
-        int inital = Math.max(0, segment.getStart());
-        int end = segment.getEnd();
-        for (int i = inital; i < end; i += sliceWidth) {
-            subsegments.add(segment.subsegment(i, Math.min(end, i + sliceWidth)));
-        }
-        return subsegments;
-    }
-
-    private static final class PathQueryCounter implements Callable<Integer>
+    /**
+     * The bins of a density request, matching the slices the segment used to be cut into: bins
+     * of sliceWidth bases from the start of the segment, the last one cut short at its end.
+     */
+    private static final class Bins
     {
-        final PathQuery pq;
-        final ObjectStore os;
-
-        PathQueryCounter(PathQuery pq, ObjectStore os) {
-            this.pq = pq.clone();
-            this.os = os;
+        final int first;
+        final int end;
+        final int width;
+        final int count;
+
+        Bins(int n, Segment segment) {
+            if (n < 1) {
+                throw new IllegalArgumentException("n must be greater than 0");
+            }
+            if (segment == null || segment.getWidth() == null) {
+                throw new IllegalArgumentException("segment must be non null with defined width");
+            }
+            width = Math.max(1, segment.getWidth() / n);
+            first = Math.max(0, segment.getStart());
+            end = segment.getEnd();
+            count = (end > first) ? (end - first + width - 1) / width : 0;
         }
 
-        @Override
-        public Integer call() throws Exception {
-            Query q = pathQueryToOSQ(pq);
-            return os.count(q, ObjectStore.SEQUENCE_IGNORE);
+        // The bucket of a base coordinate, as WIDTH_BUCKET numbers them: bin i covers the
+        // interbase range [first + (i - 1) * width, first + i * width), that is the bases
+        // first + (i - 1) * width + 1 to first + i * width.
+        WidthBucketFunction bucket(QueryEvaluable base) {
+            return new WidthBucketFunction(new QueryCast(base, BigDecimal.class),
+                    new QueryValue(new BigDecimal(first + 1)),
+                    new QueryValue(new BigDecimal((long) first + 1 + (long) count * width)),
+                    new QueryValue(Integer.valueOf(count)));
         }
     }
 
-    private static Map<MultiKey, Integer> maxima = new ConcurrentHashMap<MultiKey, Integer>();
+    private static final int MAX_MAXIMA = 1000;
+    private static final Map<MultiKey, Integer> MAXIMA =
+            Collections.synchronizedMap(new LimitedMap<MultiKey, Integer>(MAX_MAXIMA));
+
+    private static final AtomicLong DENSITY_REQUESTS = new AtomicLong();
+    private static final AtomicLong DENSITY_TIME = new AtomicLong();
 
     /**
+     * Count the features overlapping each bin of the segment.  This runs a single query that
+     * groups the features by the bins their start and end fall in, and then adds each group to
+     * the bins it spans, so features overlapping several bins are counted in each of them.
+     *
      * @param command command to run
      */
     @Override
     public void densities(Command command) {
+        long startTime = System.currentTimeMillis();
         final int nSlices = getNumberOfSlices(command);
-        List<PathQuery> segmentQueries = getSliceQueries(command, nSlices);
-        List<Future<Integer>> pending = countInParallel(segmentQueries);
-        List<Integer> results = new ArrayList<Integer>();
+        List<Integer> results = countBins(command, nSlices);
 
         int max = 0, sum = 0;
-        for (Future<Integer> future: pending) {
-            try {
-                Integer r = future.get();
-                if (r != null && r > max) {
-                    max = r;
-                }
-                sum += r;
-                results.add(r);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            } catch (ExecutionException e) {
-                throw new RuntimeException(e);
+        for (Integer r: results) {
+            if (r > max) {
+                max = r;
             }
+            sum += r;
         }
         double mean = Double.valueOf(sum) / results.size();
 
@@ -230,9 +271,11 @@ public class Engine extends CommandRunner
                     command.getType("SequenceFeature"),
                     command.getSegment().getSection(),
                     bpb);
-            currentMax = maxima.get(maxKey);
-            if (currentMax == null || max > currentMax) {
-                maxima.put(maxKey, Integer.valueOf(max));
+            synchronized (MAXIMA) {
+                currentMax = MAXIMA.get(maxKey);
+                if (currentMax == null || max > currentMax) {
+                    MAXIMA.put(maxKey, Integer.valueOf(max));
+                }
             }
         }
         binStats.put("max", (currentMax != null && max < currentMax) ? currentMax : max);
@@ -241,6 +284,143 @@ public class Engine extends CommandRunner
         result.put("bins", results);
         result.put("stats", binStats);
         sendMap(result);
+
+        long time = System.currentTimeMillis() - startTime;
+        long requests = DENSITY_REQUESTS.incrementAndGet();
+        long totalTime = DENSITY_TIME.addAndGet(time);
+        LOG.debug("Densities for " + command.getSegment().toRangeString() + " in "
+                + results.size() + " bins took " + time + "ms");
+        if (requests % 100 == 0) {
+            LOG.info("Served " + requests + " density requests, mean time "
+                    + (totalTime / requests) + "ms");
+        }
+    }
+
+    private List<Integer> countBins(Command command, int nSlices) {
+        if (command.getSegment() == Segment.NEGATIVE_SEGMENT) {
+            return Collections.emptyList();
+        }
+        Bins bins = new Bins(nSlices, command.getSegment());
+        int[] counts = null;
+        if (bins.count > 0 && getTiles() != null) {
+            counts = getTiles().densities(command.getDomain(), command.getType("SequenceFeature"),
+                    command.getSegment().getSection(), bins.first, bins.end, bins.width,
+                    getLoader(command));
+        }
+        if (counts == null) {
+            counts = countBins(command, bins);
+        }
+        List<Integer> results = new ArrayList<Integer>(counts.length);
+        for (int c: counts) {
+            results.add(Integer.valueOf(c));
+        }
+        return results;
+    }
+
+    private int[] countBins(Command command, Bins bins) {
+        int[] counts = new int[bins.count];
+        if (bins.count > 0) {
+            Results rows = getAPI().getObjectStore().execute(getDensityQuery(command, bins),
+                    Math.max(1000, bins.count * 4), true, false, false);
+            for (Object o: rows) {
+                List<?> row = (List<?>) o;
+                // features reaching outside the segment fall in bucket 0 or count + 1
+                int from = Math.max(1, ((Number) row.get(0)).intValue());
+                int to = Math.min(bins.count, ((Number) row.get(1)).intValue());
+                int n = ((Number) row.get(2)).intValue();
+                for (int i = from; i <= to; i++) {
+                    counts[i - 1] += n;
+                }
+            }
+        }
+        return counts;
+    }
+
+    // Fills missing tiles of the cache with the same queries as uncached requests use.
+    private TileCache.Loader getLoader(final Command command) {
+        final String type = command.getType("SequenceFeature");
+        final Map<String, String> noParams = Collections.emptyMap();
+        return new TileCache.Loader() {
+            @Override
+            public List<Map<String, Object>> loadFeatures(Segment tile) {
+                Command tileCommand = new Command(Action.FEATURES, command.getDomain(), type,
+                        tile, noParams);
+                List<Map<String, Object>> features = new ArrayList<Map<String, Object>>();
+                for (Object o: getResults(getFeatureQuery(tileCommand))) {
+                    features.add(makeFeatureWithSubFeatures((FastPathObject) o));
+                }
+                return features;
+            }
+
+            @Override
+            public int[] loadDensities(Segment tile, int binWidth) {
+                Command tileCommand = new Command(Action.DENSITIES, command.getDomain(), type,
+                        tile, noParams);
+                return countStarts(tileCommand, new Bins(TileCache.TILE_BINS, tile));
+            }
+        };
+    }
+
+    // Counts the features starting in each bin, followed by the features crossing the first base
+    // of each bin, that is starting in an earlier bin and ending in this one or a later one.
+    private int[] countStarts(Command command, Bins bins) {
+        int[] counts = new int[2 * bins.count];
+        int[] crossingChanges = new int[bins.count + 1];
+        Results rows = getAPI().getObjectStore().execute(getDensityQuery(command, bins),
+                Math.max(1000, bins.count * 4), true, false, false);
+        for (Object o: rows) {
+            List<?> row = (List<?>) o;
+            int startBucket = ((Number) row.get(0)).intValue();
+            int endBucket = ((Number) row.get(1)).intValue();
+            int n = ((Number) row.get(2)).intValue();
+            if (startBucket >= 1 && startBucket <= bins.count) {
+                counts[startBucket - 1] += n;
+            }
+            int from = Math.max(1, startBucket + 1);
+            int to = Math.min(bins.count, endBucket);
+            if (from <= to) {
+                crossingChanges[from - 1] += n;
+                crossingChanges[to] -= n;
+            }
+        }
+        int crossing = 0;
+        for (int i = 0; i < bins.count; i++) {
+            crossing += crossingChanges[i];
+            counts[bins.count + i] = crossing;
+        }
+        return counts;
+    }
+
+    // A query returning (start bucket, end bucket, count) for the features in the segment.
+    private Query getDensityQuery(Command command, Bins bins) {
+        String type = command.getType("SequenceFeature");
+        PathQuery pq = getSFPathQuery(command);
+        pq.addViews(String.format("%s.chromosomeLocation.start", type),
+                String.format("%s.chromosomeLocation.end", type));
+        Query features = pathQueryToOSQ(pq);
+        QueryField start = null, end = null;
+        for (QuerySelectable qs: features.getSelect()) {
+            if (qs instanceof QueryField && "start".equals(((QueryField) qs).getFieldName())) {
+                start = new QueryField(features, (QueryField) qs);
+            } else if (qs instanceof QueryField
+                    && "end".equals(((QueryField) qs).getFieldName())) {
+                end = new QueryField(features, (QueryField) qs);
+            }
+        }
+        if (start == null || end == null) {
+            throw new RuntimeException("Could not find the location fields of " + type);
+        }
+
+        Query q = new Query();
+        q.addFrom(features);
+        QueryEvaluable startBucket = bins.bucket(start);
+        QueryEvaluable endBucket = bins.bucket(end);
+        q.addToSelect(startBucket);
+        q.addToSelect(endBucket);
+        q.addToSelect(new QueryFunction());
+        q.addToGroupBy(startBucket);
+        q.addToGroupBy(endBucket);
+        return q;
     }
 
     //------------ PRIVATE METHODS --------------------//
@@ -259,32 +439,6 @@ public class Engine extends CommandRunner
         return width / numBPB;
     }
 
-    private List<PathQuery> getSliceQueries(Command command, final int nSlices) {
-        if (command.getSegment() == Segment.NEGATIVE_SEGMENT) {
-            return Collections.emptyList();
-        }
-        List<Segment> slices = sliceUp(nSlices, command.getSegment());
-        List<PathQuery> segmentQueries = new ArrayList<PathQuery>();
-        for (Segment s: slices) {
-            segmentQueries.add(getSFPathQuery(command, s));
-        }
-        return segmentQueries;
-    }
-
-    private List<Future<Integer>> countInParallel(List<PathQuery> segmentQueries) {
-        if (segmentQueries.isEmpty()) {
-            return Collections.emptyList();
-        }
-        ExecutorService executor = Executors.newFixedThreadPool(segmentQueries.size());
-        List<Future<Integer>> pending = new ArrayList<Future<Integer>>();
-        for (PathQuery pq: segmentQueries) {
-            Callable<Integer> counter = new PathQueryCounter(pq, getAPI().getObjectStore());
-            pending.add(executor.submit(counter));
-        }
-        executor.shutdown();
-        return pending;
-    }
-
     private PathQuery getSFPathQuery(Command command) {
         return getSFPathQuery(command, command.getSegment());
     }
@@ -0,0 +1,526 @@
+package org.intermine.webservice.server.jbrowse.genomic;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.intermine.api.util.LimitedMap;
+import org.intermine.webservice.server.jbrowse.Segment;
+
+/**
+ * A store of precomputed JBrowse tiles, kept in files under a directory named after the release
+ * of the mine.  The data only change between releases, so tiles are filled from the objectstore
+ * the first time they are asked for and read back from memory-mapped files from then on.  When
+ * the release version changes the tiles of every other release are deleted.
+ *
+ * <p>
+ * For each organism, chromosome and feature type there are two kinds of tiles:
+ * </p>
+ * <ul>
+ *  <li>feature tiles of {@link #FEATURE_TILE_WIDTH} bases, holding the features overlapping the
+ *  tile in the form they are sent to the browser</li>
+ *  <li>density tiles of {@link #TILE_BINS} bins at each of the {@link #DENSITY_LEVELS}, holding
+ *  for each bin the number of features starting in it and the number crossing its first base,
+ *  from which the number of features overlapping any run of bins can be worked out exactly</li>
+ * </ul>
+ *
+ * @author chenyian
+ */
+public final class TileCache
+{
+    private static final Logger LOG = Logger.getLogger(TileCache.class);
+
+    /** Prefix of the web properties configuring the cache. */
+    public static final String PROPERTY_PREFIX =
+            "org.intermine.webservice.server.jbrowse.genomic.tiles.";
+
+    /** The number of bases in a feature tile. */
+    public static final int FEATURE_TILE_WIDTH = 100000;
+    /** The widths of the bins of the density tiles, finest first. */
+    public static final int[] DENSITY_LEVELS = {100, 10000, 100000};
+    /** The number of bins in a density tile. */
+    public static final int TILE_BINS = 1000;
+    /** Requests needing more tiles than this are run against the objectstore. */
+    public static final int MAX_TILES = 64;
+
+    private static final int FEATURE_MAGIC = 0x4a424654;
+    private static final int DENSITY_MAGIC = 0x4a424454;
+    private static final String MARKER = ".jbrowse-tiles";
+    private static final int MAX_MAPPED = 1024;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Where the contents of missing tiles come from.
+     */
+    public interface Loader
+    {
+        /**
+         * @param tile the segment covered by a feature tile
+         * @return the features overlapping the tile
+         */
+        List<Map<String, Object>> loadFeatures(Segment tile);
+
+        /**
+         * @param tile the segment covered by a density tile
+         * @param binWidth the width of the bins of the tile
+         * @return the number of features starting in each bin, followed by the number of
+         * features crossing the first base of each bin
+         */
+        int[] loadDensities(Segment tile, int binWidth);
+    }
+
+    private final File dir;
+    private final Map<File, ByteBuffer> mapped =
+            Collections.synchronizedMap(new LimitedMap<File, ByteBuffer>(MAX_MAPPED));
+
+    private TileCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Open the tile cache for the current release, deleting the tiles of any other release.
+     * The cache is stored under the directory named by the <code>tiles.dir</code> property, or
+     * under the temporary directory if that is not set.
+     *
+     * @param props the web properties
+     * @return the cache, or null if the cache is disabled or there is no release version to key
+     * it by
+     */
+    public static TileCache open(Properties props) {
+        if (props == null
+                || "false".equalsIgnoreCase(props.getProperty(PROPERTY_PREFIX + "enabled"))) {
+            return null;
+        }
+        String release = props.getProperty("project.releaseVersion");
+        if (StringUtils.isBlank(release) || release.startsWith("@")) {
+            LOG.info("Not caching JBrowse tiles: project.releaseVersion is not set");
+            return null;
+        }
+        String base = props.getProperty(PROPERTY_PREFIX + "dir");
+        File baseDir;
+        if (StringUtils.isBlank(base)) {
+            baseDir = new File(System.getProperty("java.io.tmpdir"),
+                    "jbrowse-tiles-" + props.getProperty("webapp.path", "webapp"));
+        } else {
+            baseDir = new File(base.trim());
+        }
+        File releaseDir = new File(baseDir, fileName(release));
+        try {
+            removeOtherReleases(baseDir, releaseDir);
+            if (!releaseDir.isDirectory() && !releaseDir.mkdirs()) {
+                throw new IOException("Could not create " + releaseDir);
+            }
+            File marker = new File(releaseDir, MARKER);
+            if (!marker.exists() && !marker.createNewFile()) {
+                throw new IOException("Could not create " + marker);
+            }
+        } catch (IOException e) {
+            LOG.warn("Not caching JBrowse tiles", e);
+            return null;
+        }
+        LOG.info("Caching JBrowse tiles in " + releaseDir);
+        return new TileCache(releaseDir);
+    }
+
+    // Only directories we made are removed, in case the cache shares its parent with other data
+    private static void removeOtherReleases(File baseDir, File releaseDir) {
+        File[] children = baseDir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child: children) {
+            if (child.isDirectory() && !child.equals(releaseDir)
+                    && new File(child, MARKER).exists()) {
+                LOG.info("Removing JBrowse tiles of an old release: " + child);
+                delete(child);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child: children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            LOG.warn("Could not delete " + file);
+        }
+    }
+
+    /**
+     * Get the features overlapping a segment from the feature tiles covering it.
+     *
+     * @param domain the taxon id of the organism
+     * @param type the feature type
+     * @param segment the segment of the chromosome
+     * @param loader where to get the tiles that are not stored yet
+     * @return the features, each listed once, or null if the segment cannot be read from tiles
+     */
+    public List<Map<String, Object>> features(String domain, String type, Segment segment,
+            Loader loader) {
+        if (segment.getSection() == null || segment.getWidth() == null
+                || segment.getWidth() <= 0) {
+            return null;
+        }
+        int start = segment.getStart();
+        int end = segment.getEnd();
+        int firstTile = start / FEATURE_TILE_WIDTH;
+        int lastTile = (end - 1) / FEATURE_TILE_WIDTH;
+        if (lastTile - firstTile + 1 > MAX_TILES) {
+            return null;
+        }
+        List<Map<String, Object>> features = new ArrayList<Map<String, Object>>();
+        for (int tile = firstTile; tile <= lastTile; tile++) {
+            ByteBuffer buffer = featureTile(domain, type, segment.getSection(), tile, loader);
+            if (buffer == null) {
+                return null;
+            }
+            int n = buffer.getInt();
+            for (int i = 0; i < n; i++) {
+                // interbase start and end, as sent to the browser
+                int featureStart = buffer.getInt();
+                int featureEnd = buffer.getInt();
+                int length = buffer.getInt();
+                // send each feature from the first tile of the request it is in
+                boolean send = featureStart < end && featureEnd > start
+                        && Math.max(featureStart / FEATURE_TILE_WIDTH, firstTile) == tile;
+                if (send) {
+                    features.add(readMap(buffer));
+                } else {
+                    buffer.position(buffer.position() + length);
+                }
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Count the features overlapping each bin of a range from the density tiles covering it.
+     * The bins are of the given width from the start of the range, the last one cut short at its
+     * end.  This can only be done if the start, end and bin width are all multiples of the width
+     * of the bins of one of the density levels.
+     *
+     * @param domain the taxon id of the organism
+     * @param type the feature type
+     * @param section the chromosome
+     * @param first the interbase start of the range
+     * @param end the interbase end of the range
+     * @param width the width of the bins
+     * @param loader where to get the tiles that are not stored yet
+     * @return the count for each bin, or null if the range cannot be read from tiles
+     */
+    public int[] densities(String domain, String type, String section, int first, int end,
+            int width, Loader loader) {
+        if (section == null || end <= first || width < 1) {
+            return null;
+        }
+        int level = -1;
+        for (int i = DENSITY_LEVELS.length - 1; i >= 0 && level < 0; i--) {
+            int w = DENSITY_LEVELS[i];
+            if (first % w == 0 && end % w == 0 && width % w == 0) {
+                level = w;
+            }
+        }
+        if (level < 0) {
+            return null;
+        }
+        int fineFirst = first / level;
+        int fineCount = (end - first) / level;
+        int firstTile = fineFirst / TILE_BINS;
+        int lastTile = (fineFirst + fineCount - 1) / TILE_BINS;
+        if (lastTile - firstTile + 1 > MAX_TILES
+                || (long) (lastTile + 1) * level * TILE_BINS > Integer.MAX_VALUE) {
+            return null;
+        }
+        int[] starts = new int[fineCount];
+        int[] crossing = new int[fineCount];
+        for (int tile = firstTile; tile <= lastTile; tile++) {
+            ByteBuffer buffer = densityTile(domain, type, section, level, tile, loader);
+            int tileFirst = tile * TILE_BINS;
+            int from = Math.max(fineFirst, tileFirst);
+            int to = Math.min(fineFirst + fineCount, tileFirst + TILE_BINS);
+            for (int bin = from; bin < to; bin++) {
+                starts[bin - fineFirst] = buffer.getInt(4 * (bin - tileFirst));
+                crossing[bin - fineFirst] = buffer.getInt(4 * (TILE_BINS + bin - tileFirst));
+            }
+        }
+        int perBin = width / level;
+        int[] counts = new int[(fineCount + perBin - 1) / perBin];
+        for (int i = 0; i < counts.length; i++) {
+            int count = crossing[i * perBin];
+            for (int bin = i * perBin; bin < Math.min(fineCount, (i + 1) * perBin); bin++) {
+                count += starts[bin];
+            }
+            counts[i] = count;
+        }
+        return counts;
+    }
+
+    private ByteBuffer featureTile(String domain, String type, String section, int tile,
+            Loader loader) {
+        File file = new File(tileDir(domain, type, section), "f-" + tile + ".tile");
+        ByteBuffer buffer = read(file, FEATURE_MAGIC);
+        if (buffer == null) {
+            Segment segment = Segment.makeSegment(section, tile * FEATURE_TILE_WIDTH,
+                    (tile + 1) * FEATURE_TILE_WIDTH);
+            List<Map<String, Object>> features = loader.loadFeatures(segment);
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(FEATURE_MAGIC);
+                out.writeInt(features.size());
+                ByteArrayOutputStream record = new ByteArrayOutputStream();
+                for (Map<String, Object> feature: features) {
+                    record.reset();
+                    writeValue(new DataOutputStream(record), feature);
+                    out.writeInt(getInt(feature.get("start")));
+                    out.writeInt(getInt(feature.get("end")));
+                    out.writeInt(record.size());
+                    record.writeTo(out);
+                }
+                out.flush();
+                buffer = write(file, bytes.toByteArray());
+            } catch (IOException e) {
+                LOG.warn("Could not store feature tile " + file, e);
+                return null;
+            }
+        }
+        buffer.position(4);
+        return buffer;
+    }
+
+    // The tile query constrains the location, so every feature has a start and an end
+    private static int getInt(Object value) {
+        return (value instanceof Integer) ? ((Integer) value).intValue() : 0;
+    }
+
+    private ByteBuffer densityTile(String domain, String type, String section, int level,
+            int tile, Loader loader) {
+        File file = new File(tileDir(domain, type, section), "d" + level + "-" + tile + ".tile");
+        ByteBuffer buffer = read(file, DENSITY_MAGIC);
+        if (buffer == null) {
+            int span = level * TILE_BINS;
+            int[] counts = loader.loadDensities(
+                    Segment.makeSegment(section, tile * span, (tile + 1) * span), level);
+            if (counts.length != 2 * TILE_BINS) {
+                throw new IllegalStateException("Expected " + (2 * TILE_BINS) + " counts, got "
+                        + counts.length);
+            }
+            ByteBuffer bytes = ByteBuffer.allocate(4 * (counts.length + 1));
+            bytes.putInt(DENSITY_MAGIC);
+            for (int count: counts) {
+                bytes.putInt(count);
+            }
+            try {
+                buffer = write(file, bytes.array());
+            } catch (IOException e) {
+                throw new RuntimeException("Could not store density tile " + file, e);
+            }
+        }
+        buffer.position(4);
+        return buffer.slice();
+    }
+
+    private File tileDir(String domain, String type, String section) {
+        return new File(new File(new File(dir, fileName(domain)), fileName(section)),
+                fileName(type));
+    }
+
+    // Returns a buffer of its own over the mapped tile, or null if the tile is not stored.
+    private ByteBuffer read(File file, int magic) {
+        ByteBuffer buffer = mapped.get(file);
+        if (buffer == null) {
+            if (!file.exists()) {
+                return null;
+            }
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                LOG.warn("Could not read tile " + file + ", reloading it", e);
+                return null;
+            }
+            if (buffer.limit() < 4 || buffer.getInt(0) != magic) {
+                LOG.warn("Tile " + file + " is corrupt, reloading it");
+                return null;
+            }
+            mapped.put(file, buffer);
+        }
+        return buffer.duplicate();
+    }
+
+    // Writes the tile to a temporary file first, so readers never see half a tile.
+    private ByteBuffer write(File file, byte[] contents) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create " + parent);
+        }
+        File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(contents);
+        mapped.put(file, buffer);
+        return buffer.duplicate();
+    }
+
+    private static String fileName(String key) {
+        try {
+            String name = URLEncoder.encode(String.valueOf(key), "UTF-8");
+            return name.startsWith(".") ? "_" + name : name;
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //------------ Feature encoding --------------------//
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte('N');
+        } else if (value instanceof String) {
+            out.writeByte('S');
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.writeByte('I');
+            out.writeInt(((Integer) value).intValue());
+        } else if (value instanceof Long) {
+            out.writeByte('L');
+            out.writeLong(((Long) value).longValue());
+        } else if (value instanceof Double) {
+            out.writeByte('D');
+            out.writeDouble(((Double) value).doubleValue());
+        } else if (value instanceof Float) {
+            out.writeByte('F');
+            out.writeFloat(((Float) value).floatValue());
+        } else if (value instanceof BigDecimal) {
+            out.writeByte('X');
+            writeString(out, value.toString());
+        } else if (value instanceof Boolean) {
+            out.writeByte('B');
+            out.writeBoolean(((Boolean) value).booleanValue());
+        } else if (value instanceof Map<?, ?>) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte('M');
+            out.writeInt(map.size());
+            for (Entry<?, ?> entry: map.entrySet()) {
+                writeString(out, String.valueOf(entry.getKey()));
+                writeValue(out, entry.getValue());
+            }
+        } else if (value instanceof List<?>) {
+            List<?> list = (List<?>) value;
+            out.writeByte('A');
+            out.writeInt(list.size());
+            for (Object item: list) {
+                writeValue(out, item);
+            }
+        } else {
+            throw new IOException("Cannot store a " + value.getClass().getName() + " in a tile");
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Map<String, Object> readMap(ByteBuffer buffer) {
+        if (buffer.get() != 'M') {
+            throw new IllegalStateException("Expected a feature at " + (buffer.position() - 1));
+        }
+        return readMapBody(buffer);
+    }
+
+    private static Map<String, Object> readMapBody(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (int i = 0; i < size; i++) {
+            String key = readString(buffer);
+            map.put(key, readValue(buffer));
+        }
+        return map;
+    }
+
+    private static Object readValue(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case 'N':
+                return null;
+            case 'S':
+                return readString(buffer);
+            case 'I':
+                return Integer.valueOf(buffer.getInt());
+            case 'L':
+                return Long.valueOf(buffer.getLong());
+            case 'D':
+                return Double.valueOf(buffer.getDouble());
+            case 'F':
+                return Float.valueOf(buffer.getFloat());
+            case 'X':
+                return new BigDecimal(readString(buffer));
+            case 'B':
+                return Boolean.valueOf(buffer.get() != 0);
+            case 'M':
+                return readMapBody(buffer);
+            case 'A':
+                int size = buffer.getInt();
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(buffer));
+                }
+                return list;
+            default:
+                throw new IllegalStateException("Unknown value type " + (char) tag + " at "
+                        + (buffer.position() - 1));
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,154 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.query.ObjectStoreBag;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.SingletonResults;
+
+/**
+ * Singleton cache of the contents of ObjectStoreBags as IdBitmaps, one per production
+ * ObjectStore, so that list operations, membership tests and list comparisons can run in memory.
+ *
+ * Every change to the contents of a bag must be followed by a call to invalidate(), which
+ * InterMineBag does for the changes it makes.  Each invalidation bumps a version number for the
+ * bag, and contents read from the database while the bag was being changed are not cached.  The
+ * least recently used bitmaps are dropped once the cache grows beyond its maximum size.
+ *
+ * @author chenyian
+ */
+public final class BagIdCache
+{
+    private static final Logger LOG = Logger.getLogger(BagIdCache.class);
+    private static final Map<ObjectStore, BagIdCache> CACHES
+        = new HashMap<ObjectStore, BagIdCache>();
+    /** The default maximum size of a cache, in bytes. */
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+    private static final int BATCH_SIZE = 10000;
+
+    private final ObjectStore os;
+    private final LinkedHashMap<Integer, IdBitmap> bitmaps
+        = new LinkedHashMap<Integer, IdBitmap>(16, 0.75f, true);
+    private final Map<Integer, Long> versions = new HashMap<Integer, Long>();
+    private long nextVersion = 1;
+    private long size = 0;
+    private long maxSize = DEFAULT_MAX_SIZE;
+
+    private BagIdCache(ObjectStore os) {
+        this.os = os;
+    }
+
+    /**
+     * Return the cache of bags in an ObjectStore.
+     * @param os the production ObjectStore
+     * @return the instance
+     */
+    public static synchronized BagIdCache getInstance(ObjectStore os) {
+        BagIdCache cache = CACHES.get(os);
+        if (cache == null) {
+            cache = new BagIdCache(os);
+            CACHES.put(os, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Set the maximum size of the cache, dropping bitmaps if it is already bigger.
+     * @param maxSize the estimated memory size, in bytes
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+    /**
+     * Return the ids in a bag, reading them from the database if they are not cached.
+     * @param osb the bag
+     * @return the ids of the objects in the bag
+     */
+    public IdBitmap getIds(ObjectStoreBag osb) {
+        Integer bagId = Integer.valueOf(osb.getBagId());
+        Long version;
+        synchronized (this) {
+            IdBitmap cached = bitmaps.get(bagId);
+            if (cached != null) {
+                return cached;
+            }
+            version = versions.get(bagId);
+        }
+        IdBitmap ids = read(osb);
+        synchronized (this) {
+            Long current = versions.get(bagId);
+            if ((version == null) ? current == null : version.equals(current)) {
+                IdBitmap previous = bitmaps.put(bagId, ids);
+                if (previous != null) {
+                    size -= previous.getSizeInBytes();
+                }
+                size += ids.getSizeInBytes();
+                evict();
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Return the ids in a bag if they are cached.
+     * @param osb the bag
+     * @return the ids of the objects in the bag, or null if they have not been read
+     */
+    public synchronized IdBitmap getIdsIfPresent(ObjectStoreBag osb) {
+        return bitmaps.get(Integer.valueOf(osb.getBagId()));
+    }
+
+    /**
+     * Drop the cached ids of a bag whose contents have changed.
+     * @param osb the bag
+     */
+    public synchronized void invalidate(ObjectStoreBag osb) {
+        Integer bagId = Integer.valueOf(osb.getBagId());
+        versions.put(bagId, Long.valueOf(nextVersion++));
+        IdBitmap previous = bitmaps.remove(bagId);
+        if (previous != null) {
+            size -= previous.getSizeInBytes();
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private IdBitmap read(ObjectStoreBag osb) {
+        long start = System.currentTimeMillis();
+        Query q = new Query();
+        q.addToSelect(osb);
+        q.setDistinct(false);
+        SingletonResults res = os.executeSingleton(q, BATCH_SIZE, false, false, false);
+        List<Integer> ids = new ArrayList<Integer>((List) res);
+        IdBitmap bitmap = IdBitmap.of(ids);
+        LOG.debug("Read " + bitmap.getCardinality() + " ids of bag " + osb.getBagId() + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return bitmap;
+    }
+
+    private void evict() {
+        Iterator<IdBitmap> iter = bitmaps.values().iterator();
+        while (size > maxSize && iter.hasNext()) {
+            size -= iter.next().getSizeInBytes();
+            iter.remove();
+        }
+    }
+}
@@ -62,6 +62,7 @@ public class BagManager
     private final SharedBagManager sharedBagManager;
     private final Model model;
     private final ObjectStore osProduction;
+    private final BagIdCache idCache;
 
     /**
      * The BagManager references the super user profile to fetch global bags.
@@ -81,6 +82,38 @@ public class BagManager
         this.tagManager = new TagManagerFactory(pm).getTagManager();
         this.sharedBagManager = SharedBagManager.getInstance(pm);
         this.osProduction = pm.getProductionObjectStore();
+        this.idCache = BagIdCache.getInstance(osProduction);
+    }
+
+    /**
+     * Return the cache of list contents shared by all the lists in the production ObjectStore.
+     * @return the BagIdCache
+     */
+    public BagIdCache getIdCache() {
+        return idCache;
+    }
+
+    /**
+     * Work out how many objects each pair of lists have in common.  The contents of the lists
+     * are compared in memory, reading each list from the database at most once.
+     * @param bags the lists to compare
+     * @return a matrix where the entry [i][j] is the number of objects in both the i'th and the
+     * j'th list, so that the diagonal holds the size of each list
+     */
+    public int[][] getOverlaps(List<InterMineBag> bags) {
+        List<IdBitmap> bitmaps = new ArrayList<IdBitmap>();
+        for (InterMineBag bag : bags) {
+            bitmaps.add(idCache.getIds(bag.getOsb()));
+        }
+        int[][] overlaps = new int[bags.size()][bags.size()];
+        for (int i = 0; i < bitmaps.size(); i++) {
+            overlaps[i][i] = bitmaps.get(i).getCardinality();
+            for (int j = i + 1; j < bitmaps.size(); j++) {
+                overlaps[i][j] = bitmaps.get(i).andCardinality(bitmaps.get(j));
+                overlaps[j][i] = overlaps[i][j];
+            }
+        }
+        return overlaps;
     }
 
     /**
@@ -605,9 +638,24 @@ public class BagManager
 
     private Collection<InterMineBag> getBagsContainingId(Map<String, InterMineBag> imBags,
             Integer id) {
-        Collection<ObjectStoreBag> objectStoreBags = getObjectStoreBags(imBags.values());
-        Map<Integer, InterMineBag> osBagIdToInterMineBag =
-            getOsBagIdToInterMineBag(imBags.values());
+        Collection<InterMineBag> bagsContainingId = new HashSet<InterMineBag>();
+
+        // bags whose contents are cached are checked in memory
+        List<InterMineBag> uncached = new ArrayList<InterMineBag>();
+        for (InterMineBag bag : imBags.values()) {
+            IdBitmap ids = idCache.getIdsIfPresent(bag.getOsb());
+            if (ids == null) {
+                uncached.add(bag);
+            } else if (ids.contains(id.intValue())) {
+                bagsContainingId.add(bag);
+            }
+        }
+        if (uncached.isEmpty()) {
+            return bagsContainingId;
+        }
+
+        Collection<ObjectStoreBag> objectStoreBags = getObjectStoreBags(uncached);
+        Map<Integer, InterMineBag> osBagIdToInterMineBag = getOsBagIdToInterMineBag(uncached);
 
         // this searches bags for an object
         ObjectStoreBagsForObject osbo = new ObjectStoreBagsForObject(id, objectStoreBags);
@@ -616,8 +664,6 @@ public class BagManager
         Query q = new Query();
         q.addToSelect(osbo);
 
-        Collection<InterMineBag> bagsContainingId = new HashSet<InterMineBag>();
-
         // this should return all bags with that object
         Results res = osProduction.executeSingleton(q);
         Iterator<Object> resIter = res.iterator();
@@ -0,0 +1,586 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * An immutable compressed set of object ids, laid out like a Roaring bitmap: ids are grouped by
+ * their high 16 bits, and the low 16 bits of each group are held either as a sorted array (for
+ * sparse groups) or as a 65536 bit bitmap (for dense ones).  A list of a few thousand genes takes
+ * a few kilobytes, and unions, intersections and differences run group by group without touching
+ * the database.
+ *
+ * Ids are ordered as unsigned numbers, so any negative ids come after all the positive ones.
+ *
+ * @author chenyian
+ */
+public final class IdBitmap
+{
+    // the largest group held as an array: beyond this a bitmap is smaller
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    /** The bitmap with no ids. */
+    public static final IdBitmap EMPTY = new IdBitmap(new char[0], new Container[0]);
+
+    private final char[] keys;
+    private final Container[] containers;
+    private final int cardinality;
+
+    private IdBitmap(char[] keys, Container[] containers) {
+        this.keys = keys;
+        this.containers = containers;
+        int count = 0;
+        for (Container c : containers) {
+            count += c.cardinality();
+        }
+        this.cardinality = count;
+    }
+
+    /**
+     * Build a bitmap of a collection of ids.  Duplicates and nulls are ignored.
+     *
+     * @param ids the ids
+     * @return a new IdBitmap
+     */
+    public static IdBitmap of(Collection<Integer> ids) {
+        int[] values = new int[ids.size()];
+        int n = 0;
+        for (Integer id : ids) {
+            if (id != null) {
+                // flip the sign bit so that a signed sort gives unsigned order
+                values[n++] = id.intValue() ^ Integer.MIN_VALUE;
+            }
+        }
+        Arrays.sort(values, 0, n);
+        Builder builder = new Builder();
+        int i = 0;
+        while (i < n) {
+            int high = (values[i] ^ Integer.MIN_VALUE) >>> 16;
+            int j = i;
+            char[] lows = new char[Math.min(n - i, 1 << 16)];
+            int count = 0;
+            while (j < n && ((values[j] ^ Integer.MIN_VALUE) >>> 16) == high) {
+                char low = (char) values[j];
+                if (count == 0 || lows[count - 1] != low) {
+                    lows[count++] = low;
+                }
+                j++;
+            }
+            builder.add((char) high, fromArray(lows, count));
+            i = j;
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the number of ids in the bitmap
+     */
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    /**
+     * @return true if the bitmap has no ids
+     */
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * Test whether an id is in the bitmap.
+     *
+     * @param id the id
+     * @return true if the id is present
+     */
+    public boolean contains(int id) {
+        int index = Arrays.binarySearch(keys, (char) (id >>> 16));
+        return index >= 0 && containers[index].contains((char) id);
+    }
+
+    /**
+     * @return an estimate of the memory used by the bitmap, in bytes
+     */
+    public long getSizeInBytes() {
+        long size = 2L * keys.length;
+        for (Container c : containers) {
+            size += c.getSizeInBytes();
+        }
+        return size;
+    }
+
+    /**
+     * @return the ids, in unsigned order
+     */
+    public List<Integer> toList() {
+        List<Integer> ids = new ArrayList<Integer>(cardinality);
+        for (int i = 0; i < keys.length; i++) {
+            containers[i].addTo(ids, keys[i] << 16);
+        }
+        return ids;
+    }
+
+    /**
+     * @param other another bitmap
+     * @return the ids in either bitmap
+     */
+    public IdBitmap or(IdBitmap other) {
+        Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            int cmp = compare(i, other, j);
+            if (cmp < 0) {
+                builder.add(keys[i], containers[i]);
+                i++;
+            } else if (cmp > 0) {
+                builder.add(other.keys[j], other.containers[j]);
+                j++;
+            } else {
+                builder.add(keys[i], or(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param other another bitmap
+     * @return the ids in both bitmaps
+     */
+    public IdBitmap and(IdBitmap other) {
+        Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            int cmp = compare(i, other, j);
+            if (cmp < 0) {
+                i++;
+            } else if (cmp > 0) {
+                j++;
+            } else {
+                builder.add(keys[i], and(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Count the ids in both bitmaps, without building their intersection.
+     *
+     * @param other another bitmap
+     * @return the size of the intersection
+     */
+    public int andCardinality(IdBitmap other) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            int cmp = compare(i, other, j);
+            if (cmp < 0) {
+                i++;
+            } else if (cmp > 0) {
+                j++;
+            } else {
+                count += andCardinality(containers[i], other.containers[j]);
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param other another bitmap
+     * @return the ids in this bitmap but not the other
+     */
+    public IdBitmap andNot(IdBitmap other) {
+        Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < keys.length) {
+            int cmp = (j < other.keys.length) ? compare(i, other, j) : -1;
+            if (cmp < 0) {
+                builder.add(keys[i], containers[i]);
+                i++;
+            } else if (cmp > 0) {
+                j++;
+            } else {
+                builder.add(keys[i], andNot(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param other another bitmap
+     * @return the ids in exactly one of the bitmaps
+     */
+    public IdBitmap xor(IdBitmap other) {
+        Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            int cmp = compare(i, other, j);
+            if (cmp < 0) {
+                builder.add(keys[i], containers[i]);
+                i++;
+            } else if (cmp > 0) {
+                builder.add(other.keys[j], other.containers[j]);
+                j++;
+            } else {
+                builder.add(keys[i], xor(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param bitmaps some bitmaps
+     * @return the ids in any of the bitmaps
+     */
+    public static IdBitmap or(Collection<IdBitmap> bitmaps) {
+        IdBitmap result = EMPTY;
+        for (IdBitmap bitmap : bitmaps) {
+            result = result.or(bitmap);
+        }
+        return result;
+    }
+
+    /**
+     * @param bitmaps some bitmaps
+     * @return the ids in all of the bitmaps, or no ids if there are no bitmaps
+     */
+    public static IdBitmap and(Collection<IdBitmap> bitmaps) {
+        IdBitmap result = null;
+        for (IdBitmap bitmap : bitmaps) {
+            result = (result == null) ? bitmap : result.and(bitmap);
+        }
+        return (result == null) ? EMPTY : result;
+    }
+
+    // compare the keys at two positions, where a position past the end sorts last
+    private int compare(int i, IdBitmap other, int j) {
+        if (i >= keys.length) {
+            return 1;
+        }
+        if (j >= other.keys.length) {
+            return -1;
+        }
+        return keys[i] - other.keys[j];
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IdBitmap)) {
+            return false;
+        }
+        IdBitmap other = (IdBitmap) o;
+        return cardinality == other.cardinality && Arrays.equals(keys, other.keys)
+            && andCardinality(other) == cardinality;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(keys) * 31 + cardinality;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "IdBitmap(" + cardinality + " ids in " + keys.length + " containers)";
+    }
+
+    private static Container or(Container a, Container b) {
+        if (a instanceof ArrayContainer && b instanceof ArrayContainer
+                && a.cardinality() + b.cardinality() <= ARRAY_MAX) {
+            char[] x = ((ArrayContainer) a).values;
+            char[] y = ((ArrayContainer) b).values;
+            char[] merged = new char[x.length + y.length];
+            int i = 0;
+            int j = 0;
+            int n = 0;
+            while (i < x.length || j < y.length) {
+                if (j == y.length || (i < x.length && x[i] < y[j])) {
+                    merged[n++] = x[i++];
+                } else if (i == x.length || y[j] < x[i]) {
+                    merged[n++] = y[j++];
+                } else {
+                    merged[n++] = x[i++];
+                    j++;
+                }
+            }
+            return fromArray(merged, n);
+        }
+        long[] x = a.toWords();
+        long[] y = b.toWords();
+        long[] words = new long[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = x[i] | y[i];
+        }
+        return fromWords(words);
+    }
+
+    private static Container and(Container a, Container b) {
+        if (a instanceof ArrayContainer) {
+            return filter((ArrayContainer) a, b, true);
+        }
+        if (b instanceof ArrayContainer) {
+            return filter((ArrayContainer) b, a, true);
+        }
+        long[] x = a.toWords();
+        long[] y = b.toWords();
+        long[] words = new long[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = x[i] & y[i];
+        }
+        return fromWords(words);
+    }
+
+    private static int andCardinality(Container a, Container b) {
+        if (a instanceof ArrayContainer || b instanceof ArrayContainer) {
+            ArrayContainer array = (ArrayContainer) ((a instanceof ArrayContainer) ? a : b);
+            Container other = (array == a) ? b : a;
+            int count = 0;
+            for (char value : array.values) {
+                if (other.contains(value)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+        long[] x = a.toWords();
+        long[] y = b.toWords();
+        int count = 0;
+        for (int i = 0; i < WORDS; i++) {
+            count += Long.bitCount(x[i] & y[i]);
+        }
+        return count;
+    }
+
+    private static Container andNot(Container a, Container b) {
+        if (a instanceof ArrayContainer) {
+            return filter((ArrayContainer) a, b, false);
+        }
+        long[] x = a.toWords();
+        long[] y = b.toWords();
+        long[] words = new long[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = x[i] & ~y[i];
+        }
+        return fromWords(words);
+    }
+
+    private static Container xor(Container a, Container b) {
+        long[] x = a.toWords();
+        long[] y = b.toWords();
+        long[] words = new long[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+            words[i] = x[i] ^ y[i];
+        }
+        return fromWords(words);
+    }
+
+    // the values of an array that are (or are not) in another container
+    private static Container filter(ArrayContainer array, Container other, boolean keep) {
+        char[] values = new char[array.values.length];
+        int n = 0;
+        for (char value : array.values) {
+            if (other.contains(value) == keep) {
+                values[n++] = value;
+            }
+        }
+        return fromArray(values, n);
+    }
+
+    private static Container fromArray(char[] values, int count) {
+        if (count == 0) {
+            return null;
+        }
+        if (count <= ARRAY_MAX) {
+            return new ArrayContainer((count == values.length) ? values
+                    : Arrays.copyOf(values, count));
+        }
+        long[] words = new long[WORDS];
+        for (int i = 0; i < count; i++) {
+            words[values[i] >>> 6] |= 1L << values[i];
+        }
+        return new BitmapContainer(words, count);
+    }
+
+    private static Container fromWords(long[] words) {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        if (count == 0) {
+            return null;
+        }
+        if (count > ARRAY_MAX) {
+            return new BitmapContainer(words, count);
+        }
+        char[] values = new char[count];
+        int n = 0;
+        for (int i = 0; i < WORDS; i++) {
+            long word = words[i];
+            while (word != 0) {
+                values[n++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return new ArrayContainer(values);
+    }
+
+    /**
+     * Collects the non-empty containers of a new bitmap, in key order.
+     */
+    private static final class Builder
+    {
+        private final List<Character> keys = new ArrayList<Character>();
+        private final List<Container> containers = new ArrayList<Container>();
+
+        void add(char key, Container container) {
+            if (container != null) {
+                keys.add(Character.valueOf(key));
+                containers.add(container);
+            }
+        }
+
+        IdBitmap build() {
+            if (keys.isEmpty()) {
+                return EMPTY;
+            }
+            char[] keyArray = new char[keys.size()];
+            for (int i = 0; i < keyArray.length; i++) {
+                keyArray[i] = keys.get(i).charValue();
+            }
+            return new IdBitmap(keyArray, containers.toArray(new Container[containers.size()]));
+        }
+    }
+
+    /**
+     * The low 16 bits of the ids in one group.  Containers are never modified once built.
+     */
+    private abstract static class Container
+    {
+        abstract int cardinality();
+
+        abstract boolean contains(char low);
+
+        // the container as a bitmap, which the caller must not modify
+        abstract long[] toWords();
+
+        abstract long getSizeInBytes();
+
+        abstract void addTo(List<Integer> ids, int high);
+    }
+
+    private static final class ArrayContainer extends Container
+    {
+        private final char[] values;
+
+        ArrayContainer(char[] values) {
+            this.values = values;
+        }
+
+        @Override
+        int cardinality() {
+            return values.length;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, low) >= 0;
+        }
+
+        @Override
+        long[] toWords() {
+            long[] words = new long[WORDS];
+            for (char value : values) {
+                words[value >>> 6] |= 1L << value;
+            }
+            return words;
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return 2L * values.length;
+        }
+
+        @Override
+        void addTo(List<Integer> ids, int high) {
+            for (char value : values) {
+                ids.add(Integer.valueOf(high | value));
+            }
+        }
+    }
+
+    private static final class BitmapContainer extends Container
+    {
+        private final long[] words;
+        private final int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        long[] toWords() {
+            return words;
+        }
+
+        @Override
+        long getSizeInBytes() {
+            return 8L * WORDS;
+        }
+
+        @Override
+        void addTo(List<Integer> ids, int high) {
+            for (int i = 0; i < WORDS; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    ids.add(Integer.valueOf(high | ((i << 6) + Long.numberOfTrailingZeros(word))));
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+}
@@ -10,6 +10,7 @@ package org.intermine.api.bag.operations;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
@@ -20,6 +21,7 @@ import java.util.Set;
 
 import org.apache.log4j.Logger;
 import org.intermine.api.bag.ClassKeysNotFoundException;
+import org.intermine.api.bag.IdBitmap;
 import org.intermine.api.bag.UnknownBagTypeException;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
@@ -28,7 +30,6 @@ import org.intermine.metadata.FieldDescriptor;
 import org.intermine.metadata.Model;
 import org.intermine.objectstore.ObjectStoreException;
 import org.intermine.objectstore.query.ObjectStoreBagCombination;
-import org.intermine.objectstore.query.Query;
 
 /**
  * @author Alex
@@ -116,6 +117,9 @@ public abstract class BagOperation implements BagProducer
      * Perform this bag operation. Yes I know that this is a "execution in the kingdom of
      * nouns" method, and I apologise for the horror of it all. This operation will run at most
      * once. Subsequent calls to operate will always return the same created list.
+     *
+     * The contents of the new list are worked out in memory from the cached IdBitmaps of the
+     * source lists, and only the result is written to the database.
      * @return The new bag. Guaranteed to not be null.
      * @throws BagOperationException somethings gone wrong
      */
@@ -130,24 +134,11 @@ public abstract class BagOperation implements BagProducer
 
         checkCurrency();
         initCombined(type, name);
-        buildBag();
-        checkSize();
+        buildBag(type);
 
         return combined;
     }
 
-    private void checkSize() throws BagOperationException {
-        try {
-            if (combined.size() < 1) {
-                cleanUp();
-                throw new NoContent();
-            }
-        } catch (ObjectStoreException e) {
-            cleanUp();
-            throw new InternalBagOperationException("Unable to check bag size.", e);
-        }
-    }
-
     private void checkCurrency() throws BagOperationException {
         for (InterMineBag bag: bags) {
             if (!bag.isCurrent()) {
@@ -156,13 +147,21 @@ public abstract class BagOperation implements BagProducer
         }
     }
 
-    private void buildBag() throws InternalBagOperationException {
-        ObjectStoreBagCombination osbc = combineBags();
-        Query q = new Query();
-        q.addToSelect(osbc);
-        LOG.debug(q.toString());
+    private void buildBag(String type) throws BagOperationException {
+        IdBitmap ids;
         try {
-            combined.addToBagFromQuery(q);
+            ids = combineIds();
+        } catch (RuntimeException e) {
+            cleanUp();
+            throw new InternalBagOperationException("Error reading the contents of lists", e);
+        }
+        LOG.debug("Combined " + bags.size() + " lists into " + ids.getCardinality() + " ids");
+        if (ids.isEmpty()) {
+            cleanUp();
+            throw new NoContent();
+        }
+        try {
+            combined.addIdsToBag(ids.toList(), type);
         } catch (ObjectStoreException e) {
             cleanUp();
             throw new InternalBagOperationException("Error constructing bag", e);
@@ -170,14 +169,51 @@ public abstract class BagOperation implements BagProducer
     }
 
     /**
-     * @return combined list
+     * Work out the contents of the new list from the contents of the source lists, according to
+     * the operation code.
+     * @return the ids of the new list
+     */
+    protected IdBitmap combineIds() {
+        return combine(getOperationCode(), getIdBitmaps(bags));
+    }
+
+    /**
+     * @param lists some lists
+     * @return the contents of each list
+     */
+    protected static List<IdBitmap> getIdBitmaps(Collection<InterMineBag> lists) {
+        List<IdBitmap> bitmaps = new ArrayList<IdBitmap>();
+        for (InterMineBag bag : lists) {
+            bitmaps.add(bag.getIdBitmap());
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Combine sets of ids in the way an ObjectStoreBagCombination with the given operation code
+     * combines bags.
+     * @param op an operation code from ObjectStoreBagCombination
+     * @param bitmaps the sets of ids to combine, in order
+     * @return the combined ids
      */
-    protected ObjectStoreBagCombination combineBags() {
-        ObjectStoreBagCombination osbc = new ObjectStoreBagCombination(getOperationCode());
-        for (InterMineBag bag : bags) {
-            osbc.addBag(bag.getOsb());
+    protected static IdBitmap combine(int op, List<IdBitmap> bitmaps) {
+        switch (op) {
+            case ObjectStoreBagCombination.UNION:
+                return IdBitmap.or(bitmaps);
+            case ObjectStoreBagCombination.INTERSECT:
+                return IdBitmap.and(bitmaps);
+            case ObjectStoreBagCombination.EXCEPT:
+                IdBitmap result = bitmaps.isEmpty() ? IdBitmap.EMPTY : bitmaps.get(0);
+                for (IdBitmap bitmap : bitmaps.subList(Math.min(1, bitmaps.size()),
+                        bitmaps.size())) {
+                    result = result.andNot(bitmap);
+                }
+                return result;
+            case ObjectStoreBagCombination.ALLBUTINTERSECT:
+                return IdBitmap.or(bitmaps).andNot(IdBitmap.and(bitmaps));
+            default:
+                throw new IllegalArgumentException("Unknown operation code: " + op);
         }
-        return osbc;
     }
 
     private void initCombined(String type, String name) throws InternalBagOperationException {
@@ -16,6 +16,7 @@ import static org.intermine.metadata.DescriptorUtils.findSumType;
 
 import java.util.Collection;
 
+import org.intermine.api.bag.IdBitmap;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
 import org.intermine.metadata.ClassDescriptor;
@@ -68,18 +69,9 @@ public class RelativeComplement extends BagOperation
     }
 
     @Override
-    protected ObjectStoreBagCombination combineBags() {
-        ObjectStoreBagCombination leftUnion =
-                new ObjectStoreBagCombination(ObjectStoreBagCombination.UNION);
-        for (InterMineBag bag : getBags()) {
-            leftUnion.addBag(bag.getOsb());
-        }
-        ObjectStoreBagCombination osbc = new ObjectStoreBagCombination(getOperationCode());
-        osbc.addBagCombination(leftUnion);
-        for (InterMineBag bag : excluded) {
-            osbc.addBag(bag.getOsb());
-        }
-        return osbc;
+    protected IdBitmap combineIds() {
+        IdBitmap leftUnion = IdBitmap.or(getIdBitmaps(getBags()));
+        return leftUnion.andNot(IdBitmap.or(getIdBitmaps(excluded)));
     }
 
     @Override
@@ -10,27 +10,54 @@ package org.intermine.api.idresolution;
  *
  */
 
+import java.util.Date;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.log4j.Logger;
 import org.intermine.api.bag.BagQueryRunner;
 import org.intermine.api.bag.BagQueryUpgrade;
 
 /**
+ * Runs ID resolution jobs on two bounded pools of threads: one for interactive jobs from the
+ * webapp and one for batch jobs from the web services, so that scripts submitting many large
+ * lists cannot hold up users waiting on a page.  The total number of threads is kept below the
+ * size of the database connection pool, and the batch queue is bounded, so a burst of batch jobs
+ * is refused rather than piling up.
  *
  * @author Alex
  *
  */
 public final class IDResolver
 {
+    private static final Logger LOG = Logger.getLogger(IDResolver.class);
+
+    /** Property for the number of threads running interactive jobs. */
+    public static final String INTERACTIVE_THREADS = "idresolution.interactive.threads";
+    /** Property for the number of threads running batch jobs. */
+    public static final String BATCH_THREADS = "idresolution.batch.threads";
+    /** Property for the number of batch jobs that may wait in the queue. */
+    public static final String BATCH_QUEUE = "idresolution.batch.queue";
+
+    private static final int DEFAULT_INTERACTIVE_THREADS = 4;
+    private static final int DEFAULT_BATCH_THREADS = 2;
+    private static final int DEFAULT_BATCH_QUEUE = 100;
 
     /**
      * list of jobs
      */
     private final Map<UUID, Job> jobs = new ConcurrentHashMap<UUID, Job>();
+    private final Map<String, JobMetrics> metrics = new ConcurrentHashMap<String, JobMetrics>();
 
     private static IDResolver instance = new IDResolver();
 
@@ -42,10 +69,45 @@ public final class IDResolver
         return instance;
     }
 
-    private ExecutorService threadPool;
+    private ThreadPoolExecutor interactivePool;
+    private ThreadPoolExecutor batchPool;
+    private int maxQueuedBatchJobs;
 
     private IDResolver() {
-        this.threadPool = Executors.newCachedThreadPool();
+        interactivePool = createPool("interactive", DEFAULT_INTERACTIVE_THREADS);
+        batchPool = createPool("batch", DEFAULT_BATCH_THREADS);
+        maxQueuedBatchJobs = DEFAULT_BATCH_QUEUE;
+    }
+
+    /**
+     * Size the pools from the idresolution.* properties.  If the database connection pool is
+     * smaller than the requested number of threads the thread counts are reduced to leave half
+     * of the connections for the rest of the webapp, keeping at least one thread in each pool.
+     * Jobs already submitted finish on the old pools.
+     *
+     * @param props properties to read the idresolution.* settings from
+     * @param maxConnections the size of the connection pool of the production database, or -1
+     * if not known
+     */
+    public synchronized void configure(Properties props, int maxConnections) {
+        int interactiveThreads = getInt(props, INTERACTIVE_THREADS, DEFAULT_INTERACTIVE_THREADS);
+        int batchThreads = getInt(props, BATCH_THREADS, DEFAULT_BATCH_THREADS);
+        if (maxConnections > 0) {
+            int budget = Math.max(2, maxConnections / 2);
+            if (interactiveThreads + batchThreads > budget) {
+                // share the connections out in proportion, in favour of interactive jobs
+                int total = interactiveThreads + batchThreads;
+                batchThreads = Math.max(1, batchThreads * budget / total);
+                interactiveThreads = Math.max(1, budget - batchThreads);
+            }
+        }
+        maxQueuedBatchJobs = getInt(props, BATCH_QUEUE, DEFAULT_BATCH_QUEUE);
+        interactivePool.shutdown();
+        batchPool.shutdown();
+        interactivePool = createPool("interactive", interactiveThreads);
+        batchPool = createPool("batch", batchThreads);
+        LOG.info("ID resolution using " + interactiveThreads + " interactive and " + batchThreads
+                + " batch threads, at most " + maxQueuedBatchJobs + " queued batch jobs");
     }
 
     /**
@@ -75,15 +137,59 @@ public final class IDResolver
     }
 
     /**
+     * @param uid job id
+     * @return the timings of the job, or null if there is no such job
+     */
+    public JobMetrics getMetrics(String uid) {
+        return metrics.get(uid);
+    }
+
+    /**
+     * @param uid job id
+     * @return the number of jobs ahead of this one in its queue, or -1 if the job is not
+     * waiting
+     */
+    public int getQueuePosition(String uid) {
+        JobMetrics jobMetrics = metrics.get(uid);
+        if (jobMetrics == null) {
+            return -1;
+        }
+        BlockingQueue<Runnable> queue = (jobMetrics.isBatch() ? batchPool : interactivePool)
+            .getQueue();
+        int position = 0;
+        for (Runnable queued : queue) {
+            if (queued instanceof QueuedJob && ((QueuedJob) queued).job.getUid().equals(uid)) {
+                return position;
+            }
+            position++;
+        }
+        return -1;
+    }
+
+    /**
+     * Submit an interactive resolution job.
      *
      * @param runner bag query runner
      * @param input input
      * @return job
      */
     public Job submit(BagQueryRunner runner, JobInput input) {
+        return submit(runner, input, false);
+    }
+
+    /**
+     *
+     * @param runner bag query runner
+     * @param input input
+     * @param batch true to run the job on the batch queue
+     * @return job
+     * @throws RejectedExecutionException if this is a batch job and the batch queue is full
+     */
+    public Job submit(BagQueryRunner runner, JobInput input, boolean batch) {
         UUID id = UUID.randomUUID();
         Job job = new ResolutionJob(id, runner, input);
-        return submitJob(id, job);
+        int identifiers = (input.getIds() == null ? 0 : input.getIds().size());
+        return submitJob(id, job, new JobMetrics(batch, identifiers));
     }
 
     /**
@@ -94,12 +200,18 @@ public final class IDResolver
     public Job submit(BagQueryUpgrade upgrade) {
         UUID id = UUID.randomUUID();
         Job job = new UpgradeJob(id, upgrade);
-        return submitJob(id, job);
+        return submitJob(id, job, new JobMetrics(false, 0));
     }
 
-    private Job submitJob(UUID id, Job job) {
+    private synchronized Job submitJob(UUID id, Job job, JobMetrics jobMetrics) {
+        ThreadPoolExecutor pool = (jobMetrics.isBatch() ? batchPool : interactivePool);
+        if (jobMetrics.isBatch() && pool.getQueue().size() >= maxQueuedBatchJobs) {
+            throw new RejectedExecutionException("Too many ID resolution jobs are waiting ("
+                    + maxQueuedBatchJobs + "), try again later");
+        }
         jobs.put(id, job);
-        threadPool.submit(job);
+        metrics.put(job.getUid(), jobMetrics);
+        pool.execute(new QueuedJob(job, jobMetrics));
         return job;
     }
 
@@ -113,10 +225,92 @@ public final class IDResolver
             return null;
         }
         try {
+            metrics.remove(uid);
             return jobs.remove(UUID.fromString(uid));
         } catch (IllegalArgumentException e) {
             return null;
         }
     }
 
+    /**
+     * Remove completed jobs that finished before a given time.
+     *
+     * @param cutOff the time before which finished jobs are removed
+     * @return the number of jobs removed
+     */
+    public int removeJobsFinishedBefore(Date cutOff) {
+        int removed = 0;
+        Iterator<Job> iter = jobs.values().iterator();
+        while (iter.hasNext()) {
+            Job job = iter.next();
+            JobMetrics jobMetrics = metrics.get(job.getUid());
+            if (jobMetrics != null && jobMetrics.isFinished()
+                    && jobMetrics.getFinishedAt() < cutOff.getTime()) {
+                iter.remove();
+                metrics.remove(job.getUid());
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private static ThreadPoolExecutor createPool(final String name, int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "IDResolver " + name + " "
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static int getInt(Properties props, String key, int defaultValue) {
+        String value = (props == null ? null : props.getProperty(key));
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            int ret = Integer.parseInt(value.trim());
+            if (ret < 1) {
+                throw new IllegalArgumentException(key + " must be at least 1, was " + ret);
+            }
+            return ret;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " must be an integer, was " + value, e);
+        }
+    }
+
+    /**
+     * A job in a queue, which records its timings when run.
+     */
+    private static final class QueuedJob implements Runnable
+    {
+        private final Job job;
+        private final JobMetrics jobMetrics;
+
+        QueuedJob(Job job, JobMetrics jobMetrics) {
+            this.job = job;
+            this.jobMetrics = jobMetrics;
+        }
+
+        @Override
+        public void run() {
+            jobMetrics.started();
+            try {
+                job.run();
+            } finally {
+                jobMetrics.finished();
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("ID resolution job " + job.getUid() + " " + job.getStatus() + ": "
+                            + jobMetrics);
+                }
+            }
+        }
+    }
 }
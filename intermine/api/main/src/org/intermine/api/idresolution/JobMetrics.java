@@ -0,0 +1,112 @@
+package org.intermine.api.idresolution;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+/**
+ * Timings of an ID resolution job, recorded by the IDResolver as the job moves from its queue to
+ * a worker thread and on to completion.
+ *
+ * @author chenyian
+ */
+public class JobMetrics
+{
+    private final boolean batch;
+    private final int identifiers;
+    private final long submittedAt;
+    private volatile long startedAt = -1;
+    private volatile long finishedAt = -1;
+
+    /**
+     * @param batch true if the job was submitted to the batch queue
+     * @param identifiers the number of identifiers to resolve, or 0 if not known
+     */
+    JobMetrics(boolean batch, int identifiers) {
+        this.batch = batch;
+        this.identifiers = identifiers;
+        this.submittedAt = System.currentTimeMillis();
+    }
+
+    /** Record that a worker has started the job. */
+    void started() {
+        startedAt = System.currentTimeMillis();
+    }
+
+    /** Record that the job has finished, successfully or not. */
+    void finished() {
+        finishedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * @return true if the job was submitted to the batch queue
+     */
+    public boolean isBatch() {
+        return batch;
+    }
+
+    /**
+     * @return the number of identifiers to resolve, or 0 if not known
+     */
+    public int getIdentifiers() {
+        return identifiers;
+    }
+
+    /**
+     * @return true if the job has finished
+     */
+    public boolean isFinished() {
+        return finishedAt >= 0;
+    }
+
+    /**
+     * @return the time the job finished, in milliseconds since the epoch, or -1 if it has not
+     */
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * @return milliseconds the job spent in its queue, so far if it is still waiting
+     */
+    public long getQueueWait() {
+        long start = startedAt;
+        return (start < 0 ? System.currentTimeMillis() : start) - submittedAt;
+    }
+
+    /**
+     * @return milliseconds the job has been running, so far if it has not finished, or 0 if it
+     * has not started
+     */
+    public long getRunTime() {
+        long start = startedAt;
+        long finish = finishedAt;
+        if (start < 0) {
+            return 0;
+        }
+        return (finish < 0 ? System.currentTimeMillis() : finish) - start;
+    }
+
+    /**
+     * @return the number of identifiers resolved per second of run time, or 0 if the job has
+     * not finished or the number of identifiers is not known
+     */
+    public double getIdentifiersPerSecond() {
+        if (!isFinished() || identifiers == 0) {
+            return 0;
+        }
+        return identifiers * 1000.0 / Math.max(1, getRunTime());
+    }
+
+    @Override
+    public String toString() {
+        return "JobMetrics [batch=" + batch + ", identifiers=" + identifiers + ", queueWait="
+                + getQueueWait() + "ms, runTime=" + getRunTime() + "ms]";
+    }
+}
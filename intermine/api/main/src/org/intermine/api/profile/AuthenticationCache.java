@@ -0,0 +1,246 @@
+package org.intermine.api.profile;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An expiring cache from access keys to the users they authenticate, that many threads can read
+ * at once without locking.
+ *
+ * Entries expire after a fixed time, so that changes made to the userprofile database by other
+ * processes are noticed eventually.  Changes made through the ProfileManager must invalidate the
+ * entries they affect explicitly.  An entry is only added if nothing has been invalidated since
+ * the caller took the stamp it passes in, so a lookup that raced with a revocation can never put
+ * a revoked key back into the cache.
+ *
+ * @author chenyian
+ */
+public class AuthenticationCache
+{
+    /** The number of entries held, unless another is given. **/
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    /** The number of milliseconds an entry is trusted for, unless another is given. **/
+    public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000L;
+
+    private final int maxEntries;
+    private final long timeToLive;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Constructs a cache with the default bounds.
+     */
+    public AuthenticationCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Constructs a cache.
+     *
+     * @param maxEntries the number of entries to hold
+     * @param timeToLive the number of milliseconds an entry is trusted for
+     */
+    public AuthenticationCache(int maxEntries, long timeToLive) {
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Returns the entry for a key, if there is one that has not expired.
+     *
+     * @param key an API key or token
+     * @return an Entry, or null
+     */
+    public Entry get(String key) {
+        if (key == null) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.expiry > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return entry;
+            }
+            entries.remove(key, entry);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Returns a stamp to pass to put, taken before looking up a key in the database.
+     *
+     * @return a long
+     */
+    public long getStamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Adds an entry, unless something has been invalidated since the stamp was taken.
+     *
+     * @param key an API key or token
+     * @param profile the profile of the user the key authenticates
+     * @param stamp the value of getStamp from before the key was looked up
+     * @return true if the entry was added
+     */
+    public boolean put(String key, Profile profile, long stamp) {
+        if (key == null || profile == null || invalidations.get() != stamp) {
+            return false;
+        }
+        if (entries.size() >= maxEntries) {
+            purge();
+        }
+        Entry entry = new Entry(profile, System.currentTimeMillis() + timeToLive);
+        entries.put(key, entry);
+        // An invalidation may have happened while we were adding the entry, in which case it may
+        // have missed it.
+        if (invalidations.get() != stamp) {
+            entries.remove(key, entry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the entry for a key.
+     *
+     * @param key an API key or token
+     */
+    public void invalidate(String key) {
+        invalidations.incrementAndGet();
+        if (key != null) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Removes all the entries for a user.
+     *
+     * @param username the name of the user
+     */
+    public void invalidateUser(String username) {
+        invalidations.incrementAndGet();
+        if (username == null) {
+            return;
+        }
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+            if (username.equals(i.next().getUsername())) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    public void clear() {
+        invalidations.incrementAndGet();
+        entries.clear();
+    }
+
+    private void purge() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+            if (i.next().expiry <= now) {
+                i.remove();
+            }
+        }
+        // Still full of live entries, so drop whichever come first
+        for (Iterator<Entry> i = entries.values().iterator();
+                i.hasNext() && entries.size() >= maxEntries;) {
+            i.next();
+            i.remove();
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache, including any that have expired but not yet
+     * been removed.
+     *
+     * @return an int
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of times a key was found in the cache.
+     *
+     * @return a long
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of times a key was not found in the cache.
+     *
+     * @return a long
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "AuthenticationCache(" + size() + " entries, " + getHits() + " hits, "
+            + getMisses() + " misses)";
+    }
+
+    /**
+     * The user an access key authenticates.
+     */
+    public static final class Entry
+    {
+        private final Profile profile;
+        private final Integer userId;
+        private final String username;
+        private final long expiry;
+
+        private Entry(Profile profile, long expiry) {
+            this.profile = profile;
+            this.userId = profile.getUserId();
+            this.username = profile.getUsername();
+            this.expiry = expiry;
+        }
+
+        /**
+         * @return the profile of the user
+         */
+        public Profile getProfile() {
+            return profile;
+        }
+
+        /**
+         * @return the id of the user's UserProfile
+         */
+        public Integer getUserId() {
+            return userId;
+        }
+
+        /**
+         * @return the name of the user
+         */
+        public String getUsername() {
+            return username;
+        }
+    }
+}
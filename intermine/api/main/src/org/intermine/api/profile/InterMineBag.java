@@ -16,13 +16,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.intermine.api.bag.BagIdCache;
 import org.intermine.api.bag.ClassKeysNotFoundException;
+import org.intermine.api.bag.IdBitmap;
 import org.intermine.api.bag.IncompatibleTypesException;
 import org.intermine.api.bag.UnknownBagTypeException;
 import org.intermine.api.search.PropertyChangeEvent;
@@ -243,13 +246,18 @@ public class InterMineBag extends StorableBag implements Cloneable
      *
      * @return a List of Integers
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     public List<Integer> getContentsAsIds() {
-        Query q = new Query();
-        q.addToSelect(osb);
-        q.setDistinct(false);
-        SingletonResults res = os.executeSingleton(q, 1000, false, true, true);
-        return ((List) res);
+        return getIdBitmap().toList();
+    }
+
+    /**
+     * Returns the contents of this bag as a compressed set of IDs.  The set is read once and
+     * shared through the BagIdCache of the production ObjectStore until the bag changes.
+     *
+     * @return the IDs of the objects in the bag
+     */
+    public IdBitmap getIdBitmap() {
+        return BagIdCache.getInstance(os).getIds(osb);
     }
 
     /**
@@ -258,31 +266,16 @@ public class InterMineBag extends StorableBag implements Cloneable
      * @param ids the list of ids
      * @return a List of Integers
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
     public List<Integer> getIdsContained(Collection<Integer> ids) {
-        Query q = new Query();
-        q.setDistinct(false);
-        try {
-            Class<? extends InterMineObject> clazz =
-                (Class<InterMineObject>) Class.forName(getQualifiedType());
-            QueryClass qc = new QueryClass(clazz);
-            QueryField idField = new QueryField(qc, "id");
-            q.addToSelect(idField);
-            q.addFrom(qc);
-
-            BagConstraint constraint1 = new BagConstraint(idField, ConstraintOp.IN, ids);
-            BagConstraint constraint2 = new BagConstraint(idField, ConstraintOp.IN, osb);
-            ConstraintSet constraintSet = new ConstraintSet(ConstraintOp.AND);
-            constraintSet.addConstraint(constraint1);
-            constraintSet.addConstraint(constraint2);
-            q.setConstraint(constraintSet);
-
-        } catch (ClassNotFoundException nfe) {
-            LOG.error("Error retriving class for bag: " + name, nfe);
+        IdBitmap contents = getIdBitmap();
+        Set<Integer> seen = new HashSet<Integer>();
+        List<Integer> contained = new ArrayList<Integer>();
+        for (Integer id : ids) {
+            if (id != null && contents.contains(id.intValue()) && seen.add(id)) {
+                contained.add(id);
+            }
         }
-
-        SingletonResults res = os.executeSingleton(q, 1000, false, true, true);
-        return ((List) res);
+        return contained;
     }
 
     /**
@@ -434,6 +427,10 @@ public class InterMineBag extends StorableBag implements Cloneable
 
     @Override
     public int getSize() throws ObjectStoreException {
+        IdBitmap cached = BagIdCache.getInstance(os).getIdsIfPresent(osb);
+        if (cached != null) {
+            return cached.getCardinality();
+        }
         Query q = new Query();
         q.addToSelect(osb);
         q.setDistinct(false);
@@ -741,6 +738,7 @@ public class InterMineBag extends StorableBag implements Cloneable
             oswProduction = os.getNewWriter();
             oswProduction.addAllToBag(osb, ids);
         } finally {
+            BagIdCache.getInstance(os).invalidate(osb);
             if (oswProduction != null) {
                 oswProduction.close();
             }
@@ -785,6 +783,7 @@ public class InterMineBag extends StorableBag implements Cloneable
             oswProduction = os.getNewWriter();
             oswProduction.addToBagFromQuery(osb, query);
         } finally {
+            BagIdCache.getInstance(os).invalidate(osb);
             if (oswProduction != null) {
                 oswProduction.close();
             }
@@ -816,6 +815,7 @@ public class InterMineBag extends StorableBag implements Cloneable
             oswProduction = os.getNewWriter();
             oswProduction.removeAllFromBag(osb, ids);
         } finally {
+            BagIdCache.getInstance(os).invalidate(osb);
             if (oswProduction != null) {
                 oswProduction.close();
             }
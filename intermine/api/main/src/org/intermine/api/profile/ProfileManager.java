@@ -14,6 +14,7 @@ import static java.util.Collections.singleton;
 
 import java.io.Reader;
 import java.io.StringReader;
+import java.lang.ref.SoftReference;
 import java.security.Principal;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -31,6 +32,8 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
@@ -71,7 +74,6 @@ import org.intermine.pathquery.PathQuery;
 import org.intermine.pathquery.PathQueryBinding;
 import org.intermine.template.TemplateQuery;
 import org.intermine.template.xml.TemplateQueryBinding;
-import org.intermine.util.CacheMap;
 import org.intermine.util.PasswordHasher;
 import org.intermine.util.PropertiesUtil;
 
@@ -87,16 +89,24 @@ public class ProfileManager
 
     protected ObjectStore os;
     protected ObjectStoreWriter uosw;
-    protected CacheMap<String, Profile> profileCache = new CacheMap<String, Profile>();
+    protected ConcurrentMap<String, SoftReference<Profile>> profileCache
+        = new ConcurrentHashMap<String, SoftReference<Profile>>();
     private String superuser = null;
     /** Number determining format of queries in the database */
     protected int pathQueryFormat;
 
-    private final Map<String, LimitedAccessToken> limitedAccessTokens
-        = new HashMap<String, LimitedAccessToken>();
+    private final ConcurrentMap<String, LimitedAccessToken> limitedAccessTokens
+        = new ConcurrentHashMap<String, LimitedAccessToken>();
 
     private final Map<UUID, PermanentToken> permanentTokens
-        = new HashMap<UUID, PermanentToken>();
+        = new ConcurrentHashMap<UUID, PermanentToken>();
+
+    // Reading profiles and checking keys takes no locks. Changes to a user take that user's lock.
+    private final AuthenticationCache authenticationCache = new AuthenticationCache();
+    // A fixed set of locks shared out by username, so that asking about unknown users adds nothing
+    private static final int USER_LOCK_STRIPES = 64;
+    private final Object[] userLocks = createLocks(USER_LOCK_STRIPES);
+    private final Object anonymousLock = new Object();
 
     /**
      * Construct a ProfileManager for the webapp
@@ -263,13 +273,16 @@ public class ProfileManager
      * @param username the username
      * @param password the password
      */
-    public synchronized void setPassword(String username, String password) {
-        UserProfile userProfile = getUserProfile(username);
-        userProfile.setPassword(PasswordHasher.hashPassword(password));
-        try {
-            uosw.store(userProfile);
-        } catch (ObjectStoreException e) {
-            throw new RuntimeException(e);
+    public void setPassword(String username, String password) {
+        synchronized (getUserLock(username)) {
+            UserProfile userProfile = getUserProfile(username);
+            userProfile.setPassword(PasswordHasher.hashPassword(password));
+            try {
+                uosw.store(userProfile);
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException(e);
+            }
+            authenticationCache.invalidateUser(username);
         }
     }
 
@@ -291,7 +304,7 @@ public class ProfileManager
      * @param classKeys the classkeys
      * @return the Profile, or null if one doesn't exist
      */
-    public synchronized Profile getProfile(String username, String password,
+    public Profile getProfile(String username, String password,
                         Map<String, List<FieldDescriptor>> classKeys) {
         if (hasProfile(username) && validPassword(username, password)) {
             return getProfile(username, classKeys);
@@ -304,7 +317,7 @@ public class ProfileManager
      * @param password the password
      * @return the Profile, or null if one doesn't exist
      */
-    public synchronized Profile getProfile(String username, String password) {
+    public Profile getProfile(String username, String password) {
         if (hasProfile(username)) {
             if (getUserProfile(username).getLocalAccount()) {
                 if (validPassword(username, password)) {
@@ -322,7 +335,7 @@ public class ProfileManager
      * @param username the username
      * @return the Profile, or null if one doesn't exist
      */
-    public synchronized Profile getProfile(String username) {
+    public Profile getProfile(String username) {
         Map<String, List<FieldDescriptor>> classKeys = getClassKeys(os.getModel());
         return getProfile(username, classKeys);
     }
@@ -340,10 +353,56 @@ public class ProfileManager
         } catch (ObjectStoreException e) {
             throw new RuntimeException("Error retrieving profile", e);
         }
-        if (up != null && profileCache.containsKey(up.getUsername())) {
-            return profileCache.get(up.getUsername());
+        if (up == null) {
+            return null;
+        }
+        Profile profile = getCachedProfile(up.getUsername());
+        if (profile != null) {
+            return profile;
+        }
+        synchronized (getUserLock(up.getUsername())) {
+            profile = getCachedProfile(up.getUsername());
+            if (profile != null) {
+                return profile;
+            }
+            profile = wrapUserProfile(up, classKeys);
+        }
+        // outside the lock, as this loads the profiles of the users sharing bags with this one
+        profile.updateUserRepositoryWithSharedBags();
+        return profile;
+    }
+
+    private Profile getCachedProfile(String username) {
+        SoftReference<Profile> ref = profileCache.get(username);
+        if (ref == null) {
+            return null;
+        }
+        Profile profile = ref.get();
+        if (profile == null) {
+            // the profile has been garbage collected
+            profileCache.remove(username, ref);
+        }
+        return profile;
+    }
+
+    private static Object[] createLocks(int count) {
+        Object[] locks = new Object[count];
+        for (int i = 0; i < count; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    /**
+     * Returns the lock to hold while changing a user.  Reading a user needs no lock, except to
+     * stop two threads loading the same profile from the database at once.  Several users may
+     * share a lock, so only one user's lock may be held at a time.
+     */
+    private Object getUserLock(String username) {
+        if (username == null) {
+            return anonymousLock;
         }
-        return wrapUserProfile(up, classKeys);
+        return userLocks[(username.hashCode() & Integer.MAX_VALUE) % userLocks.length];
     }
 
     /**
@@ -423,41 +482,50 @@ public class ProfileManager
      * @param classKeys the classkeys
      * @return the Profile, or null if one doesn't exist
      */
-    public synchronized Profile getProfile(String username, Map<String,
+    public Profile getProfile(String username, Map<String,
                         List<FieldDescriptor>> classKeys) {
         if (username == null) {
             return null;
         }
-        Profile profile = profileCache.get(username);
+        Profile profile = getCachedProfile(username);
         if (profile != null) {
             return profile;
         }
+        synchronized (getUserLock(username)) {
+            profile = getCachedProfile(username);
+            if (profile != null) {
+                return profile;
+            }
+            UserProfile userProfile = getUserProfile(username);
+            if (userProfile != null) {
+                profile = wrapUserProfile(userProfile, classKeys);
+            }
+        }
+        if (profile != null) {
+            // outside the lock, as this loads the profiles of the users sharing bags with this one
+            profile.updateUserRepositoryWithSharedBags();
+            return profile;
+        }
 
-        UserProfile userProfile = getUserProfile(username);
-
-        if (userProfile == null) {
-            // See if we can resolve the user by an alias.
-            Integer trueId;
-            try {
-                // See if this is one of the unique mappings.
-                for (String pref: UserPreferences.UNIQUE_KEYS) {
-                    trueId = getPreferencesManager().getUserWithUniqueMapping(pref, username);
-                    if (trueId != null) {
-                        return getProfile(trueId);
-                    }
+        // See if we can resolve the user by an alias.
+        Integer trueId;
+        try {
+            // See if this is one of the unique mappings.
+            for (String pref: UserPreferences.UNIQUE_KEYS) {
+                trueId = getPreferencesManager().getUserWithUniqueMapping(pref, username);
+                if (trueId != null) {
+                    return getProfile(trueId);
                 }
-            } catch (DuplicateMappingException e) {
-                LOG.error("DB in in an illegal state", e);
-            } catch (SQLException e) {
-                LOG.warn(e);
             }
-            return null;
+        } catch (DuplicateMappingException e) {
+            LOG.error("DB in in an illegal state", e);
+        } catch (SQLException e) {
+            LOG.warn(e);
         }
-
-        return wrapUserProfile(userProfile, classKeys);
+        return null;
     }
 
-    private synchronized Profile wrapUserProfile(UserProfile userProfile,
+    private Profile wrapUserProfile(UserProfile userProfile,
             Map<String, List<FieldDescriptor>> classKeys) {
         if (userProfile == null) {
             return null;
@@ -570,11 +638,12 @@ public class ProfileManager
                 userProfile.getPassword(),
                 savedQueries, bags, savedTemplates, userProfile.getApiKey(),
                 userProfile.getLocalAccount(), userProfile.getSuperuser());
-        profileCache.put(userProfile.getUsername(), profile);
+        profileCache.put(userProfile.getUsername(), new SoftReference<Profile>(profile));
         //only after saving the profile in the cache,
         //we can update the user repository with shared bags
-        //if we do in the constructor we could generate loops
-        profile.updateUserRepositoryWithSharedBags();
+        //if we do in the constructor we could generate loops.
+        //The caller does that once it has released the user's lock, as it takes the locks of
+        //the users sharing bags, and holding two user locks at once could deadlock.
         return profile;
     }
 
@@ -592,7 +661,13 @@ public class ProfileManager
      * Synchronise a user's Profile with the backing store
      * @param profile the Profile
      */
-    public synchronized void saveProfile(Profile profile) {
+    public void saveProfile(Profile profile) {
+        synchronized (getUserLock(profile.getUsername())) {
+            doSaveProfile(profile);
+        }
+    }
+
+    private void doSaveProfile(Profile profile) {
         Integer userId = profile.getUserId();
         try {
             UserProfile userProfile = getUserProfile(userId);
@@ -612,6 +687,7 @@ public class ProfileManager
                 throw new RuntimeException("Cannot save this profile: The UserProfile is null");
             }
 
+            String oldApiKey = userProfile.getApiKey();
             userProfile.setApiKey(profile.getApiKey());
 
             syncSavedQueries(profile, userProfile);
@@ -619,6 +695,10 @@ public class ProfileManager
 
             uosw.store(userProfile);
             profile.setUserId(userProfile.getId());
+            if (oldApiKey != null && !oldApiKey.equals(profile.getApiKey())) {
+                // The old key no longer authenticates anyone
+                authenticationCache.invalidate(oldApiKey);
+            }
         } catch (ObjectStoreException e) {
             throw new RuntimeException(e);
         }
@@ -667,7 +747,7 @@ public class ProfileManager
      * @param password the password
      * @return new profile
      */
-    public synchronized Profile createNewProfile(String username, String password) {
+    public Profile createNewProfile(String username, String password) {
         return createBasicLocalProfile(username, password, null);
     }
 
@@ -698,21 +778,23 @@ public class ProfileManager
      * @param apiKey The API key for this user.
      * @return The profile.
      */
-    public synchronized Profile createBasicLocalProfile(
+    public Profile createBasicLocalProfile(
             String username,
             String password,
             String apiKey) {
-        if (this.hasProfile(username)) {
-            throw new RuntimeException("Cannot create account: there already exists a user"
-                    + " with that name");
-        }
+        synchronized (getUserLock(username)) {
+            if (this.hasProfile(username)) {
+                throw new RuntimeException("Cannot create account: there already exists a user"
+                        + " with that name");
+            }
 
-        Profile p = new Profile(
-                this, username, null, password,
-                Profile.NO_QUERIES, Profile.NO_BAGS, Profile.NO_TEMPLATES,
-                apiKey, true, false);
-        createProfile(p);
-        return p;
+            Profile p = new Profile(
+                    this, username, null, password,
+                    Profile.NO_QUERIES, Profile.NO_BAGS, Profile.NO_TEMPLATES,
+                    apiKey, true, false);
+            createProfile(p);
+            return p;
+        }
     }
 
     /**
@@ -723,7 +805,7 @@ public class ProfileManager
      * @param apiKey The API key for this user.
      * @return The profile.
      */
-    public synchronized Profile createSuperUser(
+    public Profile createSuperUser(
             String username,
             String password,
             String apiKey) {
@@ -740,26 +822,28 @@ public class ProfileManager
      *
      * @param profile a Profile object
      */
-    public synchronized void createProfile(Profile profile) {
-        UserProfile userProfile = new UserProfile();
-        userProfile.setUsername(profile.getUsername());
-        userProfile.setLocalAccount(profile.isLocal());
-
-        if (profile.isLocal() && profile.getPassword() != null) {
-            userProfile.setPassword(PasswordHasher.hashPassword(profile.getPassword()));
-        }
-        userProfile.setSuperuser(profile.isSuperUser);
+    public void createProfile(Profile profile) {
+        synchronized (getUserLock(profile.getUsername())) {
+            UserProfile userProfile = new UserProfile();
+            userProfile.setUsername(profile.getUsername());
+            userProfile.setLocalAccount(profile.isLocal());
+
+            if (profile.isLocal() && profile.getPassword() != null) {
+                userProfile.setPassword(PasswordHasher.hashPassword(profile.getPassword()));
+            }
+            userProfile.setSuperuser(profile.isSuperUser);
 
-        try {
-            uosw.store(userProfile);
-            profile.setUserId(userProfile.getId());
-            for (InterMineBag bag : profile.getSavedBags().values()) {
-                bag.setProfileId(userProfile.getId());
+            try {
+                uosw.store(userProfile);
+                profile.setUserId(userProfile.getId());
+                for (InterMineBag bag : profile.getSavedBags().values()) {
+                    bag.setProfileId(userProfile.getId());
+                }
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException(e);
             }
-        } catch (ObjectStoreException e) {
-            throw new RuntimeException(e);
+            saveProfile(profile);
         }
-        saveProfile(profile);
     }
 
     /**
@@ -767,9 +851,11 @@ public class ProfileManager
      * @param profile The profile to generate the new API key for.
      * @return A new API access key
      */
-    public synchronized String generateApiKey(Profile profile) {
+    public String generateApiKey(Profile profile) {
         String newApiKey = TextUtil.generateRandomUniqueString();
-        profile.setApiKey(newApiKey);
+        synchronized (getUserLock(profile.getUsername())) {
+            profile.setApiKey(newApiKey);
+        }
         return newApiKey;
     }
 
@@ -778,7 +864,7 @@ public class ProfileManager
      * @param profile the user profile
      * @return the generated key
      */
-    public synchronized String generateSingleUseKey(Profile profile) {
+    public String generateSingleUseKey(Profile profile) {
         String key = TextUtil.generateRandomUniqueString();
         LimitedAccessToken token = new SingleAccessToken(profile);
         limitedAccessTokens.put(key, token);
@@ -790,7 +876,7 @@ public class ProfileManager
      * @param profile the profile which token is valid
      * @return the token
      */
-    public synchronized String generate24hrKey(Profile profile) {
+    public String generate24hrKey(Profile profile) {
         String key = TextUtil.generateRandomUniqueString();
         LimitedAccessToken token = new DayToken(profile);
         limitedAccessTokens.put(key, token);
@@ -806,17 +892,14 @@ public class ProfileManager
         if (profile == null) {
             throw new NullPointerException("profile should not be null.");
         }
-        synchronized (limitedAccessTokens) {
-            Set<String> tokens = limitedAccessTokens.keySet();
-            Iterator<String> itr = tokens.iterator();
-            while (itr.hasNext()) {
-                String key = itr.next();
-                LimitedAccessToken token = limitedAccessTokens.get(key);
-                if (profile.equals(token.getProfile())) {
-                    itr.remove();
-                }
+        Iterator<LimitedAccessToken> itr = limitedAccessTokens.values().iterator();
+        while (itr.hasNext()) {
+            LimitedAccessToken token = itr.next();
+            if (profile.equals(token.getProfile())) {
+                itr.remove();
             }
         }
+        authenticationCache.invalidateUser(profile.getUsername());
     }
 
     /**
@@ -824,14 +907,14 @@ public class ProfileManager
      * @param token the token to verify
      * @return true if is suitable for using in the future.
      */
-    public synchronized boolean tokenHasMoreUses(String token) {
+    public boolean tokenHasMoreUses(String token) {
         if (token != null) {
-            if (limitedAccessTokens.containsKey(token)) {
-                LimitedAccessToken lat = limitedAccessTokens.get(token);
+            LimitedAccessToken lat = limitedAccessTokens.get(token);
+            if (lat != null) {
                 if (lat.isValid()) {
                     return lat.hasMoreUses();
                 } else {
-                    limitedAccessTokens.remove(token);
+                    limitedAccessTokens.remove(token, lat);
                 }
             }
             try {
@@ -882,20 +965,22 @@ public class ProfileManager
      *
      * @param profile a Profile object
      */
-    public synchronized void createProfileWithoutBags(Profile profile) {
-        UserProfile userProfile = new UserProfile();
-        userProfile.setUsername(profile.getUsername());
-        if (profile.getPassword() != null) {
-            userProfile.setPassword(PasswordHasher.hashPassword(profile.getPassword()));
-        }
-        userProfile.setSuperuser(profile.isSuperUser);
-        try {
-            uosw.store(userProfile);
-            profile.setUserId(userProfile.getId());
-        } catch (ObjectStoreException e) {
-            throw new RuntimeException(e);
+    public void createProfileWithoutBags(Profile profile) {
+        synchronized (getUserLock(profile.getUsername())) {
+            UserProfile userProfile = new UserProfile();
+            userProfile.setUsername(profile.getUsername());
+            if (profile.getPassword() != null) {
+                userProfile.setPassword(PasswordHasher.hashPassword(profile.getPassword()));
+            }
+            userProfile.setSuperuser(profile.isSuperUser);
+            try {
+                uosw.store(userProfile);
+                profile.setUserId(userProfile.getId());
+            } catch (ObjectStoreException e) {
+                throw new RuntimeException(e);
+            }
+            saveProfile(profile);
         }
-        saveProfile(profile);
     }
 
     /**
@@ -903,7 +988,7 @@ public class ProfileManager
      * @param username the username
      * @return the relevant UserProfile
      */
-    public synchronized UserProfile getUserProfile(String username) {
+    public UserProfile getUserProfile(String username) {
         UserProfile profile = new UserProfile();
         profile.setUsername(username);
         Set<String> fieldNames = new HashSet<String>();
@@ -922,7 +1007,7 @@ public class ProfileManager
      * @param userId the id of the user
      * @return the relevant UserProfile
      */
-    public synchronized UserProfile getUserProfile(Integer userId) {
+    public UserProfile getUserProfile(Integer userId) {
         if (userId == null) {
             return null;
         }
@@ -938,7 +1023,7 @@ public class ProfileManager
      *
      * @return the usernames
      */
-    public synchronized List<String> getProfileUserNames() {
+    public List<String> getProfileUserNames() {
         Query q = new Query();
         QueryClass qcUserProfile = new QueryClass(UserProfile.class);
         QueryField qfUserName = new QueryField(qcUserProfile, "username");
@@ -963,7 +1048,7 @@ public class ProfileManager
      * @param profileId the id of the profile.
      * @return the name of the user, or null.
      */
-    public synchronized String getProfileUserName(int profileId) {
+    public String getProfileUserName(int profileId) {
         try {
             UserProfile profile = (UserProfile) uosw.getObjectById(profileId, UserProfile.class);
             return profile.getUsername();
@@ -1026,8 +1111,8 @@ public class ProfileManager
         return profile;
     }
 
-    private final Map<String, PasswordChangeToken> passwordChangeTokens
-        = new HashMap<String, PasswordChangeToken>();
+    private final ConcurrentMap<String, PasswordChangeToken> passwordChangeTokens
+        = new ConcurrentHashMap<String, PasswordChangeToken>();
 
     /**
      * Creates a password change token assigned to the given username that will expire after a day.
@@ -1036,7 +1121,7 @@ public class ProfileManager
      * @return a String containing the token
      * @throws IllegalArgumentException if the username does not match a profile
      */
-    public synchronized String createPasswordChangeToken(String username) {
+    public String createPasswordChangeToken(String username) {
         if (hasProfile(username)) {
             Date expiry = new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000);
             String token = TextUtil.generateRandomUniqueString();
@@ -1054,7 +1139,7 @@ public class ProfileManager
      * @return the username associated with the token
      * @throws IllegalArgumentException if the token is invalid
      */
-    public synchronized String getUsernameForToken(String token) {
+    public String getUsernameForToken(String token) {
         PasswordChangeToken retval = passwordChangeTokens.get(token);
         if (retval != null) {
             if (retval.isValid()) {
@@ -1075,12 +1160,12 @@ public class ProfileManager
      * @return the username hat has the new password
      * @throws IllegalArgumentException if the token is invalid
      */
-    public synchronized String changePasswordWithToken(String token, String password) {
+    public String changePasswordWithToken(String token, String password) {
         PasswordChangeToken pct = passwordChangeTokens.get(token);
         if (pct != null) {
-            if (pct.isValid()) {
+            // Only one caller may use the token
+            if (pct.isValid() && passwordChangeTokens.remove(token, pct)) {
                 setPassword(pct.getUsername(), password);
-                passwordChangeTokens.remove(token);
                 return pct.getUsername();
             }
         }
@@ -1116,7 +1201,10 @@ public class ProfileManager
      * @param profile the profile to remove
      */
     public void evictFromCache(Profile profile) {
-        profileCache.remove(profile.getUsername());
+        if (profile.getUsername() != null) {
+            profileCache.remove(profile.getUsername());
+        }
+        authenticationCache.invalidateUser(profile.getUsername());
     }
 
     /**
@@ -1352,22 +1440,24 @@ public class ProfileManager
      */
     public ApiPermission getPermission(String token, Map<String, List<FieldDescriptor>> classKeys) {
         ApiPermission permission;
-        if (limitedAccessTokens.containsKey(token)) {
-            LimitedAccessToken t = limitedAccessTokens.get(token);
-            if (!t.isValid()) {
-                throw new AuthenticationException("This token (" + token + ")is invalid.");
-            }
-            Profile p = t.getProfile();
-            t.use();
-            if (!t.isValid()) {
-                limitedAccessTokens.remove(token);
+        LimitedAccessToken t = (token == null) ? null : limitedAccessTokens.get(token);
+        if (t != null) {
+            // Several requests may present a single use token at once
+            synchronized (t) {
+                if (!t.isValid()) {
+                    throw new AuthenticationException("This token (" + token + ")is invalid.");
+                }
+                t.use();
+                if (!t.isValid()) {
+                    limitedAccessTokens.remove(token, t);
+                }
             }
-            permission = new ApiPermission(p, t.getAuthenticationLevel());
+            permission = new ApiPermission(t.getProfile(), t.getAuthenticationLevel());
         } else {
             try {
-                UUID key = UUID.fromString(token);
-                if (permanentTokens.containsKey(key)) {
-                    return getPermission(permanentTokens.get(key), classKeys);
+                PermanentToken permanentToken = permanentTokens.get(UUID.fromString(token));
+                if (permanentToken != null) {
+                    return getPermission(permanentToken, classKeys);
                 }
             } catch (IllegalArgumentException e) {
                 // Suppress, continue.
@@ -1444,8 +1534,9 @@ public class ProfileManager
         if (StringUtils.isEmpty(password)) {
             throw new AuthenticationException("Empty password.");
         }
-        if (hasProfile(username)) {
-            if (!validPassword(username, password)) {
+        UserProfile userProfile = getUserProfile(username);
+        if (userProfile != null) {
+            if (!PasswordHasher.checkPassword(password, userProfile.getPassword())) {
                 throw new AuthenticationException("Invalid password supplied: " + password);
             } else {
                 Profile p = getProfile(username, classKeys);
@@ -1459,6 +1550,12 @@ public class ProfileManager
 
     private Profile getProfileByApiKey(String token, Map<String,
             List<FieldDescriptor>> classKeys) {
+        AuthenticationCache.Entry entry = authenticationCache.get(token);
+        if (entry != null) {
+            return entry.getProfile();
+        }
+        // Anything invalidated from here on must not be cached
+        long stamp = authenticationCache.getStamp();
         UserProfile profile = new UserProfile();
         profile.setApiKey(token);
         Set<String> fieldNames = new HashSet<String>();
@@ -1472,7 +1569,9 @@ public class ProfileManager
             throw new AuthenticationException(
                 "'" + token + "' is not a valid API access key");
         }
-        return getProfile(profile.getUsername(), classKeys);
+        Profile retval = getProfile(profile.getUsername(), classKeys);
+        authenticationCache.put(token, retval, stamp);
+        return retval;
     }
 
     /**
@@ -1481,7 +1580,15 @@ public class ProfileManager
      * @return true if the profile is in the cache
      */
     public boolean isProfileCached(String username) {
-        return profileCache.containsKey(username);
+        return username != null && getCachedProfile(username) != null;
+    }
+
+    /**
+     * Return the cache of API keys that have been checked against the userprofile database.
+     * @return the authentication cache
+     */
+    public AuthenticationCache getAuthenticationCache() {
+        return authenticationCache;
     }
 
     /**
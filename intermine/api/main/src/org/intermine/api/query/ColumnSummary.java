@@ -0,0 +1,281 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The summary of one column of a PathQuery: the number of different values in the column, and
+ * rows in the same form as the results of QueryExecutor.summariseQuery().  Columns summarised as
+ * occurrences have rows of a value and its count, most frequent first.  Numeric columns with more
+ * than one non-null value have a row for each histogram bucket, holding the minimum, maximum,
+ * average, standard deviation, number of buckets, bucket number and count.
+ *
+ * @author chenyian
+ */
+public class ColumnSummary
+{
+    private static final BigDecimal UPPER_BOUND_FACTOR = new BigDecimal("1.01");
+    private static final MathContext FLOAT8_DIGITS = new MathContext(15);
+
+    private final String path;
+    private final int uniqueValues;
+    private final List<List<Object>> rows;
+
+    /**
+     * Constructor.
+     * @param path the column summarised
+     * @param uniqueValues the number of different values in the column
+     * @param rows the summary rows
+     */
+    public ColumnSummary(String path, int uniqueValues, List<List<Object>> rows) {
+        this.path = path;
+        this.uniqueValues = uniqueValues;
+        this.rows = Collections.unmodifiableList(rows);
+    }
+
+    /**
+     * @return the column summarised
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the number of different values in the column, counting null as a value
+     */
+    public int getUniqueValues() {
+        return uniqueValues;
+    }
+
+    /**
+     * @return the summary rows
+     */
+    public List<List<Object>> getRows() {
+        return rows;
+    }
+
+    /**
+     * Work out the summaries of several columns from the results of a query made by
+     * MainHelper.makeMultiColumnSummaryQuery(), reading the results once.  The histograms are
+     * bucketed the way the histogram queries of MainHelper bucket them.
+     *
+     * @param results the rows of the query: a value for each column, then a count
+     * @param paths the columns, in the order of the query
+     * @param types the type of each column
+     * @param histogramPaths the columns to summarise as histograms if they have more than one
+     * value besides null
+     * @param bins the number of histogram buckets wanted
+     * @return the summary of each column, by path
+     */
+    public static Map<String, ColumnSummary> summarise(Iterable<?> results, List<String> paths,
+            List<Class<?>> types, Set<String> histogramPaths, int bins) {
+        List<Map<Object, long[]>> counts = new ArrayList<Map<Object, long[]>>();
+        for (int i = 0; i < paths.size(); i++) {
+            counts.add(new LinkedHashMap<Object, long[]>());
+        }
+        for (Object o : results) {
+            List<?> row = (List<?>) o;
+            long count = ((Number) row.get(paths.size())).longValue();
+            for (int i = 0; i < paths.size(); i++) {
+                Object value = row.get(i);
+                long[] total = counts.get(i).get(value);
+                if (total == null) {
+                    total = new long[1];
+                    counts.get(i).put(value, total);
+                }
+                total[0] += count;
+            }
+        }
+        Map<String, ColumnSummary> summaries = new LinkedHashMap<String, ColumnSummary>();
+        for (int i = 0; i < paths.size(); i++) {
+            String path = paths.get(i);
+            Map<Object, long[]> valueCounts = counts.get(i);
+            List<List<Object>> rows;
+            int numbers = valueCounts.size() - (valueCounts.containsKey(null) ? 1 : 0);
+            if (histogramPaths.contains(path) && numbers >= 2) {
+                rows = histogram(valueCounts, types.get(i), bins);
+            } else {
+                rows = occurrences(valueCounts);
+            }
+            summaries.put(path, new ColumnSummary(path, valueCounts.size(), rows));
+        }
+        return summaries;
+    }
+
+    private static List<List<Object>> occurrences(Map<Object, long[]> valueCounts) {
+        List<Map.Entry<Object, long[]>> entries
+            = new ArrayList<Map.Entry<Object, long[]>>(valueCounts.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Object, long[]>>() {
+            @Override
+            public int compare(Map.Entry<Object, long[]> a, Map.Entry<Object, long[]> b) {
+                long x = a.getValue()[0];
+                long y = b.getValue()[0];
+                return (x > y) ? -1 : ((x == y) ? 0 : 1);
+            }
+        });
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        for (Map.Entry<Object, long[]> entry : entries) {
+            rows.add(Arrays.asList(entry.getKey(), (Object) Long.valueOf(entry.getValue()[0])));
+        }
+        return rows;
+    }
+
+    private static List<List<Object>> histogram(Map<Object, long[]> valueCounts, Class<?> type,
+            int maxBins) {
+        Number min = null;
+        Number max = null;
+        long n = 0;
+        long nulls = 0;
+        double sum = 0;
+        for (Map.Entry<Object, long[]> entry : valueCounts.entrySet()) {
+            Number value = (Number) entry.getKey();
+            long count = entry.getValue()[0];
+            if (value == null) {
+                nulls += count;
+                continue;
+            }
+            if (min == null || value.doubleValue() < min.doubleValue()) {
+                min = value;
+            }
+            if (max == null || value.doubleValue() > max.doubleValue()) {
+                max = value;
+            }
+            n += count;
+            sum += value.doubleValue() * count;
+        }
+        Double mean = Double.valueOf(sum / n);
+        double squares = 0;
+        for (Map.Entry<Object, long[]> entry : valueCounts.entrySet()) {
+            if (entry.getKey() != null) {
+                double diff = ((Number) entry.getKey()).doubleValue() - mean.doubleValue();
+                squares += diff * diff * entry.getValue()[0];
+            }
+        }
+        Double stddev = (n > 1) ? Double.valueOf(Math.sqrt(squares / (n - 1))) : null;
+        int bins = maxBins;
+        if (type == Long.class || type == Integer.class) {
+            bins = (int) Math.min(bins, max.longValue() - min.longValue());
+        }
+        // the bucket SQL multiplies the maximum by 1.01 as numeric, and buckets whole numbers as
+        // numeric but floating point numbers as float8
+        boolean floating = (type == Float.class || type == Double.class);
+        BigDecimal lower = toBigDecimal(min);
+        BigDecimal upper = toBigDecimal(max).multiply(UPPER_BOUND_FACTOR);
+
+        TreeMap<Integer, long[]> buckets = new TreeMap<Integer, long[]>();
+        for (Map.Entry<Object, long[]> entry : valueCounts.entrySet()) {
+            if (entry.getKey() != null) {
+                Number value = (Number) entry.getKey();
+                Integer bucket;
+                if (floating) {
+                    bucket = Integer.valueOf(widthBucket(value.doubleValue(), min.doubleValue(),
+                                upper.doubleValue(), bins));
+                } else {
+                    bucket = Integer.valueOf(widthBucket(toBigDecimal(value), lower, upper,
+                                bins));
+                }
+                long[] total = buckets.get(bucket);
+                if (total == null) {
+                    total = new long[1];
+                    buckets.put(bucket, total);
+                }
+                total[0] += entry.getValue()[0];
+            }
+        }
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        for (Map.Entry<Integer, long[]> bucket : buckets.entrySet()) {
+            rows.add(Arrays.asList((Object) min, max, mean, stddev, Integer.valueOf(bins),
+                        bucket.getKey(), Long.valueOf(bucket.getValue()[0])));
+        }
+        if (nulls > 0) {
+            // width_bucket of null is null, which sorts last
+            rows.add(Arrays.asList((Object) min, max, mean, stddev, Integer.valueOf(bins), null,
+                        Long.valueOf(nulls)));
+        }
+        return rows;
+    }
+
+    // a float8 converts to numeric with 15 significant digits
+    private static BigDecimal toBigDecimal(Number value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else if (value instanceof Float || value instanceof Double) {
+            return new BigDecimal(value.doubleValue()).round(FLOAT8_DIGITS);
+        }
+        return BigDecimal.valueOf(value.longValue());
+    }
+
+    // the bucket float8 width_bucket(value, lower, upper, bins) puts a value in
+    private static int widthBucket(double value, double lower, double upper, int bins) {
+        if (upper > lower) {
+            if (value < lower) {
+                return 0;
+            } else if (value >= upper) {
+                return bins + 1;
+            }
+            return (int) Math.floor(bins * (value - lower) / (upper - lower)) + 1;
+        }
+        if (value > lower) {
+            return 0;
+        } else if (value <= upper) {
+            return bins + 1;
+        }
+        return (int) Math.floor(bins * (lower - value) / (lower - upper)) + 1;
+    }
+
+    // the bucket numeric width_bucket(value, lower, upper, bins) puts a value in, which is worked
+    // out without rounding
+    private static int widthBucket(BigDecimal value, BigDecimal lower, BigDecimal upper,
+            int bins) {
+        BigDecimal offset;
+        BigDecimal width;
+        if (upper.compareTo(lower) > 0) {
+            if (value.compareTo(lower) < 0) {
+                return 0;
+            } else if (value.compareTo(upper) >= 0) {
+                return bins + 1;
+            }
+            offset = value.subtract(lower);
+            width = upper.subtract(lower);
+        } else {
+            if (value.compareTo(lower) > 0) {
+                return 0;
+            } else if (value.compareTo(upper) <= 0) {
+                return bins + 1;
+            }
+            offset = lower.subtract(value);
+            width = lower.subtract(upper);
+        }
+        return offset.multiply(BigDecimal.valueOf(bins)).divide(width, 0, RoundingMode.FLOOR)
+            .intValue() + 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "ColumnSummary(" + path + ", " + uniqueValues + " values, " + rows.size()
+            + " rows)";
+    }
+}
@@ -110,10 +110,16 @@ public final class MainHelper
 
     private static final LookupTokeniser LOOKUP_TOKENISER = LookupTokeniser.getLookupTokeniser();
 
+    private static final QueryTranslationCache TRANSLATION_CACHE =
+        new QueryTranslationCache(QueryTranslationCache.DEFAULT_SIZE);
+
     /**
      * Converts a PathQuery object into an ObjectStore Query object, and optionally populates a Map
      * from String path in the PathQuery to the object in the Query that represents it.
      *
+     * Queries with the same shape as one converted earlier, differing only in their constraint
+     * values, are copied from the earlier translation with the new values put in.
+     *
      * @param pathQuery the PathQuery
      * @param savedBags the current saved bags map (a Map from bag name to InterMineBag)
      * @param pathToQueryNode optional parameter which will be populated with entries, mapping from
@@ -127,6 +133,30 @@ public final class MainHelper
     public static Query makeQuery(PathQuery pathQuery, Map<String, InterMineBag> savedBags,
             Map<String, QuerySelectable> pathToQueryNode, BagQueryRunner bagQueryRunner,
             Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+        return TRANSLATION_CACHE.makeQuery(pathQuery, savedBags, pathToQueryNode, bagQueryRunner,
+                returnBagQueryResults);
+    }
+
+    /**
+     * Converts a PathQuery object into an ObjectStore Query object without using the cache of
+     * translations.
+     *
+     * @param pathQuery the PathQuery
+     * @param savedBags the current saved bags map (a Map from bag name to InterMineBag)
+     * @param pathToQueryNode optional parameter which will be populated with entries, mapping from
+     * String path in the pathQuery to objects in the result Query
+     * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
+     * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
+     * returned
+     * @param codeToConstraint optional parameter which will be populated with the Constraint made
+     * for each constraint code
+     * @return an ObjectStore Query object
+     * @throws ObjectStoreException if something goes wrong
+     */
+    static Query translate(PathQuery pathQuery, Map<String, InterMineBag> savedBags,
+            Map<String, QuerySelectable> pathToQueryNode, BagQueryRunner bagQueryRunner,
+            Map<String, BagQueryResult> returnBagQueryResults,
+            Map<String, Constraint> codeToConstraint) throws ObjectStoreException {
         synchronized (pathQuery) {
             List<String> problems = pathQuery.verifyQuery();
             if (!problems.isEmpty()) {
@@ -135,7 +165,7 @@ public final class MainHelper
             Query q = new Query();
             try {
                 makeQuery(q, pathQuery.getRootClass(), pathQuery, savedBags, pathToQueryNode,
-                        bagQueryRunner, returnBagQueryResults);
+                        bagQueryRunner, returnBagQueryResults, codeToConstraint);
             } catch (PathException e) {
                 throw new Error("PathQuery is invalid, but was valid earlier", e);
             }
@@ -159,12 +189,14 @@ public final class MainHelper
      * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
      * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
      * returned
+     * @param allConstraints optional parameter which will be populated with the Constraint made
+     * for each constraint code
      * @throws ObjectStoreException if something goes wrong
      */
     private static void makeQuery(Queryable q, String root, PathQuery query,
             Map<String, InterMineBag> savedBags, Map<String, QuerySelectable> pathToQueryNode,
-            BagQueryRunner bagQueryRunner,
-            Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+            BagQueryRunner bagQueryRunner, Map<String, BagQueryResult> returnBagQueryResults,
+            Map<String, Constraint> allConstraints) throws ObjectStoreException {
         PathQuery pathQuery = query;
         Model model = pathQuery.getModel();
 
@@ -332,7 +364,8 @@ public final class MainHelper
                                         = new QueryCollectionPathExpression(parentQc,
                                                 path.getLastElement(), path.getEndType());
                                     makeQuery(qn, stringPath, pathQuery, savedBags,
-                                            pathToQueryNode, bagQueryRunner, returnBagQueryResults);
+                                            pathToQueryNode, bagQueryRunner, returnBagQueryResults,
+                                            allConstraints);
                                     queryBits.put(stringPath, qn);
                                     pathExpressions.put(stringPath, qn);
                                 } else {
@@ -340,7 +373,7 @@ public final class MainHelper
                                         = new QueryObjectPathExpression(parentQc,
                                                 path.getLastElement(), path.getEndType());
                                     makeQuery(qn, stringPath, pathQuery, savedBags, pathToQueryNode,
-                                            bagQueryRunner, returnBagQueryResults);
+                                            bagQueryRunner, returnBagQueryResults, allConstraints);
                                     queryBits.put(stringPath, qn);
                                     pathExpressions.put(stringPath, qn);
                                 }
@@ -356,6 +389,9 @@ public final class MainHelper
                     savedBags, bagQueryRunner, returnBagQueryResults,
                     pathQuery, model, queryBits, subclasses, relevantCodes,
                     participatingLoops);
+            if (allConstraints != null) {
+                allConstraints.putAll(codeToConstraint);
+            }
 
             // Use the constraint logic to create a ConstraintSet structure with the constraints
             // inserted into it
@@ -563,25 +599,8 @@ public final class MainHelper
                     queryBits.put(stringPath, field);
                 }
                 if (constraint instanceof PathConstraintAttribute) {
-                    PathConstraintAttribute pca = (PathConstraintAttribute) constraint;
-                    Class<?> fieldType = path.getEndType();
-                    if (String.class.equals(fieldType)) {
-                        codeToConstraint.put(code, makeQueryStringConstraint(
-                                    (QueryField) field, pca));
-                    } else if (Date.class.equals(fieldType)) {
-                        codeToConstraint.put(code, makeQueryDateConstraint(
-                                    (QueryField) field, pca));
-                    } else {
-                        // Use simple forms of operators when not dealing with strings.
-                        ConstraintOp simpleOp = ConstraintOp.EXACT_MATCH == pca.getOp()
-                                ? ConstraintOp.EQUALS
-                                        : ConstraintOp.STRICT_NOT_EQUALS == pca.getOp()
-                                            ? ConstraintOp.NOT_EQUALS : pca.getOp();
-                        codeToConstraint.put(code, new SimpleConstraint((QueryField) field,
-                                simpleOp, new QueryValue(TypeUtil.stringToObject(
-                                        fieldType, pca.getValue()))));
-                    }
-
+                    codeToConstraint.put(code, makeAttributeConstraint((QueryField) field,
+                                (PathConstraintAttribute) constraint, path.getEndType()));
                 } else if (constraint instanceof PathConstraintNull) {
                     if (path.endIsAttribute()) {
                         codeToConstraint.put(code, new SimpleConstraint((QueryField) field,
@@ -639,46 +658,16 @@ public final class MainHelper
                     codeToConstraint.put(code, makeMultiTypeConstraint(pathQuery.getModel(),
                             (QueryNode) field, pcmt));
                 } else if (constraint instanceof PathConstraintMultiValue) {
-                    Class<?> fieldType = path.getEndType();
-                    if (String.class.equals(fieldType)) {
-                        codeToConstraint.put(code, new BagConstraint((QueryField) field,
-                                constraint.getOp(), ((PathConstraintMultiValue) constraint)
-                                .getValues()));
-                    } else {
-                        Collection<Object> objects = new ArrayList<Object>();
-                        for (String s : ((PathConstraintMultiValue) constraint).getValues()) {
-                            objects.add(TypeUtil.stringToObject(fieldType, s));
-                        }
-                        codeToConstraint.put(code, new BagConstraint((QueryField) field,
-                                constraint.getOp(), objects));
-                    }
+                    codeToConstraint.put(code, makeMultiValueConstraint((QueryField) field,
+                                (PathConstraintMultiValue) constraint, path.getEndType()));
                 } else if (constraint instanceof PathConstraintLookup) {
-                    QueryClass qc = (QueryClass) field;
-                    PathConstraintLookup pcl = (PathConstraintLookup) constraint;
-                    if (bagQueryRunner == null) {
-                        throw new NullPointerException("Cannot convert this PathQuery to an "
-                                + "ObjectStore Query without a BagQueryRunner");
-                    }
-                    String identifiers = pcl.getValue();
-
+                    Constraint con = makeLookupConstraint((QueryClass) field,
+                            (PathConstraintLookup) constraint, bagQueryRunner,
+                            returnBagQueryResults);
                     // if this LOOKUP constraint only includes *, just ignore constraint
                     // as user wants everything.
-                    if (!"*".equals(identifiers)) {
-                        BagQueryResult bagQueryResult;
-                        List<String> identifierList = LOOKUP_TOKENISER.tokenise(identifiers);
-                        try {
-                            bagQueryResult = bagQueryRunner.searchForBag(qc.getType()
-                                    .getSimpleName(), identifierList, pcl.getExtraValue(), true);
-                        } catch (ClassNotFoundException e) {
-                            throw new ObjectStoreException(e);
-                        } catch (InterMineException e) {
-                            throw new ObjectStoreException(e);
-                        }
-                        codeToConstraint.put(code, new BagConstraint(new QueryField(qc, "id"),
-                                ConstraintOp.IN, bagQueryResult.getMatchAndIssueIds()));
-                        if (returnBagQueryResults != null) {
-                            returnBagQueryResults.put(stringPath, bagQueryResult);
-                        }
+                    if (con != null) {
+                        codeToConstraint.put(code, con);
                     }
                 } else {
                     throw new ObjectStoreException("Unknown constraint type "
@@ -689,6 +678,91 @@ public final class MainHelper
         return codeToConstraint;
     }
 
+    /**
+     * Make the Constraint for an attribute constraint.
+     *
+     * @param field the field being constrained
+     * @param pca the constraint
+     * @param fieldType the type of the attribute
+     * @return a new object store constraint
+     */
+    static Constraint makeAttributeConstraint(QueryField field, PathConstraintAttribute pca,
+            Class<?> fieldType) {
+        if (String.class.equals(fieldType)) {
+            return makeQueryStringConstraint(field, pca);
+        } else if (Date.class.equals(fieldType)) {
+            return makeQueryDateConstraint(field, pca);
+        } else {
+            // Use simple forms of operators when not dealing with strings.
+            ConstraintOp simpleOp = ConstraintOp.EXACT_MATCH == pca.getOp()
+                    ? ConstraintOp.EQUALS
+                            : ConstraintOp.STRICT_NOT_EQUALS == pca.getOp()
+                                ? ConstraintOp.NOT_EQUALS : pca.getOp();
+            return new SimpleConstraint(field, simpleOp,
+                    new QueryValue(TypeUtil.stringToObject(fieldType, pca.getValue())));
+        }
+    }
+
+    /**
+     * Make the Constraint for a multi-value constraint.
+     *
+     * @param field the field being constrained
+     * @param pcmv the constraint
+     * @param fieldType the type of the attribute
+     * @return a new object store constraint
+     */
+    static Constraint makeMultiValueConstraint(QueryField field,
+            PathConstraintMultiValue pcmv, Class<?> fieldType) {
+        if (String.class.equals(fieldType)) {
+            return new BagConstraint(field, pcmv.getOp(), pcmv.getValues());
+        } else {
+            Collection<Object> objects = new ArrayList<Object>();
+            for (String s : pcmv.getValues()) {
+                objects.add(TypeUtil.stringToObject(fieldType, s));
+            }
+            return new BagConstraint(field, pcmv.getOp(), objects);
+        }
+    }
+
+    /**
+     * Make the Constraint for a LOOKUP constraint, by looking up the identifiers.
+     *
+     * @param qc the class being constrained
+     * @param pcl the constraint
+     * @param bagQueryRunner a BagQueryRunner to perform the lookup with
+     * @param returnBagQueryResults optional parameter in which the BagQueryResult is returned
+     * @return a new object store constraint, or null if the constraint is only * and so matches
+     * everything
+     * @throws ObjectStoreException if the lookup fails
+     */
+    static Constraint makeLookupConstraint(QueryClass qc, PathConstraintLookup pcl,
+            BagQueryRunner bagQueryRunner, Map<String, BagQueryResult> returnBagQueryResults)
+        throws ObjectStoreException {
+        if (bagQueryRunner == null) {
+            throw new NullPointerException("Cannot convert this PathQuery to an "
+                    + "ObjectStore Query without a BagQueryRunner");
+        }
+        String identifiers = pcl.getValue();
+        if ("*".equals(identifiers)) {
+            return null;
+        }
+        BagQueryResult bagQueryResult;
+        List<String> identifierList = LOOKUP_TOKENISER.tokenise(identifiers);
+        try {
+            bagQueryResult = bagQueryRunner.searchForBag(qc.getType().getSimpleName(),
+                    identifierList, pcl.getExtraValue(), true);
+        } catch (ClassNotFoundException e) {
+            throw new ObjectStoreException(e);
+        } catch (InterMineException e) {
+            throw new ObjectStoreException(e);
+        }
+        if (returnBagQueryResults != null) {
+            returnBagQueryResults.put(pcl.getPath(), bagQueryResult);
+        }
+        return new BagConstraint(new QueryField(qc, "id"), ConstraintOp.IN,
+                bagQueryResult.getMatchAndIssueIds());
+    }
+
     /**
      * Construct a new multi-type constraint.
      * @param model The model to look for types within.
@@ -1189,11 +1263,90 @@ public final class MainHelper
             BagQueryRunner bagQueryRunner,
             boolean occurancesOnly) throws ObjectStoreException {
         Map<String, QuerySelectable> origPathToQueryNode = new HashMap<String, QuerySelectable>();
-        Query subQ = null;
-        subQ = makeQuery(pathQuery, savedBags, origPathToQueryNode, bagQueryRunner, null);
+        Set<QuerySelectable> oldSelect = new HashSet<QuerySelectable>();
+        Query subQ = makeSummarySubQuery(pathQuery, savedBags, origPathToQueryNode,
+                bagQueryRunner, oldSelect);
+        return recursiveMakeSummaryQuery(origPathToQueryNode, summaryPath, subQ, oldSelect,
+                pathToQueryNode, occurancesOnly);
+    }
+
+    /**
+     * Generate a query from a PathQuery that counts the rows of the PathQuery for each
+     * combination of values of several columns, so that all of those columns can be summarised
+     * from a single scan of the data.  Each row of the results holds a value for each
+     * summarised column, in the order of the paths given, followed by the count.
+     *
+     * Only columns that are attributes of the inner joined part of the query can be summarised
+     * together.  Columns reached through outer joins are left out, and have to be summarised
+     * one at a time with makeSummaryQuery.
+     *
+     * @param pathQuery the PathQuery
+     * @param summaryPaths the columns to summarise
+     * @param savedBags the current saved bags map
+     * @param pathToQueryNode Map, into which the columns that can be summarised by the query
+     * are placed, followed by "Occurrences" for the count
+     * @param histogramPaths Set, into which the columns that should be summarised as histograms
+     * rather than as counts of occurrences are placed
+     * @param bagQueryRunner a BagQueryRunner to execute bag queries
+     * @return the generated query, or null if none of the columns can be summarised together
+     * @throws ObjectStoreException if there is a problem creating the query
+     */
+    public static Query makeMultiColumnSummaryQuery(
+            PathQuery pathQuery,
+            Collection<String> summaryPaths,
+            Map<String, InterMineBag> savedBags,
+            Map<String, QuerySelectable> pathToQueryNode,
+            Set<String> histogramPaths,
+            BagQueryRunner bagQueryRunner) throws ObjectStoreException {
+        Map<String, QuerySelectable> origPathToQueryNode = new HashMap<String, QuerySelectable>();
+        Query subQ = makeSummarySubQuery(pathQuery, savedBags, origPathToQueryNode,
+                bagQueryRunner, new HashSet<QuerySelectable>());
+        Query q = new Query();
+        q.addFrom(subQ);
+        for (String summaryPath : summaryPaths) {
+            QuerySelectable qs = origPathToQueryNode.get(summaryPath);
+            if (!(qs instanceof QueryField) || pathToQueryNode.containsKey(summaryPath)) {
+                continue;
+            }
+            QueryField origQf = (QueryField) qs;
+            Class<?> summaryType = origQf.getType();
+            if (!subQ.getFrom().contains(origQf.getFromElement())
+                    || !(summaryType == String.class || summaryType == Boolean.class
+                        || isNumeric(summaryType))) {
+                continue;
+            }
+            subQ.addToSelect(origQf);
+            QueryField qf = new QueryField(subQ, origQf);
+            q.addToSelect(qf);
+            q.addToGroupBy(qf);
+            pathToQueryNode.put(summaryPath, qf);
+            String className = Util.getFriendlyName(((QueryClass) origQf.getFromElement())
+                    .getType());
+            if (isNumeric(summaryType)
+                    && !SummaryConfig.summariseAsOccurrences(className + "."
+                        + origQf.getFieldName())) {
+                histogramPaths.add(summaryPath);
+            }
+        }
+        if (pathToQueryNode.isEmpty()) {
+            return null;
+        }
+        QueryFunction count = new QueryFunction();
+        q.addToSelect(count);
+        pathToQueryNode.put("Occurrences", count);
+        return q;
+    }
+
+    // make the query for a PathQuery, selecting only its QueryClasses and plain fields
+    private static Query makeSummarySubQuery(
+            PathQuery pathQuery,
+            Map<String, InterMineBag> savedBags,
+            Map<String, QuerySelectable> origPathToQueryNode,
+            BagQueryRunner bagQueryRunner,
+            Set<QuerySelectable> oldSelect) throws ObjectStoreException {
+        Query subQ = makeQuery(pathQuery, savedBags, origPathToQueryNode, bagQueryRunner, null);
         subQ.clearOrderBy();
         Map<String, QuerySelectable> newSelect = new LinkedHashMap<String, QuerySelectable>();
-        Set<QuerySelectable> oldSelect = new HashSet<QuerySelectable>();
         for (QuerySelectable qs : subQ.getSelect()) {
             oldSelect.add(qs);
             if (qs instanceof QueryClass) {
@@ -1206,8 +1359,7 @@ public final class MainHelper
         for (Map.Entry<String, QuerySelectable> selectEntry : newSelect.entrySet()) {
             subQ.addToSelect(selectEntry.getValue(), selectEntry.getKey());
         }
-        return recursiveMakeSummaryQuery(origPathToQueryNode, summaryPath, subQ, oldSelect,
-                pathToQueryNode, occurancesOnly);
+        return subQ;
     }
 
     private static Query recursiveMakeSummaryQuery(
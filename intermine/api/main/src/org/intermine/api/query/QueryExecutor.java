@@ -10,9 +10,15 @@ package org.intermine.api.query;
  *
  */
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.WeakHashMap;
 
 import org.apache.log4j.Logger;
@@ -207,6 +213,73 @@ public abstract class QueryExecutor
     }
 
     private static final Map<String, Integer> COUNT_CACHE = new CacheMap<String, Integer>();
+
+    /**
+     * Summaries worked out from the results of multi-column summary queries.  The ObjectStore
+     * hands out the same Results object for a query until the data it reads changes, so the
+     * summaries are kept for exactly as long as the results they came from are valid and cached.
+     */
+    private static final Map<Results, Map<String, ColumnSummary>> SUMMARY_CACHE =
+        Collections.synchronizedMap(new WeakHashMap<Results, Map<String, ColumnSummary>>());
+
+    /**
+     * Summarise several columns of a PathQuery at once.  All the columns of the inner joined part
+     * of the query are summarised by one query that groups the rows by all of those columns
+     * together, and the summary of each column is added up from its results.  Columns reached
+     * through outer joins are summarised one at a time, as by summariseQuery().
+     *
+     * Numeric columns with at least two different values are summarised as histograms, unless
+     * configured to be summarised as occurrences, and all other columns as occurrences.  This is
+     * the choice the query results web service makes for single columns.
+     *
+     * @param pq the query to summarise
+     * @param summaryPaths the columns to summarise
+     * @return the summary of each column, in the order of the paths given
+     * @throws ObjectStoreException if there is a problem running the queries
+     */
+    public Map<String, ColumnSummary> summariseColumns(PathQuery pq,
+            Collection<String> summaryPaths) throws ObjectStoreException {
+        Map<String, QuerySelectable> pathToQueryNode = new LinkedHashMap<String, QuerySelectable>();
+        Set<String> histogramPaths = new HashSet<String>();
+        Map<String, InterMineBag> allBags = bagManager.getBags(profile);
+        Query q = MainHelper.makeMultiColumnSummaryQuery(pq, summaryPaths, allBags,
+                pathToQueryNode, histogramPaths, bagQueryRunner);
+
+        Map<String, ColumnSummary> together = Collections.emptyMap();
+        if (q != null) {
+            Results res = os.execute(q, summaryBatchSize, true, true, true);
+            together = SUMMARY_CACHE.get(res);
+            if (together == null) {
+                List<String> paths = new ArrayList<String>();
+                List<Class<?>> types = new ArrayList<Class<?>>();
+                for (Map.Entry<String, QuerySelectable> entry : pathToQueryNode.entrySet()) {
+                    if (summaryPaths.contains(entry.getKey())) {
+                        paths.add(entry.getKey());
+                        types.add(entry.getValue().getType());
+                    }
+                }
+                together = ColumnSummary.summarise(res, paths, types, histogramPaths,
+                        MainHelper.SummaryConfig.getNumberOfBins().intValue());
+                SUMMARY_CACHE.put(res, together);
+            } else {
+                LOG.debug("Summary cache hit");
+            }
+        }
+
+        Map<String, ColumnSummary> summaries = new LinkedHashMap<String, ColumnSummary>();
+        for (String path : summaryPaths) {
+            ColumnSummary summary = together.get(path);
+            if (summary == null) {
+                int uniqueValues = uniqueColumnValues(pq, path);
+                @SuppressWarnings({ "unchecked", "rawtypes" })
+                List<List<Object>> rows = new ArrayList<List<Object>>((List) summariseQuery(pq,
+                            path, uniqueValues < 2));
+                summary = new ColumnSummary(path, uniqueValues, rows);
+            }
+            summaries.put(path, summary);
+        }
+        return summaries;
+    }
     /**
      * Get the the total number of unique column values for a given path in the
      * context of a given query.
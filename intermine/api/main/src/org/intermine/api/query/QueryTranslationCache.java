@@ -0,0 +1,543 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.log4j.Logger;
+import org.intermine.api.bag.BagQueryResult;
+import org.intermine.api.bag.BagQueryRunner;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.api.util.LimitedMap;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.Util;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.FromElement;
+import org.intermine.objectstore.query.PathExpressionField;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCloner;
+import org.intermine.objectstore.query.QueryCollectionPathExpression;
+import org.intermine.objectstore.query.QueryEvaluable;
+import org.intermine.objectstore.query.QueryExpression;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryNode;
+import org.intermine.objectstore.query.QueryObjectPathExpression;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.pathquery.OuterJoinStatus;
+import org.intermine.pathquery.Path;
+import org.intermine.pathquery.PathConstraint;
+import org.intermine.pathquery.PathConstraintAttribute;
+import org.intermine.pathquery.PathConstraintBag;
+import org.intermine.pathquery.PathConstraintIds;
+import org.intermine.pathquery.PathConstraintLookup;
+import org.intermine.pathquery.PathConstraintLoop;
+import org.intermine.pathquery.PathConstraintMultiValue;
+import org.intermine.pathquery.PathConstraintMultitype;
+import org.intermine.pathquery.PathConstraintNull;
+import org.intermine.pathquery.PathConstraintRange;
+import org.intermine.pathquery.PathConstraintSubclass;
+import org.intermine.pathquery.PathException;
+import org.intermine.pathquery.PathQuery;
+
+/**
+ * A cache of PathQuery to ObjectStore Query translations, keyed by the shape of the PathQuery.
+ *
+ * The shape is everything that decides the structure of the translated Query: the view, order
+ * by, outer joins, constraint logic, and the path, type and operation of each constraint. It
+ * leaves out the values of attribute, multi-value, list, id and LOOKUP constraints. The first
+ * query of each shape is translated by MainHelper, and the Query it makes is kept. Later queries
+ * of the same shape are made by copying that Query and putting new constraints in place of the
+ * ones that hold values, which skips verifying the PathQuery and building the Query again.
+ *
+ * Queries with range constraints are not cached, as their structure depends on their values.
+ *
+ * @author chenyian
+ */
+public class QueryTranslationCache
+{
+    private static final Logger LOG = Logger.getLogger(QueryTranslationCache.class);
+
+    /** The number of query shapes kept by default. **/
+    public static final int DEFAULT_SIZE = 1000;
+
+    private final Map<String, Skeleton> skeletons;
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param size the number of query shapes to keep
+     */
+    public QueryTranslationCache(int size) {
+        skeletons = Collections.synchronizedMap(new LimitedMap<String, Skeleton>(size));
+    }
+
+    /**
+     * Converts a PathQuery object into an ObjectStore Query object, in the same way as
+     * MainHelper.makeQuery(), using an earlier translation of the same shape if there is one.
+     *
+     * @param pathQuery the PathQuery
+     * @param savedBags the current saved bags map (a Map from bag name to InterMineBag)
+     * @param pathToQueryNode optional parameter which will be populated with entries, mapping from
+     * String path in the pathQuery to objects in the result Query
+     * @param bagQueryRunner a BagQueryRunner to use to perform LOOKUPs
+     * @param returnBagQueryResults optional parameter in which any BagQueryResult objects can be
+     * returned
+     * @return an ObjectStore Query object, which the caller may change
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public Query makeQuery(PathQuery pathQuery, Map<String, InterMineBag> savedBags,
+            Map<String, QuerySelectable> pathToQueryNode, BagQueryRunner bagQueryRunner,
+            Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+        synchronized (pathQuery) {
+            PathQuery executed = pathQuery.getQueryToExecute();
+            String shape = getShape(executed);
+            if (shape == null) {
+                return MainHelper.translate(pathQuery, savedBags, pathToQueryNode,
+                        bagQueryRunner, returnBagQueryResults, null);
+            }
+            Skeleton skeleton = skeletons.get(shape);
+            if (skeleton != null) {
+                countHit(true);
+                return skeleton.bind(executed, savedBags, pathToQueryNode, bagQueryRunner,
+                        returnBagQueryResults);
+            }
+            countHit(false);
+            Map<String, QuerySelectable> nodes = new HashMap<String, QuerySelectable>();
+            Map<String, Constraint> constraints = new HashMap<String, Constraint>();
+            Query q = MainHelper.translate(pathQuery, savedBags, nodes, bagQueryRunner,
+                    returnBagQueryResults, constraints);
+            skeleton = Skeleton.create(executed, q, nodes, constraints);
+            if (skeleton == null) {
+                // Equal constraints were merged, so the values cannot be told apart
+                if (pathToQueryNode != null) {
+                    pathToQueryNode.putAll(nodes);
+                }
+                return q;
+            }
+            skeletons.put(shape, skeleton);
+            // The skeleton is kept, so hand out a copy of it, which has the values just used
+            return skeleton.bind(null, savedBags, pathToQueryNode, bagQueryRunner,
+                    returnBagQueryResults);
+        }
+    }
+
+    /**
+     * Forget all the translations.
+     */
+    public void clear() {
+        skeletons.clear();
+    }
+
+    /**
+     * @return the number of query shapes held
+     */
+    public int size() {
+        return skeletons.size();
+    }
+
+    /**
+     * @return the number of queries translated from a translation held in the cache
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of queries that had to be translated afresh
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    private synchronized void countHit(boolean hit) {
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+        if ((hits + misses) % 10000 == 0) {
+            LOG.info("Query translation cache: " + hits + " hits, " + misses + " misses, "
+                    + skeletons.size() + " shapes held");
+        }
+    }
+
+    /**
+     * Describe everything about a PathQuery that decides the structure of its translation.
+     *
+     * @param pathQuery the query to be executed
+     * @return a String that is the same for queries that differ only in constraint values, or
+     * null if the query cannot be cached
+     */
+    static String getShape(PathQuery pathQuery) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(pathQuery.getModel().getName()).append('|');
+        sb.append(pathQuery.getView()).append('|');
+        sb.append(pathQuery.getOrderBy()).append('|');
+        sb.append(new TreeMap<String, OuterJoinStatus>(pathQuery.getOuterJoinStatus()))
+            .append('|');
+        sb.append(pathQuery.getConstraintLogic());
+        for (Map.Entry<PathConstraint, String> entry : pathQuery.getConstraints().entrySet()) {
+            PathConstraint con = entry.getKey();
+            sb.append('|').append(entry.getValue()).append(':')
+                .append(con.getClass().getSimpleName()).append(':').append(con.getPath())
+                .append(':').append(con.getOp());
+            if (con instanceof PathConstraintRange) {
+                // The structure of a range constraint depends on its values
+                return null;
+            } else if (con instanceof PathConstraintLoop) {
+                sb.append(':').append(((PathConstraintLoop) con).getLoopPath());
+            } else if (con instanceof PathConstraintSubclass) {
+                sb.append(':').append(((PathConstraintSubclass) con).getType());
+            } else if (con instanceof PathConstraintMultitype) {
+                sb.append(':').append(((PathConstraintMultitype) con).getValues());
+            } else if (con instanceof PathConstraintLookup) {
+                // A LOOKUP for * has no constraint at all
+                sb.append(':').append("*".equals(((PathConstraintLookup) con).getValue()));
+            } else if (!(con instanceof PathConstraintNull || isBound(con))) {
+                // A type of constraint added since this was written
+                return null;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return true if the constraint holds a value that is put into a copy of the skeleton
+     */
+    private static boolean isBound(PathConstraint con) {
+        if (con instanceof PathConstraintMultitype || con instanceof PathConstraintRange) {
+            return false;
+        }
+        return con instanceof PathConstraintAttribute || con instanceof PathConstraintMultiValue
+            || con instanceof PathConstraintBag || con instanceof PathConstraintIds
+            || con instanceof PathConstraintLookup;
+    }
+
+    /**
+     * A constraint of the skeleton that holds a value.
+     */
+    private static class Slot
+    {
+        private final String code;
+        private final Class<?> fieldType;
+
+        Slot(String code, Class<?> fieldType) {
+            this.code = code;
+            this.fieldType = fieldType;
+        }
+    }
+
+    /**
+     * A translated Query, and the constraints in it that hold values.
+     */
+    private static class Skeleton
+    {
+        private final Query query;
+        private final Map<String, QuerySelectable> pathToQueryNode;
+        private final Map<Constraint, Slot> slots;
+
+        Skeleton(Query query, Map<String, QuerySelectable> pathToQueryNode,
+                Map<Constraint, Slot> slots) {
+            this.query = query;
+            this.pathToQueryNode = pathToQueryNode;
+            this.slots = slots;
+        }
+
+        /**
+         * @return a Skeleton, or null if not every constraint holding a value can be found in
+         * the Query
+         */
+        static Skeleton create(PathQuery pathQuery, Query query,
+                Map<String, QuerySelectable> pathToQueryNode,
+                Map<String, Constraint> codeToConstraint) throws ObjectStoreException {
+            Map<Constraint, Slot> slots = new IdentityHashMap<Constraint, Slot>();
+            try {
+                Map<String, String> subclasses = pathQuery.getSubclasses();
+                for (Map.Entry<PathConstraint, String> entry
+                        : pathQuery.getConstraints().entrySet()) {
+                    Constraint con = codeToConstraint.get(entry.getValue());
+                    if (con != null && isBound(entry.getKey())) {
+                        Path path = new Path(pathQuery.getModel(), entry.getKey().getPath(),
+                                subclasses);
+                        slots.put(con, new Slot(entry.getValue(), path.getEndType()));
+                    }
+                }
+            } catch (PathException e) {
+                throw new ObjectStoreException("PathQuery is invalid", e);
+            }
+            Set<Constraint> found = Collections.newSetFromMap(
+                    new IdentityHashMap<Constraint, Boolean>());
+            findConstraints(query.getConstraint(), found);
+            for (QuerySelectable selectable : query.getSelect()) {
+                findConstraints(selectable, found,
+                        new IdentityHashMap<Object, Boolean>());
+            }
+            if (!found.containsAll(slots.keySet())) {
+                return null;
+            }
+            return new Skeleton(query, pathToQueryNode, slots);
+        }
+
+        private static void findConstraints(Constraint con, Set<Constraint> found) {
+            if (con != null) {
+                found.add(con);
+                if (con instanceof ConstraintSet) {
+                    for (Constraint child : ((ConstraintSet) con).getConstraints()) {
+                        findConstraints(child, found);
+                    }
+                }
+            }
+        }
+
+        private static void findConstraints(QuerySelectable selectable, Set<Constraint> found,
+                Map<Object, Boolean> seen) {
+            if (selectable instanceof PathExpressionField) {
+                findConstraints(((PathExpressionField) selectable).getQope(), found, seen);
+            } else if (selectable instanceof QueryObjectPathExpression) {
+                QueryObjectPathExpression qope = (QueryObjectPathExpression) selectable;
+                if (seen.put(qope, Boolean.TRUE) == null) {
+                    findConstraints(qope.getConstraint(), found);
+                    for (QuerySelectable child : qope.getSelect()) {
+                        findConstraints(child, found, seen);
+                    }
+                }
+            } else if (selectable instanceof QueryCollectionPathExpression) {
+                QueryCollectionPathExpression qcpe = (QueryCollectionPathExpression) selectable;
+                findConstraints(qcpe.getConstraint(), found);
+                for (QuerySelectable child : qcpe.getSelect()) {
+                    findConstraints(child, found, seen);
+                }
+            }
+        }
+
+        /**
+         * Make a copy of the Query with the constraint values of a PathQuery.
+         *
+         * @param pathQuery the query to take the values from, or null to keep the values of the
+         * skeleton
+         */
+        Query bind(PathQuery pathQuery, Map<String, InterMineBag> savedBags,
+                Map<String, QuerySelectable> returnPathToQueryNode,
+                BagQueryRunner bagQueryRunner,
+                Map<String, BagQueryResult> returnBagQueryResults) throws ObjectStoreException {
+            Binder binder = new Binder(pathQuery, savedBags, bagQueryRunner,
+                    returnBagQueryResults);
+            if (pathQuery != null) {
+                binder.checkValues();
+            }
+            Query copy;
+            synchronized (query) {
+                copy = QueryCloner.cloneQuery(query);
+            }
+            copy.setConstraint(binder.bind(query.getConstraint(), copy.getConstraint()));
+            Iterator<QuerySelectable> copySelect = copy.getSelect().iterator();
+            for (QuerySelectable selectable : query.getSelect()) {
+                binder.bind(selectable, copySelect.next());
+            }
+            if (returnPathToQueryNode != null) {
+                for (Map.Entry<String, QuerySelectable> entry : pathToQueryNode.entrySet()) {
+                    returnPathToQueryNode.put(entry.getKey(), binder.map(entry.getValue()));
+                }
+            }
+            return copy;
+        }
+
+        /**
+         * Puts new constraints into one copy of the skeleton.
+         */
+        private class Binder
+        {
+            private final Map<String, PathConstraint> codeToPathConstraint;
+            private final Map<String, InterMineBag> savedBags;
+            private final BagQueryRunner bagQueryRunner;
+            private final Map<String, BagQueryResult> returnBagQueryResults;
+            // From objects in the skeleton to the objects that replace them in the copy
+            private final Map<Object, Object> nodes = new IdentityHashMap<Object, Object>();
+
+            Binder(PathQuery pathQuery, Map<String, InterMineBag> savedBags,
+                    BagQueryRunner bagQueryRunner,
+                    Map<String, BagQueryResult> returnBagQueryResults) {
+                if (pathQuery == null) {
+                    codeToPathConstraint = null;
+                } else {
+                    codeToPathConstraint = new HashMap<String, PathConstraint>();
+                    for (Map.Entry<PathConstraint, String> entry
+                            : pathQuery.getConstraints().entrySet()) {
+                        codeToPathConstraint.put(entry.getValue(), entry.getKey());
+                    }
+                }
+                this.savedBags = savedBags;
+                this.bagQueryRunner = bagQueryRunner;
+                this.returnBagQueryResults = returnBagQueryResults;
+            }
+
+            /**
+             * Check the values that would otherwise be checked by PathQuery.verifyQuery().
+             */
+            void checkValues() throws ObjectStoreException {
+                List<String> problems = new ArrayList<String>();
+                for (Slot slot : slots.values()) {
+                    PathConstraint con = codeToPathConstraint.get(slot.code);
+                    if (con instanceof PathConstraintAttribute) {
+                        try {
+                            TypeUtil.stringToObject(slot.fieldType,
+                                    ((PathConstraintAttribute) con).getValue());
+                        } catch (Exception e) {
+                            problems.add("Value in constraint " + con + " is not in correct "
+                                    + "format for type of " + Util.getFriendlyName(slot.fieldType));
+                        }
+                    } else if (con instanceof PathConstraintMultiValue) {
+                        for (String value : ((PathConstraintMultiValue) con).getValues()) {
+                            try {
+                                TypeUtil.stringToObject(slot.fieldType, value);
+                            } catch (Exception e) {
+                                problems.add("Value (" + value + ") in list in constraint "
+                                        + con + " is not in correct format for type of "
+                                        + Util.getFriendlyName(slot.fieldType));
+                            }
+                        }
+                    }
+                }
+                if (!problems.isEmpty()) {
+                    throw new ObjectStoreException("PathQuery is invalid: " + problems);
+                }
+            }
+
+            Constraint bind(Constraint original, Constraint copy) throws ObjectStoreException {
+                if (original == null) {
+                    return copy;
+                }
+                Slot slot = slots.get(original);
+                if (slot != null) {
+                    return codeToPathConstraint == null ? copy : makeConstraint(slot, copy);
+                }
+                if (original instanceof ConstraintSet) {
+                    ConstraintSet set = new ConstraintSet(copy.getOp());
+                    Iterator<Constraint> copies = ((ConstraintSet) copy).getConstraints()
+                        .iterator();
+                    for (Constraint child : ((ConstraintSet) original).getConstraints()) {
+                        set.addConstraint(bind(child, copies.next()));
+                    }
+                    return set;
+                }
+                return copy;
+            }
+
+            void bind(QuerySelectable original, QuerySelectable copy)
+                throws ObjectStoreException {
+                if (original instanceof PathExpressionField) {
+                    bind(((PathExpressionField) original).getQope(),
+                            ((PathExpressionField) copy).getQope());
+                } else if (original instanceof QueryObjectPathExpression) {
+                    QueryObjectPathExpression qope = (QueryObjectPathExpression) original;
+                    QueryObjectPathExpression qopeCopy = (QueryObjectPathExpression) copy;
+                    if (nodes.containsKey(qope)) {
+                        return;
+                    }
+                    nodes.put(qope, qopeCopy);
+                    nodes.put(qope.getDefaultClass(), qopeCopy.getDefaultClass());
+                    qopeCopy.setConstraint(bind(qope.getConstraint(), qopeCopy.getConstraint()));
+                    Iterator<QuerySelectable> copies = qopeCopy.getSelect().iterator();
+                    for (QuerySelectable child : qope.getSelect()) {
+                        bind(child, copies.next());
+                    }
+                } else if (original instanceof QueryCollectionPathExpression) {
+                    QueryCollectionPathExpression qcpe = (QueryCollectionPathExpression) original;
+                    QueryCollectionPathExpression qcpeCopy = (QueryCollectionPathExpression) copy;
+                    nodes.put(qcpe, qcpeCopy);
+                    nodes.put(qcpe.getDefaultClass(), qcpeCopy.getDefaultClass());
+                    qcpeCopy.setConstraint(bind(qcpe.getConstraint(), qcpeCopy.getConstraint()));
+                    Iterator<QuerySelectable> copies = qcpeCopy.getSelect().iterator();
+                    for (QuerySelectable child : qcpe.getSelect()) {
+                        bind(child, copies.next());
+                    }
+                }
+            }
+
+            /**
+             * @return the object in the copy that stands for an object in the skeleton
+             */
+            QuerySelectable map(QuerySelectable original) {
+                Object copy = nodes.get(original);
+                if (copy != null) {
+                    return (QuerySelectable) copy;
+                }
+                if (original instanceof QueryField) {
+                    QueryField qf = (QueryField) original;
+                    FromElement from = (FromElement) nodes.get(qf.getFromElement());
+                    if (from instanceof QueryClass) {
+                        return new QueryField((QueryClass) from, qf.getFieldName());
+                    }
+                }
+                // QueryClasses of the main query are shared with the copy
+                return original;
+            }
+
+            private Constraint makeConstraint(Slot slot, Constraint copy)
+                throws ObjectStoreException {
+                PathConstraint con = codeToPathConstraint.get(slot.code);
+                if (con instanceof PathConstraintAttribute) {
+                    return MainHelper.makeAttributeConstraint(getField(copy),
+                            (PathConstraintAttribute) con, slot.fieldType);
+                }
+                QueryNode node = ((BagConstraint) copy).getQueryNode();
+                if (con instanceof PathConstraintMultiValue) {
+                    return MainHelper.makeMultiValueConstraint((QueryField) node,
+                            (PathConstraintMultiValue) con, slot.fieldType);
+                } else if (con instanceof PathConstraintBag) {
+                    String bagName = ((PathConstraintBag) con).getBag();
+                    InterMineBag bag = savedBags.get(bagName);
+                    if (bag == null) {
+                        throw new BagNotFound(bagName);
+                    }
+                    return new BagConstraint(node, con.getOp(), bag.getOsb());
+                } else if (con instanceof PathConstraintIds) {
+                    return new BagConstraint(node, con.getOp(),
+                            ((PathConstraintIds) con).getIds());
+                } else {
+                    QueryClass qc = (QueryClass) ((QueryField) node).getFromElement();
+                    return MainHelper.makeLookupConstraint(qc, (PathConstraintLookup) con,
+                            bagQueryRunner, returnBagQueryResults);
+                }
+            }
+
+            /**
+             * @return the field an attribute constraint is on, which may be wrapped in LOWER()
+             */
+            private QueryField getField(Constraint con) {
+                if (con instanceof ConstraintSet) {
+                    // Dates are constrained to a range
+                    return getField(((ConstraintSet) con).getConstraints().iterator().next());
+                }
+                QueryEvaluable arg = ((SimpleConstraint) con).getArg1();
+                if (arg instanceof QueryExpression) {
+                    arg = ((QueryExpression) arg).getArg1();
+                }
+                return (QueryField) arg;
+            }
+        }
+    }
+}
@@ -69,38 +69,85 @@ public class TemplateSummariser
      * @throws ObjectStoreException if something goes wrong
      */
     public void summarise(ApiTemplate templateQuery) throws ObjectStoreException {
-        HashMap<String, List<Object>> templatePossibleValues = possibleValues.get(templateQuery);
-        if (templatePossibleValues == null) {
-            templatePossibleValues = new HashMap<String, List<Object>>();
-            possibleValues.put(templateQuery, templatePossibleValues);
-        }
+        HashMap<String, List<Object>> templatePossibleValues = new HashMap<String, List<Object>>();
         for (String node : templateQuery.getEditablePaths()) {
-            Path path;
-            try {
-                path = templateQuery.makePath(node);
-            } catch (PathException e) {
-                throw new ObjectStoreException(e);
+            List<Object> values = summarise(templateQuery, node);
+            if (values != null) {
+                templatePossibleValues.put(node, values);
             }
-            Query q = TemplatePrecomputeHelper.getPrecomputeQuery(templateQuery, null, node);
-            LOG.info("Summarising template " + templateQuery.getName() + " by running query: " + q);
-            List<ResultsRow<Object>> results = os.execute(q, 0, maxSummaryValues, true, false,
-                    ObjectStore.SEQUENCE_IGNORE);
-            if (results.size() < maxSummaryValues) {
-                if (path.endIsAttribute() || results.isEmpty()) {
-                    List<Object> values = new ArrayList<Object>();
-                    for (ResultsRow<Object> row : results) {
-                        values.add(row.get(0));
-                    }
-                    templatePossibleValues.put(node, values);
-                } else {
-                    LOG.warn("Editable node " + node + " in template " + templateQuery.getName()
-                            + " cannot be summarised as it is a LOOKUP "
-                            + "constraint, although it has only " + results.size()
-                            + " possible values. Consider changing the node that the constraint is "
-                            + "attached to");
+        }
+        storeSummary(templateQuery, templatePossibleValues);
+    }
+
+    /**
+     * Returns the query used to find the possible values of an editable node of a template.
+     * Templates that share the same summary query will have the same possible values for the
+     * node, so callers summarising many templates may run such a query only once.
+     *
+     * @param templateQuery a TemplateQuery
+     * @param node an editable path of the template
+     * @return a Query
+     */
+    public Query getSummaryQuery(ApiTemplate templateQuery, String node) {
+        return TemplatePrecomputeHelper.getPrecomputeQuery(templateQuery, null, node);
+    }
+
+    /**
+     * Finds the possible values for one editable node of a template query, without storing
+     * them.  This only reads from the production objectstore, so may be called for several
+     * nodes at once from different threads.
+     *
+     * @param templateQuery a TemplateQuery to summarise
+     * @param node an editable path of the template
+     * @return a List of possible values, or null if the node cannot be summarised
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public List<Object> summarise(ApiTemplate templateQuery, String node)
+        throws ObjectStoreException {
+        Path path;
+        try {
+            path = templateQuery.makePath(node);
+        } catch (PathException e) {
+            throw new ObjectStoreException(e);
+        }
+        Query q = getSummaryQuery(templateQuery, node);
+        LOG.info("Summarising template " + templateQuery.getName() + " by running query: " + q);
+        List<ResultsRow<Object>> results = os.execute(q, 0, maxSummaryValues, true, false,
+                ObjectStore.SEQUENCE_IGNORE);
+        if (results.size() < maxSummaryValues) {
+            if (path.endIsAttribute() || results.isEmpty()) {
+                List<Object> values = new ArrayList<Object>();
+                for (ResultsRow<Object> row : results) {
+                    values.add(row.get(0));
                 }
+                return values;
+            } else {
+                LOG.warn("Editable node " + node + " in template " + templateQuery.getName()
+                        + " cannot be summarised as it is a LOOKUP "
+                        + "constraint, although it has only " + results.size()
+                        + " possible values. Consider changing the node that the constraint is "
+                        + "attached to");
             }
         }
+        return null;
+    }
+
+    /**
+     * Writes the possible values of a template query to the user profile database, replacing
+     * any previous summary.
+     *
+     * @param templateQuery a TemplateQuery
+     * @param summary a Map from editable path to the possible values of that path
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public synchronized void storeSummary(ApiTemplate templateQuery,
+            Map<String, List<Object>> summary) throws ObjectStoreException {
+        HashMap<String, List<Object>> templatePossibleValues = possibleValues.get(templateQuery);
+        if (templatePossibleValues == null) {
+            templatePossibleValues = new HashMap<String, List<Object>>();
+            possibleValues.put(templateQuery, templatePossibleValues);
+        }
+        templatePossibleValues.putAll(summary);
         // Now write the summary to the user profile database.
         try {
             osw.beginTransaction();
@@ -175,7 +222,7 @@ public class TemplateSummariser
      * @param templateQuery a TemplateQuery
      * @return a Map from String path to List
      */
-    public Map<String, List<Object>> getPossibleValues(ApiTemplate templateQuery) {
+    public synchronized Map<String, List<Object>> getPossibleValues(ApiTemplate templateQuery) {
         HashMap<String, List<Object>> templatePossibleValues = possibleValues.get(templateQuery);
         if (templateQuery != null && templatePossibleValues == null) {
             SavedTemplateQuery template = templateQuery.getSavedTemplateQuery();
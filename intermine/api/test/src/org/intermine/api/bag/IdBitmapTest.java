@@ -0,0 +1,116 @@
+package org.intermine.api.bag;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+public class IdBitmapTest extends TestCase
+{
+    public IdBitmapTest(String name) {
+        super(name);
+    }
+
+    public void testOf() throws Exception {
+        IdBitmap bitmap = IdBitmap.of(Arrays.asList(5, 3, 70000, 3, null, 1));
+        assertEquals(4, bitmap.getCardinality());
+        assertEquals(Arrays.asList(1, 3, 5, 70000), bitmap.toList());
+        assertTrue(bitmap.contains(70000));
+        assertFalse(bitmap.contains(4));
+        assertFalse(bitmap.contains(65536 + 5));
+        assertTrue(IdBitmap.of(Collections.<Integer>emptyList()).isEmpty());
+    }
+
+    public void testNegativeIdsLast() throws Exception {
+        IdBitmap bitmap = IdBitmap.of(Arrays.asList(-1, 2, Integer.MIN_VALUE));
+        assertEquals(Arrays.asList(2, Integer.MIN_VALUE, -1), bitmap.toList());
+        assertTrue(bitmap.contains(-1));
+    }
+
+    public void testOperations() throws Exception {
+        IdBitmap a = IdBitmap.of(Arrays.asList(1, 2, 3, 100000));
+        IdBitmap b = IdBitmap.of(Arrays.asList(2, 3, 4, 200000));
+        assertEquals(Arrays.asList(1, 2, 3, 4, 100000, 200000), a.or(b).toList());
+        assertEquals(Arrays.asList(2, 3), a.and(b).toList());
+        assertEquals(2, a.andCardinality(b));
+        assertEquals(Arrays.asList(1, 100000), a.andNot(b).toList());
+        assertEquals(Arrays.asList(1, 4, 100000, 200000), a.xor(b).toList());
+        assertEquals(IdBitmap.EMPTY, a.andNot(a));
+        assertEquals(a, IdBitmap.or(Arrays.asList(a, IdBitmap.EMPTY)));
+        assertEquals(IdBitmap.EMPTY, IdBitmap.and(new ArrayList<IdBitmap>()));
+    }
+
+    // compare against TreeSets with sets large enough to use both kinds of container
+    public void testRandom() throws Exception {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            TreeSet<Integer> x = randomSet(random);
+            TreeSet<Integer> y = randomSet(random);
+            IdBitmap a = IdBitmap.of(x);
+            IdBitmap b = IdBitmap.of(y);
+            assertEquals(new ArrayList<Integer>(x), a.toList());
+
+            TreeSet<Integer> expected = new TreeSet<Integer>(x);
+            expected.addAll(y);
+            assertEquals(new ArrayList<Integer>(expected), a.or(b).toList());
+
+            expected = new TreeSet<Integer>(x);
+            expected.retainAll(y);
+            assertEquals(new ArrayList<Integer>(expected), a.and(b).toList());
+            assertEquals(expected.size(), a.andCardinality(b));
+
+            expected = new TreeSet<Integer>(x);
+            expected.removeAll(y);
+            assertEquals(new ArrayList<Integer>(expected), a.andNot(b).toList());
+
+            TreeSet<Integer> both = new TreeSet<Integer>(x);
+            both.retainAll(y);
+            expected = new TreeSet<Integer>(x);
+            expected.addAll(y);
+            expected.removeAll(both);
+            assertEquals(new ArrayList<Integer>(expected), a.xor(b).toList());
+        }
+    }
+
+    public void testDenseIsSmall() throws Exception {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (int i = 0; i < 60000; i++) {
+            ids.add(1000000 + i);
+        }
+        IdBitmap bitmap = IdBitmap.of(ids);
+        assertEquals(60000, bitmap.getCardinality());
+        assertTrue(bitmap.getSizeInBytes() < 4 * 8192);
+        assertEquals(ids, bitmap.toList());
+    }
+
+    private static TreeSet<Integer> randomSet(Random random) {
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        // a dense group, a sparse group, and a group that is sometimes either
+        int dense = random.nextInt(20000);
+        for (int i = 0; i < dense; i++) {
+            set.add(random.nextInt(30000));
+        }
+        for (int i = 0; i < 500; i++) {
+            set.add(65536 * 3 + random.nextInt(65536));
+        }
+        int mixed = random.nextInt(9000);
+        for (int i = 0; i < mixed; i++) {
+            set.add(65536 * 7 + random.nextInt(10000));
+        }
+        return set;
+    }
+}
@@ -0,0 +1,174 @@
+package org.intermine.api.profile;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class AuthenticationCacheTest extends TestCase
+{
+    private Profile profile(String username) {
+        // No user id, so that the profile needs no manager
+        return new Profile(null, username, null, null, Profile.NO_QUERIES, Profile.NO_BAGS,
+                Profile.NO_TEMPLATES, null, true, false);
+    }
+
+    public void testGetAndPut() throws Exception {
+        AuthenticationCache cache = new AuthenticationCache();
+        Profile bob = profile("bob");
+        assertNull(cache.get("BOBKEY"));
+        assertTrue(cache.put("BOBKEY", bob, cache.getStamp()));
+        AuthenticationCache.Entry entry = cache.get("BOBKEY");
+        assertSame(bob, entry.getProfile());
+        assertEquals("bob", entry.getUsername());
+        assertNull(cache.get(null));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testInvalidation() throws Exception {
+        AuthenticationCache cache = new AuthenticationCache();
+        cache.put("BOBKEY", profile("bob"), cache.getStamp());
+        cache.put("BOBKEY2", profile("bob"), cache.getStamp());
+        cache.put("SALLYKEY", profile("sally"), cache.getStamp());
+        cache.invalidate("BOBKEY2");
+        assertNull(cache.get("BOBKEY2"));
+        assertNotNull(cache.get("BOBKEY"));
+        cache.invalidateUser("bob");
+        assertNull(cache.get("BOBKEY"));
+        assertNotNull(cache.get("SALLYKEY"));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    public void testStaleLookupsAreNotCached() throws Exception {
+        AuthenticationCache cache = new AuthenticationCache();
+        long stamp = cache.getStamp();
+        // The key is revoked while it is being looked up
+        cache.invalidate("BOBKEY");
+        assertFalse(cache.put("BOBKEY", profile("bob"), stamp));
+        assertNull(cache.get("BOBKEY"));
+    }
+
+    public void testExpiry() throws Exception {
+        AuthenticationCache cache = new AuthenticationCache(100, 20);
+        cache.put("BOBKEY", profile("bob"), cache.getStamp());
+        assertNotNull(cache.get("BOBKEY"));
+        Thread.sleep(50);
+        assertNull(cache.get("BOBKEY"));
+        assertEquals(0, cache.size());
+    }
+
+    public void testBound() throws Exception {
+        AuthenticationCache cache = new AuthenticationCache(10, 60000);
+        for (int i = 0; i < 100; i++) {
+            cache.put("KEY" + i, profile("user" + i), cache.getStamp());
+        }
+        assertTrue(cache.size() <= 10);
+        assertNotNull(cache.get("KEY99"));
+    }
+
+    /**
+     * Many threads authenticate against a slow "database" while keys are revoked.  Once a key has
+     * been revoked, no thread may be let in with it.
+     */
+    public void testConcurrentAuthentication() throws Exception {
+        final int users = 50;
+        final int threadCount = 16;
+        final int requests = 2000;
+        final AuthenticationCache cache = new AuthenticationCache();
+        final Map<String, Profile> database = new ConcurrentHashMap<String, Profile>();
+        for (int i = 0; i < users; i++) {
+            database.put("KEY" + i, profile("user" + i));
+        }
+        final Set<String> revoked
+            = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        final AtomicInteger lookups = new AtomicInteger();
+        final AtomicInteger wronglyAdmitted = new AtomicInteger();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch ready = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        ready.await();
+                        for (int i = 0; i < requests; i++) {
+                            String key = "KEY" + ((i + offset) % users);
+                            boolean wasRevoked = revoked.contains(key);
+                            Profile p = authenticate(cache, database, lookups, key);
+                            if (p != null && wasRevoked) {
+                                wronglyAdmitted.incrementAndGet();
+                            }
+                            if (p != null && !key.equals("KEY" + p.getUsername().substring(4))) {
+                                errors.add(key + " authenticated " + p.getUsername());
+                            }
+                        }
+                    } catch (Exception e) {
+                        errors.add(e.toString());
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        ready.countDown();
+        // Revoke half the keys while the requests are coming in, as ProfileManager does
+        for (int i = 0; i < users; i += 2) {
+            database.remove("KEY" + i);
+            cache.invalidate("KEY" + i);
+            // From now on, the key must be refused
+            revoked.add("KEY" + i);
+            Thread.sleep(1);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(0, wronglyAdmitted.get());
+        for (int i = 0; i < users; i++) {
+            Profile p = authenticate(cache, database, lookups, "KEY" + i);
+            if (i % 2 == 0) {
+                assertNull(p);
+            } else {
+                assertEquals("user" + i, p.getUsername());
+            }
+        }
+        // Almost every request with a good key was answered from the cache.  Bad keys are always
+        // looked up.
+        assertTrue(lookups.get() < threadCount * requests / 20);
+    }
+
+    private static Profile authenticate(AuthenticationCache cache, Map<String, Profile> database,
+            AtomicInteger lookups, String key) throws InterruptedException {
+        AuthenticationCache.Entry entry = cache.get(key);
+        if (entry != null) {
+            return entry.getProfile();
+        }
+        long stamp = cache.getStamp();
+        Thread.sleep(1);
+        Profile p = database.get(key);
+        if (p != null) {
+            lookups.incrementAndGet();
+            cache.put(key, p, stamp);
+        }
+        return p;
+    }
+}
@@ -12,6 +12,7 @@ package org.intermine.api.profile;
 
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -19,6 +20,8 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
@@ -293,4 +296,89 @@ public class ProfileManagerTest extends InterMineAPITestCase
         }
 
     }
+
+    public void testConcurrentAuthentication() throws Exception {
+        final String sallyKey = pm.generateApiKey(sallyProfile);
+        final String[] keys = new String[] {bobKey, sallyKey};
+        final String[] names = new String[] {bobName, sallyName};
+        final int threadCount = 16;
+        final int requests = 500;
+        final AtomicInteger admitted = new AtomicInteger();
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch ready = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        ready.await();
+                        for (int i = 0; i < requests; i++) {
+                            int user = (i + offset) % keys.length;
+                            ApiPermission permission = pm.getPermission(keys[user], classKeys);
+                            if (!names[user].equals(permission.getProfile().getUsername())) {
+                                errors.add(keys[user] + " authenticated "
+                                        + permission.getProfile().getUsername());
+                            }
+                            admitted.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        errors.add(e.toString());
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        ready.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(threadCount * requests, admitted.get());
+        // Each key was looked up in the database only a few times
+        assertTrue(pm.getAuthenticationCache().getMisses() < threadCount * 2 + 10);
+
+        // Revoking a key takes effect at once
+        String newKey = pm.generateApiKey(bobProfile);
+        try {
+            pm.getPermission(bobKey, classKeys);
+            fail("Expected an exception here");
+        } catch (AuthenticationException e) {
+            // expected
+        }
+        assertEquals(bobName, pm.getPermission(newKey, classKeys).getProfile().getUsername());
+        assertEquals(sallyName, pm.getPermission(sallyKey, classKeys).getProfile().getUsername());
+
+        // So does changing a password
+        pm.setPassword(sallyName, "new_pass");
+        try {
+            pm.getPermission(sallyName, sallyPass, classKeys);
+            fail("Expected an exception here");
+        } catch (AuthenticationException e) {
+            // expected
+        }
+        assertEquals(sallyName, pm.getPermission(sallyName, "new_pass", classKeys)
+                .getProfile().getUsername());
+
+        // And single use keys can only be used once, however many requests present them
+        final String singleUseKey = pm.generateSingleUseKey(bobProfile);
+        final AtomicInteger singleUses = new AtomicInteger();
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        pm.getPermission(singleUseKey, classKeys);
+                        singleUses.incrementAndGet();
+                    } catch (AuthenticationException e) {
+                        // expected
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, singleUses.get());
+    }
 }
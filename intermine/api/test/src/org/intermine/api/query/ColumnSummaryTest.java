@@ -0,0 +1,101 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for ColumnSummary.  The expected histogram buckets are the ones the histogram query of
+ * MainHelper gets from the database, where width_bucket(value, min, max * 1.01, bins) is worked
+ * out as numeric for whole numbers and as float8 for floating point numbers.
+ *
+ * @author chenyian
+ */
+public class ColumnSummaryTest extends TestCase
+{
+    public ColumnSummaryTest(String name) {
+        super(name);
+    }
+
+    public void testWholeNumberHistogram() throws Exception {
+        // there are only 6 buckets as max - min is 6, and the upper bound is 121.2, so each
+        // bucket is 1.2 wide and 120 is exactly on the start of the last one
+        List<List<Object>> results = new ArrayList<List<Object>>();
+        for (int i = 114; i <= 120; i++) {
+            results.add(row(Integer.valueOf(i), (i == 120) ? 2 : 1));
+        }
+        results.add(row(null, 3));
+        List<List<Object>> rows = summarise(results, Integer.class, 10).getRows();
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, null), column(rows, 5));
+        assertEquals(Arrays.asList(2L, 1L, 1L, 1L, 1L, 2L, 3L), column(rows, 6));
+        for (List<Object> row : rows) {
+            assertEquals(Integer.valueOf(114), row.get(0));
+            assertEquals(Integer.valueOf(120), row.get(1));
+            assertEquals(117.375, ((Double) row.get(2)).doubleValue(), 1e-9);
+            assertEquals(Integer.valueOf(6), row.get(4));
+        }
+    }
+
+    public void testFloatingPointHistogram() throws Exception {
+        // the upper bound is 10.1, so the buckets start at 0, 2.525, 5.05 and 7.575
+        List<List<Object>> results = new ArrayList<List<Object>>();
+        results.add(row(Double.valueOf(0.0), 1));
+        results.add(row(Double.valueOf(2.5), 2));
+        results.add(row(Double.valueOf(2.6), 1));
+        results.add(row(Double.valueOf(5.0), 1));
+        results.add(row(Double.valueOf(7.5), 1));
+        results.add(row(Double.valueOf(10.0), 4));
+        List<List<Object>> rows = summarise(results, Double.class, 4).getRows();
+
+        assertEquals(Arrays.asList(1, 2, 3, 4), column(rows, 5));
+        assertEquals(Arrays.asList(3L, 2L, 1L, 4L), column(rows, 6));
+        assertEquals(Integer.valueOf(4), rows.get(0).get(4));
+    }
+
+    public void testOccurrences() throws Exception {
+        // a column with one value besides null is summarised as occurrences, most frequent first
+        List<List<Object>> results = new ArrayList<List<Object>>();
+        results.add(row(Integer.valueOf(5), 1));
+        results.add(row(null, 4));
+        ColumnSummary summary = summarise(results, Integer.class, 10);
+
+        assertEquals(2, summary.getUniqueValues());
+        assertEquals(Arrays.asList(null, 5), column(summary.getRows(), 0));
+        assertEquals(Arrays.asList(4L, 1L), column(summary.getRows(), 1));
+    }
+
+    private static List<Object> row(Object value, long count) {
+        return Arrays.asList(value, (Object) Long.valueOf(count));
+    }
+
+    private static ColumnSummary summarise(List<List<Object>> results, Class<?> type, int bins) {
+        Map<String, ColumnSummary> summaries = ColumnSummary.summarise(results,
+                Collections.singletonList("Employee.age"),
+                Collections.<Class<?>>singletonList(type),
+                Collections.singleton("Employee.age"), bins);
+        return summaries.get("Employee.age");
+    }
+
+    private static List<Object> column(List<List<Object>> rows, int index) {
+        List<Object> ret = new ArrayList<Object>();
+        for (List<Object> row : rows) {
+            ret.add(row.get(index));
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,67 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.intermine.api.bag.BagQueryRunner;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.query.QuerySelectable;
+
+/**
+ * Compares the time taken to translate template-like queries with changing values afresh and
+ * with a QueryTranslationCache.  The queries are the shapes used by QueryTranslationCacheTest.
+ * Run with the number of queries to translate, or with no arguments for 20,000.  Each way is run
+ * a few times so that later runs are measured with a warm JIT.
+ *
+ * @author chenyian
+ */
+public final class QueryTranslationCachePerformanceTester
+{
+    private static final int RUNS = 5;
+
+    private QueryTranslationCachePerformanceTester() {
+        // don't
+    }
+
+    public static void main(String[] args) throws ObjectStoreException {
+        int count = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+        Model model = Model.getInstanceByName("testmodel");
+        ObjectStoreDummyImpl os = new ObjectStoreDummyImpl();
+        os.setModel(model);
+        BagQueryRunner bagQueryRunner = new QueryTranslationCacheTest.StubBagQueryRunner(os);
+        Map<String, InterMineBag> savedBags = new HashMap<String, InterMineBag>();
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                MainHelper.translate(QueryTranslationCacheTest.makeQuery(model, i % 5, i),
+                        savedBags, new HashMap<String, QuerySelectable>(), bagQueryRunner, null,
+                        null);
+            }
+            long uncached = System.currentTimeMillis() - start;
+
+            QueryTranslationCache cache = new QueryTranslationCache(10);
+            start = System.currentTimeMillis();
+            for (int i = 0; i < count; i++) {
+                cache.makeQuery(QueryTranslationCacheTest.makeQuery(model, i % 5, i), savedBags,
+                        new HashMap<String, QuerySelectable>(), bagQueryRunner, null);
+            }
+            long cached = System.currentTimeMillis() - start;
+            System.out.println("Translated " + count + " queries in " + uncached
+                    + "ms without the cache, " + cached + "ms with it (" + cache.getHits()
+                    + " hits)");
+        }
+    }
+}
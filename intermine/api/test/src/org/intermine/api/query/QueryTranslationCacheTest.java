@@ -0,0 +1,245 @@
+package org.intermine.api.query;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.api.bag.BagQueryResult;
+import org.intermine.api.bag.BagQueryRunner;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.Model;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.dummy.ObjectStoreDummyImpl;
+import org.intermine.objectstore.intermine.DatabaseSchema;
+import org.intermine.objectstore.intermine.SqlGenerator;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QuerySelectable;
+import org.intermine.pathquery.Constraints;
+import org.intermine.pathquery.OrderDirection;
+import org.intermine.pathquery.OuterJoinStatus;
+import org.intermine.pathquery.PathConstraintRange;
+import org.intermine.pathquery.PathQuery;
+
+/**
+ * Tests for QueryTranslationCache, replaying template-like queries with changing values and
+ * checking that the cached translations give the same SQL as translating each query afresh.
+ *
+ * @author chenyian
+ */
+public class QueryTranslationCacheTest extends TestCase
+{
+    private static final int REPEATS = 200;
+
+    private Model model;
+    private DatabaseSchema schema;
+    private BagQueryRunner bagQueryRunner;
+    private Map<String, InterMineBag> savedBags = new HashMap<String, InterMineBag>();
+
+    public QueryTranslationCacheTest(String arg) {
+        super(arg);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+        ObjectStoreDummyImpl os = new ObjectStoreDummyImpl();
+        os.setModel(model);
+        schema = new DatabaseSchema(model, Collections.<ClassDescriptor>emptyList(), false,
+                Collections.<String>emptySet(), 4, false, false);
+        bagQueryRunner = new StubBagQueryRunner(os);
+    }
+
+    private PathQuery makeQuery(int shape, int i) {
+        return makeQuery(model, shape, i);
+    }
+
+    /**
+     * Make one of several shapes of query, with values that depend on i.
+     */
+    static PathQuery makeQuery(Model model, int shape, int i) {
+        PathQuery pq = new PathQuery(model);
+        switch (shape) {
+            case 0:
+                pq.addViews("Employee.name", "Employee.age");
+                pq.addConstraint(Constraints.eq("Employee.name", "Employee" + i + "*"), "A");
+                pq.addConstraint(Constraints.greaterThan("Employee.age", "" + i % 60), "B");
+                pq.setConstraintLogic("A or B");
+                break;
+            case 1:
+                pq.addViews("Department.name", "Department.employees.name");
+                pq.setOuterJoinStatus("Department.employees", OuterJoinStatus.OUTER);
+                pq.addConstraint(Constraints.oneOfValues("Department.employees.age",
+                            Arrays.asList("" + i, "" + (i + 1), "" + (i + 2))), "A");
+                pq.addConstraint(Constraints.lookup("Department.company", "Company" + i,
+                            null), "B");
+                pq.addOrderBy("Department.name", OrderDirection.DESC);
+                break;
+            case 2:
+                pq.addViews("Employee.name", "Employee.address.address");
+                pq.setOuterJoinStatus("Employee.address", OuterJoinStatus.OUTER);
+                pq.addConstraint(Constraints.contains("Employee.address.address", "Street " + i),
+                        "A");
+                pq.addConstraint(Constraints.inIds("Employee", Arrays.asList(i, i + 10)), "B");
+                pq.addConstraint(Constraints.equalsExactly("Employee.end", "" + i), "C");
+                break;
+            case 3:
+                pq.addViews("Employee.name", "Employee.employmentPeriod.startDate");
+                pq.addConstraint(Constraints.eq("Employee.employmentPeriod.startDate",
+                            "2008-01-" + (10 + i % 20)), "A");
+                pq.addConstraint(Constraints.lessThan("Employee.employmentPeriod.startDate",
+                            "2009-02-" + (10 + i % 15)), "B");
+                break;
+            default:
+                pq.addViews("Department.name", "Department.employees.title");
+                pq.addConstraint(Constraints.type("Department.employees", "Manager"));
+                pq.addConstraint(Constraints.neq("Department.employees.title", "Boss " + i),
+                        "A");
+                pq.addConstraint(Constraints.isNotNull("Department.name"), "B");
+                break;
+        }
+        return pq;
+    }
+
+    private String toSql(Query q) throws ObjectStoreException {
+        return SqlGenerator.generate(q, 0, Integer.MAX_VALUE, schema, null,
+                new HashMap<Object, String>());
+    }
+
+    private void assertSameTranslation(Query expected, Map<String, QuerySelectable> expectedNodes,
+            Query got, Map<String, QuerySelectable> gotNodes) throws Exception {
+        assertEquals(expected.toString(), got.toString());
+        assertEquals(toSql(expected), toSql(got));
+        assertEquals(expectedNodes.keySet(), gotNodes.keySet());
+        for (Map.Entry<String, QuerySelectable> entry : expectedNodes.entrySet()) {
+            QuerySelectable gotNode = gotNodes.get(entry.getKey());
+            assertEquals(entry.getKey(), entry.getValue().getClass(), gotNode.getClass());
+            assertEquals(entry.getKey(), expected.getSelect().indexOf(entry.getValue()),
+                    got.getSelect().indexOf(gotNode));
+        }
+    }
+
+    public void testSameAsUncached() throws Exception {
+        QueryTranslationCache cache = new QueryTranslationCache(10);
+        for (int i = 0; i < 20; i++) {
+            for (int shape = 0; shape < 5; shape++) {
+                PathQuery pq = makeQuery(shape, i);
+                Map<String, QuerySelectable> expectedNodes = new HashMap<String, QuerySelectable>();
+                Map<String, BagQueryResult> expectedResults
+                    = new HashMap<String, BagQueryResult>();
+                Query expected = MainHelper.translate(pq, savedBags, expectedNodes,
+                        bagQueryRunner, expectedResults, null);
+                Map<String, QuerySelectable> gotNodes = new HashMap<String, QuerySelectable>();
+                Map<String, BagQueryResult> gotResults = new HashMap<String, BagQueryResult>();
+                Query got = cache.makeQuery(pq, savedBags, gotNodes, bagQueryRunner, gotResults);
+                assertSameTranslation(expected, expectedNodes, got, gotNodes);
+                assertEquals(expectedResults.keySet(), gotResults.keySet());
+                // Changes made by the caller do not reach the cache
+                got.clearSelect();
+                got.setConstraint(null);
+            }
+        }
+        assertEquals(5, cache.size());
+    }
+
+    public void testShape() throws Exception {
+        assertEquals(QueryTranslationCache.getShape(makeQuery(0, 1)),
+                QueryTranslationCache.getShape(makeQuery(0, 2)));
+        PathQuery pq = makeQuery(0, 1);
+        pq.setConstraintLogic("A and B");
+        assertFalse(QueryTranslationCache.getShape(makeQuery(0, 1)).equals(
+                    QueryTranslationCache.getShape(pq)));
+        pq = makeQuery(2, 1);
+        pq.setOuterJoinStatus("Employee.address", OuterJoinStatus.INNER);
+        assertFalse(QueryTranslationCache.getShape(makeQuery(2, 1)).equals(
+                    QueryTranslationCache.getShape(pq)));
+        // Ranges are not cached
+        pq = new PathQuery(model);
+        pq.addView("Employee.name");
+        pq.addConstraint(Constraints.isNull("Employee.name"));
+        assertNotNull(QueryTranslationCache.getShape(pq));
+        pq.addConstraint(new PathConstraintRange("Employee.age",
+                    ConstraintOp.WITHIN, Arrays.asList("1 .. 10")));
+        assertNull(QueryTranslationCache.getShape(pq));
+    }
+
+    public void testBadValue() throws Exception {
+        QueryTranslationCache cache = new QueryTranslationCache(10);
+        cache.makeQuery(makeQuery(0, 1), savedBags, null, bagQueryRunner, null);
+        PathQuery pq = makeQuery(0, 2);
+        pq.replaceConstraint(pq.getConstraintForCode("B"),
+                Constraints.greaterThan("Employee.age", "old"));
+        String expected = null;
+        try {
+            MainHelper.translate(pq, savedBags, null, bagQueryRunner, null, null);
+            fail("Expected an ObjectStoreException");
+        } catch (ObjectStoreException e) {
+            expected = e.getMessage();
+        }
+        try {
+            cache.makeQuery(pq, savedBags, null, bagQueryRunner, null);
+            fail("Expected an ObjectStoreException");
+        } catch (ObjectStoreException e) {
+            assertEquals(expected, e.getMessage());
+        }
+    }
+
+    /**
+     * Replays the query shapes many times, as the same templates are run with different values.
+     * Only the first query of each shape is translated afresh.
+     */
+    public void testRepeatedShapes() throws Exception {
+        QueryTranslationCache cache = new QueryTranslationCache(10);
+        for (int i = 0; i < REPEATS; i++) {
+            cache.makeQuery(makeQuery(i % 5, i), savedBags,
+                    new HashMap<String, QuerySelectable>(), bagQueryRunner, null);
+        }
+        assertEquals(5, cache.size());
+        assertEquals(5, cache.getMisses());
+        assertEquals(REPEATS - 5, cache.getHits());
+
+        // More shapes than the cache holds: each shape is dropped before it comes round again
+        cache = new QueryTranslationCache(3);
+        for (int i = 0; i < REPEATS; i++) {
+            cache.makeQuery(makeQuery(i % 5, i), savedBags, null, bagQueryRunner, null);
+        }
+        assertEquals(3, cache.size());
+        assertEquals(0, cache.getHits());
+        assertEquals(REPEATS, cache.getMisses());
+    }
+
+    /**
+     * Finds one object for each identifier, without an objectstore.
+     */
+    static class StubBagQueryRunner extends BagQueryRunner
+    {
+        StubBagQueryRunner(ObjectStoreDummyImpl os) {
+            super(os, null, null, null);
+        }
+
+        @Override
+        public BagQueryResult searchForBag(String type, List<String> input,
+                String extraFieldValue, boolean doWildcards) {
+            BagQueryResult result = new BagQueryResult();
+            for (String identifier : input) {
+                result.addMatch(identifier, Integer.valueOf(identifier.hashCode()));
+            }
+            return result;
+        }
+    }
+}
@@ -565,6 +565,13 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
         osw.replaceClob(clob, text);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void writeClobPage(Clob clob, int page, String text) throws ObjectStoreException {
+        osw.writeClobPage(clob, page, text);
+    }
+
     /**
      * Gets an ID number which is unique in the database.
      *
@@ -703,6 +710,14 @@ public abstract class IntegrationWriterAbstractImpl implements IntegrationWriter
         return osw.pilferObjectById(id);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void prefetch(Collection<? extends InterMineObject> objects, String... paths)
+        throws ObjectStoreException {
+        osw.prefetch(objects, paths);
+    }
+
     /**
      * {@inheritDoc}
      */
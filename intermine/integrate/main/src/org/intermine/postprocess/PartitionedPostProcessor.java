@@ -0,0 +1,377 @@
+package org.intermine.postprocess;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.log4j.Logger;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.query.Constraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.objectstore.query.SingletonResults;
+
+/**
+ * A post process step that splits its work by ranges of object id, and runs the ranges on
+ * several threads at once.
+ *
+ * The objects of the partition class, such as Gene, are divided into ranges of ids holding about
+ * the same number of objects. Subclasses restrict their queries to one range with
+ * Partition.createConstraint() and write what they make to the writer they are given. Each
+ * thread has its own ObjectStoreWriter, with its own connection, transaction and batch, and takes
+ * ranges until there are none left. Once every range is done the transactions are committed
+ * together; if any range fails they are all aborted.
+ *
+ * The number of threads is read from the postprocess.threads property.
+ *
+ * @author chenyian
+ */
+public abstract class PartitionedPostProcessor extends PostProcessor
+{
+    private static final Logger LOG = Logger.getLogger(PartitionedPostProcessor.class);
+
+    /** The number of threads used if none is configured. **/
+    public static final int DEFAULT_THREADS = 4;
+
+    // More ranges than threads, so that a slow range does not hold up the rest
+    private static final int PARTITIONS_PER_THREAD = 4;
+    private static final int ID_BATCH_SIZE = 100000;
+
+    private final Class<? extends InterMineObject> partitionClass;
+    private int threads = DEFAULT_THREADS;
+
+    /**
+     * Constructor.
+     *
+     * @param osw the ObjectStoreWriter to process
+     * @param partitionClass the class whose ids the work is split by
+     */
+    public PartitionedPostProcessor(ObjectStoreWriter osw,
+            Class<? extends InterMineObject> partitionClass) {
+        super(osw);
+        this.partitionClass = partitionClass;
+    }
+
+    /**
+     * Set the number of threads to process the partitions on, each with its own writer. With one
+     * thread everything is done in the current thread, with the writer passed to the constructor.
+     *
+     * @param threads the number of threads
+     */
+    public void setPostprocessThreads(String threads) {
+        if (StringUtils.isNotBlank(threads)) {
+            int number = Integer.parseInt(threads.trim());
+            if (number < 1) {
+                throw new IllegalArgumentException("Need at least one thread, not " + threads);
+            }
+            this.threads = number;
+        }
+    }
+
+    /**
+     * Called once before any partition is processed, for example to precompute a query.
+     *
+     * @throws ObjectStoreException if there is a problem with the object store
+     */
+    protected void prepare() throws ObjectStoreException {
+        // nothing to do by default
+    }
+
+    /**
+     * Process the objects of one partition. This is called on several threads at once, for
+     * different partitions, so anything shared between calls must be safe to use that way.
+     *
+     * @param partition the range of ids of the partition class to process
+     * @param writer the writer to store objects with, which is already in a transaction
+     * @return the number of objects processed, for logging
+     * @throws ObjectStoreException if there is a problem with the object store
+     */
+    protected abstract int processPartition(Partition partition, ObjectStoreWriter writer)
+        throws ObjectStoreException;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void postProcess() throws ObjectStoreException {
+        long startTime = System.currentTimeMillis();
+        prepare();
+        Queue<Partition> partitions = new ConcurrentLinkedQueue<Partition>(
+                getPartitions(threads * PARTITIONS_PER_THREAD));
+        int workers = Math.max(1, Math.min(threads, partitions.size()));
+
+        List<ObjectStoreWriter> writers = new ArrayList<ObjectStoreWriter>();
+        ExecutorService pool = null;
+        boolean committed = false;
+        try {
+            writers.add(osw);
+            for (int i = 1; i < workers; i++) {
+                writers.add(osw.getObjectStore().getNewWriter());
+            }
+            for (ObjectStoreWriter writer : writers) {
+                writer.beginTransaction();
+            }
+            AtomicInteger count = new AtomicInteger();
+            AtomicBoolean failed = new AtomicBoolean(false);
+            if (workers == 1) {
+                new Worker(partitions, osw, count, failed).call();
+            } else {
+                pool = createPool(workers);
+                List<Future<Void>> futures = new ArrayList<Future<Void>>();
+                for (ObjectStoreWriter writer : writers) {
+                    futures.add(pool.submit(new Worker(partitions, writer, count, failed)));
+                }
+                waitFor(futures);
+            }
+            for (ObjectStoreWriter writer : writers) {
+                writer.commitTransaction();
+            }
+            committed = true;
+            LOG.info(getClass().getSimpleName() + " processed " + count.get() + " objects on "
+                    + workers + " threads - took " + (System.currentTimeMillis() - startTime)
+                    + " ms.");
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            if (!committed) {
+                for (ObjectStoreWriter writer : writers) {
+                    abort(writer);
+                }
+            }
+            for (ObjectStoreWriter writer : writers) {
+                if (writer != osw) {
+                    writer.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Divide the objects of the partition class into ranges of id holding about the same number
+     * of objects each.
+     *
+     * @param number the number of ranges wanted
+     * @return the ranges, in order of id, which together cover every id
+     * @throws ObjectStoreException if the ids cannot be read
+     */
+    protected List<Partition> getPartitions(int number) throws ObjectStoreException {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(partitionClass);
+        QueryField qfId = new QueryField(qc, "id");
+        q.addFrom(qc);
+        q.addToSelect(qfId);
+        q.addToOrderBy(qfId);
+        SingletonResults res = osw.getObjectStore().executeSingleton(q, ID_BATCH_SIZE, false,
+                false, false);
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Object id : res) {
+            ids.add((Integer) id);
+        }
+
+        List<Partition> partitions = new ArrayList<Partition>();
+        Integer from = null;
+        for (int i = 1; i < number; i++) {
+            int index = (int) ((long) i * ids.size() / number);
+            if (index == 0 || index >= ids.size()) {
+                continue;
+            }
+            Integer to = ids.get(index);
+            if (from == null || from.intValue() < to.intValue()) {
+                partitions.add(new Partition(from, to));
+                from = to;
+            }
+        }
+        partitions.add(new Partition(from, null));
+        return partitions;
+    }
+
+    private ExecutorService createPool(int workers) {
+        final String name = getClass().getSimpleName();
+        return new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger number = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, name + " " + number.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    private static void waitFor(List<Future<Void>> futures) throws ObjectStoreException {
+        ObjectStoreException error = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ObjectStoreException("Interrupted while post-processing", e);
+            } catch (ExecutionException e) {
+                // Report the first failure, but let the other workers stop first
+                if (error == null) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof ObjectStoreException) {
+                        error = (ObjectStoreException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else {
+                        error = new ObjectStoreException(cause);
+                    }
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static void abort(ObjectStoreWriter writer) {
+        try {
+            if (writer.isInTransaction()) {
+                writer.abortTransaction();
+            }
+        } catch (ObjectStoreException e) {
+            LOG.error("Failed to abort transaction", e);
+        }
+    }
+
+    /**
+     * Takes partitions from the queue and processes them with one writer, until there are none
+     * left or another worker has failed.
+     */
+    private class Worker implements Callable<Void>
+    {
+        private final Queue<Partition> partitions;
+        private final ObjectStoreWriter writer;
+        private final AtomicInteger count;
+        private final AtomicBoolean failed;
+
+        Worker(Queue<Partition> partitions, ObjectStoreWriter writer, AtomicInteger count,
+                AtomicBoolean failed) {
+            this.partitions = partitions;
+            this.writer = writer;
+            this.count = count;
+            this.failed = failed;
+        }
+
+        @Override
+        public Void call() throws ObjectStoreException {
+            try {
+                Partition partition;
+                while (!failed.get() && (partition = partitions.poll()) != null) {
+                    count.addAndGet(processPartition(partition, writer));
+                    LOG.debug("Finished partition " + partition);
+                }
+            } catch (ObjectStoreException e) {
+                failed.set(true);
+                throw e;
+            } catch (RuntimeException e) {
+                failed.set(true);
+                throw e;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A range of object ids, from one id up to but not including another.
+     */
+    public static class Partition
+    {
+        private final Integer from;
+        private final Integer to;
+
+        /**
+         * Constructor.
+         *
+         * @param from the lowest id in the range, or null for no lower bound
+         * @param to the id above the range, or null for no upper bound
+         */
+        public Partition(Integer from, Integer to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return the lowest id in the range, or null for no lower bound
+         */
+        public Integer getFrom() {
+            return from;
+        }
+
+        /**
+         * @return the id above the range, or null for no upper bound
+         */
+        public Integer getTo() {
+            return to;
+        }
+
+        /**
+         * Create a constraint that restricts a query to the objects in this range.
+         *
+         * @param qc the QueryClass of the partition class in the query
+         * @return a constraint to add to the query
+         */
+        public Constraint createConstraint(QueryClass qc) {
+            QueryField qfId = new QueryField(qc, "id");
+            ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+            if (from != null) {
+                cs.addConstraint(new SimpleConstraint(qfId, ConstraintOp.GREATER_THAN_EQUALS,
+                            new QueryValue(from)));
+            }
+            if (to != null) {
+                cs.addConstraint(new SimpleConstraint(qfId, ConstraintOp.LESS_THAN,
+                            new QueryValue(to)));
+            }
+            return cs;
+        }
+
+        /**
+         * @param id an object id
+         * @return true if the id is in this range
+         */
+        public boolean contains(Integer id) {
+            return (from == null || id.intValue() >= from.intValue())
+                && (to == null || id.intValue() < to.intValue());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "[" + (from == null ? "" : from) + ", " + (to == null ? "" : to) + ")";
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.intermine.postprocess;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.ObjectStoreWriterFactory;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Compares the time PartitionedPostProcessor takes to give a few hundred employees an address on
+ * one thread and on several.  The work done for each employee waits for a while, as a slow query
+ * would, so the time taken should fall as threads are added even with a single processor.  Run
+ * with the alias of an ObjectStoreWriter, or with no arguments to use osw.unittest; everything in
+ * its database is deleted.
+ *
+ * @author chenyian
+ */
+public final class PartitionedPostProcessorPerformanceTester
+{
+    private static final int EMPLOYEES = 200;
+    private static final int DELAY = 10;
+    private static final int[] THREADS = new int[] {1, 2, 4, 8};
+
+    private PartitionedPostProcessorPerformanceTester() {
+        // don't
+    }
+
+    public static void main(String[] args) throws Exception {
+        String alias = (args.length > 0 ? args[0] : "osw.unittest");
+        ObjectStoreWriter osw = ObjectStoreWriterFactory.getObjectStoreWriter(alias);
+        try {
+            for (int threads : THREADS) {
+                storeEmployees(osw);
+                PartitionedPostProcessorTest.AddressPostProcessor pp =
+                    new PartitionedPostProcessorTest.AddressPostProcessor(osw, DELAY, null);
+                pp.setPostprocessThreads(String.valueOf(threads));
+                long start = System.currentTimeMillis();
+                pp.postProcess();
+                System.out.println("Processed " + EMPLOYEES + " employees on " + threads
+                        + " threads in " + (System.currentTimeMillis() - start) + "ms");
+            }
+        } finally {
+            deleteAll(osw);
+            osw.close();
+        }
+    }
+
+    private static void storeEmployees(ObjectStoreWriter osw) throws ObjectStoreException {
+        deleteAll(osw);
+        osw.beginTransaction();
+        for (int i = 0; i < EMPLOYEES; i++) {
+            Employee employee = DynamicUtil.createObject(Employee.class);
+            employee.setName(String.format("Employee%03d", i));
+            employee.setAge(20 + i % 40);
+            osw.store(employee);
+        }
+        osw.commitTransaction();
+    }
+
+    private static void deleteAll(ObjectStoreWriter osw) throws ObjectStoreException {
+        if (osw.isInTransaction()) {
+            osw.abortTransaction();
+        }
+        Query q = new Query();
+        QueryClass qc = new QueryClass(InterMineObject.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        SingletonResults res = osw.getObjectStore().executeSingleton(q);
+        osw.beginTransaction();
+        for (Object o : res) {
+            osw.delete((InterMineObject) o);
+        }
+        osw.commitTransaction();
+    }
+}
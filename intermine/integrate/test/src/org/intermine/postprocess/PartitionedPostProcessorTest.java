@@ -0,0 +1,236 @@
+package org.intermine.postprocess;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreWriter;
+import org.intermine.objectstore.ObjectStoreWriterFactory;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.SingletonResults;
+import org.intermine.postprocess.PartitionedPostProcessor.Partition;
+import org.intermine.util.DynamicUtil;
+
+/**
+ * Tests for PartitionedPostProcessor, comparing runs on several threads with a serial run over
+ * a generated set of employees.
+ *
+ * @author chenyian
+ */
+public class PartitionedPostProcessorTest extends TestCase
+{
+    private static final int EMPLOYEES = 200;
+
+    private ObjectStoreWriter osw;
+
+    @Override
+    public void setUp() throws Exception {
+        osw = ObjectStoreWriterFactory.getObjectStoreWriter("osw.unittest");
+        deleteAll();
+        osw.beginTransaction();
+        for (int i = 0; i < EMPLOYEES; i++) {
+            Employee employee = DynamicUtil.createObject(Employee.class);
+            employee.setName(String.format("Employee%03d", i));
+            employee.setAge(20 + i % 40);
+            osw.store(employee);
+        }
+        osw.commitTransaction();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        deleteAll();
+        osw.close();
+    }
+
+    private void deleteAll() throws ObjectStoreException {
+        if (osw.isInTransaction()) {
+            osw.abortTransaction();
+        }
+        Query q = new Query();
+        QueryClass qc = new QueryClass(InterMineObject.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        SingletonResults res = osw.getObjectStore().executeSingleton(q);
+        osw.beginTransaction();
+        for (Object o : res) {
+            osw.delete((InterMineObject) o);
+        }
+        osw.commitTransaction();
+    }
+
+    /**
+     * @return the address of each employee, by name
+     */
+    private Map<String, String> getAddresses() throws Exception {
+        Map<String, String> addresses = new HashMap<String, String>();
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        for (Object o : osw.getObjectStore().executeSingleton(q)) {
+            Employee employee = (Employee) o;
+            Address address = (Address) employee.getAddress();
+            addresses.put(employee.getName(), address == null ? null : address.getAddress());
+        }
+        return addresses;
+    }
+
+    private int countAddresses() throws Exception {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Address.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        return osw.getObjectStore().count(q, ObjectStore.SEQUENCE_IGNORE);
+    }
+
+    private void run(int threads, int delay) throws Exception {
+        AddressPostProcessor pp = new AddressPostProcessor(osw, delay, null);
+        pp.setPostprocessThreads(String.valueOf(threads));
+        pp.postProcess();
+    }
+
+    public void testSameAsSerial() throws Exception {
+        run(1, 0);
+        Map<String, String> serial = getAddresses();
+        assertEquals(EMPLOYEES, serial.size());
+        assertEquals("Employee007 lives here", serial.get("Employee007"));
+        assertEquals(EMPLOYEES, countAddresses());
+
+        for (int threads : new int[] {2, 5}) {
+            tearDown();
+            setUp();
+            run(threads, 0);
+            assertEquals(serial, getAddresses());
+            assertEquals(EMPLOYEES, countAddresses());
+        }
+    }
+
+    public void testPartitions() throws Exception {
+        AddressPostProcessor pp = new AddressPostProcessor(osw, 0, null);
+        List<Partition> partitions = pp.getPartitions(8);
+        assertEquals(8, partitions.size());
+        assertNull(partitions.get(0).getFrom());
+        assertNull(partitions.get(7).getTo());
+        Map<Partition, Integer> sizes = new HashMap<Partition, Integer>();
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Employee.class);
+        q.addFrom(qc);
+        q.addToSelect(new QueryField(qc, "id"));
+        for (Object id : osw.getObjectStore().executeSingleton(q)) {
+            Partition found = null;
+            for (Partition partition : partitions) {
+                if (partition.contains((Integer) id)) {
+                    assertNull("Id " + id + " is in two partitions", found);
+                    found = partition;
+                }
+            }
+            assertNotNull("Id " + id + " is in no partition", found);
+            sizes.put(found, sizes.containsKey(found) ? sizes.get(found) + 1 : 1);
+        }
+        for (Partition partition : partitions) {
+            assertEquals(EMPLOYEES / 8, sizes.get(partition).intValue());
+        }
+
+        // More partitions than objects
+        assertEquals(EMPLOYEES, pp.getPartitions(EMPLOYEES * 2).size());
+    }
+
+    public void testFailureAbortsAll() throws Exception {
+        AddressPostProcessor pp = new AddressPostProcessor(osw, 0, "Employee150");
+        pp.setPostprocessThreads("4");
+        try {
+            pp.postProcess();
+            fail("Expected an ObjectStoreException");
+        } catch (ObjectStoreException e) {
+            assertEquals("Failed at Employee150", e.getMessage());
+        }
+        assertFalse(osw.isInTransaction());
+        // Nothing from the partitions that succeeded was committed
+        assertEquals(0, countAddresses());
+    }
+
+    /**
+     * The work done for each employee waits for a while, as a slow query would, so that the
+     * threads run their partitions at the same time.
+     */
+    public void testSlowPartitions() throws Exception {
+        run(4, 2);
+        Map<String, String> addresses = getAddresses();
+        assertEquals(EMPLOYEES, addresses.size());
+        for (Map.Entry<String, String> entry : addresses.entrySet()) {
+            assertEquals(entry.getKey() + " lives here", entry.getValue());
+        }
+        assertEquals(EMPLOYEES, countAddresses());
+    }
+
+    /**
+     * Gives each employee an address.
+     */
+    static class AddressPostProcessor extends PartitionedPostProcessor
+    {
+        private final int delay;
+        private final String failAt;
+
+        AddressPostProcessor(ObjectStoreWriter osw, int delay, String failAt) {
+            super(osw, Employee.class);
+            this.delay = delay;
+            this.failAt = failAt;
+        }
+
+        @Override
+        protected int processPartition(Partition partition, ObjectStoreWriter writer)
+            throws ObjectStoreException {
+            Query q = new Query();
+            QueryClass qc = new QueryClass(Employee.class);
+            q.addFrom(qc);
+            q.addToSelect(qc);
+            q.addToOrderBy(qc);
+            ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+            cs.addConstraint(partition.createConstraint(qc));
+            q.setConstraint(cs);
+            int count = 0;
+            for (Object o : osw.getObjectStore().executeSingleton(q)) {
+                Employee employee = (Employee) o;
+                if (employee.getName().equals(failAt)) {
+                    throw new ObjectStoreException("Failed at " + failAt);
+                }
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        throw new ObjectStoreException(e);
+                    }
+                }
+                Address address = DynamicUtil.createObject(Address.class);
+                address.setAddress(employee.getName() + " lives here");
+                writer.store(address);
+                employee.setAddress(address);
+                writer.store(employee);
+                count++;
+            }
+            return count;
+        }
+    }
+}
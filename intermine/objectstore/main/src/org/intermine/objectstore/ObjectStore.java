@@ -198,6 +198,21 @@ public interface ObjectStore
      */
     InterMineObject pilferObjectById(Integer id);
 
+    /**
+     * Loads the references and collections named by the paths for a whole batch of objects, so
+     * that using them afterwards does not query the database for each object. Each step of a path
+     * is loaded with one query for all the objects that reach it. Collections become materialised
+     * collections of their ProxyCollections, and references are replaced by the objects they
+     * refer to.
+     *
+     * @param objects the objects to start from, all from this ObjectStore
+     * @param paths reference and collection names separated by dots, such as
+     * "departments.employees.address"
+     * @throws ObjectStoreException if an error occurs while loading
+     */
+    void prefetch(Collection<? extends InterMineObject> objects, String... paths)
+        throws ObjectStoreException;
+
     /**
      * Explain a Query (give estimate for execution time and number of rows).
      *
@@ -27,6 +27,7 @@ import org.apache.log4j.Logger;
 import org.intermine.metadata.MetaDataException;
 import org.intermine.metadata.Model;
 import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.proxy.ProxyPrefetcher;
 import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.ObjectStoreBag;
 import org.intermine.objectstore.query.Query;
@@ -259,6 +260,14 @@ public abstract class ObjectStoreAbstractImpl implements ObjectStore
         return (List<InterMineObject>) ((List) results);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void prefetch(Collection<? extends InterMineObject> objects, String... paths)
+        throws ObjectStoreException {
+        new ProxyPrefetcher(this).prefetch(objects, paths);
+    }
+
     /**
      * Read the Model from the classpath.
      *
@@ -17,6 +17,7 @@ import java.util.Set;
 
 import org.intermine.metadata.Model;
 import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.proxy.ProxyPrefetcher;
 import org.intermine.objectstore.query.Clob;
 import org.intermine.objectstore.query.ObjectStoreBag;
 import org.intermine.objectstore.query.Query;
@@ -112,6 +113,16 @@ public class ObjectStorePassthruImpl implements ObjectStore
         return os.getObjectsByIds(ids);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The queries are run through this ObjectStore, rather than the one underneath.
+     */
+    public void prefetch(Collection<? extends InterMineObject> objects, String... paths)
+        throws ObjectStoreException {
+        new ProxyPrefetcher(this).prefetch(objects, paths);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -17,11 +17,17 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.intermine.metadata.AttributeDescriptor;
@@ -39,6 +45,8 @@ import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryForeignKey;
+import org.intermine.objectstore.query.QueryFunction;
 import org.intermine.objectstore.query.QueryObjectReference;
 import org.intermine.objectstore.query.QueryReference;
 import org.intermine.objectstore.query.QueryValue;
@@ -73,6 +81,7 @@ public class ObjectStoreSummary
     static final String NULL_MARKER = "___NULL___";
     static final String FIELD_DELIM = "$_^";
     static final String MAX_FIELD_VALUES = "max.field.values";
+    static final String THREADS = "summary.threads";
 
     /**
      * The default number of values to make available for UI dropdowns - attributes with more values
@@ -81,7 +90,14 @@ public class ObjectStoreSummary
     public static final int DEFAULT_MAX_VALUES = 200;
 
     /**
-     * Construct a summary from by running queries in the ObjectStore.
+     * The default number of summary queries to run at once.
+     */
+    public static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Construct a summary from by running queries in the ObjectStore.  The queries for each class
+     * and field are independent, and are run on a pool of summary.threads threads (default
+     * DEFAULT_THREADS), which bounds the number of database connections used.
      *
      * @param os the objectstore
      * @param configuration the configuration for summarization
@@ -97,56 +113,120 @@ public class ObjectStoreSummary
         // 3. for fields with fewer unique values than cutoff, create dropdowns
         // 4. Always empty refs/cols per class
         // 5. Always empty attributes per class
+        //
+        // Classes are processed a level of the hierarchy at a time, so that what we learn about
+        // one class can still save queries for its super or sub classes, but all the queries
+        // within a level are run in parallel.
 
         Model model = os.getModel();
 
-        // classCounts - number of objects of each type in the database
-        LOG.info("Collecting class counts...");
-        for (ClassDescriptor cld : model.getTopDownLevelTraversal()) {
-            nonEmptyFieldsMap.put(cld.getName(), new HashSet<String>());
-            countAndStore(os, model, cld);
-        }
-
-        // fieldValues - find all attributes with few unique values for populating dropdowns,
-        // also look for any attributes that are empty.
-        LOG.info("Summarising field values...");
         String maxValuesString = (String) configuration.get(MAX_FIELD_VALUES);
         maxValues =
             (maxValuesString == null ? DEFAULT_MAX_VALUES : Integer.parseInt(maxValuesString));
-
-        // always empty references and collections
-        LOG.info("Looking for empty collections and references...");
+        String threadsString = (String) configuration.get(THREADS);
+        int threads =
+            (threadsString == null ? DEFAULT_THREADS : Integer.parseInt(threadsString.trim()));
         Set<String> ignoreFields = getIgnoreFields((String) configuration.get("ignore.counts"));
         if (ignoreFields.size() > 0) {
             LOG.warn("Not counting ignored fields: " + ignoreFields);
         }
 
-        Set<String> doneFields = new HashSet<String>();
-        for (ClassDescriptor cld : model.getBottomUpLevelTraversal()) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // classCounts - number of objects of each type in the database
+            LOG.info("Collecting class counts using " + threads + " threads...");
+            countClasses(os, model, executor);
+
+            // fieldValues - find all attributes with few unique values for populating dropdowns,
+            // also look for any attributes that are empty.
+            LOG.info("Summarising field values...");
+            summariseAttributes(os, model, ignoreFields, executor);
+
+            // always empty references and collections
+            LOG.info("Looking for empty collections and references...");
+            findEmptyReferences(os, model, ignoreFields, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-            int classCount = classCountsMap.get(cld.getName()).intValue();
-            if (classCount == 0) {
-                continue;
+    private void countClasses(final ObjectStore os, Model model, ExecutorService executor)
+        throws ObjectStoreException {
+        for (List<ClassDescriptor> level : getLevels(model, true)) {
+            Map<String, Future<Integer>> counts = new HashMap<String, Future<Integer>>();
+            for (final ClassDescriptor cld : level) {
+                nonEmptyFieldsMap.put(cld.getName(), new HashSet<String>());
+                if (!classCountsMap.containsKey(cld.getName())) {
+                    counts.put(cld.getName(), executor.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws ObjectStoreException {
+                            return new Integer(countClass(os, cld.getType()));
+                        }
+                    }));
+                }
             }
-
-            for (AttributeDescriptor att : cld.getAllAttributeDescriptors()) {
-                String fieldName = att.getName();
-                if ("id".equals(fieldName)) {
+            for (ClassDescriptor cld : level) {
+                Future<Integer> count = counts.get(cld.getName());
+                if (count == null) {
                     continue;
                 }
+                int classCount = getResult(count).intValue();
+                LOG.info("Adding class count: " + cld.getUnqualifiedName() + " = " + classCount);
+                classCountsMap.put(cld.getName(), new Integer(classCount));
+
+                // if this class is empty all subclasses MUST be empty as well
+                if (classCount == 0) {
+                    for (ClassDescriptor subCld : model.getAllSubs(cld)) {
+                        if (!classCountsMap.containsKey(subCld.getName())) {
+                            classCountsMap.put(subCld.getName(), new Integer(classCount));
+                        }
+                    }
+                }
+            }
+        }
+    }
 
-                String clsFieldName = cld.getName() + "." + fieldName;
-                if (doneFields.contains(clsFieldName) || ignoreFields.contains(clsFieldName)) {
+    private void summariseAttributes(final ObjectStore os, Model model, Set<String> ignoreFields,
+            ExecutorService executor) throws ObjectStoreException {
+        Set<String> doneFields = new HashSet<String>();
+        for (List<ClassDescriptor> level : getLevels(model, false)) {
+            Map<String, Future<List<Object>>> summaries
+                = new LinkedHashMap<String, Future<List<Object>>>();
+            Map<String, ClassDescriptor> summaryClasses = new HashMap<String, ClassDescriptor>();
+            for (final ClassDescriptor cld : level) {
+                int classCount = classCountsMap.get(cld.getName()).intValue();
+                if (classCount == 0) {
                     continue;
                 }
 
-                Results results = getFieldSummary(cld, fieldName, os);
-                if (results.size() <= maxValues) {
-                    List<Object> fieldValues = new ArrayList<Object>();
-                    for (Object resRow: results) {
-                        Object fieldValue = ((ResultsRow<?>) resRow).get(0);
-                        fieldValues.add(fieldValue == null ? null : fieldValue.toString());
+                for (AttributeDescriptor att : cld.getAllAttributeDescriptors()) {
+                    final String fieldName = att.getName();
+                    if ("id".equals(fieldName)) {
+                        continue;
                     }
+
+                    String clsFieldName = cld.getName() + "." + fieldName;
+                    if (doneFields.contains(clsFieldName)
+                            || ignoreFields.contains(clsFieldName)) {
+                        continue;
+                    }
+
+                    summaryClasses.put(clsFieldName, cld);
+                    summaries.put(clsFieldName, executor.submit(new Callable<List<Object>>() {
+                        @Override
+                        public List<Object> call() throws ObjectStoreException {
+                            return getFieldSummary(cld, fieldName, os);
+                        }
+                    }));
+                }
+            }
+
+            for (Map.Entry<String, Future<List<Object>>> entry : summaries.entrySet()) {
+                String clsFieldName = entry.getKey();
+                ClassDescriptor cld = summaryClasses.get(clsFieldName);
+                String fieldName = clsFieldName.substring(cld.getName().length() + 1);
+                List<Object> fieldValues = getResult(entry.getValue());
+                if (fieldValues != null) {
                     if (fieldValues.size() == 1 && fieldValues.get(0) == null) {
                         Set<String> emptyAttributes = emptyAttributesMap.get(cld.getName());
                         if (emptyAttributes == null) {
@@ -191,55 +271,115 @@ public class ObjectStoreSummary
                 }
             }
         }
+    }
 
-
-
+    private void findEmptyReferences(final ObjectStore os, Model model, Set<String> ignoreFields,
+            ExecutorService executor) throws ObjectStoreException {
         // This is faster as a bottom up traversal, though this may save fewer queres the saved
         // queries would take longer. If a ref/col is not empty it must not be empty in all parents.
         Set<String> notEmptyFields = new HashSet<String>();
-        for (ClassDescriptor cld: model.getBottomUpLevelTraversal()) {
-            int classCount = classCountsMap.get(cld.getName()).intValue();
-            if (classCount == 0) {
-                continue;
-            }
-
-            Set<ReferenceDescriptor> refsAndCols = new HashSet<ReferenceDescriptor>();
-            refsAndCols.addAll(cld.getAllReferenceDescriptors());
-            refsAndCols.addAll(cld.getAllCollectionDescriptors());
-            for (ReferenceDescriptor ref : refsAndCols) {
-                String fieldName = ref.getName();
-                String clsFieldName = cld.getName() + "." + fieldName;
-
-                if (ignoreFields.contains(fieldName)) {
+        for (List<ClassDescriptor> level : getLevels(model, false)) {
+            Map<ClassDescriptor, List<ReferenceDescriptor>> toCheck
+                = new LinkedHashMap<ClassDescriptor, List<ReferenceDescriptor>>();
+            Map<ClassDescriptor, Future<Set<String>>> nullProbes
+                = new HashMap<ClassDescriptor, Future<Set<String>>>();
+            for (final ClassDescriptor cld : level) {
+                int classCount = classCountsMap.get(cld.getName()).intValue();
+                if (classCount == 0) {
                     continue;
                 }
 
-                if (notEmptyFields.contains(clsFieldName)) {
-                    LOG.info("Skipping " + clsFieldName + " - already know it's not empty");
-                    continue;
-                }
+                Set<ReferenceDescriptor> refsAndCols = new HashSet<ReferenceDescriptor>();
+                refsAndCols.addAll(cld.getAllReferenceDescriptors());
+                refsAndCols.addAll(cld.getAllCollectionDescriptors());
+                List<ReferenceDescriptor> refs = new ArrayList<ReferenceDescriptor>();
+                final List<ReferenceDescriptor> objectRefs = new ArrayList<ReferenceDescriptor>();
+                for (ReferenceDescriptor ref : refsAndCols) {
+                    String fieldName = ref.getName();
+                    String clsFieldName = cld.getName() + "." + fieldName;
+
+                    if (ignoreFields.contains(fieldName)) {
+                        continue;
+                    }
 
-                boolean refIsEmpty = isReferenceEmpty(cld, ref, os);
-                if (refIsEmpty) {
-                    addToEmptyFields(cld.getName(), ref.getName());
-                    LOG.info("Adding empty field " + cld.getUnqualifiedName() + "." + fieldName);
-                } else {
-                    // this isn't empty, so CAN'T be empty for any super classes
-                    for (ClassDescriptor superCld : cld.getAllSuperDescriptors()) {
-                        if (cld.equals(superCld)
-                                || superCld.getType().equals(InterMineObject.class)) {
-                            continue;
+                    if (notEmptyFields.contains(clsFieldName)) {
+                        LOG.info("Skipping " + clsFieldName + " - already know it's not empty");
+                        continue;
+                    }
+                    refs.add(ref);
+                    if (!(ref instanceof CollectionDescriptor)) {
+                        objectRefs.add(ref);
+                    }
+                }
+                toCheck.put(cld, refs);
+                if (!objectRefs.isEmpty()) {
+                    nullProbes.put(cld, executor.submit(new Callable<Set<String>>() {
+                        @Override
+                        public Set<String> call() throws ObjectStoreException {
+                            return getNullReferences(cld, objectRefs, os);
                         }
-                        String superClsField = superCld.getName() + "." + fieldName;
+                    }));
+                }
+            }
+
+            // References that are null in every row of the class's table are certainly empty,
+            // so only the remaining references and the collections need an EXISTS query.
+            Map<ClassDescriptor, Map<ReferenceDescriptor, Future<Boolean>>> emptyChecks
+                = new LinkedHashMap<ClassDescriptor, Map<ReferenceDescriptor, Future<Boolean>>>();
+            for (Map.Entry<ClassDescriptor, List<ReferenceDescriptor>> entry : toCheck.entrySet()) {
+                final ClassDescriptor cld = entry.getKey();
+                Future<Set<String>> nullProbe = nullProbes.get(cld);
+                Set<String> nullReferences = (nullProbe == null ? Collections.<String>emptySet()
+                        : getResult(nullProbe));
+                Map<ReferenceDescriptor, Future<Boolean>> checks
+                    = new LinkedHashMap<ReferenceDescriptor, Future<Boolean>>();
+                for (final ReferenceDescriptor ref : entry.getValue()) {
+                    if (nullReferences.contains(ref.getName())) {
+                        checks.put(ref, null);
+                    } else {
+                        checks.put(ref, executor.submit(new Callable<Boolean>() {
+                            @Override
+                            public Boolean call() {
+                                return Boolean.valueOf(isReferenceEmpty(cld, ref, os));
+                            }
+                        }));
+                    }
+                }
+                emptyChecks.put(cld, checks);
+            }
 
-                        if (!notEmptyFields.contains(superClsField)) {
-                            if ((superCld.getReferenceDescriptorByName(fieldName, true) != null)
-                                    || (superCld.getCollectionDescriptorByName(fieldName,
-                                            true) != null)) {
-                                LOG.info("Pushing not empty ref/col from "
-                                        + cld.getUnqualifiedName() + "." + fieldName + " to "
-                                        + superCld.getUnqualifiedName());
-                                notEmptyFields.add(superClsField);
+            for (Map.Entry<ClassDescriptor, Map<ReferenceDescriptor, Future<Boolean>>> entry
+                    : emptyChecks.entrySet()) {
+                ClassDescriptor cld = entry.getKey();
+                for (Map.Entry<ReferenceDescriptor, Future<Boolean>> check
+                        : entry.getValue().entrySet()) {
+                    ReferenceDescriptor ref = check.getKey();
+                    String fieldName = ref.getName();
+                    boolean refIsEmpty = (check.getValue() == null
+                            || getResult(check.getValue()).booleanValue());
+                    if (refIsEmpty) {
+                        addToEmptyFields(cld.getName(), ref.getName());
+                        LOG.info("Adding empty field " + cld.getUnqualifiedName() + "."
+                                + fieldName);
+                    } else {
+                        // this isn't empty, so CAN'T be empty for any super classes
+                        for (ClassDescriptor superCld : cld.getAllSuperDescriptors()) {
+                            if (cld.equals(superCld)
+                                    || superCld.getType().equals(InterMineObject.class)) {
+                                continue;
+                            }
+                            String superClsField = superCld.getName() + "." + fieldName;
+
+                            if (!notEmptyFields.contains(superClsField)) {
+                                if ((superCld.getReferenceDescriptorByName(fieldName, true)
+                                            != null)
+                                        || (superCld.getCollectionDescriptorByName(fieldName,
+                                                true) != null)) {
+                                    LOG.info("Pushing not empty ref/col from "
+                                            + cld.getUnqualifiedName() + "." + fieldName + " to "
+                                            + superCld.getUnqualifiedName());
+                                    notEmptyFields.add(superClsField);
+                                }
                             }
                         }
                     }
@@ -248,25 +388,65 @@ public class ObjectStoreSummary
         }
     }
 
+    /**
+     * Groups the classes of a model into levels of the hierarchy.  Going top down, every class
+     * comes in a later level than all of its superclasses; going bottom up, every class comes in
+     * a later level than all of its subclasses.
+     *
+     * @param model the model
+     * @param topDown true to start from the root of the hierarchy
+     * @return a List of levels, each one a List of ClassDescriptors
+     */
+    private static List<List<ClassDescriptor>> getLevels(Model model, boolean topDown) {
+        Map<ClassDescriptor, Integer> depths = new HashMap<ClassDescriptor, Integer>();
+        List<List<ClassDescriptor>> levels = new ArrayList<List<ClassDescriptor>>();
+        List<ClassDescriptor> traversal = (topDown ? model.getTopDownLevelTraversal()
+                : model.getBottomUpLevelTraversal());
+        for (ClassDescriptor cld : traversal) {
+            int depth = getDepth(model, cld, topDown, depths);
+            while (levels.size() <= depth) {
+                levels.add(new ArrayList<ClassDescriptor>());
+            }
+            levels.get(depth).add(cld);
+        }
+        return levels;
+    }
 
-    private void countAndStore(ObjectStore os, Model model, ClassDescriptor cld)
-        throws ObjectStoreException {
-        if (!classCountsMap.containsKey(cld.getName())) {
-            int classCount = countClass(os, cld.getType());
-            LOG.info("Adding class count: " + cld.getUnqualifiedName() + " = " + classCount);
-            classCountsMap.put(cld.getName(), new Integer(classCount));
-
-            // if this class is empty all subclasses MUST be empty as well
-            if (classCount == 0) {
-                for (ClassDescriptor subCld : model.getAllSubs(cld)) {
-                    if (!classCountsMap.containsKey(subCld.getName())) {
-                        classCountsMap.put(subCld.getName(), new Integer(classCount));
-                    }
+    private static int getDepth(Model model, ClassDescriptor cld, boolean topDown,
+            Map<ClassDescriptor, Integer> depths) {
+        Integer depth = depths.get(cld);
+        if (depth == null) {
+            int newDepth = 0;
+            Set<ClassDescriptor> before = (topDown ? cld.getSuperDescriptors()
+                    : model.getDirectSubs(cld));
+            if (before != null) {
+                for (ClassDescriptor other : before) {
+                    newDepth = Math.max(newDepth, getDepth(model, other, topDown, depths) + 1);
                 }
             }
+            depth = new Integer(newDepth);
+            depths.put(cld, depth);
         }
+        return depth.intValue();
     }
 
+    private static <T> T getResult(Future<T> future) throws ObjectStoreException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new ObjectStoreException("Interrupted while summarising objectstore", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ObjectStoreException) {
+                throw (ObjectStoreException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ObjectStoreException("Error while summarising objectstore", cause);
+        }
+    }
 
     /**
      * Construct a summary from a properties object.
@@ -446,14 +626,70 @@ public class ObjectStoreSummary
         }
     }
 
-    private Results getFieldSummary(ClassDescriptor cld, String fieldName, ObjectStore os) {
+    /**
+     * Fetch the distinct values of a field.
+     *
+     * @param cld the class of objects to be examined
+     * @param fieldName the name of an attribute of the class
+     * @param os the objectstore
+     * @return the values as Strings, or null if there are more than maxValues of them
+     * @throws ObjectStoreException if an error occurs accessing the data
+     */
+    private List<Object> getFieldSummary(ClassDescriptor cld, String fieldName, ObjectStore os)
+        throws ObjectStoreException {
         Query q = new Query();
         q.setDistinct(true);
         QueryClass qc = new QueryClass(cld.getType());
         q.addToSelect(new QueryField(qc, fieldName));
         q.addFrom(qc);
-        Results results = os.execute(q);
-        return results;
+        // one more row than we can use is enough to know there are too many
+        List<ResultsRow<Object>> results = os.execute(q, 0, maxValues + 1, true, false,
+                ObjectStore.SEQUENCE_IGNORE);
+        if (results.size() > maxValues) {
+            return null;
+        }
+        List<Object> fieldValues = new ArrayList<Object>();
+        for (ResultsRow<Object> resRow : results) {
+            Object fieldValue = resRow.get(0);
+            fieldValues.add(fieldValue == null ? null : fieldValue.toString());
+        }
+        return fieldValues;
+    }
+
+    /**
+     * Find which of the given references are null for every object of a class, using a single
+     * scan of the class's table for all of them.
+     *
+     * @param cld the class of objects to be examined
+     * @param refs references (not collections) of the class
+     * @param os the objectstore
+     * @return the names of the references that are always null
+     * @throws ObjectStoreException if an error occurs accessing the data
+     */
+    private Set<String> getNullReferences(ClassDescriptor cld, List<ReferenceDescriptor> refs,
+            ObjectStore os) throws ObjectStoreException {
+        long startTime = System.currentTimeMillis();
+        Query q = new Query();
+        QueryClass qc = new QueryClass(cld.getType());
+        q.addFrom(qc);
+        for (ReferenceDescriptor ref : refs) {
+            q.addToSelect(new QueryFunction(new QueryForeignKey(qc, ref.getName()),
+                        QueryFunction.MAX));
+        }
+        Set<String> nullReferences = new HashSet<String>();
+        List<ResultsRow<Object>> results = os.execute(q, 0, 1, false, false,
+                ObjectStore.SEQUENCE_IGNORE);
+        if (!results.isEmpty()) {
+            ResultsRow<Object> row = results.get(0);
+            for (int i = 0; i < refs.size(); i++) {
+                if (row.get(i) == null) {
+                    nullReferences.add(refs.get(i).getName());
+                }
+            }
+        }
+        LOG.info("Query for null references of " + cld.getUnqualifiedName() + " took "
+                + (System.currentTimeMillis() - startTime) + "ms.");
+        return nullReferences;
     }
 
     /**
@@ -154,6 +154,18 @@ public interface ObjectStoreWriter extends ObjectStore
      */
     void replaceClob(Clob clob, String text) throws ObjectStoreException;
 
+    /**
+     * Writes one page of the contents of a new Clob, so that a large Clob can be written without
+     * holding all of its text in memory.  Every page except the last must be CLOB_PAGE_SIZE
+     * characters long, and each page must be written once.
+     *
+     * @param clob the Clob to write to
+     * @param page the number of the page, counting from zero
+     * @param text the text of the page
+     * @throws ObjectStoreException if something goes wrong
+     */
+    void writeClobPage(Clob clob, int page, String text) throws ObjectStoreException;
+
     /**
      * Check whether the ObjectStoreWriter is performing a transaction
      *
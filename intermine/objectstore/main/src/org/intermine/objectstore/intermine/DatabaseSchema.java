@@ -49,10 +49,12 @@ public class DatabaseSchema
     protected boolean useRangeTypes;
 
     private Set<ClassDescriptor> truncatedSet;
-    private Map<ClassDescriptor, Fields> tableMasterToFieldDescriptors
+    // These are replaced rather than changed, so that they can be read without locking
+    private volatile Map<ClassDescriptor, Fields> tableMasterToFieldDescriptors
         = new IdentityHashMap<ClassDescriptor, Fields>();
-    private Map<ClassDescriptor, ClassDescriptor> classDescriptorToTableClassDescriptor
+    private volatile Map<ClassDescriptor, ClassDescriptor> classDescriptorToTableClassDescriptor
         = new IdentityHashMap<ClassDescriptor, ClassDescriptor>();
+    private final SqlCache sqlCache = new SqlCache();
 
     /**
      * Returns an instance of DatabaseSchema, for the given Model and and List of truncated classes.
@@ -97,7 +99,7 @@ public class DatabaseSchema
      * @param cld the ClassDescriptor from the Model
      * @return the ClassDescriptor that masters the table
      */
-    public synchronized ClassDescriptor getTableMaster(ClassDescriptor cld) {
+    public ClassDescriptor getTableMaster(ClassDescriptor cld) {
         ClassDescriptor retval = classDescriptorToTableClassDescriptor.get(cld);
         if (retval == null) {
             Iterator<ClassDescriptor> truncIter = truncated.iterator();
@@ -110,7 +112,13 @@ public class DatabaseSchema
             if (retval == null) {
                 retval = cld;
             }
-            classDescriptorToTableClassDescriptor.put(cld, retval);
+            synchronized (this) {
+                Map<ClassDescriptor, ClassDescriptor> newMap
+                    = new IdentityHashMap<ClassDescriptor, ClassDescriptor>(
+                            classDescriptorToTableClassDescriptor);
+                newMap.put(cld, retval);
+                classDescriptorToTableClassDescriptor = newMap;
+            }
         }
         return retval;
     }
@@ -185,6 +193,15 @@ public class DatabaseSchema
         return missingTables;
     }
 
+    /**
+     * Returns the cache of SQL generated for this schema.
+     *
+     * @return a SqlCache
+     */
+    public SqlCache getSqlCache() {
+        return sqlCache;
+    }
+
     /**
      * Returns true if the database has the bioseg type installed.
      *
@@ -216,89 +233,104 @@ public class DatabaseSchema
      * @return a Fields object containing AttributeDescriptors and ReferenceDescriptors
      * @throws ObjectStoreException if two similar-named fields are found of different types
      */
-    public synchronized Fields getTableFields(ClassDescriptor cld) throws ObjectStoreException {
+    public Fields getTableFields(ClassDescriptor cld) throws ObjectStoreException {
         Fields retval = tableMasterToFieldDescriptors.get(cld);
         if (retval == null) {
-            if (isTruncated(cld)) {
-                Map<String, AttributeDescriptor> attributeMap
-                    = new HashMap<String, AttributeDescriptor>();
-                Map<String, ReferenceDescriptor> referenceMap
-                    = new HashMap<String, ReferenceDescriptor>();
-                Set<ClassDescriptor> added = new HashSet<ClassDescriptor>();
-                Stack<ClassDescriptor> todo = new Stack<ClassDescriptor>();
-                todo.push(cld);
-                added.add(cld);
-                while (!todo.empty()) {
-                    ClassDescriptor subCld = todo.pop();
-                    for (ClassDescriptor subSubCld : subCld.getSubDescriptors()) {
-                        if (!added.contains(subSubCld)) {
-                            todo.push(subSubCld);
-                            added.add(subSubCld);
-                        }
+            synchronized (this) {
+                retval = tableMasterToFieldDescriptors.get(cld);
+                if (retval == null) {
+                    retval = findTableFields(cld);
+                    Map<ClassDescriptor, Fields> newMap
+                        = new IdentityHashMap<ClassDescriptor, Fields>(
+                                tableMasterToFieldDescriptors);
+                    newMap.put(cld, retval);
+                    tableMasterToFieldDescriptors = newMap;
+                }
+            }
+        }
+        return retval;
+    }
+
+    private Fields findTableFields(ClassDescriptor cld) throws ObjectStoreException {
+        Fields retval;
+        if (isTruncated(cld)) {
+            Map<String, AttributeDescriptor> attributeMap
+                = new HashMap<String, AttributeDescriptor>();
+            Map<String, ReferenceDescriptor> referenceMap
+                = new HashMap<String, ReferenceDescriptor>();
+            Set<ClassDescriptor> added = new HashSet<ClassDescriptor>();
+            Stack<ClassDescriptor> todo = new Stack<ClassDescriptor>();
+            todo.push(cld);
+            added.add(cld);
+            while (!todo.empty()) {
+                ClassDescriptor subCld = todo.pop();
+                for (ClassDescriptor subSubCld : subCld.getSubDescriptors()) {
+                    if (!added.contains(subSubCld)) {
+                        todo.push(subSubCld);
+                        added.add(subSubCld);
                     }
                 }
-                for (ClassDescriptor subCld : added) {
-                    // Nasty - one truncated class can have priority over another, or even be a
-                    // proper subset of another. We check this here, as not all subclasses of
-                    // the table master are necessarily mapped onto the same table.
-                    ClassDescriptor subsMaster = getTableMaster(subCld);
-                    if ((subsMaster == cld) || isFlatMode(cld.getType())) {
-                        // This class does map onto this table. We need to look at all the
-                        // FieldDescriptors of this class, but we can give a small warning if this
-                        // results in fields from classes that are not a subclass of the table
-                        // master being included.
-                        for (FieldDescriptor field : subCld.getAllFieldDescriptors()) {
-                            if (field instanceof AttributeDescriptor) {
-                                AttributeDescriptor origField = attributeMap.get(field.getName());
-                                if (origField == null) {
-                                    attributeMap.put(field.getName(), (AttributeDescriptor) field);
-                                } else if (origField != field) {
-                                    String type = ((AttributeDescriptor) field).getType();
-                                    String origType = origField.getType();
-                                    if (!compatible(type, origType)) {
-                                        throw new ObjectStoreException("Fields "
-                                                + field.getClassDescriptor().getName() + "."
-                                                + field.getName() + " (a " + type + ") and "
-                                                + origField.getClassDescriptor().getName() + "."
-                                                + origField.getName() + " (a " + origType
-                                                + ") in truncated class " + cld.getName()
-                                                + " are of different types");
-                                    }
+            }
+            for (ClassDescriptor subCld : added) {
+                // Nasty - one truncated class can have priority over another, or even be a
+                // proper subset of another. We check this here, as not all subclasses of
+                // the table master are necessarily mapped onto the same table.
+                ClassDescriptor subsMaster = getTableMaster(subCld);
+                if ((subsMaster == cld) || isFlatMode(cld.getType())) {
+                    // This class does map onto this table. We need to look at all the
+                    // FieldDescriptors of this class, but we can give a small warning if this
+                    // results in fields from classes that are not a subclass of the table
+                    // master being included.
+                    for (FieldDescriptor field : subCld.getAllFieldDescriptors()) {
+                        if (field instanceof AttributeDescriptor) {
+                            AttributeDescriptor origField = attributeMap.get(field.getName());
+                            if (origField == null) {
+                                attributeMap.put(field.getName(), (AttributeDescriptor) field);
+                            } else if (origField != field) {
+                                String type = ((AttributeDescriptor) field).getType();
+                                String origType = origField.getType();
+                                if (!compatible(type, origType)) {
+                                    throw new ObjectStoreException("Fields "
+                                            + field.getClassDescriptor().getName() + "."
+                                            + field.getName() + " (a " + type + ") and "
+                                            + origField.getClassDescriptor().getName() + "."
+                                            + origField.getName() + " (a " + origType
+                                            + ") in truncated class " + cld.getName()
+                                            + " are of different types");
                                 }
-                            } else if (!field.isCollection()) {
-                                referenceMap.put(field.getName(), (ReferenceDescriptor) field);
-                            }
-                            // Now we check for our warning:
-                            if ((!added.contains(field.getClassDescriptor()))
-                                    && (!cld.getSuperDescriptors()
-                                        .contains(field.getClassDescriptor()))) {
-                                LOG.warn("Field included in truncated class "
-                                        + cld.getName() + " " + field.getClassDescriptor()
-                                        .getName() + "." + field.getName() + " is from"
-                                        + " outside the class. This may result in a table"
-                                        + " with lots of columns - consider changing the"
-                                        + " truncated class config");
                             }
+                        } else if (!field.isCollection()) {
+                            referenceMap.put(field.getName(), (ReferenceDescriptor) field);
+                        }
+                        // Now we check for our warning:
+                        if ((!added.contains(field.getClassDescriptor()))
+                                && (!cld.getSuperDescriptors()
+                                    .contains(field.getClassDescriptor()))) {
+                            LOG.warn("Field included in truncated class "
+                                    + cld.getName() + " " + field.getClassDescriptor()
+                                    .getName() + "." + field.getName() + " is from"
+                                    + " outside the class. This may result in a table"
+                                    + " with lots of columns - consider changing the"
+                                    + " truncated class config");
                         }
                     }
                 }
-                // At this point, we have a filled attributeMap and referenceMap with all the
-                // fields present. Now, we simply transfer that into a Set and return it.
-                retval = new Fields(new HashSet<AttributeDescriptor>(attributeMap.values()),
-                        new HashSet<ReferenceDescriptor>(referenceMap.values()));
-            } else {
-                Set<AttributeDescriptor> attributes = new HashSet<AttributeDescriptor>();
-                Set<ReferenceDescriptor> references = new HashSet<ReferenceDescriptor>();
-                for (FieldDescriptor f : cld.getAllFieldDescriptors()) {
-                    if (f instanceof AttributeDescriptor) {
-                        attributes.add((AttributeDescriptor) f);
-                    } else if (!f.isCollection()) {
-                        references.add((ReferenceDescriptor) f);
-                    }
+            }
+            // At this point, we have a filled attributeMap and referenceMap with all the
+            // fields present. Now, we simply transfer that into a Set and return it.
+            retval = new Fields(new HashSet<AttributeDescriptor>(attributeMap.values()),
+                    new HashSet<ReferenceDescriptor>(referenceMap.values()));
+        } else {
+            Set<AttributeDescriptor> attributes = new HashSet<AttributeDescriptor>();
+            Set<ReferenceDescriptor> references = new HashSet<ReferenceDescriptor>();
+            for (FieldDescriptor f : cld.getAllFieldDescriptors()) {
+                if (f instanceof AttributeDescriptor) {
+                    attributes.add((AttributeDescriptor) f);
+                } else if (!f.isCollection()) {
+                    references.add((ReferenceDescriptor) f);
                 }
-                retval = new Fields(attributes, references);
             }
-            tableMasterToFieldDescriptors.put(cld, retval);
+            retval = new Fields(attributes, references);
         }
         return retval;
     }
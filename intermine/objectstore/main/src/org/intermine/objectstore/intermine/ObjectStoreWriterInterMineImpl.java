@@ -21,7 +21,6 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -31,11 +30,9 @@ import java.util.Set;
 import java.util.WeakHashMap;
 
 import org.apache.log4j.Logger;
-import org.intermine.metadata.AttributeDescriptor;
 import org.intermine.metadata.ClassDescriptor;
 import org.intermine.metadata.CollectionDescriptor;
 import org.intermine.metadata.FieldDescriptor;
-import org.intermine.metadata.ReferenceDescriptor;
 import org.intermine.metadata.TypeUtil;
 import org.intermine.metadata.Util;
 import org.intermine.model.InterMineObject;
@@ -89,9 +86,8 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
     protected String createSituation;
     protected String closeSituation;
     protected Map<Integer, Boolean> recentSequences;
-    protected Map<String, TableInfo> tableToInfo;
+    protected Map<Class<?>, WritePlan> classToWritePlan;
     protected Map<String, String[]> tableToColNameArray;
-    protected Map<String, Set<CollectionDescriptor>> tableToCollections;
     protected String connectionTakenBy = null;
     protected Set<Object> tablesAltered = new HashSet<Object>();
 
@@ -146,9 +142,8 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         createSituation = (index < 0 ? createSituation : createSituation.substring(0, index));
         recentSequences = Collections.synchronizedMap(new WeakHashMap<Integer, Boolean>());
         batch = new Batch(new BatchWriterPostgresCopyImpl());
-        tableToInfo = new HashMap<String, TableInfo>();
+        classToWritePlan = Collections.synchronizedMap(new HashMap<Class<?>, WritePlan>());
         tableToColNameArray = new HashMap<String, String[]>();
-        tableToCollections = new HashMap<String, Set<CollectionDescriptor>>();
     }
 
     /**
@@ -602,149 +597,27 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
             boolean doDeletes = (o instanceof InterMineObject ? populateIds(c,
                         (InterMineObject) o) : false);
             writePendingClobs(c, o);
-            StringConstructor xml = null;
-            String objectClass = null;
-            Set<ClassDescriptor> classDescriptors = model.getClassDescriptorsForClass(o.getClass());
+            WritePlan plan = getWritePlan(o.getClass());
 
             if (doDeletes) {
-                for (ClassDescriptor cld : classDescriptors) {
-                    ClassDescriptor tableMaster = schema.getTableMaster(cld);
-                    String tableName = DatabaseUtil.getTableName(tableMaster);
-                    if (!schema.getMissingTables().contains(tableName.toLowerCase())) {
-                        batch.deleteRow(c, tableName, "id", ((InterMineObject) o).getId());
-                        tablesAltered.add(tableName);
-                    }
-                }
-            }
-            int tablesWritten = 0;
-            Set<String> validFieldNames = new HashSet<String>();
-            for (Map.Entry<String, TypeUtil.FieldInfo> entry : TypeUtil.getFieldInfos(o.getClass())
-                    .entrySet()) {
-                String fieldName = entry.getKey();
-                TypeUtil.FieldInfo fieldInfo = entry.getValue();
-                if (!Collection.class.isAssignableFrom(fieldInfo.getType())) {
-                    validFieldNames.add(fieldName);
+                for (String tableName : plan.getDeleteTables()) {
+                    batch.deleteRow(c, tableName, "id", ((InterMineObject) o).getId());
+                    tablesAltered.add(tableName);
                 }
             }
-            for (ClassDescriptor cld : classDescriptors) {
-                ClassDescriptor tableMaster = schema.getTableMaster(cld);
-                TableInfo tableInfo = getTableInfo(tableMaster);
-                Set<CollectionDescriptor> collections = tableToCollections.get(cld.getName());
-                if (collections == null) {
-                    LOG.info("Generating cached metadata for ClassDescriptor " + cld.getName());
-                    collections = new HashSet<CollectionDescriptor>();
-                    for (FieldDescriptor field : cld.getAllFieldDescriptors()) {
-                        if (field instanceof CollectionDescriptor) {
-                            collections.add((CollectionDescriptor) field);
-                        }
-                    }
-                    tableToCollections.put(cld.getName(), collections);
-                }
-
-                if (!schema.getMissingTables().contains(tableInfo.tableName.toLowerCase())) {
-                    tablesWritten++;
-                    if (schema.isFlatMode(cld.getType()) && (!schema.isTruncated(schema
-                                    .getTableMaster(cld)))
-                            && (!(cld.getType().equals(o.getClass())))) {
-                        Set<Class<?>> decomposed = Util.decomposeClass(o.getClass());
-                        if (!((decomposed.size() == 1) && cld.getType().equals(decomposed.iterator()
-                                        .next()))) {
-                            throw new ObjectStoreException("Non-flat model heirarchy used in flat "
-                                    + "mode. Cannot store object with classes = " + decomposed);
-                        }
-                    }
-                    Object[] values = new Object[tableInfo.colNames.length];
-                    Set<String> fieldNamesWritten = new HashSet<String>();
-                    for (int colNo = 0; colNo < tableInfo.colNames.length; colNo++) {
-                        Object value = null;
-                        if ("tableclass".equals(tableInfo.colNames[colNo])) {
-                            value = cld.getName();
-                        } else if ("class".equals(tableInfo.colNames[colNo])) {
-                            if (objectClass == null) {
-                                StringBuffer sb = new StringBuffer();
-                                boolean needComma = false;
-                                for (Class<?> objectClazz : Util.decomposeClass(o
-                                        .getClass())) {
-                                    if (needComma) {
-                                        sb.append(" ");
-                                    }
-                                    needComma = true;
-                                    sb.append(objectClazz.getName());
-                                }
-                                objectClass = sb.toString();
-                            }
-                            value = objectClass;
-                        } else if ("OBJECT".equals(tableInfo.colNames[colNo])) {
-                            if (xml == null) {
-                                if (o instanceof InterMineObject) {
-                                    xml = ((InterMineObject) o).getoBJECT();
-                                } else {
-                                    xml = NotXmlRenderer.render(o);
-                                }
-                            }
-                            value = xml;
-                        } else if (validFieldNames.contains(tableInfo.fieldNames[colNo])) {
-                            if (o instanceof InterMineObject) {
-                                value = ((InterMineObject) o).getFieldProxy(tableInfo
-                                        .fieldNames[colNo]);
-                            } else {
-                                value = TypeUtil.getFieldProxy(o, tableInfo.fieldNames[colNo]);
-                            }
-                            if (value instanceof Date) {
-                                value = new Long(((Date) value).getTime());
-                            }
-                            if (value instanceof ClobAccess) {
-                                value = ((ClobAccess) value).getDbDescription();
-                            }
-                            if ((value instanceof InterMineObject)
-                                    && (colNo >= tableInfo.referencesFrom)) {
-                                value = ((InterMineObject) value).getId();
-                            } else if ((value instanceof InterMineObject)
-                                    || (colNo >= tableInfo.referencesFrom)) {
-                                value = null;
-                            }
-                            fieldNamesWritten.add(tableInfo.fieldNames[colNo]);
-                        } else {
-                            FieldDescriptor fieldDescriptor = tableInfo.fields[colNo];
-                            if (fieldDescriptor instanceof AttributeDescriptor) {
-                                String fieldType = ((AttributeDescriptor) fieldDescriptor)
-                                    .getType();
-                                if ("boolean".equals(fieldType)) {
-                                    value = Boolean.FALSE;
-                                } else if ("short".equals(fieldType)) {
-                                    value = new Short((short) 0);
-                                } else if ("int".equals(fieldType)) {
-                                    value = new Integer(0);
-                                } else if ("long".equals(fieldType)) {
-                                    value = new Long(0L);
-                                } else if ("float".equals(fieldType)) {
-                                    value = new Float(0.0F);
-                                } else if ("double".equals(fieldType)) {
-                                    value = new Double(0.0);
-                                }
-                            }
-                        }
-                        values[colNo] = value;
-                    }
-                    if (schema.isFlatMode(cld.getType())) {
-                        for (String validFieldName : validFieldNames) {
-                            if (!fieldNamesWritten.contains(validFieldName)) {
-                                Set<Class<?>> decomposed = Util.decomposeClass(o.getClass());
-                                throw new ObjectStoreException("Cannot store object " + decomposed
-                                        + " - no column for field " + validFieldName + " in table "
-                                        + tableInfo.tableName);
-                            }
-                        }
-                    }
-                    batch.addRow(c, tableInfo.tableName, (o instanceof InterMineObject
-                                ? ((InterMineObject) o).getId() : null), tableInfo.colNames,
+            StringConstructor xml = plan.getObjectXml(o);
+            for (WritePlan.TablePlan table : plan.getTables()) {
+                if (table.getTableName() != null) {
+                    Object[] values = table.getValues(o, xml);
+                    batch.addRow(c, table.getTableName(), (o instanceof InterMineObject
+                                ? ((InterMineObject) o).getId() : null), table.getColNames(),
                             values);
-                    tablesAltered.add(tableInfo.tableName);
+                    tablesAltered.add(table.getTableName());
                 }
 
-                writeCollections(c, o, collections);
+                writeCollections(c, o, table.getCollections());
             }
-            if (tablesWritten < 1) {
+            if (plan.getTablesWritten() < 1) {
                 throw new ObjectStoreException("Object " + Util.decomposeClass(o.getClass())
                         + " does not map onto any database table.");
             }
@@ -783,7 +656,7 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         }
     }
 
-    private void writeCollections(Connection c, Object o, Set<CollectionDescriptor> collections)
+    private void writeCollections(Connection c, Object o, CollectionDescriptor[] collections)
         throws IllegalAccessException, SQLException {
         for (CollectionDescriptor collection : collections) {
             @SuppressWarnings("unchecked") Collection<InterMineObject> coll
@@ -913,68 +786,17 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
     }
 
     /**
-     * Produces metadata for a given table, caching it to save time.
+     * Produces the plan for writing objects of a given class, caching it to save time.
      *
-     * @param tableMaster the ClassDescriptor describing the table
-     * @return a TableInfo object
+     * @param clazz the class of the objects
+     * @return a WritePlan
      * @throws ObjectStoreException if something goes wrong
      */
-    protected TableInfo getTableInfo(ClassDescriptor tableMaster)
-        throws ObjectStoreException {
-        String tableName = DatabaseUtil.getTableName(tableMaster);
-        TableInfo retval = tableToInfo.get(tableName);
+    protected WritePlan getWritePlan(Class<?> clazz) throws ObjectStoreException {
+        WritePlan retval = classToWritePlan.get(clazz);
         if (retval == null) {
-            retval = new TableInfo();
-            retval.tableName = tableName;
-            LOG.info("Generating cached metadata for table " + tableName);
-            DatabaseSchema.Fields allColumns = schema.getTableFields(tableMaster);
-            int colCount = allColumns.getAttributes().size() + allColumns.getReferences().size();
-            boolean isTruncated = schema.isTruncated(tableMaster);
-            boolean hasObject = "InterMineObject".equals(tableName) || (!(schema.isMissingNotXml()
-                        || schema.isFlatMode(tableMaster.getType())));
-            if (isTruncated) {
-                colCount += 2;
-            } else {
-                if (!schema.isFlatMode(tableMaster.getType())) {
-                    colCount++;
-                }
-            }
-            if (hasObject) {
-                colCount++;
-            }
-            retval.colNames = new String[colCount];
-            retval.fieldNames = new String[colCount];
-            retval.fields = new FieldDescriptor[colCount];
-            int colNo = 0;
-            if (hasObject) {
-                retval.colNames[colNo] = "OBJECT";
-                colNo++;
-            }
-            if (isTruncated) {
-                retval.colNames[colNo] = "class";
-                colNo++;
-                retval.colNames[colNo] = "tableclass";
-                colNo++;
-            } else {
-                if (!schema.isFlatMode(tableMaster.getType())) {
-                    retval.colNames[colNo] = "class";
-                    colNo++;
-                }
-            }
-            for (AttributeDescriptor field : allColumns.getAttributes()) {
-                retval.colNames[colNo] = DatabaseUtil.getColumnName(field);
-                retval.fieldNames[colNo] = field.getName();
-                retval.fields[colNo] = field;
-                colNo++;
-            }
-            retval.referencesFrom = colNo;
-            for (ReferenceDescriptor field : allColumns.getReferences()) {
-                retval.colNames[colNo] = DatabaseUtil.getColumnName(field);
-                retval.fieldNames[colNo] = field.getName();
-                retval.fields[colNo] = field;
-                colNo++;
-            }
-            tableToInfo.put(tableName, retval);
+            retval = WritePlan.compile(schema, clazz, tableToColNameArray);
+            classToWritePlan.put(clazz, retval);
         }
         return retval;
     }
@@ -1310,6 +1132,64 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void writeClobPage(Clob clob, int page, String text) throws ObjectStoreException {
+        if (text.length() > CLOB_PAGE_SIZE) {
+            throw new IllegalArgumentException("Clob page " + page + " is longer than "
+                    + CLOB_PAGE_SIZE + " characters");
+        }
+        try {
+            Connection c = null;
+            try {
+                c = getConnection();
+                writeClobPageWithConnection(c, clob, page, text);
+            } finally {
+                releaseConnection(c);
+            }
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Could not get connection to database", e);
+        }
+    }
+
+    /**
+     * Writes one page of the given Clob.
+     *
+     * @param c a Connection
+     * @param clob the Clob to write to
+     * @param page the number of the page
+     * @param text the text of the page
+     * @throws ObjectStoreException if something goes wrong
+     */
+    public void writeClobPageWithConnection(Connection c, Clob clob, int page, String text)
+        throws ObjectStoreException {
+        boolean wasInTransaction = isInTransactionWithConnection(c);
+        if (!wasInTransaction) {
+            beginTransactionWithConnection(c);
+        }
+
+        try {
+            Integer clobId = new Integer(clob.getClobId());
+            batch.addRow(c, CLOB_TABLE_NAME, clobId, CLOB_COLUMNS, new Object[] {clobId,
+                new Integer(page), text});
+            tablesAltered.add(clob);
+            tablesAltered.add(CLOB_TABLE_NAME);
+        } catch (SQLException e) {
+            throw new ObjectStoreException("Error writing clob page", e);
+        } finally {
+            if (!wasInTransaction) {
+                try {
+                    commitTransactionWithConnection(c);
+                } catch (ObjectStoreException e) {
+                    abortTransactionWithConnection(c);
+                    throw e;
+                }
+            }
+        }
+    }
+
     /**
      * Replaces the contents of the given Clob with the given String.
      *
@@ -1791,15 +1671,6 @@ public class ObjectStoreWriterInterMineImpl extends ObjectStoreInterMineImpl
         return retval;
     }
 
-    private static class TableInfo
-    {
-        String tableName;
-        String[] colNames;
-        String[] fieldNames;
-        FieldDescriptor[] fields;
-        int referencesFrom;
-    }
-
     /**
      * {@inheritDoc}
      */
@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -39,6 +40,11 @@ public class ParallelPrecomputer
     private int threadCount;
     private ObjectStoreInterMineImpl os;
     private int minRows = -1;
+    private boolean failFast = true;
+    private Map<String, Long> jobTimes = Collections.synchronizedMap(
+            new LinkedHashMap<String, Long>());
+    private Map<String, Exception> failedJobs = Collections.synchronizedMap(
+            new LinkedHashMap<String, Exception>());
 
     /**
      * Constructor.
@@ -60,6 +66,40 @@ public class ParallelPrecomputer
         this.minRows = minRows;
     }
 
+    /**
+     * Set whether a failing job aborts the whole run.  If false, the exception is recorded
+     * against the job key (see getFailedJobs()) and the remaining jobs are still executed, so
+     * that a later run only needs to redo the jobs that failed.  Defaults to true.
+     *
+     * @param failFast false to carry on after a job fails
+     */
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    /**
+     * Returns the time taken by each job that has finished, in milliseconds, in order of
+     * completion.
+     *
+     * @return a Map from job key to elapsed time
+     */
+    public Map<String, Long> getJobTimes() {
+        synchronized (jobTimes) {
+            return new LinkedHashMap<String, Long>(jobTimes);
+        }
+    }
+
+    /**
+     * Returns the jobs that failed, when failFast is false.
+     *
+     * @return a Map from job key to the exception thrown by the job
+     */
+    public Map<String, Exception> getFailedJobs() {
+        synchronized (failedJobs) {
+            return new LinkedHashMap<String, Exception>(failedJobs);
+        }
+    }
+
     /**
      * Returns the ObjectStore that this ParallelPrecomputer uses.
      *
@@ -137,7 +177,9 @@ public class ParallelPrecomputer
     }
 
     /**
-     * Class representing a precomputing job to be performed.
+     * Class representing a precomputing job to be performed.  Subclasses may override
+     * execute() to run some other operation on the query (for example a summary query), and
+     * still benefit from the ordering by expected time and the shared pool of threads.
      *
      * @author Matthew Wakeling
      */
@@ -197,7 +239,8 @@ public class ParallelPrecomputer
          * @param threadNo the number of the thread performing the operation, for logging
          * @throws ObjectStoreException if something goes wrong
          */
-        private void execute(ParallelPrecomputer pp, int threadNo) throws ObjectStoreException {
+        protected void execute(ParallelPrecomputer pp, int threadNo)
+            throws ObjectStoreException {
             LOG.info("Job with key " + key + " has expected time " + info.getComplete());
             pp.precomputeQuery(key, query, indexes, allFields, category, threadNo);
         }
@@ -207,10 +250,19 @@ public class ParallelPrecomputer
          *
          * @return a String
          */
-        private String getKey() {
+        public String getKey() {
             return key;
         }
 
+        /**
+         * Returns the query of this job.
+         *
+         * @return a Query
+         */
+        public Query getQuery() {
+            return query;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -273,7 +325,24 @@ public class ParallelPrecomputer
      * @throws ObjectStoreException if the query cannot be precomputed
      */
     private void executeJob(Job job, int threadNo) throws ObjectStoreException {
-        job.execute(this, threadNo);
+        long start = System.currentTimeMillis();
+        try {
+            job.execute(this, threadNo);
+        } catch (ObjectStoreException e) {
+            if (failFast) {
+                throw e;
+            }
+            LOG.warn("Job " + job.getKey() + " failed, carrying on with the remaining jobs", e);
+            failedJobs.put(job.getKey(), e);
+        } catch (RuntimeException e) {
+            if (failFast) {
+                throw e;
+            }
+            LOG.warn("Job " + job.getKey() + " failed, carrying on with the remaining jobs", e);
+            failedJobs.put(job.getKey(), e);
+        } finally {
+            jobTimes.put(job.getKey(), new Long(System.currentTimeMillis() - start));
+        }
     }
 
     /**
@@ -0,0 +1,343 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.iql.IqlQuery;
+
+/**
+ * A cache of generated SQL for one DatabaseSchema, that many threads can use at once.
+ *
+ * SQL is cached against a fingerprint of the query, rather than the Query object itself, so that
+ * equal queries built afresh for each request share an entry, and later changes to a Query cannot
+ * make its entry wrong.  When several threads ask for the SQL of the same query at once, one
+ * generates it and the others wait for the result.  The cache is bounded both by the number of
+ * entries and by their total weight, the number of characters in the fingerprints and SQL
+ * strings.  When either bound is passed, entries are evicted in the order they were added, except
+ * that an entry that has been used since it was last considered is given a second chance.
+ *
+ * The cache also holds the SQL registered for large offsets of particular Query objects - see
+ * SqlGenerator.registerOffset.
+ *
+ * @author chenyian
+ */
+public class SqlCache
+{
+    /** The number of entries held, unless another is given. **/
+    public static final int DEFAULT_MAX_ENTRIES = 5000;
+    /** The total weight of the entries held, unless another is given. **/
+    public static final long DEFAULT_MAX_WEIGHT = 16L * 1024 * 1024;
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentLinkedQueue<Entry> evictionQueue = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicLong weight = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final Map<Query, OffsetEntry> offsets
+        = Collections.synchronizedMap(new WeakHashMap<Query, OffsetEntry>());
+
+    /**
+     * Constructs a cache with the default bounds.
+     */
+    public SqlCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT);
+    }
+
+    /**
+     * Constructs a cache.
+     *
+     * @param maxEntries the number of entries to hold
+     * @param maxWeight the total number of characters in the entries to hold
+     */
+    public SqlCache(int maxEntries, long maxWeight) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Returns a fingerprint of a query, which is equal for queries that generate the same SQL.
+     * The fingerprint is made from IQL worked out afresh for the query and its subqueries, rather
+     * than taken from the IQL cached in them, which does not notice changes to constraints that
+     * are already in a query.  String values are left out of the IQL and written after it with
+     * the other parameters, so that a value cannot be mistaken for part of the query.
+     *
+     * @param q the Query
+     * @return a String
+     */
+    public static String fingerprint(Query q) {
+        IqlQuery iql = IqlQuery.forKey(q);
+        StringBuilder retval = new StringBuilder(iql.getQueryString());
+        for (Object parameter : iql.getParameters()) {
+            retval.append(" ");
+            appendParameter(retval, parameter);
+        }
+        return retval.toString();
+    }
+
+    // Values are written with their length, and collections with their size, so that no value can
+    // be mistaken for the separators around it.
+    private static void appendParameter(StringBuilder sb, Object parameter) {
+        if (parameter instanceof Collection<?>) {
+            Collection<?> collection = (Collection<?>) parameter;
+            sb.append("[").append(collection.size()).append(":");
+            boolean needComma = false;
+            for (Object element : collection) {
+                if (needComma) {
+                    sb.append(",");
+                }
+                needComma = true;
+                appendParameter(sb, element);
+            }
+            sb.append("]");
+        } else if (parameter instanceof InterMineObject) {
+            sb.append(parameter.getClass().getName()).append(":")
+                .append(((InterMineObject) parameter).getId());
+        } else if (parameter == null) {
+            sb.append("null");
+        } else {
+            String value = parameter.toString();
+            sb.append(parameter.getClass().getName()).append(":").append(value.length())
+                .append(":").append(value);
+        }
+    }
+
+    /**
+     * Returns the SQL for a query fingerprint, generating it if it is not in the cache.  If
+     * another thread is already generating the SQL for the same fingerprint, this waits for it to
+     * finish instead.
+     *
+     * @param key the fingerprint of the query
+     * @param generator a Callable that generates the SQL
+     * @return the SQL
+     * @throws ObjectStoreException if the SQL cannot be generated
+     */
+    public String get(String key, Callable<String> generator) throws ObjectStoreException {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            Entry created = new Entry(key, new FutureTask<String>(generator));
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) {
+                misses.incrementAndGet();
+                created.task.run();
+                String sql = getResult(created);
+                created.weight = key.length() + sql.length();
+                weight.addAndGet(created.weight);
+                evictionQueue.add(created);
+                evict();
+                return sql;
+            }
+        }
+        hits.incrementAndGet();
+        entry.used = true;
+        return getResult(entry);
+    }
+
+    private String getResult(Entry entry) throws ObjectStoreException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return entry.task.get();
+                } catch (InterruptedException e) {
+                    // The generation belongs to another thread, and will finish regardless
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            // Let the next caller try again
+            entries.remove(entry.key, entry);
+            Throwable cause = e.getCause();
+            if (cause instanceof ObjectStoreException) {
+                throw (ObjectStoreException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ObjectStoreException("Error generating SQL", cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void evict() {
+        // Every entry gets at most one second chance on each pass
+        int budget = 2 * evictionQueue.size();
+        while (((entries.size() > maxEntries) || (weight.get() > maxWeight)) && (budget-- > 0)) {
+            Entry entry = evictionQueue.poll();
+            if (entry == null) {
+                return;
+            }
+            if (entry.used) {
+                entry.used = false;
+                evictionQueue.add(entry);
+            } else {
+                if (entries.remove(entry.key, entry)) {
+                    weight.addAndGet(-entry.weight);
+                    evictions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    public void clear() {
+        Entry entry;
+        while ((entry = evictionQueue.poll()) != null) {
+            if (entries.remove(entry.key, entry)) {
+                weight.addAndGet(-entry.weight);
+            }
+        }
+        offsets.clear();
+    }
+
+    /**
+     * Returns the number of times SQL was found in the cache.
+     *
+     * @return a long
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of times SQL had to be generated.
+     *
+     * @return a long
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of entries evicted to keep the cache within its bounds.
+     *
+     * @return a long
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of entries in the cache.
+     *
+     * @return an int
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the total weight of the entries in the cache.
+     *
+     * @return a long
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * Returns the SQL registered for large offsets of a Query.
+     *
+     * @param q the Query
+     * @return an OffsetEntry, or null if there is none
+     */
+    OffsetEntry getOffsetEntry(Query q) {
+        return offsets.get(q);
+    }
+
+    /**
+     * Registers SQL for large offsets of a Query.
+     *
+     * @param q the Query
+     * @param entry an OffsetEntry
+     */
+    void putOffsetEntry(Query q, OffsetEntry entry) {
+        offsets.put(q, entry);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "SqlCache(" + size() + " entries, " + getWeight() + " characters, " + getHits()
+            + " hits, " + getMisses() + " misses, " + getEvictions() + " evictions)";
+    }
+
+    private static class Entry
+    {
+        private final String key;
+        private final FutureTask<String> task;
+        private long weight = 0;
+        private volatile boolean used = false;
+
+        public Entry(String key, FutureTask<String> task) {
+            this.key = key;
+            this.task = task;
+        }
+    }
+
+    /**
+     * The SQL registered for large offsets of one Query.  Access to it must be synchronised on
+     * the Query.
+     */
+    static class OffsetEntry
+    {
+        private TreeMap<Integer, String> cached = new TreeMap<Integer, String>();
+        private int lastOffset;
+        private String lastSQL;
+
+        public OffsetEntry(int lastOffset, String lastSQL) {
+            this.lastOffset = lastOffset;
+            this.lastSQL = lastSQL;
+        }
+
+        public TreeMap<Integer, String> getCached() {
+            return cached;
+        }
+
+        public void setLast(int lastOffset, String lastSQL) {
+            this.lastOffset = lastOffset;
+            this.lastSQL = lastSQL;
+        }
+
+        public int getLastOffset() {
+            return lastOffset;
+        }
+
+        public String getLastSQL() {
+            return lastSQL;
+        }
+    }
+}
@@ -36,6 +36,7 @@ import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
 
 import org.apache.log4j.Logger;
 import org.apache.torque.engine.database.model.Domain;
@@ -131,8 +132,6 @@ public final class SqlGenerator
     /** subquery only for counting. SELECT COUNT(*) AS ... FROM (subquery) **/
     public static final int QUERY_FOR_COUNTING = 7;
 
-    protected static Map<DatabaseSchema, Map<Query, CacheEntry>> sqlCache
-        = new WeakHashMap<DatabaseSchema, Map<Query, CacheEntry>>();
     protected static Map<DatabaseSchema, Map<Query, Set<Object>>> tablenamesCache
         = new WeakHashMap<DatabaseSchema, Map<Query, Set<Object>>>();
 
@@ -231,8 +230,7 @@ public final class SqlGenerator
                 return;
             }
             synchronized (q) {
-                Map<Query, CacheEntry> schemaCache = getCacheForSchema(schema);
-                CacheEntry cacheEntry = schemaCache.get(q);
+                SqlCache.OffsetEntry cacheEntry = schema.getSqlCache().getOffsetEntry(q);
                 if (cacheEntry != null) {
                     if ((cacheEntry.getLastOffset() - start >= 100000)
                             || (start - cacheEntry.getLastOffset() >= 10000)) {
@@ -270,8 +268,8 @@ public final class SqlGenerator
                 Constraint offsetConstraint = getOffsetConstraint(q, firstOrderByO, value, schema);
                 String sql = generate(q, schema, db, offsetConstraint, QUERY_NORMAL, bagTableNames);
                 if (cacheEntry == null) {
-                    cacheEntry = new CacheEntry(start, sql);
-                    schemaCache.put(q, cacheEntry);
+                    cacheEntry = new SqlCache.OffsetEntry(start, sql);
+                    schema.getSqlCache().putOffsetEntry(q, cacheEntry);
                 }
                 cacheEntry.getCached().put(new Integer(start), sql);
                 //LOG.info("Created cache entry for offset " + start + " (cache contains "
@@ -378,8 +376,7 @@ public final class SqlGenerator
                     + start + " AND " + CLOBPAGE_COLUMN + " < " + (start + limit) + " ORDER BY "
                     + CLOBPAGE_COLUMN;
             }
-            Map<Query, CacheEntry> schemaCache = getCacheForSchema(schema);
-            CacheEntry cacheEntry = schemaCache.get(q);
+            SqlCache.OffsetEntry cacheEntry = schema.getSqlCache().getOffsetEntry(q);
             if (cacheEntry != null) {
                 SortedMap<Integer, String> headMap = cacheEntry.getCached()
                     .headMap(new Integer(start + 1));
@@ -404,35 +401,19 @@ public final class SqlGenerator
                     }
                 }
             }
-            String sql = generate(q, schema, db, null, QUERY_NORMAL, bagTableNames);
-            /*if (cached == null) {
-                cached = new TreeMap();
-                schemaCache.put(q, cached);
+            String sql;
+            if ((bagTableNames == null) || bagTableNames.isEmpty()) {
+                sql = schema.getSqlCache().get(SqlCache.fingerprint(q),
+                        new SqlGeneration(q, schema, db, bagTableNames));
+            } else {
+                // The names of the bag tables are different every time
+                sql = generate(q, schema, db, null, QUERY_NORMAL, bagTableNames);
             }
-            cached.put(new Integer(0), sql);
-            */
             return sql + ((limit == Integer.MAX_VALUE ? "" : " LIMIT " + limit)
                         + (start == 0 ? "" : " OFFSET " + start));
         }
     }
 
-    /**
-     * Returns a cache specific to a particular DatabaseSchema.
-     *
-     * @param schema the DatabaseSchema
-     * @return a Map
-     */
-    private static Map<Query, CacheEntry> getCacheForSchema(DatabaseSchema schema) {
-        synchronized (sqlCache) {
-            Map<Query, CacheEntry> retval = sqlCache.get(schema);
-            if (retval == null) {
-                retval = Collections.synchronizedMap(new WeakHashMap<Query, CacheEntry>());
-                sqlCache.put(schema, retval);
-            }
-            return retval;
-        }
-    }
-
     /**
      * Converts a Query object into an SQL String.
      *
@@ -2855,32 +2836,27 @@ public final class SqlGenerator
         }
     }
 
-    private static class CacheEntry
+    /**
+     * Generates the SQL for a query without an offset constraint, for the SqlCache.
+     */
+    private static class SqlGeneration implements Callable<String>
     {
-        private TreeMap<Integer, String> cached = new TreeMap<Integer, String>();
-        private int lastOffset;
-        private String lastSQL;
-
-        public CacheEntry(int lastOffset, String lastSQL) {
-            this.lastOffset = lastOffset;
-            this.lastSQL = lastSQL;
-        }
-
-        public TreeMap<Integer, String> getCached() {
-            return cached;
-        }
-
-        public void setLast(int lastOffset, String lastSQL) {
-            this.lastOffset = lastOffset;
-            this.lastSQL = lastSQL;
-        }
+        private Query q;
+        private DatabaseSchema schema;
+        private Database db;
+        private Map<Object, String> bagTableNames;
 
-        public int getLastOffset() {
-            return lastOffset;
+        public SqlGeneration(Query q, DatabaseSchema schema, Database db,
+                Map<Object, String> bagTableNames) {
+            this.q = q;
+            this.schema = schema;
+            this.db = db;
+            this.bagTableNames = bagTableNames;
         }
 
-        public String getLastSQL() {
-            return lastSQL;
+        @Override
+        public String call() throws ObjectStoreException {
+            return generate(q, schema, db, null, QUERY_NORMAL, bagTableNames);
         }
     }
 
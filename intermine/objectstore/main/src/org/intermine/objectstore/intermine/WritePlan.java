@@ -0,0 +1,424 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.Util;
+import org.intermine.model.FastPathObject;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.StringConstructor;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.ClobAccess;
+import org.intermine.sql.DatabaseUtil;
+
+/**
+ * Describes how objects of one class are written to the database.  A plan is compiled the first
+ * time an object of the class is stored, and holds everything about the class that does not
+ * depend on the object itself: the tables to delete from and write to, the columns of each table
+ * and where their values come from, and the collections to write.  Storing an object then only
+ * needs to read the fields that have columns.
+ *
+ * @author chenyian
+ */
+public final class WritePlan
+{
+    private static final Logger LOG = Logger.getLogger(WritePlan.class);
+
+    /** The column holds the serialised object. **/
+    static final int OBJECT = 0;
+    /** The column holds the same value for every object of the class. **/
+    static final int CONSTANT = 1;
+    /** The column holds the value of an attribute. **/
+    static final int ATTRIBUTE = 2;
+    /** The column holds the id of a referenced object. **/
+    static final int REFERENCE = 3;
+
+    private final Class<?> clazz;
+    private final String[] deleteTables;
+    private final TablePlan[] tables;
+    private final boolean hasObjectColumn;
+    private final int tablesWritten;
+
+    private WritePlan(Class<?> clazz, String[] deleteTables, TablePlan[] tables) {
+        this.clazz = clazz;
+        this.deleteTables = deleteTables;
+        this.tables = tables;
+        boolean hasObject = false;
+        int written = 0;
+        for (TablePlan table : tables) {
+            if (table.tableName != null) {
+                written++;
+                for (int kind : table.kinds) {
+                    hasObject = hasObject || (kind == OBJECT);
+                }
+            }
+        }
+        this.hasObjectColumn = hasObject;
+        this.tablesWritten = written;
+    }
+
+    /**
+     * Compiles the plan for writing objects of a class.
+     *
+     * @param schema the DatabaseSchema of the objectstore
+     * @param clazz the class of the objects, which may be a dynamic class
+     * @return a WritePlan
+     * @throws ObjectStoreException if the schema cannot describe the tables
+     */
+    public static WritePlan compile(DatabaseSchema schema, Class<?> clazz)
+        throws ObjectStoreException {
+        return compile(schema, clazz, new HashMap<String, String[]>());
+    }
+
+    /**
+     * Compiles the plan for writing objects of a class, sharing one array of column names
+     * between all the plans that write to a table.  The batch writer compares column names by
+     * reference, so plans for classes stored in the same table should be compiled with the same
+     * map.
+     *
+     * @param schema the DatabaseSchema of the objectstore
+     * @param clazz the class of the objects, which may be a dynamic class
+     * @param colNameArrays a Map from table name to the array of column names for the table,
+     * which is added to as tables are seen
+     * @return a WritePlan
+     * @throws ObjectStoreException if the schema cannot describe the tables
+     */
+    public static WritePlan compile(DatabaseSchema schema, Class<?> clazz,
+            Map<String, String[]> colNameArrays) throws ObjectStoreException {
+        LOG.info("Generating write plan for " + clazz.getName());
+        Set<String> validFieldNames = new HashSet<String>();
+        for (Map.Entry<String, TypeUtil.FieldInfo> entry : TypeUtil.getFieldInfos(clazz)
+                .entrySet()) {
+            if (!Collection.class.isAssignableFrom(entry.getValue().getType())) {
+                validFieldNames.add(entry.getKey());
+            }
+        }
+        Set<Class<?>> decomposed = Util.decomposeClass(clazz);
+        StringBuffer sb = new StringBuffer();
+        boolean needComma = false;
+        for (Class<?> objectClazz : decomposed) {
+            if (needComma) {
+                sb.append(" ");
+            }
+            needComma = true;
+            sb.append(objectClazz.getName());
+        }
+        String objectClass = sb.toString();
+
+        List<String> deleteTables = new ArrayList<String>();
+        List<TablePlan> tables = new ArrayList<TablePlan>();
+        for (ClassDescriptor cld : schema.getModel().getClassDescriptorsForClass(clazz)) {
+            ClassDescriptor tableMaster = schema.getTableMaster(cld);
+            String tableName = DatabaseUtil.getTableName(tableMaster);
+            boolean missing = schema.getMissingTables().contains(tableName.toLowerCase());
+            if (!missing) {
+                deleteTables.add(tableName);
+            }
+            List<CollectionDescriptor> collections = new ArrayList<CollectionDescriptor>();
+            for (FieldDescriptor field : cld.getAllFieldDescriptors()) {
+                if (field instanceof CollectionDescriptor) {
+                    collections.add((CollectionDescriptor) field);
+                }
+            }
+            TablePlan table = new TablePlan(collections.toArray(
+                        new CollectionDescriptor[collections.size()]));
+            if (!missing) {
+                table.tableName = tableName;
+                compileColumns(schema, cld, tableMaster, table, clazz, validFieldNames,
+                        objectClass);
+                String[] colNames = colNameArrays.get(tableName);
+                if (colNames != null && Arrays.equals(colNames, table.colNames)) {
+                    table.colNames = colNames;
+                } else {
+                    colNameArrays.put(tableName, table.colNames);
+                }
+                if (schema.isFlatMode(cld.getType()) && (!schema.isTruncated(tableMaster))
+                        && (!(cld.getType().equals(clazz)))
+                        && (!((decomposed.size() == 1)
+                                && cld.getType().equals(decomposed.iterator().next())))) {
+                    table.error = "Non-flat model heirarchy used in flat mode. Cannot store "
+                        + "object with classes = " + decomposed;
+                }
+            }
+            tables.add(table);
+        }
+        return new WritePlan(clazz, deleteTables.toArray(new String[deleteTables.size()]),
+                tables.toArray(new TablePlan[tables.size()]));
+    }
+
+    private static void compileColumns(DatabaseSchema schema, ClassDescriptor cld,
+            ClassDescriptor tableMaster, TablePlan table, Class<?> clazz,
+            Set<String> validFieldNames, String objectClass) throws ObjectStoreException {
+        DatabaseSchema.Fields allColumns = schema.getTableFields(tableMaster);
+        boolean isTruncated = schema.isTruncated(tableMaster);
+        boolean isFlat = schema.isFlatMode(tableMaster.getType());
+        boolean hasObject = "InterMineObject".equals(table.tableName)
+            || (!(schema.isMissingNotXml() || isFlat));
+        int colCount = allColumns.getAttributes().size() + allColumns.getReferences().size()
+            + (hasObject ? 1 : 0) + (isTruncated ? 2 : (isFlat ? 0 : 1));
+        table.colNames = new String[colCount];
+        table.kinds = new int[colCount];
+        table.fieldNames = new String[colCount];
+        table.getters = new Method[colCount];
+        table.constants = new Object[colCount];
+        int colNo = 0;
+        if (hasObject) {
+            table.colNames[colNo] = "OBJECT";
+            table.kinds[colNo] = OBJECT;
+            colNo++;
+        }
+        if (isTruncated || !isFlat) {
+            table.colNames[colNo] = "class";
+            table.kinds[colNo] = CONSTANT;
+            table.constants[colNo] = objectClass;
+            colNo++;
+        }
+        if (isTruncated) {
+            table.colNames[colNo] = "tableclass";
+            table.kinds[colNo] = CONSTANT;
+            table.constants[colNo] = cld.getName();
+            colNo++;
+        }
+        Set<String> fieldNamesWritten = new HashSet<String>();
+        List<FieldDescriptor> fields = new ArrayList<FieldDescriptor>();
+        fields.addAll(allColumns.getAttributes());
+        fields.addAll(allColumns.getReferences());
+        for (FieldDescriptor field : fields) {
+            table.colNames[colNo] = DatabaseUtil.getColumnName(field);
+            if (validFieldNames.contains(field.getName())) {
+                table.kinds[colNo] = (field instanceof ReferenceDescriptor ? REFERENCE
+                        : ATTRIBUTE);
+                table.fieldNames[colNo] = field.getName();
+                if (!FastPathObject.class.isAssignableFrom(clazz)) {
+                    table.getters[colNo] = getProxyGetter(clazz, field.getName());
+                }
+                fieldNamesWritten.add(field.getName());
+            } else {
+                // A column for a field that this class does not have
+                table.kinds[colNo] = CONSTANT;
+                if (field instanceof AttributeDescriptor) {
+                    table.constants[colNo] = defaultValue(((AttributeDescriptor) field)
+                            .getType());
+                }
+            }
+            colNo++;
+        }
+        if (schema.isFlatMode(cld.getType())) {
+            for (String validFieldName : validFieldNames) {
+                if (!fieldNamesWritten.contains(validFieldName)) {
+                    table.error = "Cannot store object " + Util.decomposeClass(clazz)
+                        + " - no column for field " + validFieldName + " in table "
+                        + table.tableName;
+                }
+            }
+        }
+    }
+
+    private static Method getProxyGetter(Class<?> clazz, String fieldName) {
+        Method getter = TypeUtil.getProxyGetter(clazz, fieldName);
+        if (getter == null) {
+            getter = TypeUtil.getGetter(clazz, fieldName);
+        }
+        return getter;
+    }
+
+    private static Object defaultValue(String type) {
+        if ("boolean".equals(type)) {
+            return Boolean.FALSE;
+        } else if ("short".equals(type)) {
+            return new Short((short) 0);
+        } else if ("int".equals(type)) {
+            return new Integer(0);
+        } else if ("long".equals(type)) {
+            return new Long(0L);
+        } else if ("float".equals(type)) {
+            return new Float(0.0F);
+        } else if ("double".equals(type)) {
+            return new Double(0.0);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the class that this plan writes.
+     *
+     * @return a Class
+     */
+    public Class<?> getPlannedClass() {
+        return clazz;
+    }
+
+    /**
+     * Returns the tables to delete an existing copy of the object from, before it is written.
+     *
+     * @return an array of table names
+     */
+    public String[] getDeleteTables() {
+        return deleteTables;
+    }
+
+    /**
+     * Returns one TablePlan for each class descriptor of the class, including those whose tables
+     * are missing from the database, as their collections are still written.
+     *
+     * @return an array of TablePlans
+     */
+    public TablePlan[] getTables() {
+        return tables;
+    }
+
+    /**
+     * Returns the number of tables that a row is written to.
+     *
+     * @return an int
+     */
+    public int getTablesWritten() {
+        return tablesWritten;
+    }
+
+    /**
+     * Returns the serialised form of the object, if any table has a column for it.
+     *
+     * @param o the object being stored
+     * @return a StringConstructor, or null if no table needs one
+     */
+    public StringConstructor getObjectXml(Object o) {
+        if (!hasObjectColumn) {
+            return null;
+        }
+        if (o instanceof InterMineObject) {
+            return ((InterMineObject) o).getoBJECT();
+        }
+        return NotXmlRenderer.render(o);
+    }
+
+    /**
+     * Describes how an object is written to the table of one of its class descriptors.
+     */
+    public static final class TablePlan
+    {
+        String tableName = null;
+        String[] colNames;
+        int[] kinds;
+        String[] fieldNames;
+        Method[] getters;
+        Object[] constants;
+        String error = null;
+        private final CollectionDescriptor[] collections;
+
+        private TablePlan(CollectionDescriptor[] collections) {
+            this.collections = collections;
+        }
+
+        /**
+         * Returns the name of the table, or null if the table is missing from the database.
+         *
+         * @return a String
+         */
+        public String getTableName() {
+            return tableName;
+        }
+
+        /**
+         * Returns the names of the columns, in the order of the values.
+         *
+         * @return an array of column names
+         */
+        public String[] getColNames() {
+            return colNames;
+        }
+
+        /**
+         * Returns the collections of the class descriptor.
+         *
+         * @return an array of CollectionDescriptors
+         */
+        public CollectionDescriptor[] getCollections() {
+            return collections;
+        }
+
+        /**
+         * Produces the values of a row of this table.
+         *
+         * @param o the object being stored
+         * @param xml the serialised object, from WritePlan.getObjectXml
+         * @return an array of values, in the order of the column names
+         * @throws ObjectStoreException if the object cannot be stored in this table
+         * @throws IllegalAccessException if a field cannot be read
+         */
+        public Object[] getValues(Object o, StringConstructor xml)
+            throws ObjectStoreException, IllegalAccessException {
+            if (error != null) {
+                throw new ObjectStoreException(error);
+            }
+            Object[] values = new Object[kinds.length];
+            for (int colNo = 0; colNo < kinds.length; colNo++) {
+                switch (kinds[colNo]) {
+                    case OBJECT:
+                        values[colNo] = xml;
+                        break;
+                    case CONSTANT:
+                        values[colNo] = constants[colNo];
+                        break;
+                    case ATTRIBUTE:
+                        Object value = getFieldProxy(o, colNo);
+                        if (value instanceof Date) {
+                            value = new Long(((Date) value).getTime());
+                        } else if (value instanceof ClobAccess) {
+                            value = ((ClobAccess) value).getDbDescription();
+                        } else if (value instanceof InterMineObject) {
+                            value = null;
+                        }
+                        values[colNo] = value;
+                        break;
+                    default:
+                        Object referenced = getFieldProxy(o, colNo);
+                        if (referenced instanceof InterMineObject) {
+                            values[colNo] = ((InterMineObject) referenced).getId();
+                        }
+                }
+            }
+            return values;
+        }
+
+        private Object getFieldProxy(Object o, int colNo) throws IllegalAccessException {
+            if (getters[colNo] == null) {
+                return ((FastPathObject) o).getFieldProxy(fieldNames[colNo]);
+            }
+            try {
+                return getters[colNo].invoke(o);
+            } catch (InvocationTargetException e) {
+                IllegalAccessException e2 = new IllegalAccessException("Couldn't proxyGet field \""
+                        + o.getClass().getName() + "." + fieldNames[colNo] + "\"");
+                e2.initCause(e);
+                throw e2;
+            }
+        }
+    }
+}
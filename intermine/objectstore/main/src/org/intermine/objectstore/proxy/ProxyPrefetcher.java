@@ -0,0 +1,259 @@
+package org.intermine.objectstore.proxy;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.metadata.CollectionDescriptor;
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.model.InterMineObject;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.ContainsConstraint;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryCollectionReference;
+import org.intermine.objectstore.query.QueryCreator;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.Results;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.objectstore.query.SingletonResults;
+
+/**
+ * Loads references and collections for a batch of objects at once, in place of a query for
+ * each object when its proxies are first used.
+ *
+ * Each step of a path is loaded with one query for the whole batch. Collections are given to
+ * their ProxyCollections as materialised collections, and references are replaced by the objects
+ * they refer to, which are also put in the getObjectById cache. As with
+ * ObjectStoreFastCollectionsImpl, the materialised collections are softly held, so a collection
+ * is queried for again if it has been collected.
+ *
+ * @author chenyian
+ */
+public class ProxyPrefetcher
+{
+    /** The number of rows fetched at once from each query. **/
+    public static final int BATCH_SIZE = 10000;
+
+    private final ObjectStore os;
+
+    /**
+     * Constructor.
+     *
+     * @param os the ObjectStore the objects come from, which runs the queries
+     */
+    public ProxyPrefetcher(ObjectStore os) {
+        this.os = os;
+    }
+
+    /**
+     * Loads the references and collections named by the paths for all the objects. Paths that
+     * start the same way share the queries for their common steps.
+     *
+     * @param objects the objects to start from
+     * @param paths reference and collection names separated by dots, such as
+     * "departments.employees.address"
+     * @throws ObjectStoreException if an error occurs while loading
+     * @throws IllegalArgumentException if a name is not a reference or collection of the class
+     */
+    public void prefetch(Collection<? extends InterMineObject> objects, String... paths)
+        throws ObjectStoreException {
+        Step root = new Step();
+        for (String path : paths) {
+            Step step = root;
+            for (String fieldName : StringUtils.split(path, '.')) {
+                Step next = step.next.get(fieldName);
+                if (next == null) {
+                    next = new Step();
+                    step.next.put(fieldName, next);
+                }
+                step = next;
+            }
+        }
+        try {
+            prefetch(new ArrayList<InterMineObject>(objects), root);
+        } catch (IllegalAccessException e) {
+            throw new ObjectStoreException(e);
+        }
+    }
+
+    private void prefetch(List<InterMineObject> objects, Step step)
+        throws ObjectStoreException, IllegalAccessException {
+        for (Map.Entry<String, Step> entry : step.next.entrySet()) {
+            List<InterMineObject> found = fetchField(objects, entry.getKey());
+            if (!found.isEmpty() && !entry.getValue().next.isEmpty()) {
+                prefetch(found, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Loads one reference or collection for all the objects.
+     *
+     * @return the objects referred to, each instance once
+     */
+    private List<InterMineObject> fetchField(List<InterMineObject> objects, String fieldName)
+        throws ObjectStoreException, IllegalAccessException {
+        // Objects of subclasses share the descriptor of the class the field belongs to
+        Map<FieldDescriptor, List<InterMineObject>> byField
+            = new LinkedHashMap<FieldDescriptor, List<InterMineObject>>();
+        for (InterMineObject o : objects) {
+            FieldDescriptor field = os.getModel().getFieldDescriptorsForClass(o.getClass())
+                .get(fieldName);
+            if (field == null || field.isAttribute()) {
+                throw new IllegalArgumentException(o.getClass().getName()
+                        + " has no reference or collection called " + fieldName);
+            }
+            List<InterMineObject> group = byField.get(field);
+            if (group == null) {
+                group = new ArrayList<InterMineObject>();
+                byField.put(field, group);
+            }
+            group.add(o);
+        }
+        Set<InterMineObject> found = Collections.newSetFromMap(
+                new IdentityHashMap<InterMineObject, Boolean>());
+        for (Map.Entry<FieldDescriptor, List<InterMineObject>> entry : byField.entrySet()) {
+            if (entry.getKey() instanceof CollectionDescriptor) {
+                fetchCollection(entry.getValue(), (CollectionDescriptor) entry.getKey(), found);
+            } else {
+                fetchReference(entry.getValue(), (ReferenceDescriptor) entry.getKey(), found);
+            }
+        }
+        return new ArrayList<InterMineObject>(found);
+    }
+
+    private void fetchReference(List<InterMineObject> objects, ReferenceDescriptor reference,
+            Set<InterMineObject> found) throws IllegalAccessException {
+        String fieldName = reference.getName();
+        Map<Integer, InterMineObject> loaded = new HashMap<Integer, InterMineObject>();
+        Set<Integer> toLoad = new HashSet<Integer>();
+        for (InterMineObject o : objects) {
+            Object value = o.getFieldProxy(fieldName);
+            if (value instanceof ProxyReference) {
+                Integer id = ((ProxyReference) value).getId();
+                InterMineObject cached = os.pilferObjectById(id);
+                if (cached != null) {
+                    loaded.put(id, cached);
+                } else {
+                    toLoad.add(id);
+                }
+            }
+        }
+        if (!toLoad.isEmpty()) {
+            @SuppressWarnings("unchecked")
+            Class<? extends InterMineObject> type = (Class<? extends InterMineObject>) reference
+                .getReferencedClassDescriptor().getType();
+            SingletonResults results = os.executeSingleton(
+                    QueryCreator.createQueryForIds(toLoad, type), BATCH_SIZE, false, false, false);
+            for (Object row : results) {
+                InterMineObject referenced = (InterMineObject) row;
+                loaded.put(referenced.getId(), referenced);
+                os.cacheObjectById(referenced.getId(), referenced);
+            }
+        }
+        for (InterMineObject o : objects) {
+            Object value = o.getFieldProxy(fieldName);
+            if (value instanceof ProxyReference) {
+                InterMineObject referenced = loaded.get(((ProxyReference) value).getId());
+                if (referenced != null) {
+                    // The object holds on to what it refers to from now on
+                    o.setFieldValue(fieldName, referenced);
+                    found.add(referenced);
+                }
+            } else if (value instanceof InterMineObject) {
+                found.add((InterMineObject) value);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void fetchCollection(List<InterMineObject> objects, CollectionDescriptor collection,
+            Set<InterMineObject> found) throws IllegalAccessException {
+        String fieldName = collection.getName();
+        Map<Integer, Collection<Object>> collections = new HashMap<Integer, Collection<Object>>();
+        for (InterMineObject o : objects) {
+            Object value = o.getFieldValue(fieldName);
+            Collection<Object> materialised = null;
+            if (value instanceof ProxyCollection<?>) {
+                materialised = ((ProxyCollection<Object>) value).getMaterialisedCollection();
+                if (materialised == null) {
+                    collections.put(o.getId(), new HashSet<Object>());
+                }
+            } else if (value instanceof Collection<?>) {
+                materialised = (Collection<Object>) value;
+            }
+            if (materialised != null) {
+                for (Object element : materialised) {
+                    found.add((InterMineObject) element);
+                }
+            }
+        }
+        if (collections.isEmpty()) {
+            return;
+        }
+
+        // SELECT a.id, b FROM A AS a, B AS b WHERE a.collection CONTAINS b AND a.id IN ?
+        Query q = new Query();
+        q.setDistinct(false);
+        QueryClass qc1 = new QueryClass(collection.getClassDescriptor().getType());
+        QueryClass qc2 = new QueryClass(collection.getReferencedClassDescriptor().getType());
+        q.addFrom(qc1);
+        q.addFrom(qc2);
+        q.addToSelect(new QueryField(qc1, "id"));
+        q.addToSelect(qc2);
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(new ContainsConstraint(new QueryCollectionReference(qc1, fieldName),
+                    ConstraintOp.CONTAINS, qc2));
+        cs.addConstraint(new BagConstraint(new QueryField(qc1, "id"), ConstraintOp.IN,
+                    collections.keySet()));
+        q.setConstraint(cs);
+        Results results = os.execute(q, BATCH_SIZE, false, false, false);
+        for (Object row : results) {
+            ResultsRow<Object> resultsRow = (ResultsRow<Object>) row;
+            collections.get(resultsRow.get(0)).add(resultsRow.get(1));
+        }
+
+        for (InterMineObject o : objects) {
+            Object value = o.getFieldValue(fieldName);
+            Collection<Object> materialised = collections.get(o.getId());
+            if (value instanceof ProxyCollection<?> && materialised != null) {
+                ((ProxyCollection<Object>) value).setMaterialisedCollection(materialised);
+                for (Object element : materialised) {
+                    found.add((InterMineObject) element);
+                }
+            }
+        }
+    }
+
+    /**
+     * A step along the paths to load, and the steps that follow it.
+     */
+    private static class Step
+    {
+        private final Map<String, Step> next = new LinkedHashMap<String, Step>();
+    }
+}
@@ -126,7 +126,24 @@ public class IqlQuery
      * @throws NullPointerException if query is null
      */
     public IqlQuery(Query q) {
-        List<Object> newParameters = new ArrayList<Object>();
+        this(q, new ArrayList<Object>());
+    }
+
+    /**
+     * Construct an IQL query from a Query object, to be used as a key for the query rather than
+     * parsed.  Every String value is a parameter rather than being written into the query string,
+     * so no value can be mistaken for part of the query, and subqueries are converted afresh
+     * rather than taken from the IQL cached in them.
+     *
+     * @param q the Query object
+     * @return an IqlQuery
+     * @throws NullPointerException if query is null
+     */
+    public static IqlQuery forKey(Query q) {
+        return new IqlQuery(q, new KeyParameters());
+    }
+
+    private IqlQuery(Query q, List<Object> newParameters) {
         if (q == null) {
             throw new NullPointerException("query should not be null");
         }
@@ -167,7 +184,7 @@ public class IqlQuery
                 }
             } else {
                 retval.append("(")
-                    .append(fe.toString())
+                    .append(fromElementToString(fe, newParameters))
                     .append(")")
                     .append(classAlias == null ? "" : " AS " + classAlias);
             }
@@ -231,6 +248,10 @@ public class IqlQuery
         } else if (qn instanceof QueryValue) {
             Object obj = ((QueryValue) qn).getValue();
             if (obj instanceof String) {
+                if (parameters instanceof KeyParameters) {
+                    parameters.add(obj);
+                    return "?";
+                }
                 return "'" + obj + "'";
             } else if (obj instanceof Date) {
                 SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
@@ -433,7 +454,7 @@ public class IqlQuery
                             .append(classAlias == null ? "" : " AS " + classAlias);
                     } else {
                         retval.append("(")
-                            .append(node.toString())
+                            .append(fromElementToString(node, parameters))
                             .append(")")
                             .append(classAlias == null ? "" : " AS " + classAlias);
                     }
@@ -606,7 +627,7 @@ public class IqlQuery
             }
         } else if (cc instanceof SubqueryConstraint) {
             SubqueryConstraint c = (SubqueryConstraint) cc;
-            IqlQuery subquery = c.getQuery().getIqlQuery();
+            IqlQuery subquery = subqueryIql(c.getQuery(), parameters);
             // Add the parameters of the subquery to this query
             parameters.addAll(subquery.getParameters());
             return (c.getQueryEvaluable() == null ? nodeToString(q, c.getQueryClass(), parameters,
@@ -683,7 +704,8 @@ public class IqlQuery
             retval.append(") IN ?");
             return retval.toString();
         } else if (cc instanceof SubqueryExistsConstraint) {
-            IqlQuery subquery = ((SubqueryExistsConstraint) cc).getQuery().getIqlQuery();
+            IqlQuery subquery = subqueryIql(((SubqueryExistsConstraint) cc).getQuery(),
+                    parameters);
             parameters.addAll(subquery.getParameters());
             return (cc.getOp().equals(ConstraintOp.EXISTS) ? "EXISTS (" : "DOES NOT EXIST (")
                 + subquery.getQueryString() + ")";
@@ -701,6 +723,36 @@ public class IqlQuery
         }
     }
 
+    /**
+     * Returns the IQL of a subquery, converted afresh if it is part of a key.
+     *
+     * @param subQ the subquery
+     * @param parameters the parameters of the enclosing query
+     * @return an IqlQuery
+     */
+    private static IqlQuery subqueryIql(Query subQ, List<Object> parameters) {
+        if (parameters instanceof KeyParameters) {
+            return new IqlQuery(subQ, new KeyParameters());
+        }
+        return subQ.getIqlQuery();
+    }
+
+    /**
+     * Converts a FromElement that is neither a QueryClass nor a QueryClassBag into a String.
+     *
+     * @param fe the FromElement
+     * @param parameters the parameters of the enclosing query
+     * @return a String
+     */
+    private static String fromElementToString(FromElement fe, List<Object> parameters) {
+        if ((fe instanceof Query) && (parameters instanceof KeyParameters)) {
+            IqlQuery subquery = subqueryIql((Query) fe, parameters);
+            parameters.addAll(subquery.getParameters());
+            return subquery.getQueryString();
+        }
+        return fe.toString();
+    }
+
     /**
      * Converts a QueryReference into a String.
      *
@@ -933,4 +985,12 @@ public class IqlQuery
         }
         return word;
     }
+
+    /**
+     * The parameters of an IqlQuery made by forKey().
+     */
+    private static class KeyParameters extends ArrayList<Object>
+    {
+        private static final long serialVersionUID = 1L;
+    }
 }
@@ -162,6 +162,30 @@ public class Database implements Shutdownable
         return datasource;
     }
 
+    /**
+     * Gets the maximum number of connections the connection pool will open.
+     *
+     * @return the size of the pool, or -1 if the DataSource does not say
+     */
+    public int getMaxConnections() {
+        if (datasource instanceof HikariDataSource) {
+            return ((HikariDataSource) datasource).getMaximumPoolSize();
+        }
+        if (datasource != null) {
+            // the postgres pooling DataSource is configured by reflection, so read it the same way
+            try {
+                Method m = datasource.getClass().getMethod("getMaxConnections");
+                Object value = m.invoke(datasource);
+                if (value instanceof Integer && ((Integer) value).intValue() > 0) {
+                    return ((Integer) value).intValue();
+                }
+            } catch (Exception e) {
+                LOG.debug("Cannot read the maximum number of connections of " + datasource, e);
+            }
+        }
+        return -1;
+    }
+
     /**
      * Gets a Connection to this Database
      *
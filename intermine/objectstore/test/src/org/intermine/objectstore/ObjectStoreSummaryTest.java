@@ -11,6 +11,7 @@ package org.intermine.objectstore;
  */
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -20,6 +21,8 @@ import java.util.Set;
 import junit.framework.Test;
 
 import org.intermine.model.testmodel.CEO;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Department;
 import org.intermine.model.testmodel.Employee;
 import org.intermine.model.testmodel.Manager;
 import org.intermine.model.testmodel.Types;
@@ -153,4 +156,32 @@ public class ObjectStoreSummaryTest extends StoreDataTestCase
         assertEquals(10, oss.maxValues);
         assertEquals(10, ossFromProps.maxValues);
     }
+
+    public void testThreadsGiveSameSummary() throws Exception {
+        ObjectStore os = ObjectStoreFactory.getObjectStore("os.unittest");
+        Properties config = new Properties();
+        config.put("max.field.values", "10");
+        config.put("summary.threads", "1");
+        Properties serial = new ObjectStoreSummary(os, config).toProperties();
+
+        config.put("summary.threads", "8");
+        ObjectStoreSummary oss = new ObjectStoreSummary(os, config);
+
+        assertEquals(serial, oss.toProperties());
+
+        // check against the test data too, so both can't be wrong in the same way
+        assertEquals(2, oss.getClassCount(Company.class.getName()));
+        assertEquals(3, oss.getClassCount(Department.class.getName()));
+        assertEquals(6, oss.getClassCount(Employee.class.getName()));
+        assertEquals(3, oss.getClassCount(Manager.class.getName()));
+        assertEquals(1, oss.getClassCount(CEO.class.getName()));
+        assertTrue(oss.getNullReferencesAndCollections(Company.class.getName())
+                .contains("bank"));
+        assertTrue(oss.getNullReferencesAndCollections(Department.class.getName())
+                .contains("rejectedEmployee"));
+        assertFalse(oss.getNullReferencesAndCollections(Department.class.getName())
+                .contains("employees"));
+        assertEquals(Collections.singleton("clobObjType"),
+                oss.getNullAttributes(Types.class.getName()));
+    }
 }
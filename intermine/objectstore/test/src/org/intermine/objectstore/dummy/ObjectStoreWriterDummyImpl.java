@@ -158,6 +158,10 @@ public class ObjectStoreWriterDummyImpl implements ObjectStoreWriter
         throw new UnsupportedOperationException();
     }
 
+    public void prefetch(Collection objects, String... paths) throws ObjectStoreException {
+        os.prefetch(objects, paths);
+    }
+
     public void prefetchObjectById(Integer id) {
         throw new UnsupportedOperationException();
     }
@@ -298,4 +302,8 @@ public class ObjectStoreWriterDummyImpl implements ObjectStoreWriter
     public void replaceClob(Clob clob, String text) {
         throw new RuntimeException("Not implemented");
     }
+
+    public void writeClobPage(Clob clob, int page, String text) {
+        throw new RuntimeException("Not implemented");
+    }
 }
@@ -0,0 +1,243 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.ConstraintOp;
+import org.intermine.model.testmodel.Company;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.query.BagConstraint;
+import org.intermine.objectstore.query.ConstraintSet;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.QueryValue;
+import org.intermine.objectstore.query.SimpleConstraint;
+import org.intermine.objectstore.query.SubqueryConstraint;
+
+public class SqlCacheTest extends TestCase
+{
+    private Query companyQuery(String name) {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Company.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.setConstraint(new SimpleConstraint(new QueryField(qc, "name"), ConstraintOp.EQUALS,
+                    new QueryValue(name)));
+        return q;
+    }
+
+    private Query companyBagQuery(List<String> names) {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Company.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.setConstraint(new BagConstraint(new QueryField(qc, "name"), ConstraintOp.IN, names));
+        return q;
+    }
+
+    public void testFingerprint() throws Exception {
+        assertEquals(SqlCache.fingerprint(companyQuery("CompanyA")),
+                SqlCache.fingerprint(companyQuery("CompanyA")));
+        assertFalse(SqlCache.fingerprint(companyQuery("CompanyA"))
+                .equals(SqlCache.fingerprint(companyQuery("CompanyB"))));
+
+        // Changes to a constraint set are noticed, although the query keeps its old IQL
+        Query q = companyQuery("CompanyA");
+        QueryClass qc = (QueryClass) q.getSelect().get(0);
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(q.getConstraint());
+        q.setConstraint(cs);
+        String before = SqlCache.fingerprint(q);
+        String iql = q.toString();
+        cs.addConstraint(new SimpleConstraint(new QueryField(qc, "vatNumber"),
+                    ConstraintOp.GREATER_THAN, new QueryValue(new Integer(2000))));
+        assertEquals(iql, q.toString());
+        assertFalse(before.equals(SqlCache.fingerprint(q)));
+    }
+
+    public void testFingerprintSeparatesValues() throws Exception {
+        // A value that looks like the separator between two values
+        assertFalse(SqlCache.fingerprint(companyBagQuery(Arrays.asList("a", "b")))
+                .equals(SqlCache.fingerprint(companyBagQuery(
+                            Arrays.asList("a, java.lang.String:b")))));
+        assertFalse(SqlCache.fingerprint(companyBagQuery(Arrays.asList("a", "b")))
+                .equals(SqlCache.fingerprint(companyBagQuery(
+                            Arrays.asList("a,java.lang.String:1:b")))));
+        assertFalse(SqlCache.fingerprint(companyBagQuery(Arrays.asList("a]", "b")))
+                .equals(SqlCache.fingerprint(companyBagQuery(Arrays.asList("a", "]b")))));
+        assertEquals(SqlCache.fingerprint(companyBagQuery(Arrays.asList("a", "b"))),
+                SqlCache.fingerprint(companyBagQuery(Arrays.asList("a", "b"))));
+    }
+
+    public void testFingerprintSeparatesStrings() throws Exception {
+        Query q1 = companyQuery("x' AND a1_.name = 'y");
+        Query q2 = companyQuery("x");
+        QueryClass qc = (QueryClass) q2.getSelect().get(0);
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(q1.getConstraint());
+        q1.setConstraint(cs);
+        cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(q2.getConstraint());
+        cs.addConstraint(new SimpleConstraint(new QueryField(qc, "name"), ConstraintOp.EQUALS,
+                    new QueryValue("y")));
+        q2.setConstraint(cs);
+        // The IQL of the two queries is the same
+        assertEquals(q1.toString(), q2.toString());
+        assertFalse(SqlCache.fingerprint(q1).equals(SqlCache.fingerprint(q2)));
+    }
+
+    public void testFingerprintOfSubquery() throws Exception {
+        Query subquery = companyQuery("CompanyA");
+        QueryClass subQc = (QueryClass) subquery.getSelect().get(0);
+        subquery.clearSelect();
+        subquery.addToSelect(new QueryField(subQc, "name"));
+        ConstraintSet cs = new ConstraintSet(ConstraintOp.AND);
+        cs.addConstraint(subquery.getConstraint());
+        subquery.setConstraint(cs);
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Company.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.setConstraint(new SubqueryConstraint(new QueryField(qc, "name"), ConstraintOp.IN,
+                    subquery));
+        String before = SqlCache.fingerprint(q);
+        String iql = subquery.toString();
+
+        // Changes to a constraint set of the subquery are noticed too
+        cs.addConstraint(new SimpleConstraint(new QueryField(subQc, "vatNumber"),
+                    ConstraintOp.GREATER_THAN, new QueryValue(new Integer(2000))));
+        assertEquals(iql, subquery.toString());
+        assertFalse(before.equals(SqlCache.fingerprint(q)));
+    }
+
+    public void testHitsAndMisses() throws Exception {
+        SqlCache cache = new SqlCache();
+        assertEquals("SQL 1", cache.get("a", new Generator("SQL 1")));
+        assertEquals("SQL 1", cache.get("a", new Generator("SQL 2")));
+        assertEquals("SQL 3", cache.get("b", new Generator("SQL 3")));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+        assertEquals(12, cache.getWeight());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    public void testFailuresAreNotCached() throws Exception {
+        SqlCache cache = new SqlCache();
+        try {
+            cache.get("a", new Callable<String>() {
+                public String call() throws ObjectStoreException {
+                    throw new ObjectStoreException("Broken");
+                }
+            });
+            fail("Expected ObjectStoreException");
+        } catch (ObjectStoreException e) {
+            assertEquals("Broken", e.getMessage());
+        }
+        assertEquals(0, cache.size());
+        assertEquals("SQL", cache.get("a", new Generator("SQL")));
+    }
+
+    public void testEntryBound() throws Exception {
+        SqlCache cache = new SqlCache(3, Long.MAX_VALUE);
+        for (int i = 0; i < 10; i++) {
+            cache.get("key" + i, new Generator("SQL " + i));
+        }
+        assertEquals(3, cache.size());
+        assertEquals(7, cache.getEvictions());
+    }
+
+    public void testWeightBound() throws Exception {
+        SqlCache cache = new SqlCache(100, 20);
+        cache.get("a", new Generator("123456789"));
+        cache.get("b", new Generator("123456789"));
+        assertEquals(2, cache.size());
+        cache.get("c", new Generator("123456789"));
+        assertEquals(2, cache.size());
+        assertEquals(20, cache.getWeight());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    public void testUsedEntriesAreKept() throws Exception {
+        SqlCache cache = new SqlCache(2, Long.MAX_VALUE);
+        cache.get("a", new Generator("A"));
+        cache.get("b", new Generator("B"));
+        cache.get("a", new Generator("A"));
+        cache.get("c", new Generator("C"));
+        // b was the oldest entry not used since, so it went
+        Generator generator = new Generator("A");
+        cache.get("a", generator);
+        assertEquals(0, generator.calls.get());
+    }
+
+    public void testGeneratesOnce() throws Exception {
+        final SqlCache cache = new SqlCache();
+        final Generator generator = new Generator("SQL", 100);
+        final CountDownLatch ready = new CountDownLatch(1);
+        final List<String> got = Collections.synchronizedList(new ArrayList<String>());
+        Thread[] threads = new Thread[10];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        ready.await();
+                        got.add(cache.get("a", generator));
+                    } catch (Exception e) {
+                        got.add(e.toString());
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        ready.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.nCopies(threads.length, "SQL"), got);
+        assertEquals(1, generator.calls.get());
+        assertEquals(1, cache.getMisses());
+        assertEquals(threads.length - 1, cache.getHits());
+    }
+
+    private static class Generator implements Callable<String>
+    {
+        private String sql;
+        private long delay;
+        private AtomicInteger calls = new AtomicInteger();
+
+        public Generator(String sql) {
+            this(sql, 0);
+        }
+
+        public Generator(String sql, long delay) {
+            this.sql = sql;
+            this.delay = delay;
+        }
+
+        public String call() throws Exception {
+            calls.incrementAndGet();
+            Thread.sleep(delay);
+            return sql;
+        }
+    }
+}
@@ -13,6 +13,7 @@ package org.intermine.objectstore.intermine;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.sql.Connection;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -20,6 +21,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -42,6 +44,7 @@ import org.intermine.objectstore.query.FromElement;
 import org.intermine.objectstore.query.OrderDescending;
 import org.intermine.objectstore.query.Query;
 import org.intermine.objectstore.query.QueryCast;
+import org.intermine.objectstore.query.QueryCloner;
 import org.intermine.objectstore.query.QueryClass;
 import org.intermine.objectstore.query.QueryCollectionReference;
 import org.intermine.objectstore.query.QueryExpression;
@@ -893,6 +896,49 @@ public class SqlGeneratorTest extends SetupDataTestCase
         assertEquals("SELECT DISTINCT a1_.name AS a2_ FROM " + getRegisterOffset3() + " " + getRegisterOffset4() + " a1_.name < 'flibble' ORDER BY a1_.name DESC OFFSET 5", SqlGenerator.generate(q, 10, Integer.MAX_VALUE, schema, db, Collections.EMPTY_MAP));
     }
 
+    public void testConcurrentGeneration() throws Exception {
+        final DatabaseSchema schema = getSchema();
+        final Map<String, String> expected = new HashMap<String, String>();
+        for (Map.Entry<String, Object> entry : results.entrySet()) {
+            Query q = queries.get(entry.getKey());
+            if ((q != null) && (entry.getValue() instanceof String)) {
+                expected.put(entry.getKey(), SqlGenerator.generate(q, 0, Integer.MAX_VALUE,
+                            schema, db, new HashMap()));
+            }
+        }
+        long hitsBefore = schema.getSqlCache().getHits();
+        final List<String> problems = Collections.synchronizedList(new ArrayList<String>());
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int round = 0; round < 20; round++) {
+                            for (Map.Entry<String, String> entry : expected.entrySet()) {
+                                // A copy, as a query built again for each request would be
+                                Query q = QueryCloner.cloneQuery(queries.get(entry.getKey()));
+                                String sql = SqlGenerator.generate(q, 0, Integer.MAX_VALUE,
+                                        schema, db, new HashMap());
+                                if (!entry.getValue().equals(sql)) {
+                                    problems.add(entry.getKey() + ": " + sql);
+                                }
+                            }
+                        }
+                    } catch (Exception e) {
+                        problems.add(e.toString());
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), problems);
+        assertTrue(schema.getSqlCache().getHits() - hitsBefore
+                >= (20 * threads.length - 1) * expected.size());
+    }
+
     public void testForPrecomp() throws Exception {
         DatabaseSchema schema = getSchema();
         Query q = (Query) queries.get("SelectSimpleObject");
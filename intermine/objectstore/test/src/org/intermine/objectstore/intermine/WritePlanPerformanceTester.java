@@ -0,0 +1,144 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.sql.Connection;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.sql.DatabaseUtil;
+import org.intermine.sql.writebatch.Batch;
+import org.intermine.sql.writebatch.BatchWriter;
+import org.intermine.sql.writebatch.FlushJob;
+import org.intermine.sql.writebatch.Table;
+
+/**
+ * Compares the time taken to produce and batch the rows of many objects, working out the columns
+ * for each object as storeWithConnection used to, against running a WritePlan.  The rows go into
+ * a Batch whose BatchWriter discards them, so no database is needed.  Run with the number of
+ * objects to store, or with no arguments for 100,000 employees.  Each way is run a few times so
+ * that later runs are measured with a warm JIT.
+ *
+ * @author chenyian
+ */
+public final class WritePlanPerformanceTester
+{
+    private static final int RUNS = 5;
+
+    private WritePlanPerformanceTester() {
+        // don't
+    }
+
+    public static void main(String[] args) throws Exception {
+        int count = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+        Model model = Model.getInstanceByName("testmodel");
+        DatabaseSchema schema = new DatabaseSchema(model, new ArrayList<ClassDescriptor>(), false,
+                Collections.<String>emptySet(), 1, false, false);
+        List<Employee> employees = new ArrayList<Employee>();
+        for (int i = 0; i < count; i++) {
+            employees.add(WritePlanTest.employee(i));
+        }
+        for (int run = 0; run < RUNS; run++) {
+            report("Per object metadata", count, storeLegacy(schema, employees));
+            report("Write plan", count, storeWithPlan(schema, employees));
+        }
+    }
+
+    private static void report(String name, int count, long time) {
+        System.out.println(name + ": " + count + " objects in " + time + "ms ("
+                + new DecimalFormat("#0.000").format(time * 1000.0 / count)
+                + "ms per thousand objects)");
+    }
+
+    private static long storeLegacy(DatabaseSchema schema, List<Employee> employees)
+        throws Exception {
+        Model model = schema.getModel();
+        // the writer kept one array of column names per table
+        Map<String, String[]> colNameArrays = new HashMap<String, String[]>();
+        Batch batch = new Batch(new NoOpBatchWriter());
+        try {
+            long start = System.currentTimeMillis();
+            for (Employee e : employees) {
+                for (ClassDescriptor cld : model.getClassDescriptorsForClass(e.getClass())) {
+                    ClassDescriptor tableMaster = schema.getTableMaster(cld);
+                    String tableName = DatabaseUtil.getTableName(tableMaster);
+                    String[] colNames = colNameArrays.get(tableName);
+                    if (colNames == null) {
+                        colNames = WritePlanTest.columnNames(schema, tableMaster);
+                        colNameArrays.put(tableName, colNames);
+                    }
+                    batch.addRow(null, tableName, e.getId(), colNames,
+                            WritePlanTest.legacyValues(schema, cld, e));
+                }
+            }
+            return System.currentTimeMillis() - start;
+        } finally {
+            batch.clear();
+            batch.close(null);
+        }
+    }
+
+    private static long storeWithPlan(DatabaseSchema schema, List<Employee> employees)
+        throws Exception {
+        Map<String, String[]> colNameArrays = new HashMap<String, String[]>();
+        Map<Class<?>, WritePlan> plans = Collections.synchronizedMap(
+                new HashMap<Class<?>, WritePlan>());
+        Batch batch = new Batch(new NoOpBatchWriter());
+        try {
+            long start = System.currentTimeMillis();
+            for (Employee e : employees) {
+                WritePlan plan = plans.get(e.getClass());
+                if (plan == null) {
+                    plan = WritePlan.compile(schema, e.getClass(), colNameArrays);
+                    plans.put(e.getClass(), plan);
+                }
+                for (WritePlan.TablePlan table : plan.getTables()) {
+                    if (table.getTableName() != null) {
+                        batch.addRow(null, table.getTableName(), e.getId(),
+                                table.getColNames(), table.getValues(e, plan.getObjectXml(e)));
+                    }
+                }
+            }
+            return System.currentTimeMillis() - start;
+        } finally {
+            batch.clear();
+            batch.close(null);
+        }
+    }
+
+    /**
+     * A BatchWriter that throws away the rows it is given.
+     */
+    private static class NoOpBatchWriter implements BatchWriter
+    {
+        @Override
+        public List<FlushJob> write(Connection con, Map<String, ? extends Table> tables,
+                Set<String> filter) {
+            for (Table table : tables.values()) {
+                table.clear();
+            }
+            return new ArrayList<FlushJob>();
+        }
+
+        @Override
+        public void updateStatistics(Map<String, Integer> activity, Connection con) {
+            // nothing to update
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.intermine.objectstore.intermine;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.intermine.metadata.AttributeDescriptor;
+import org.intermine.metadata.ClassDescriptor;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.metadata.Model;
+import org.intermine.metadata.ReferenceDescriptor;
+import org.intermine.metadata.TypeUtil;
+import org.intermine.metadata.Util;
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.model.testmodel.Manager;
+import org.intermine.model.testmodel.SimpleObject;
+import org.intermine.sql.DatabaseUtil;
+
+public class WritePlanTest extends TestCase
+{
+    private Model model;
+    private DatabaseSchema schema;
+
+    public void setUp() throws Exception {
+        model = Model.getInstanceByName("testmodel");
+        schema = new DatabaseSchema(model, new ArrayList<ClassDescriptor>(), false,
+                Collections.<String>emptySet(), 1, false, false);
+    }
+
+    static Employee employee(int id) {
+        Department department = new Department();
+        department.setId(new Integer(100000 + id));
+        Employee e = new Employee();
+        e.setId(new Integer(id));
+        e.setName("Employee " + id);
+        e.setAge(20 + (id % 40));
+        e.setFullTime(id % 2 == 0);
+        e.setDepartment(department);
+        return e;
+    }
+
+    public void testEmployee() throws Exception {
+        Employee e = employee(5);
+        WritePlan plan = WritePlan.compile(schema, Employee.class);
+        assertEquals(Employee.class, plan.getPlannedClass());
+        assertTrue(Arrays.asList(plan.getDeleteTables()).contains("Employee"));
+        assertTrue(Arrays.asList(plan.getDeleteTables()).contains("InterMineObject"));
+        assertEquals(plan.getDeleteTables().length, plan.getTablesWritten());
+
+        assertSameValues(schema, plan, e);
+        WritePlan.TablePlan table = getTable(plan, "Employee");
+        List<String> colNames = Arrays.asList(table.getColNames());
+        Object[] values = table.getValues(e, plan.getObjectXml(e));
+        assertEquals("Employee 5", values[colNames.indexOf("name")]);
+        assertEquals(new Integer(25), values[colNames.indexOf("age")]);
+        assertEquals(new Integer(100005), values[colNames.indexOf("departmentId")]);
+        assertEquals(Employee.class.getName(), values[colNames.indexOf("class")]);
+        assertEquals(1, table.getCollections().length);
+    }
+
+    public void testTruncated() throws Exception {
+        List<ClassDescriptor> truncated = new ArrayList<ClassDescriptor>();
+        truncated.add(model.getClassDescriptorByName("org.intermine.model.testmodel.Employee"));
+        DatabaseSchema truncatedSchema = new DatabaseSchema(model, truncated, false,
+                Collections.<String>emptySet(), 1, false, false);
+        Manager m = new Manager();
+        m.setId(new Integer(3));
+        m.setName("David Brent");
+        m.setTitle("Regional Manager");
+        WritePlan plan = WritePlan.compile(truncatedSchema, Manager.class);
+        assertSameValues(truncatedSchema, plan, m);
+        // A row is written to the Employee table for both Employee and Manager
+        Set<Object> tableClasses = new HashSet<Object>();
+        for (WritePlan.TablePlan table : plan.getTables()) {
+            if ("Employee".equals(table.getTableName())) {
+                List<String> colNames = Arrays.asList(table.getColNames());
+                Object[] values = table.getValues(m, plan.getObjectXml(m));
+                tableClasses.add(values[colNames.indexOf("tableclass")]);
+                assertEquals("Regional Manager", values[colNames.indexOf("title")]);
+            }
+        }
+        assertEquals(new HashSet<Object>(Arrays.asList("org.intermine.model.testmodel.Employee",
+                        "org.intermine.model.testmodel.Manager")), tableClasses);
+    }
+
+    public void testSimpleObject() throws Exception {
+        SimpleObject so = new SimpleObject();
+        so.setName("Simple");
+        so.setEmployee(employee(7));
+        WritePlan plan = WritePlan.compile(schema, SimpleObject.class);
+        assertEquals(1, plan.getTables().length);
+        assertSameValues(schema, plan, so);
+    }
+
+    public void testMissingTable() throws Exception {
+        DatabaseSchema missingSchema = new DatabaseSchema(model, new ArrayList<ClassDescriptor>(),
+                false, Collections.singleton("employee"), 1, false, false);
+        WritePlan plan = WritePlan.compile(missingSchema, Employee.class);
+        assertFalse(Arrays.asList(plan.getDeleteTables()).contains("Employee"));
+        assertNull(getTable(plan, "Employee"));
+        assertEquals(plan.getTables().length - 1, plan.getTablesWritten());
+    }
+
+    public void testSharedColumnNames() throws Exception {
+        Map<String, String[]> colNameArrays = new HashMap<String, String[]>();
+        Map<String, String[]> seen = new HashMap<String, String[]>();
+        for (Class<?> clazz : Arrays.<Class<?>>asList(Employee.class, Manager.class,
+                    Department.class, Employee.class)) {
+            WritePlan plan = WritePlan.compile(schema, clazz, colNameArrays);
+            for (WritePlan.TablePlan table : plan.getTables()) {
+                String[] colNames = seen.get(table.getTableName());
+                if (colNames == null) {
+                    seen.put(table.getTableName(), table.getColNames());
+                } else {
+                    // The batch writer compares column names by reference
+                    assertSame(table.getTableName(), colNames, table.getColNames());
+                }
+            }
+        }
+        assertSame(getTable(WritePlan.compile(schema, Manager.class, colNameArrays),
+                    "InterMineObject").getColNames(),
+                getTable(WritePlan.compile(schema, Department.class, colNameArrays),
+                    "InterMineObject").getColNames());
+    }
+
+    // Checks that the plan produces the same rows as the writer used to.  StringConstructors are
+    // compared by their text.
+    private static void assertSameValues(DatabaseSchema schema, WritePlan plan, Object o)
+        throws Exception {
+        Iterator<ClassDescriptor> clds = schema.getModel().getClassDescriptorsForClass(
+                o.getClass()).iterator();
+        for (WritePlan.TablePlan table : plan.getTables()) {
+            ClassDescriptor cld = clds.next();
+            if (table.getTableName() == null) {
+                continue;
+            }
+            Object[] expected = legacyValues(schema, cld, o);
+            Object[] got = table.getValues(o, plan.getObjectXml(o));
+            assertEquals(expected.length, got.length);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(String.valueOf(expected[i]), String.valueOf(got[i]));
+                assertEquals(expected[i] == null ? null : expected[i].getClass(),
+                        got[i] == null ? null : got[i].getClass());
+            }
+        }
+        assertFalse(clds.hasNext());
+    }
+
+    private static WritePlan.TablePlan getTable(WritePlan plan, String tableName) {
+        for (WritePlan.TablePlan table : plan.getTables()) {
+            if (tableName.equals(table.getTableName())) {
+                return table;
+            }
+        }
+        return null;
+    }
+
+    // The column names, in the order that the writer used to produce them
+    static String[] columnNames(DatabaseSchema schema, ClassDescriptor tableMaster)
+        throws Exception {
+        String tableName = DatabaseUtil.getTableName(tableMaster);
+        DatabaseSchema.Fields allColumns = schema.getTableFields(tableMaster);
+        List<String> colNames = new ArrayList<String>();
+        boolean isFlat = schema.isFlatMode(tableMaster.getType());
+        if ("InterMineObject".equals(tableName) || (!(schema.isMissingNotXml() || isFlat))) {
+            colNames.add("OBJECT");
+        }
+        if (schema.isTruncated(tableMaster)) {
+            colNames.add("class");
+            colNames.add("tableclass");
+        } else if (!isFlat) {
+            colNames.add("class");
+        }
+        for (AttributeDescriptor field : allColumns.getAttributes()) {
+            colNames.add(DatabaseUtil.getColumnName(field));
+        }
+        for (ReferenceDescriptor field : allColumns.getReferences()) {
+            colNames.add(DatabaseUtil.getColumnName(field));
+        }
+        return colNames.toArray(new String[colNames.size()]);
+    }
+
+    // The values of a row, worked out for each object as the writer used to
+    static Object[] legacyValues(DatabaseSchema schema, ClassDescriptor cld, Object o)
+        throws Exception {
+        Set<String> validFieldNames = new HashSet<String>();
+        for (Map.Entry<String, TypeUtil.FieldInfo> entry : TypeUtil.getFieldInfos(o.getClass())
+                .entrySet()) {
+            if (!Collection.class.isAssignableFrom(entry.getValue().getType())) {
+                validFieldNames.add(entry.getKey());
+            }
+        }
+        ClassDescriptor tableMaster = schema.getTableMaster(cld);
+        String[] colNames = columnNames(schema, tableMaster);
+        DatabaseSchema.Fields allColumns = schema.getTableFields(tableMaster);
+        List<FieldDescriptor> fields = new ArrayList<FieldDescriptor>();
+        fields.addAll(allColumns.getAttributes());
+        fields.addAll(allColumns.getReferences());
+        int fieldsFrom = colNames.length - fields.size();
+        int referencesFrom = fieldsFrom + allColumns.getAttributes().size();
+        Object[] values = new Object[colNames.length];
+        for (int colNo = 0; colNo < colNames.length; colNo++) {
+            Object value = null;
+            FieldDescriptor field = (colNo >= fieldsFrom ? fields.get(colNo - fieldsFrom) : null);
+            if ("tableclass".equals(colNames[colNo])) {
+                value = cld.getName();
+            } else if ("class".equals(colNames[colNo])) {
+                StringBuffer sb = new StringBuffer();
+                boolean needComma = false;
+                for (Class<?> objectClazz : Util.decomposeClass(o.getClass())) {
+                    if (needComma) {
+                        sb.append(" ");
+                    }
+                    needComma = true;
+                    sb.append(objectClazz.getName());
+                }
+                value = sb.toString();
+            } else if ("OBJECT".equals(colNames[colNo])) {
+                value = (o instanceof InterMineObject ? ((InterMineObject) o).getoBJECT()
+                        : NotXmlRenderer.render(o));
+            } else if (validFieldNames.contains(field.getName())) {
+                value = TypeUtil.getFieldProxy(o, field.getName());
+                if ((value instanceof InterMineObject) && (colNo >= referencesFrom)) {
+                    value = ((InterMineObject) value).getId();
+                } else if ((value instanceof InterMineObject) || (colNo >= referencesFrom)) {
+                    value = null;
+                }
+            } else if (field instanceof AttributeDescriptor) {
+                String fieldType = ((AttributeDescriptor) field).getType();
+                if ("boolean".equals(fieldType)) {
+                    value = Boolean.FALSE;
+                } else if ("short".equals(fieldType)) {
+                    value = new Short((short) 0);
+                } else if ("int".equals(fieldType)) {
+                    value = new Integer(0);
+                } else if ("long".equals(fieldType)) {
+                    value = new Long(0L);
+                } else if ("float".equals(fieldType)) {
+                    value = new Float(0.0F);
+                } else if ("double".equals(fieldType)) {
+                    value = new Double(0.0);
+                }
+            }
+            values[colNo] = value;
+        }
+        return values;
+    }
+}
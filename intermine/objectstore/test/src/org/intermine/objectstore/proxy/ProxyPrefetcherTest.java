@@ -0,0 +1,235 @@
+package org.intermine.objectstore.proxy;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Test;
+
+import org.intermine.model.InterMineObject;
+import org.intermine.model.testmodel.Address;
+import org.intermine.model.testmodel.Company;
+import org.intermine.model.testmodel.Contractor;
+import org.intermine.model.testmodel.Department;
+import org.intermine.model.testmodel.Employee;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreFactory;
+import org.intermine.objectstore.StoreDataTestCase;
+import org.intermine.objectstore.intermine.DatabaseSchema;
+import org.intermine.objectstore.intermine.ObjectStoreInterMineImpl;
+import org.intermine.objectstore.query.Query;
+import org.intermine.objectstore.query.QueryClass;
+import org.intermine.objectstore.query.QueryField;
+import org.intermine.objectstore.query.ResultsRow;
+import org.intermine.sql.Database;
+
+/**
+ * Tests for ProxyPrefetcher, counting the queries run with and without it.
+ *
+ * @author chenyian
+ */
+public class ProxyPrefetcherTest extends StoreDataTestCase
+{
+    private static ObjectStoreInterMineImpl osai;
+    private CountingObjectStore os;
+
+    public ProxyPrefetcherTest(String arg) {
+        super(arg);
+    }
+
+    public static void oneTimeSetUp() throws Exception {
+        StoreDataTestCase.oneTimeSetUp();
+        osai = (ObjectStoreInterMineImpl) ObjectStoreFactory.getObjectStore("os.unittest");
+    }
+
+    public static Test suite() {
+        return buildSuite(ProxyPrefetcherTest.class);
+    }
+
+    public void executeTest(String type) {
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        // A new ObjectStore for each test, so that no results are cached from the last one
+        os = new CountingObjectStore(osai.getDatabase(), osai.getSchema());
+    }
+
+    private List<Company> getCompanies() {
+        Query q = new Query();
+        QueryClass qc = new QueryClass(Company.class);
+        q.addFrom(qc);
+        q.addToSelect(qc);
+        q.addToOrderBy(new QueryField(qc, "name"));
+        List<Company> companies = new ArrayList<Company>();
+        for (Object o : os.executeSingleton(q)) {
+            companies.add((Company) o);
+        }
+        os.resetCount();
+        return companies;
+    }
+
+    private static Set<Address> getEmployeeAddresses(Collection<Company> companies) {
+        Set<Address> addresses = new HashSet<Address>();
+        for (Company company : companies) {
+            for (Department department : company.getDepartments()) {
+                for (Employee employee : department.getEmployees()) {
+                    if (employee.getAddress() != null) {
+                        addresses.add(employee.getAddress());
+                    }
+                }
+            }
+        }
+        return addresses;
+    }
+
+    private static Set<Address> getExpectedAddresses() {
+        return getEmployeeAddresses(Arrays.asList((Company) data.get("CompanyA"),
+                    (Company) data.get("CompanyB")));
+    }
+
+    public void testQueryPerObject() throws Exception {
+        List<Company> companies = getCompanies();
+        assertEquals(getExpectedAddresses(), getEmployeeAddresses(companies));
+        // A query for each company, department and employee
+        assertTrue("Ran " + os.getQueryCount() + " queries", os.getQueryCount() > 5);
+    }
+
+    public void testQueryPerStep() throws Exception {
+        List<Company> companies = getCompanies();
+        os.prefetch(companies, "departments.employees.address");
+        assertEquals(3, os.getQueryCount());
+        assertEquals(getExpectedAddresses(), getEmployeeAddresses(companies));
+        assertEquals(3, os.getQueryCount());
+
+        // Nothing is left to load
+        os.prefetch(companies, "departments.employees.address");
+        assertEquals(3, os.getQueryCount());
+    }
+
+    public void testSharedSteps() throws Exception {
+        List<Company> companies = getCompanies();
+        os.prefetch(companies, "departments.employees", "departments.manager", "contractors",
+                "address");
+        // Departments, employees and contractors, and the addresses and managers not yet read
+        int queries = os.getQueryCount();
+        assertTrue("Ran " + queries + " queries", queries >= 3 && queries <= 5);
+
+        Set<InterMineObject> expected = new HashSet<InterMineObject>();
+        Set<InterMineObject> got = new HashSet<InterMineObject>();
+        for (String name : Arrays.asList("CompanyA", "CompanyB")) {
+            Company company = (Company) data.get(name);
+            expected.add(company.getAddress());
+            expected.addAll(company.getContractors());
+            for (Department department : company.getDepartments()) {
+                expected.add(department.getManager());
+                expected.addAll(department.getEmployees());
+            }
+        }
+        for (Company company : companies) {
+            got.add(company.getAddress());
+            got.addAll(company.getContractors());
+            for (Department department : company.getDepartments()) {
+                got.add(department.getManager());
+                got.addAll(department.getEmployees());
+            }
+        }
+        assertEquals(expected, got);
+        assertEquals(queries, os.getQueryCount());
+    }
+
+    public void testManyToMany() throws Exception {
+        List<Company> companies = getCompanies();
+        List<Contractor> contractors = new ArrayList<Contractor>();
+        os.prefetch(companies, "contractors");
+        for (Company company : companies) {
+            contractors.addAll(company.getContractors());
+        }
+        os.prefetch(contractors, "companys.address", "personalAddress");
+        assertEquals(4, os.getQueryCount());
+        for (Contractor contractor : contractors) {
+            assertEquals(new HashSet<Company>(companies),
+                    new HashSet<Company>(contractor.getCompanys()));
+            assertNotNull(contractor.getPersonalAddress());
+        }
+        assertEquals(4, os.getQueryCount());
+    }
+
+    public void testBadPath() throws Exception {
+        List<Company> companies = getCompanies();
+        try {
+            os.prefetch(companies, "name");
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            os.prefetch(companies, "departments.nosuchfield");
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * An ObjectStore that counts the queries it runs and the objects it fetches by id.
+     */
+    private static class CountingObjectStore extends ObjectStoreInterMineImpl
+    {
+        private final Set<Query> queries
+            = Collections.newSetFromMap(new IdentityHashMap<Query, Boolean>());
+        private int idLookups = 0;
+
+        CountingObjectStore(Database db, DatabaseSchema schema) {
+            super(db, schema);
+        }
+
+        @Override
+        public List<ResultsRow<Object>> execute(Query q, int start, int limit, boolean optimise,
+                boolean explain, Map<Object, Integer> sequence) throws ObjectStoreException {
+            synchronized (queries) {
+                queries.add(q);
+            }
+            return super.execute(q, start, limit, optimise, explain, sequence);
+        }
+
+        @Override
+        protected InterMineObject internalGetObjectById(Integer id,
+                Class<? extends InterMineObject> clazz) throws ObjectStoreException {
+            synchronized (queries) {
+                idLookups++;
+            }
+            return super.internalGetObjectById(id, clazz);
+        }
+
+        int getQueryCount() {
+            synchronized (queries) {
+                return queries.size() + idLookups;
+            }
+        }
+
+        void resetCount() {
+            synchronized (queries) {
+                queries.clear();
+                idLookups = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package org.intermine.web.logic.export;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream that gzips what is written to it on several threads at once.
+ *
+ * The bytes are cut into blocks, and each block is compressed on a shared pool of threads as a
+ * gzip member of its own. The members are written out in order. A file of concatenated gzip
+ * members is a valid gzip file, which gunzip and GZIPInputStream read as one. No more than a
+ * fixed number of blocks are held for each stream, so memory use stays bounded.
+ *
+ * In BGZF mode the blocks are at most 64KB and carry their compressed size, as in the blocked
+ * gzip format of SAMtools. Files in this format can be indexed by tabix or samtools faidx. BGZF
+ * files are still valid gzip files.
+ *
+ * flush() ends the current block, so that everything written so far can be decompressed by the
+ * reader. Flushing very often makes the output larger.
+ *
+ * @author chenyian
+ */
+public class ParallelGZIPOutputStream extends OutputStream
+{
+    /** The size of the blocks of a gzip stream. **/
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+    /** The size of the blocks of a BGZF stream, which leaves room for incompressible data. **/
+    public static final int BGZF_BLOCK_SIZE = 0xff00;
+
+    private static final int BGZF_MAX_BLOCK = 0x10000;
+    private static final byte[] BGZF_EOF = new byte[] {
+        0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00,
+        0x42, 0x43, 0x02, 0x00, 0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+        0x00, 0x00};
+
+    private static ExecutorService defaultPool = null;
+
+    private final OutputStream out;
+    private final ExecutorService pool;
+    private final boolean bgzf;
+    private final int blockSize;
+    private final int maxPending;
+    private final int level;
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    private byte[] buffer;
+    private int count = 0;
+    private boolean finished = false;
+
+    /**
+     * Constructor for a gzip stream, compressing on the shared pool.
+     * @param out the stream to write the compressed data to
+     */
+    public ParallelGZIPOutputStream(OutputStream out) {
+        this(out, false);
+    }
+
+    /**
+     * Constructor, compressing on the shared pool.
+     * @param out the stream to write the compressed data to
+     * @param bgzf true to write BGZF blocks
+     */
+    public ParallelGZIPOutputStream(OutputStream out, boolean bgzf) {
+        this(out, getDefaultPool(), bgzf ? BGZF_BLOCK_SIZE : DEFAULT_BLOCK_SIZE,
+                2 * Runtime.getRuntime().availableProcessors(), bgzf);
+    }
+
+    /**
+     * Constructor.
+     * @param out the stream to write the compressed data to
+     * @param pool the threads to compress on
+     * @param blockSize the number of bytes in each block
+     * @param maxPending the number of blocks that may be waiting to be written
+     * @param bgzf true to write BGZF blocks
+     */
+    public ParallelGZIPOutputStream(OutputStream out, ExecutorService pool, int blockSize,
+            int maxPending, boolean bgzf) {
+        if (blockSize < 1 || maxPending < 1 || (bgzf && blockSize > BGZF_BLOCK_SIZE)) {
+            throw new IllegalArgumentException("Bad block size or number of blocks: "
+                    + blockSize + ", " + maxPending);
+        }
+        this.out = out;
+        this.pool = pool;
+        this.blockSize = blockSize;
+        this.maxPending = maxPending;
+        this.bgzf = bgzf;
+        this.level = Deflater.DEFAULT_COMPRESSION;
+        this.buffer = new byte[blockSize];
+    }
+
+    /**
+     * @return the pool the streams share, with a thread for each processor
+     */
+    public static synchronized ExecutorService getDefaultPool() {
+        if (defaultPool == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger number = new AtomicInteger();
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "ParallelGZIPOutputStream "
+                                    + number.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            defaultPool = executor;
+        }
+        return defaultPool;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        buffer[count++] = (byte) b;
+        if (count == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!finished) {
+            submitBlock();
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Write out everything, without closing the underlying stream.
+     * @throws IOException if the underlying stream cannot be written to
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        flush();
+        if (bgzf) {
+            out.write(BGZF_EOF);
+        }
+        finished = true;
+        buffer = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(false);
+            }
+            pending.clear();
+            out.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (finished) {
+            throw new IOException("Stream already finished");
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+        final byte[] block = buffer;
+        final int length = count;
+        pending.add(pool.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(block, length, level, bgzf);
+            }
+        }));
+        buffer = new byte[blockSize];
+        count = 0;
+        // Write out what is ready, and wait if too many blocks are held
+        while (!pending.isEmpty()
+                && (pending.size() >= maxPending || pending.getFirst().isDone())) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<byte[]> future = pending.removeFirst();
+        try {
+            out.write(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Error compressing", e.getCause());
+        }
+    }
+
+    /**
+     * Compress a block as a gzip member.
+     * @param data the bytes to compress
+     * @param length the number of bytes of data to compress
+     * @param level the compression level
+     * @param bgzf true to write a BGZF block
+     * @return the gzip member
+     */
+    static byte[] compress(byte[] data, int length, int level, boolean bgzf) {
+        byte[] deflated = deflate(data, length, level);
+        if (bgzf && deflated.length + 26 > BGZF_MAX_BLOCK) {
+            // Incompressible data, which fits when stored
+            deflated = deflate(data, length, Deflater.NO_COMPRESSION);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        ByteArrayOutputStream member = new ByteArrayOutputStream(deflated.length + 26);
+        member.write(0x1f);
+        member.write(0x8b);
+        // Deflate, with the extra field of BGZF if wanted
+        member.write(8);
+        member.write(bgzf ? 4 : 0);
+        writeInt(member, 0);
+        member.write(0);
+        // Unknown operating system
+        member.write(0xff);
+        if (bgzf) {
+            writeShort(member, 6);
+            member.write('B');
+            member.write('C');
+            writeShort(member, 2);
+            writeShort(member, deflated.length + 25);
+        }
+        member.write(deflated, 0, deflated.length);
+        writeInt(member, (int) crc.getValue());
+        writeInt(member, length);
+        return member.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data, int length, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(length / 2 + 64);
+            byte[] chunk = new byte[16 * 1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                deflated.write(chunk, 0, n);
+            }
+            return deflated.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value & 0xff);
+        out.write((value >> 8) & 0xff);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        writeShort(out, value & 0xffff);
+        writeShort(out, (value >> 16) & 0xffff);
+    }
+}
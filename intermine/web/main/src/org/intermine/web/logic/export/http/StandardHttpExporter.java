@@ -15,7 +15,6 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -30,6 +29,7 @@ import org.intermine.web.logic.config.WebConfig;
 import org.intermine.web.logic.export.ExportException;
 import org.intermine.web.logic.export.ExportHelper;
 import org.intermine.web.logic.export.Exporter;
+import org.intermine.web.logic.export.ParallelGZIPOutputStream;
 import org.intermine.web.logic.results.PagedTable;
 import org.intermine.web.logic.session.SessionMethods;
 import org.intermine.web.struts.TableExportForm;
@@ -79,7 +79,7 @@ public abstract class StandardHttpExporter extends HttpExporterBase implements T
         try {
             out = response.getOutputStream();
             if (doGzip) {
-                out = new GZIPOutputStream(out);
+                out = new ParallelGZIPOutputStream(out);
             }
         } catch (final IOException e) {
             throw new ExportException("Export failed.", e);
@@ -101,9 +101,9 @@ public abstract class StandardHttpExporter extends HttpExporterBase implements T
             iter = getResultRows(pt, request);
             iter.goFaster();
             exporter.export(iter, unionPathCollection, newPathCollection);
-            if (out instanceof GZIPOutputStream) {
+            if (out instanceof ParallelGZIPOutputStream) {
                 try {
-                    ((GZIPOutputStream) out).finish();
+                    ((ParallelGZIPOutputStream) out).finish();
                 } catch (final IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -0,0 +1,287 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.metadata.FieldDescriptor;
+import org.intermine.objectstore.ObjectStore;
+import org.intermine.web.logic.widget.config.TableWidgetConfig;
+import org.intermine.web.logic.widget.config.WidgetConfig;
+
+/**
+ * Runs all the widgets of a list analysis at once, instead of one request per widget.
+ *
+ * The list is looked up once, and all the widgets query against the same ObjectStoreBag, which
+ * already holds the ids of the list's objects in the database.  The widgets are processed on a
+ * pool of threads shared by all analyses, so that however many widgets are asked for, only a
+ * bounded number of widget queries run at once.  Each widget is handed back as soon as it has
+ * been processed, so the caller can send it on while the others are still running.
+ *
+ * @author chenyian
+ */
+public class WidgetOrchestrator
+{
+    /** The number of widgets processed at once, unless another is given. **/
+    public static final int DEFAULT_THREADS = 4;
+
+    private static final Logger LOG = Logger.getLogger(WidgetOrchestrator.class);
+
+    private final ThreadPoolExecutor pool;
+
+    /**
+     * Constructor.
+     * @param threads the number of widgets to process at once, over all analyses
+     */
+    public WidgetOrchestrator(int threads) {
+        pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "WidgetOrchestrator "
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Start processing a set of widgets over a list, or a set of object ids.
+     *
+     * @param os the object store to query
+     * @param bag the list to analyse, or null if ids are given
+     * @param populationBags the background population of each enrichment widget, by widget
+     * name, or null.  A widget without one uses its default population
+     * @param ids comma separated object ids to analyse, used if bag is null
+     * @param populationIds comma separated object ids of the background population, or null
+     * @param configs the widgets to process
+     * @param options the options for the enrichment widgets.  Each widget uses its own default
+     * filter, whatever the filter of these options
+     * @param classKeys the class keys, which table widgets need
+     * @return an Analysis, which hands back each widget as it is finished
+     */
+    public Analysis analyse(final ObjectStore os, final InterMineBag bag,
+            final Map<String, InterMineBag> populationBags, final String ids,
+            final String populationIds, Collection<WidgetConfig> configs,
+            final EnrichmentOptions options, Map<String, List<FieldDescriptor>> classKeys) {
+        CompletionService<Outcome> completion = new ExecutorCompletionService<Outcome>(pool);
+        List<Future<Outcome>> futures = new ArrayList<Future<Outcome>>();
+        for (final WidgetConfig config : configs) {
+            if (config instanceof TableWidgetConfig) {
+                ((TableWidgetConfig) config).setClassKeys(classKeys);
+            }
+            final InterMineBag populationBag =
+                (populationBags == null ? null : populationBags.get(config.getId()));
+            futures.add(completion.submit(new Callable<Outcome>() {
+                @Override
+                public Outcome call() {
+                    return process(os, bag, populationBag, ids, populationIds, config, options);
+                }
+            }));
+        }
+        return new Analysis(completion, futures);
+    }
+
+    private static Outcome process(ObjectStore os, InterMineBag bag, InterMineBag populationBag,
+            String ids, String populationIds, WidgetConfig config, EnrichmentOptions options) {
+        long start = System.currentTimeMillis();
+        List<String> filters = null;
+        String filter = null;
+        try {
+            filters = config.getFiltersValues(os, bag, ids);
+            if (filters != null && !filters.isEmpty()) {
+                filter = filters.get(0);
+            }
+            Widget widget = config.getWidget(bag, populationBag, os,
+                    new FilteredOptions(options, filter), ids, populationIds);
+            widget.process();
+            return new Outcome(config, widget, filters, filter, null,
+                    System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            // One broken widget should not spoil the others
+            LOG.warn("Error processing widget " + config.getId(), e);
+            return new Outcome(config, null, filters, filter, e,
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Stop the threads, once the widgets already started have finished.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * The widgets of one analysis, in the order they finish.  The next widget is waited for if
+     * it has not finished yet.
+     */
+    public static final class Analysis implements Iterator<Outcome>
+    {
+        private final CompletionService<Outcome> completion;
+        private final List<Future<Outcome>> futures;
+        private int remaining;
+
+        private Analysis(CompletionService<Outcome> completion, List<Future<Outcome>> futures) {
+            this.completion = completion;
+            this.futures = futures;
+            this.remaining = futures.size();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public Outcome next() {
+            if (remaining <= 0) {
+                throw new NoSuchElementException();
+            }
+            try {
+                Outcome outcome = completion.take().get();
+                remaining--;
+                return outcome;
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for widgets", e);
+            } catch (ExecutionException e) {
+                // process() catches everything short of an Error
+                cancel();
+                throw new RuntimeException("Error processing widgets", e.getCause());
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * Give up on the widgets that have not started yet, for example because the client has
+         * gone away.
+         */
+        public void cancel() {
+            for (Future<Outcome> future : futures) {
+                future.cancel(false);
+            }
+            remaining = 0;
+        }
+    }
+
+    /**
+     * A processed widget, or the reason it could not be processed.
+     */
+    public static final class Outcome
+    {
+        private final WidgetConfig config;
+        private final Widget widget;
+        private final List<String> filters;
+        private final String filter;
+        private final Exception error;
+        private final long time;
+
+        private Outcome(WidgetConfig config, Widget widget, List<String> filters, String filter,
+                Exception error, long time) {
+            this.config = config;
+            this.widget = widget;
+            this.filters = filters;
+            this.filter = filter;
+            this.error = error;
+            this.time = time;
+        }
+
+        /** @return the description of the widget **/
+        public WidgetConfig getConfig() {
+            return config;
+        }
+
+        /** @return the processed widget, or null if it failed **/
+        public Widget getWidget() {
+            return widget;
+        }
+
+        /** @return the filter values the widget accepts, or null **/
+        public List<String> getFilters() {
+            return filters;
+        }
+
+        /** @return the filter the widget was processed with, or null **/
+        public String getFilter() {
+            return filter;
+        }
+
+        /** @return the reason the widget failed, or null **/
+        public Exception getError() {
+            return error;
+        }
+
+        /** @return the number of milliseconds the widget took **/
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * The options for the analysis, with the filter of one widget.
+     */
+    private static final class FilteredOptions implements EnrichmentOptions
+    {
+        private final EnrichmentOptions options;
+        private final String filter;
+
+        FilteredOptions(EnrichmentOptions options, String filter) {
+            this.options = options;
+            this.filter = filter;
+        }
+
+        @Override
+        public String getFilter() {
+            return filter;
+        }
+
+        @Override
+        public double getMaxPValue() {
+            return options.getMaxPValue();
+        }
+
+        @Override
+        public String getCorrection() {
+            return options.getCorrection();
+        }
+
+        @Override
+        public String getExtraCorrectionCoefficient() {
+            return options.getExtraCorrectionCoefficient();
+        }
+    }
+}
@@ -54,6 +54,7 @@ import org.intermine.api.LinkRedirectManager;
 import org.intermine.api.bag.BagQueryConfig;
 import org.intermine.api.bag.BagQueryHelper;
 import org.intermine.api.config.ClassKeyHelper;
+import org.intermine.api.idresolution.IDResolver;
 import org.intermine.api.profile.BagState;
 import org.intermine.api.profile.Profile;
 import org.intermine.api.profile.ProfileManager;
@@ -192,6 +193,8 @@ public class InitialiserPlugin implements PlugIn
         // need a global reference to ProfileManager so it can be closed cleanly on destroy
         profileManager = im.getProfileManager();
 
+        initIdResolution(webProperties);
+
         // Verify that the superuser found in the DB matches the user set in the properties file.
         final Profile superProfile = profileManager.getSuperuserProfile();
         initSuperUser(superProfile);
@@ -217,6 +220,14 @@ public class InitialiserPlugin implements PlugIn
         LOG.debug("Application initialised in " + (System.currentTimeMillis() - start) + "ms");
     }
 
+    private void initIdResolution(final Properties webProperties) {
+        int maxConnections = -1;
+        if (os instanceof ObjectStoreInterMineImpl) {
+            maxConnections = ((ObjectStoreInterMineImpl) os).getDatabase().getMaxConnections();
+        }
+        IDResolver.getInstance().configure(webProperties, maxConnections);
+    }
+
     private void initSearch(final ServletContext servletContext,
             final Profile superProfile) {
         // index global webSearchables
@@ -23,7 +23,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -43,6 +42,7 @@ import org.intermine.util.PropertiesUtil;
 import org.intermine.web.context.InterMineContext;
 import org.intermine.web.logic.RequestUtil;
 import org.intermine.web.logic.export.Exporter;
+import org.intermine.web.logic.export.ParallelGZIPOutputStream;
 import org.intermine.web.logic.export.ResponseUtil;
 import org.intermine.web.logic.profile.LoginHandler;
 import org.intermine.web.security.KeyStorePublicKeySource;
@@ -103,6 +103,7 @@ public abstract class WebService
 
     private static final String COMPRESS = "compress";
     private static final String GZIP = "gzip";
+    private static final String BGZF = "bgzf";
     private static final String ZIP = "zip";
 
     private static final Logger LOG = Logger.getLogger(WebService.class);
@@ -745,10 +746,18 @@ public abstract class WebService
     }
 
     /**
-     * @return Whether or not this request wants gzipped data.
+     * @return Whether or not this request wants gzipped data, in either block format.
      */
     protected boolean isGzip() {
-        return GZIP.equalsIgnoreCase(request.getParameter(COMPRESS));
+        return GZIP.equalsIgnoreCase(request.getParameter(COMPRESS)) || isBgzf();
+    }
+
+    /**
+     * @return Whether or not this request wants gzipped data in BGZF blocks, which tabix and
+     * samtools can index.
+     */
+    protected boolean isBgzf() {
+        return BGZF.equalsIgnoreCase(request.getParameter(COMPRESS));
     }
 
     /**
@@ -801,7 +810,7 @@ public abstract class WebService
             response.setBufferSize(8 * 1024);
             os = response.getOutputStream();
             if (isGzip()) {
-                os = new GZIPOutputStream(os);
+                os = new ParallelGZIPOutputStream(os, isBgzf());
             } else if (isZip()) {
                 os = new ZipOutputStream(new BufferedOutputStream(os));
             }
@@ -138,6 +138,11 @@ public class WebServiceRequestParser
      **/
     public static final String FORMAT_PARAMETER_JSONP_COUNT = "jsonpcount";
 
+    /**
+     * Value of parameter when user wants results as binary batches of typed columns
+     **/
+    public static final String FORMAT_PARAMETER_COLUMNAR = "columnar";
+
     /**Name of format parameter that specifies format of returned results. */
     public static final String OUTPUT_PARAMETER = "format";
 
@@ -214,6 +219,7 @@ public class WebServiceRequestParser
             put(FORMAT_PARAMETER_JSON, Format.JSON);
             put(FORMAT_PARAMETER_JSONP_COUNT, Format.JSON);
             put(FORMAT_PARAMETER_JSON_COUNT, Format.JSON);
+            put(FORMAT_PARAMETER_COLUMNAR, Format.COLUMNAR);
         }
     };
 
@@ -294,6 +300,8 @@ public class WebServiceRequestParser
                     String type = parts[0].trim();
                     if (ACCEPT_TYPES.containsKey(type)) {
                         areAcceptable.add(Format.valueOf(ACCEPT_TYPES.get(type)));
+                    } else if (Format.COLUMNAR.getContentType().equals(type)) {
+                        areAcceptable.add(Format.COLUMNAR);
                     } else if ("application/json".equals(type)
                             || "text/javascript".equals(type)
                             || "application/javascript".equals(type)
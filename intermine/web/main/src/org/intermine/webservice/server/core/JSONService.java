@@ -106,8 +106,7 @@ public abstract class JSONService extends WebService
      * @param hasMore Whether there is more to come, and thus a comma is required.
      */
     protected void addResultItem(Map<String, ? extends Object> mapping, boolean hasMore) {
-        JSONObject jo = new JSONObject(mapping);
-        addResultItemInternal(jo, hasMore);
+        output.addJSONResultItem(mapping, hasMore);
     }
 
     /**
@@ -213,8 +212,7 @@ public abstract class JSONService extends WebService
      * @param hasMore Whether there is more to come, and thus a comma is required.
      */
     protected void addResultItem(List<? extends Object> listing, boolean hasMore) {
-        JSONArray ja = new JSONArray(listing);
-        addResultItemInternal(ja, hasMore);
+        output.addJSONResultItem(listing, hasMore);
     }
 
     private void addResultItemInternal(Object obj, boolean hasMore) {
@@ -13,6 +13,7 @@ package org.intermine.webservice.server.idresolution;
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -53,7 +54,12 @@ public class IdResolutionService extends JSONService
 
         final BagQueryRunner runner = im.getBagQueryRunner();
 
-        Job job = IDResolver.getInstance().submit(runner, in);
+        Job job;
+        try {
+            job = IDResolver.getInstance().submit(runner, in, true);
+        } catch (RejectedExecutionException e) {
+            throw new ServiceException(e.getMessage(), 503);
+        }
 
         addResultValue(job.getUid(), false);
     }
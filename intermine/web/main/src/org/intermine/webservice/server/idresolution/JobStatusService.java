@@ -14,6 +14,7 @@ import org.intermine.api.InterMineAPI;
 import org.intermine.api.idresolution.IDResolver;
 import org.intermine.api.idresolution.Job;
 import org.intermine.api.idresolution.Job.JobStatus;
+import org.intermine.api.idresolution.JobMetrics;
 import org.intermine.webservice.server.core.JSONService;
 import org.intermine.webservice.server.exceptions.ResourceNotFoundException;
 
@@ -40,6 +41,25 @@ public class JobStatusService extends JSONService
             if (job.getStatus() == JobStatus.ERROR) {
                 this.addOutputInfo("message", job.getError().getMessage());
             }
+            IDResolver resolver = IDResolver.getInstance();
+            JobMetrics metrics = resolver.getMetrics(job.getUid());
+            if (metrics != null) {
+                if (job.getStatus() == JobStatus.PENDING) {
+                    int position = resolver.getQueuePosition(job.getUid());
+                    if (position >= 0) {
+                        addOutputInfo("queuePosition", String.valueOf(position));
+                    }
+                }
+                addOutputInfo("queueWait", String.valueOf(metrics.getQueueWait()));
+                addOutputInfo("runTime", String.valueOf(metrics.getRunTime()));
+                if (metrics.getIdentifiers() > 0) {
+                    addOutputInfo("identifiers", String.valueOf(metrics.getIdentifiers()));
+                }
+                if (metrics.getIdentifiersPerSecond() > 0) {
+                    addOutputInfo("identifiersPerSecond",
+                            String.valueOf(Math.round(metrics.getIdentifiersPerSecond())));
+                }
+            }
             addResultValue(job.getStatus().name(), false);
         } else {
             throw new ResourceNotFoundException("No such job: " + jobId);
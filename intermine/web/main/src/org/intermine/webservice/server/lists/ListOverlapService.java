@@ -0,0 +1,99 @@
+package org.intermine.webservice.server.lists;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.api.InterMineAPI;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.api.profile.Profile;
+import org.intermine.webservice.server.core.JSONService;
+import org.intermine.webservice.server.exceptions.BadRequestException;
+import org.intermine.webservice.server.exceptions.ServiceForbiddenException;
+import org.json.JSONArray;
+
+/**
+ * A service for comparing many lists at once.  For every pair of the given lists it reports how
+ * many objects they have in common, working from the cached contents of the lists rather than
+ * creating intersections in the database.
+ *
+ * @author chenyian
+ */
+public class ListOverlapService extends JSONService
+{
+
+    /**
+     * Constructor.
+     * @param im The InterMine application object.
+     */
+    public ListOverlapService(InterMineAPI im) {
+        super(im);
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "overlaps";
+    }
+
+    @Override
+    protected void execute() throws Exception {
+        Profile profile = getPermission().getProfile();
+        Set<String> names = new LinkedHashSet<String>();
+        String[] paramValues = request.getParameterValues(ListInput.LISTS_PARAMETER);
+        if (paramValues != null) {
+            for (String value : paramValues) {
+                for (String name : StringUtils.split(value, ListInput.LIST_SEPARATOR)) {
+                    names.add(name);
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            throw new BadRequestException("Required parameter " + ListInput.LISTS_PARAMETER
+                    + " is missing");
+        }
+
+        List<InterMineBag> lists = new ArrayList<InterMineBag>();
+        List<String> errors = new ArrayList<String>();
+        for (String name : names) {
+            InterMineBag list = bagManager.getBag(profile, name);
+            if (list == null) {
+                errors.add("You do not have access to " + name);
+            } else if (!list.isCurrent()) {
+                errors.add(name + " is not current");
+            } else {
+                lists.add(list);
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new ServiceForbiddenException(StringUtils.join(errors, ", "));
+        }
+
+        int[][] overlaps = bagManager.getOverlaps(lists);
+        JSONArray matrix = new JSONArray();
+        for (int[] row : overlaps) {
+            JSONArray counts = new JSONArray();
+            for (int count : row) {
+                counts.put(count);
+            }
+            matrix.put(counts);
+        }
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put("lists", new JSONArray(names));
+        result.put("counts", matrix);
+        addResultItem(result, false);
+    }
+}
@@ -0,0 +1,401 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.webservice.server.exceptions.ServiceException;
+
+/**
+ * An output that streams rows as binary batches of typed columns, so that clients can read large
+ * result sets without parsing text.  Rows are gathered into batches of a fixed number of rows,
+ * and each batch is written as soon as it is full.
+ *
+ * The stream starts with the eight bytes of MAGIC, followed by messages.  Every message is an
+ * int32 message type and an int32 body length, then the body.  All numbers are little-endian,
+ * and every body and every section within a body is padded with zeros to a multiple of eight
+ * bytes, so that a client that reads a whole body into a buffer can view each vector in place.
+ * <pre>
+ * HEADER: a string list of the column names (there may be fewer names than columns)
+ * BATCH:  int32 row count, int32 column count, then for each column:
+ *         int32 vector type, int32 data length, a validity bitmap, then the data
+ * END:    int32 status code, int32 0, a string list holding the error message, if any
+ * </pre>
+ * A validity bitmap is one int64 word per 64 rows, with bit (row % 64) of word (row / 64) set
+ * when the value is not null.  The data of each vector type is:
+ * <pre>
+ * NULL:    nothing
+ * INT32:   one int32 per row
+ * INT64:   one int64 per row
+ * FLOAT64: one float64 per row
+ * BOOLEAN: a bitmap like the validity bitmap, with the bits of true values set
+ * STRING:  a string list of the distinct values, then one int32 index into it per row
+ * </pre>
+ * A string list is an int32 count, an int32 byte length, count + 1 int32 offsets, then the UTF-8
+ * bytes of the strings.  String i is the bytes from offset i to offset i + 1.
+ *
+ * Each batch chooses the narrowest type that holds all of the values in each of its columns, and
+ * values that are not numbers or booleans are written as strings.
+ *
+ * @author chenyian
+ */
+public class ColumnarOutput extends Output
+{
+    /** The header attribute holding the names of the columns. **/
+    public static final String COLUMN_NAMES = "columnNames";
+
+    /** The first bytes of every stream. **/
+    public static final byte[] MAGIC = {'I', 'M', 'C', 'O', 'L', 'S', '0', '1'};
+
+    /** The header message type. **/
+    public static final int HEADER = 1;
+    /** The batch message type. **/
+    public static final int BATCH = 2;
+    /** The end message type. **/
+    public static final int END = 3;
+
+    /** The type of a column with no values. **/
+    public static final int NULL = 0;
+    /** The type of a column of integers. **/
+    public static final int INT32 = 1;
+    /** The type of a column of longs. **/
+    public static final int INT64 = 2;
+    /** The type of a column of floating point numbers. **/
+    public static final int FLOAT64 = 3;
+    /** The type of a column of booleans. **/
+    public static final int BOOLEAN = 4;
+    /** The type of a column of dictionary encoded strings. **/
+    public static final int STRING = 5;
+
+    /** The number of rows in a batch, unless another is given. **/
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+
+    private final OutputStream os;
+    private final int batchSize;
+    private List<List<Object>> columns = null;
+    private int rows = 0;
+    private int resultsCount = 0;
+    private boolean headerWritten = false;
+
+    /**
+     * Constructor.
+     * @param os The stream to write to.
+     */
+    public ColumnarOutput(OutputStream os) {
+        this(os, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor.
+     * @param os The stream to write to.
+     * @param batchSize The number of rows in each batch.
+     */
+    public ColumnarOutput(OutputStream os, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.os = os;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Adds a row of strings.
+     * @param item The row.
+     */
+    @Override
+    public void addResultItem(List<String> item) {
+        addRow(item);
+    }
+
+    /**
+     * Adds a row of values, which should be Numbers, Booleans, Strings or null.  Any other value
+     * is written as its string form.
+     * @param row The row.
+     */
+    public void addRow(List<? extends Object> row) {
+        ensureHeaderIsWritten();
+        if (columns != null && columns.size() != row.size()) {
+            // Each batch has a single width.
+            writeBatch();
+        }
+        if (columns == null) {
+            columns = new ArrayList<List<Object>>();
+            for (int i = 0; i < row.size(); i++) {
+                columns.add(new ArrayList<Object>(batchSize));
+            }
+        }
+        for (int i = 0; i < row.size(); i++) {
+            columns.get(i).add(row.get(i));
+        }
+        rows++;
+        resultsCount++;
+        if (rows >= batchSize) {
+            writeBatch();
+        }
+    }
+
+    /**
+     * Writes the rows not yet written and the end of the stream, and closes it.
+     */
+    @Override
+    public void flush() {
+        ensureHeaderIsWritten();
+        writeBatch();
+        String error = getError();
+        List<String> messages;
+        if (error == null) {
+            messages = Collections.emptyList();
+        } else {
+            messages = Collections.singletonList(error);
+        }
+        ByteBuffer list = encodeStrings(messages);
+        ByteBuffer body = allocate(8 + list.capacity());
+        body.putInt(getCode()).putInt(0).put(list.array());
+        try {
+            writeMessage(END, body);
+            os.flush();
+            os.close();
+        } catch (IOException e) {
+            throw new ServiceException("Error writing results", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setHeaderAttributes(Map<String, Object> attributes) {
+        if (headerWritten) {
+            throw new RuntimeException("Attempt to set header attributes "
+                + "although header was printed already.");
+        }
+        super.setHeaderAttributes(attributes);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getResultsCount() {
+        return resultsCount;
+    }
+
+    private void ensureHeaderIsWritten() {
+        if (!headerWritten) {
+            List<String> names = new ArrayList<String>();
+            Object attribute = getHeaderAttributes().get(COLUMN_NAMES);
+            if (attribute instanceof List<?>) {
+                for (Object name : (List<?>) attribute) {
+                    names.add(String.valueOf(name));
+                }
+            }
+            try {
+                os.write(MAGIC);
+                writeMessage(HEADER, encodeStrings(names));
+            } catch (IOException e) {
+                throw new ServiceException("Error writing results", e);
+            }
+            headerWritten = true;
+        }
+    }
+
+    private void writeBatch() {
+        if (rows == 0) {
+            return;
+        }
+        List<ByteBuffer> vectors = new ArrayList<ByteBuffer>();
+        int size = 8;
+        for (List<Object> column : columns) {
+            ByteBuffer vector = encodeColumn(column);
+            vectors.add(vector);
+            size += vector.capacity();
+        }
+        ByteBuffer body = allocate(size);
+        body.putInt(rows).putInt(columns.size());
+        for (ByteBuffer vector : vectors) {
+            body.put(vector.array());
+        }
+        try {
+            writeMessage(BATCH, body);
+        } catch (IOException e) {
+            throw new ServiceException("Error writing results", e);
+        }
+        columns = null;
+        rows = 0;
+    }
+
+    private void writeMessage(int type, ByteBuffer body) throws IOException {
+        ByteBuffer head = allocate(8);
+        head.putInt(type).putInt(body.capacity());
+        os.write(head.array());
+        os.write(body.array());
+    }
+
+    private static ByteBuffer encodeColumn(List<Object> values) {
+        int type = getType(values);
+        int n = values.size();
+        long[] validity = new long[(n + 63) / 64];
+        long[] truths = new long[validity.length];
+        for (int i = 0; i < n; i++) {
+            Object value = values.get(i);
+            if (value != null) {
+                validity[i >>> 6] |= 1L << (i & 63);
+                if (Boolean.TRUE.equals(value)) {
+                    truths[i >>> 6] |= 1L << (i & 63);
+                }
+            }
+        }
+        ByteBuffer data;
+        switch (type) {
+            case INT32:
+                data = allocate(pad(4 * n));
+                for (Object value : values) {
+                    data.putInt((value == null) ? 0 : ((Number) value).intValue());
+                }
+                break;
+            case INT64:
+                data = allocate(8 * n);
+                for (Object value : values) {
+                    data.putLong((value == null) ? 0 : ((Number) value).longValue());
+                }
+                break;
+            case FLOAT64:
+                data = allocate(8 * n);
+                for (Object value : values) {
+                    data.putDouble((value == null) ? 0 : ((Number) value).doubleValue());
+                }
+                break;
+            case BOOLEAN:
+                data = allocate(8 * truths.length);
+                for (long word : truths) {
+                    data.putLong(word);
+                }
+                break;
+            case STRING:
+                data = encodeDictionary(values);
+                break;
+            default:
+                data = allocate(0);
+        }
+        ByteBuffer vector = allocate(8 + 8 * validity.length + data.capacity());
+        vector.putInt(type).putInt(data.capacity());
+        for (long word : validity) {
+            vector.putLong(word);
+        }
+        vector.put(data.array());
+        return vector;
+    }
+
+    private static int getType(List<Object> values) {
+        boolean ints = true;
+        boolean longs = true;
+        boolean doubles = true;
+        boolean booleans = true;
+        boolean empty = true;
+        for (Object value : values) {
+            if (value == null) {
+                continue;
+            }
+            empty = false;
+            boolean isInt = value instanceof Integer || value instanceof Short
+                || value instanceof Byte;
+            boolean isLong = isInt || value instanceof Long;
+            ints &= isInt;
+            longs &= isLong;
+            doubles &= isLong || value instanceof Double || value instanceof Float;
+            booleans &= value instanceof Boolean;
+        }
+        if (empty) {
+            return NULL;
+        } else if (ints) {
+            return INT32;
+        } else if (longs) {
+            return INT64;
+        } else if (doubles) {
+            return FLOAT64;
+        } else if (booleans) {
+            return BOOLEAN;
+        }
+        return STRING;
+    }
+
+    private static ByteBuffer encodeDictionary(List<Object> values) {
+        Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+        int[] indices = new int[values.size()];
+        for (int i = 0; i < indices.length; i++) {
+            Object value = values.get(i);
+            if (value != null) {
+                String s = value.toString();
+                Integer index = dictionary.get(s);
+                if (index == null) {
+                    index = Integer.valueOf(dictionary.size());
+                    dictionary.put(s, index);
+                }
+                indices[i] = index.intValue();
+            }
+        }
+        ByteBuffer strings = encodeStrings(new ArrayList<String>(dictionary.keySet()));
+        ByteBuffer data = allocate(strings.capacity() + pad(4 * indices.length));
+        data.put(strings.array());
+        for (int index : indices) {
+            data.putInt(index);
+        }
+        return data;
+    }
+
+    private static ByteBuffer encodeStrings(List<String> strings) {
+        List<byte[]> encoded = new ArrayList<byte[]>();
+        int length = 0;
+        for (String s : strings) {
+            byte[] bytes = utf8(s);
+            encoded.add(bytes);
+            length += bytes.length;
+        }
+        ByteBuffer list = allocate(8 + pad(4 * (strings.size() + 1)) + pad(length));
+        list.putInt(strings.size()).putInt(length);
+        int offset = 0;
+        list.putInt(offset);
+        for (byte[] bytes : encoded) {
+            offset += bytes.length;
+            list.putInt(offset);
+        }
+        list.position(8 + pad(4 * (strings.size() + 1)));
+        for (byte[] bytes : encoded) {
+            list.put(bytes);
+        }
+        return list;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int pad(int size) {
+        return (size + 7) & ~7;
+    }
+}
@@ -0,0 +1,51 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.intermine.api.results.ResultElement;
+import org.intermine.pathquery.ConstraintValueParser;
+import org.intermine.webservice.server.core.ResultProcessor;
+
+/**
+ * A result processor that hands the values of each cell to a ColumnarOutput as they are, rather
+ * than as strings, so that numbers and booleans are written in binary.  Dates are written as
+ * ISO dates, as in the other formats.
+ *
+ * @author chenyian
+ */
+public class ColumnarResultProcessor extends ResultProcessor
+{
+    @Override
+    public void write(Iterator<List<ResultElement>> resultIt, Output output) {
+        if (!(output instanceof ColumnarOutput)) {
+            super.write(resultIt, output);
+            return;
+        }
+        ColumnarOutput columnar = (ColumnarOutput) output;
+        while (resultIt.hasNext()) {
+            List<ResultElement> row = resultIt.next();
+            List<Object> values = new ArrayList<Object>(row.size());
+            for (ResultElement el : row) {
+                Object value = (el == null) ? null : el.getField();
+                if (value instanceof Date) {
+                    value = ConstraintValueParser.ISO_DATE_FORMAT.format(value);
+                }
+                values.add(value);
+            }
+            columnar.addRow(values);
+        }
+    }
+}
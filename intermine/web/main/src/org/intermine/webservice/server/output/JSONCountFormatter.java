@@ -22,6 +22,11 @@ import org.intermine.webservice.server.exceptions.ServiceException;
 public class JSONCountFormatter extends JSONFormatter
 {
 
+    @Override
+    protected boolean printsResultsAsGiven() {
+        return false;
+    }
+
     @Override
     public String formatResult(List<String> resultRow) {
         if (resultRow.size() != 1) {
@@ -16,13 +16,13 @@ import java.util.List;
 
 import org.intermine.api.results.ExportResultsIterator;
 import org.intermine.api.results.ResultElement;
-import org.json.JSONArray;
 
 /**
+ * Turns result rows into lists of values, which are written as JSON arrays.
  * @author Alexis Kalderimis
  *
  */
-public class JSONDataTableRowIterator implements Iterator<JSONArray>
+public class JSONDataTableRowIterator implements Iterator<List<Object>>
 {
 
     private final ExportResultsIterator subIter;
@@ -41,7 +41,7 @@ public class JSONDataTableRowIterator implements Iterator<JSONArray>
     }
 
     @Override
-    public JSONArray next() {
+    public List<Object> next() {
         List<ResultElement> row = subIter.next();
         List<Object> jsonRow = new ArrayList<Object>();
         for (int i = 0; i < row.size(); i++) {
@@ -56,8 +56,7 @@ public class JSONDataTableRowIterator implements Iterator<JSONArray>
                 jsonRow.add(re.getField());
             }
         }
-        JSONArray next = new JSONArray(jsonRow);
-        return next;
+        return jsonRow;
     }
 
     @Override
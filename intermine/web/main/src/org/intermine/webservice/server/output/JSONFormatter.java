@@ -206,6 +206,14 @@ public class JSONFormatter extends Formatter
         return buffer.toString();
     }
 
+    /**
+     * @return whether formatResult prints a single JSON value as it is given, so that it may be
+     * written straight to the output instead.
+     */
+    protected boolean printsResultsAsGiven() {
+        return !shouldQuote;
+    }
+
     /** Signal that we have started printing results and that it isn't safe to print headers. **/
     protected void declarePrinted() {
         hasPrintedSomething = true;
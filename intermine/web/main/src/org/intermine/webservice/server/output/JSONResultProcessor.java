@@ -10,13 +10,10 @@ package org.intermine.webservice.server.output;
  *
  */
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
-import org.apache.log4j.Logger;
 import org.intermine.api.results.ResultElement;
 import org.intermine.webservice.server.core.ResultProcessor;
 
@@ -28,8 +25,6 @@ import org.intermine.webservice.server.core.ResultProcessor;
  */
 public abstract class JSONResultProcessor extends ResultProcessor
 {
-    private static final Logger LOG = Logger.getLogger(ResultProcessor.class);
-
     /**
      * Constructor.
      */
@@ -52,21 +47,11 @@ public abstract class JSONResultProcessor extends ResultProcessor
         if (!objIter.hasNext()) { // address bug which means json results with < 1 results fail
             output.addResultItem(Collections.EMPTY_LIST);
         }
-        boolean lastHasComma = false;
+        // Each item is written as JSON text straight to the output, rather than stringified as
+        // a tree.
         while (objIter.hasNext()) {
             Object next = objIter.next();
-            List<String> outputLine = new ArrayList<String>(
-                    Arrays.asList(next.toString()));
-            if (objIter.hasNext()) {
-                outputLine.add("");
-                lastHasComma = true;
-            } else {
-                lastHasComma = false;
-            }
-            output.addResultItem(outputLine);
-        }
-        if (lastHasComma) {
-            LOG.error("Last row has a comma!");
+            output.addJSONResultItem(next, objIter.hasNext());
         }
     }
 
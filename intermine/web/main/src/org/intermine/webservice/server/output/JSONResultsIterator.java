@@ -77,6 +77,15 @@ public class JSONResultsIterator implements Iterator<JSONObject>
      * {@inheritDoc}
      */
     public JSONObject next() {
+        return new JSONObject(nextRecord());
+    }
+
+    /**
+     * Get the next object as nested maps and lists, without converting it into a JSONObject.
+     * This is the same data as next() returns, in a form that can be written out directly.
+     * @return The next object.
+     */
+    public Map<String, Object> nextRecord() {
         Map<String, Object> nextJsonMap = new HashMap<String, Object>();
         Integer lastId = null;
 
@@ -98,8 +107,7 @@ public class JSONResultsIterator implements Iterator<JSONObject>
                 lastId = currentId;
             }
         }
-        JSONObject nextObj = new JSONObject(nextJsonMap);
-        return nextObj;
+        return nextJsonMap;
     }
 
     private void addRowToJsonMap(List<ResultElement> results,
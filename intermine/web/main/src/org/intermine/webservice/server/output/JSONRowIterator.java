@@ -53,14 +53,22 @@ public class JSONRowIterator implements Iterator<JSONArray>
 
     @Override
     public JSONArray next() {
+        return new JSONArray(nextRow());
+    }
+
+    /**
+     * Get the next row as a list of cells, each a map that is written as a JSON object, without
+     * building a JSONArray.
+     * @return The cells of the next row.
+     */
+    public List<Object> nextRow() {
         List<ResultElement> row = subIter.next();
-        List<Object> jsonRow = new ArrayList<Object>();
+        List<Object> jsonRow = new ArrayList<Object>(row.size());
         for (int i = 0; i < row.size(); i++) {
             ResultElement re = row.get(i);
-            jsonRow.add(tableCellFormatter.toJSON(re));
+            jsonRow.add(tableCellFormatter.toMap(re));
         }
-        JSONArray next = new JSONArray(jsonRow);
-        return next;
+        return jsonRow;
     }
 
     @Override
@@ -18,8 +18,6 @@ import org.intermine.api.InterMineAPI;
 import org.intermine.api.results.ExportResultsIterator;
 import org.intermine.api.results.ResultElement;
 
-import org.json.JSONArray;
-
 /**
  * A result processor for result rows.
  * @author Alex Kalderimis
@@ -58,13 +56,27 @@ public class JSONRowResultProcessor extends JSONResultProcessor
 
     @Override
     protected Iterator<? extends Object> getResultsIterator(Iterator<List<ResultElement>> it) {
-        Iterator<JSONArray> jsonIter;
         if (verbosity == Verbosity.MINIMAL) {
-            jsonIter = new MinimalJsonIterator(it);
-        } else {
-            jsonIter = new JSONRowIterator((ExportResultsIterator) it, im);
+            return new MinimalJsonIterator(it);
         }
-        return jsonIter;
+        // The rows are written straight from their cells' maps.
+        final JSONRowIterator jsonIter = new JSONRowIterator((ExportResultsIterator) it, im);
+        return new Iterator<List<Object>>() {
+            @Override
+            public boolean hasNext() {
+                return jsonIter.hasNext();
+            }
+
+            @Override
+            public List<Object> next() {
+                return jsonIter.nextRow();
+            }
+
+            @Override
+            public void remove() {
+                jsonIter.remove();
+            }
+        };
     }
 
 }
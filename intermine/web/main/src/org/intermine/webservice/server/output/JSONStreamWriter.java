@@ -0,0 +1,292 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+
+/**
+ * Writes values as JSON text straight to a writer, without building JSONObject and JSONArray
+ * trees first.  Values are written the way JSONObject.toString() writes them - the same
+ * escaping, and the same number formatting - so the text is the same as from the org.json
+ * classes, except that the keys of maps come in the order of the map itself.  Output is
+ * gathered in a buffer that is reused for the life of the writer, and handed to the underlying
+ * writer as the buffer fills and on flush().
+ *
+ * @author chenyian
+ */
+public class JSONStreamWriter
+{
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Writer out;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position = 0;
+
+    /**
+     * Constructor.
+     * @param out Where to write the text.
+     */
+    public JSONStreamWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Write a value: a Map or a JSONObject as an object, a Collection, array or JSONArray as an
+     * array, a Number or Boolean as itself, null as null, and anything else as a string.
+     * @param value The value.
+     * @return This writer.
+     */
+    public JSONStreamWriter value(Object value) {
+        if (value == null || value.equals(null)) {
+            append("null");
+        } else if (value instanceof JSONString) {
+            append(((JSONString) value).toJSONString());
+        } else if (value instanceof Number) {
+            number((Number) value);
+        } else if (value instanceof Boolean) {
+            append(((Boolean) value).booleanValue() ? "true" : "false");
+        } else if (value instanceof JSONObject) {
+            jsonObject((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            jsonArray((JSONArray) value);
+        } else if (value instanceof Map<?, ?>) {
+            map((Map<?, ?>) value);
+        } else if (value instanceof Collection<?>) {
+            collection((Collection<?>) value);
+        } else if (value.getClass().isArray()) {
+            array(value);
+        } else {
+            string(value.toString());
+        }
+        return this;
+    }
+
+    /**
+     * Write a string, quoted and escaped.
+     * @param s The string.
+     * @return This writer.
+     */
+    public JSONStreamWriter string(String s) {
+        append('"');
+        char c = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char b = c;
+            c = s.charAt(i);
+            switch (c) {
+                case '\\':
+                case '"':
+                    append('\\');
+                    append(c);
+                    break;
+                case '/':
+                    // So that the text can go inside a script element.
+                    if (b == '<') {
+                        append('\\');
+                    }
+                    append(c);
+                    break;
+                case '\b':
+                    append("\\b");
+                    break;
+                case '\t':
+                    append("\\t");
+                    break;
+                case '\n':
+                    append("\\n");
+                    break;
+                case '\f':
+                    append("\\f");
+                    break;
+                case '\r':
+                    append("\\r");
+                    break;
+                default:
+                    if (c < ' ' || (c >= '\u0080' && c < '\u00a0')
+                            || (c >= '\u2000' && c < '\u2100')) {
+                        append("\\u");
+                        append(HEX[(c >> 12) & 0xf]);
+                        append(HEX[(c >> 8) & 0xf]);
+                        append(HEX[(c >> 4) & 0xf]);
+                        append(HEX[c & 0xf]);
+                    } else {
+                        append(c);
+                    }
+            }
+        }
+        append('"');
+        return this;
+    }
+
+    /**
+     * Hand everything written so far to the underlying writer.
+     */
+    public void flush() {
+        try {
+            out.write(buffer, 0, position);
+        } catch (IOException e) {
+            throw new JSONFormattingException("Error writing JSON", e);
+        }
+        position = 0;
+    }
+
+    private void number(Number n) {
+        if (n instanceof Integer || n instanceof Long || n instanceof Short
+                || n instanceof Byte || n instanceof BigInteger) {
+            append(n.toString());
+            return;
+        }
+        if ((n instanceof Double && (((Double) n).isInfinite() || ((Double) n).isNaN()))
+                || (n instanceof Float && (((Float) n).isInfinite() || ((Float) n).isNaN()))) {
+            // Not allowed in JSON.
+            append("null");
+            return;
+        }
+        // Shave off trailing zeros and the decimal point, as JSONObject does.
+        String s = n.toString();
+        int end = s.length();
+        if (s.indexOf('.') > 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+            while (s.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (s.charAt(end - 1) == '.') {
+                end--;
+            }
+        }
+        append(s, end);
+    }
+
+    private void map(Map<?, ?> map) {
+        append('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!first) {
+                append(',');
+            }
+            first = false;
+            string(String.valueOf(entry.getKey()));
+            append(':');
+            member(entry.getValue());
+        }
+        append('}');
+    }
+
+    private void jsonObject(JSONObject object) {
+        append('{');
+        boolean first = true;
+        Iterator<?> keys = object.keys();
+        while (keys.hasNext()) {
+            if (!first) {
+                append(',');
+            }
+            first = false;
+            String key = keys.next().toString();
+            string(key);
+            append(':');
+            value(object.opt(key));
+        }
+        append('}');
+    }
+
+    private void collection(Collection<?> collection) {
+        append('[');
+        boolean first = true;
+        for (Object item : collection) {
+            if (!first) {
+                append(',');
+            }
+            first = false;
+            member(item);
+        }
+        append(']');
+    }
+
+    private void jsonArray(JSONArray array) {
+        append('[');
+        for (int i = 0; i < array.length(); i++) {
+            if (i > 0) {
+                append(',');
+            }
+            value(array.opt(i));
+        }
+        append(']');
+    }
+
+    private void array(Object array) {
+        append('[');
+        for (int i = 0; i < Array.getLength(array); i++) {
+            if (i > 0) {
+                append(',');
+            }
+            member(Array.get(array, i));
+        }
+        append(']');
+    }
+
+    // Members of maps, collections and arrays are written as the org.json classes would wrap
+    // them, which turns beans into objects of their properties.
+    private void member(Object value) {
+        if (value == null || isPlain(value)) {
+            value(value);
+            return;
+        }
+        Package p = value.getClass().getPackage();
+        String packageName = (p == null) ? "" : p.getName();
+        if (packageName.startsWith("java.") || packageName.startsWith("javax.")
+                || value.getClass().getClassLoader() == null) {
+            string(value.toString());
+        } else {
+            value(new JSONObject(value));
+        }
+    }
+
+    private static boolean isPlain(Object value) {
+        return value instanceof JSONObject || value instanceof JSONArray
+            || value instanceof JSONString || value instanceof Number
+            || value instanceof Boolean || value instanceof Character || value instanceof String
+            || value instanceof Map<?, ?> || value instanceof Collection<?>
+            || value.getClass().isArray() || value.equals(null);
+    }
+
+    private void append(char c) {
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = c;
+    }
+
+    private void append(String s) {
+        append(s, s.length());
+    }
+
+    private void append(String s, int length) {
+        int start = 0;
+        while (start < length) {
+            if (position == buffer.length) {
+                flush();
+            }
+            int n = Math.min(length - start, buffer.length - position);
+            s.getChars(start, start + n, buffer, position);
+            position += n;
+            start += n;
+        }
+    }
+}
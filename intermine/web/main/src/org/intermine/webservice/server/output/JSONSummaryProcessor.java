@@ -10,6 +10,7 @@ package org.intermine.webservice.server.output;
  *
  */
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -30,6 +31,32 @@ public class JSONSummaryProcessor extends JSONResultProcessor
         return new SummaryIterator(it);
     }
 
+    /**
+     * Name the values of a row of summary results.
+     * @param row the values of the row
+     * @return a map from names to values
+     */
+    public static Map<String, Object> toMap(List<? extends Object> row) {
+        Map<String, Object> dict = new HashMap<String, Object>();
+        // 4 = numeric, 2 = string, 7 = numeric with histogram...
+        if (row.size() >= 4) {
+            dict.put("min", row.get(0));
+            dict.put("max", row.get(1));
+            dict.put("average", row.get(2));
+            dict.put("stdev", row.get(3));
+        }
+        if (row.size() == 7) {
+            dict.put("buckets", row.get(4));
+            dict.put("bucket", row.get(5));
+            dict.put("count", row.get(6));
+        }
+        if (row.size() == 2) {
+            dict.put("item", row.get(0));
+            dict.put("count", row.get(1));
+        }
+        return dict;
+    }
+
     private static class SummaryIterator implements Iterator<JSONObject>
     {
 
@@ -46,25 +73,11 @@ public class JSONSummaryProcessor extends JSONResultProcessor
 
         @Override
         public JSONObject next() {
-            List<ResultElement> row = it.next();
-            Map<String, Object> dict = new HashMap<String, Object>();
-            // 4 = numeric, 2 = string, 7 = numeric with histogram...
-            if (row.size() >= 4) {
-                dict.put("min", row.get(0).getField());
-                dict.put("max", row.get(1).getField());
-                dict.put("average", row.get(2).getField());
-                dict.put("stdev", row.get(3).getField());
-            }
-            if (row.size() == 7) {
-                dict.put("buckets", row.get(4).getField());
-                dict.put("bucket", row.get(5).getField());
-                dict.put("count", row.get(6).getField());
-            }
-            if (row.size() == 2) {
-                dict.put("item", row.get(0).getField());
-                dict.put("count", row.get(1).getField());
+            List<Object> fields = new ArrayList<Object>();
+            for (ResultElement element : it.next()) {
+                fields.add(element.getField());
             }
-            return new JSONObject(dict);
+            return new JSONObject(toMap(fields));
         }
 
         @Override
@@ -15,13 +15,13 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.intermine.api.results.ResultElement;
-import org.json.JSONArray;
 
 /**
+ * Turns result rows into lists of values, which are written as JSON arrays.
  * @author Alexis Kalderimis
  *
  */
-public class MinimalJsonIterator implements Iterator<JSONArray>
+public class MinimalJsonIterator implements Iterator<List<Object>>
 {
     private final Iterator<List<ResultElement>> subIter;
 
@@ -34,7 +34,7 @@ public class MinimalJsonIterator implements Iterator<JSONArray>
     }
 
     @Override
-    public JSONArray next() {
+    public List<Object> next() {
         List<ResultElement> row = subIter.next();
         List<Object> jsonRow = new ArrayList<Object>();
         for (int i = 0; i < row.size(); i++) {
@@ -51,8 +51,7 @@ public class MinimalJsonIterator implements Iterator<JSONArray>
                 jsonRow.add(field);
             }
         }
-        JSONArray next = new JSONArray(jsonRow);
-        return next;
+        return jsonRow;
     }
 
     @Override
@@ -10,6 +10,8 @@ package org.intermine.webservice.server.output;
  *
  */
 
+import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -103,6 +105,24 @@ public abstract class Output
      */
     public abstract void addResultItem(List<String> item);
 
+    /**
+     * Adds a value to output as one JSON result item, followed by a comma if there are more to
+     * come.  The value is written as text and added as a result item.  Outputs that stream their
+     * data may write it straight to where it is going instead.
+     * @param value the value, anything JSONStreamWriter can write
+     * @param hasMore whether more result items will follow
+     */
+    public void addJSONResultItem(Object value, boolean hasMore) {
+        StringWriter text = new StringWriter();
+        new JSONStreamWriter(text).value(value).flush();
+        List<String> item = new ArrayList<String>();
+        item.add(text.toString());
+        if (hasMore) {
+            item.add(""); // Dummy value used to get a comma printed.
+        }
+        addResultItem(item);
+    }
+
     /**
      * Flushes output. What it actually does depends at implementation.
      */
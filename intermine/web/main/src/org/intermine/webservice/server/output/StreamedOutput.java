@@ -32,6 +32,8 @@ public class StreamedOutput extends Output
 
     private boolean headerPrinted = false;
 
+    private JSONStreamWriter jsonWriter = null;
+
     private final String separator;
 
     /** Constructor.
@@ -87,6 +89,28 @@ public class StreamedOutput extends Output
         resultsCount++;
     }
 
+    /**
+     * Writes the value straight to the writer, if the formatter would print it as it is.
+     * @param value the value
+     * @param hasMore whether more result items will follow
+     */
+    @Override
+    public void addJSONResultItem(Object value, boolean hasMore) {
+        if (!(formatter instanceof JSONFormatter)
+                || !((JSONFormatter) formatter).printsResultsAsGiven()) {
+            super.addJSONResultItem(value, hasMore);
+            return;
+        }
+        ensureHeaderIsPrinted();
+        if (jsonWriter == null) {
+            jsonWriter = new JSONStreamWriter(writer);
+        }
+        jsonWriter.value(value).flush();
+        ((JSONFormatter) formatter).declarePrinted();
+        writeLn(hasMore ? "," : "");
+        resultsCount++;
+    }
+
     /** Returns associated writer
      * @return writer
      * **/
@@ -99,6 +123,7 @@ public class StreamedOutput extends Output
      * **/
     public void setWriter(PrintWriter writer) {
         this.writer = writer;
+        this.jsonWriter = null;
     }
 
 
@@ -12,6 +12,7 @@ package org.intermine.webservice.server.query.result;
 
 import static org.apache.commons.lang.StringUtils.isBlank;
 
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
@@ -40,6 +41,7 @@ import org.intermine.pathquery.PathException;
 import org.intermine.pathquery.PathQuery;
 import org.intermine.web.context.InterMineContext;
 import org.intermine.web.logic.WebUtil;
+import org.intermine.web.logic.export.ResponseUtil;
 import org.intermine.webservice.server.ColumnHeaderStyle;
 import org.intermine.webservice.server.Format;
 import org.intermine.webservice.server.WebServiceRequestParser;
@@ -47,6 +49,8 @@ import org.intermine.webservice.server.core.CountProcessor;
 import org.intermine.webservice.server.core.ResultProcessor;
 import org.intermine.webservice.server.exceptions.BadRequestException;
 import org.intermine.webservice.server.exceptions.ServiceException;
+import org.intermine.webservice.server.output.ColumnarOutput;
+import org.intermine.webservice.server.output.ColumnarResultProcessor;
 import org.intermine.webservice.server.output.FlatFileFormatter;
 import org.intermine.webservice.server.output.HTMLTableFormatter;
 import org.intermine.webservice.server.output.JSONCountFormatter;
@@ -123,6 +127,7 @@ public class QueryResultService extends AbstractQueryService
             addAll(Format.BASIC_FORMATS);
             addAll(Format.FLAT_FILES);
             addAll(Format.JSON_FORMATS);
+            add(Format.COLUMNAR);
         }
     };
 
@@ -183,6 +188,8 @@ public class QueryResultService extends AbstractQueryService
                     attributes.put(FlatFileFormatter.COLUMN_HEADERS, pq.getView());
                 }
             }
+        } else if (getFormat() == Format.COLUMNAR && isBlank(getOptionalParameter("summaryPath"))) {
+            attributes.put(ColumnarOutput.COLUMN_NAMES, pq.getView());
         }
 
         switch(getFormat()) {
@@ -255,6 +262,18 @@ public class QueryResultService extends AbstractQueryService
         return new StreamedOutput(out, new JSONTableFormatter(), separator);
     }
 
+    @Override
+    protected Output getDefaultOutput(PrintWriter out, OutputStream os, String separator) {
+        if (getFormat() != Format.COLUMNAR) {
+            return super.getDefaultOutput(out, os, separator);
+        }
+        if (isUncompressed()) {
+            ResponseUtil.setCustomTypeHeader(response, getRequestFileName() + ".columns",
+                    Format.COLUMNAR.getContentType());
+        }
+        return new ColumnarOutput(os, BATCH_SIZE);
+    }
+
     /**
      * URL Encode an object. Null values are returned as the empty string, and encoding problems
      * throw runtime exceptions.
@@ -371,6 +390,9 @@ public class QueryResultService extends AbstractQueryService
             case TABLE:
                 processor = new JSONTableResultProcessor();
                 break;
+            case COLUMNAR:
+                processor = new ColumnarResultProcessor();
+                break;
             case ROWS:
                 if (summarising) {
                     processor = new JSONSummaryProcessor();
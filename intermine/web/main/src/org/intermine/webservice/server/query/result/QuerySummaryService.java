@@ -0,0 +1,121 @@
+package org.intermine.webservice.server.query.result;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.api.InterMineAPI;
+import org.intermine.api.query.BagNotFound;
+import org.intermine.api.query.ColumnSummary;
+import org.intermine.api.query.PathQueryExecutor;
+import org.intermine.objectstore.ObjectStoreException;
+import org.intermine.objectstore.ObjectStoreQueryDurationException;
+import org.intermine.pathquery.Path;
+import org.intermine.pathquery.PathException;
+import org.intermine.pathquery.PathQuery;
+import org.intermine.webservice.server.core.JSONService;
+import org.intermine.webservice.server.core.ListManager;
+import org.intermine.webservice.server.exceptions.BadRequestException;
+import org.intermine.webservice.server.exceptions.ServiceException;
+import org.intermine.webservice.server.output.JSONSummaryProcessor;
+import org.intermine.webservice.server.query.AbstractQueryService;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A service that summarises several columns of a query in one request.  Each column gets the
+ * same summary the query results service gives for a single summaryPath, but the columns are
+ * worked out together from one pass over the data rather than one query each.  With no
+ * summaryPaths parameter every column of the view is summarised.
+ *
+ * @author chenyian
+ */
+public class QuerySummaryService extends JSONService
+{
+    /** The parameter holding the columns to summarise. **/
+    public static final String PATHS_PARAMETER = "summaryPaths";
+
+    /**
+     * Constructor
+     * @param im The InterMine API settings bundle
+     */
+    public QuerySummaryService(InterMineAPI im) {
+        super(im);
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "summaries";
+    }
+
+    @Override
+    protected void execute() throws Exception {
+        QueryResultInput input = new QueryResultRequestParser(im.getQueryStore(), request)
+            .getInput();
+        PathQueryBuilder builder = new PathQueryBuilder(input.getXml(),
+                AbstractQueryService.getSchemaLocation(request),
+                new ListManager(im, getPermission().getProfile()));
+        PathQuery pq = builder.getQuery();
+
+        Set<String> paths = new LinkedHashSet<String>();
+        String[] paramValues = request.getParameterValues(PATHS_PARAMETER);
+        if (paramValues == null) {
+            paths.addAll(pq.getView());
+        } else {
+            for (String value : paramValues) {
+                for (String path : StringUtils.split(value, ",")) {
+                    paths.add(path.trim());
+                }
+            }
+        }
+        for (String path : paths) {
+            Path p;
+            try {
+                p = pq.makePath(path);
+            } catch (PathException e) {
+                throw new BadRequestException("Summary path is invalid: " + path);
+            }
+            if (!p.endIsAttribute()) {
+                throw new BadRequestException("Summary path is not an attribute: " + path);
+            }
+        }
+
+        PathQueryExecutor executor = im.getPathQueryExecutor(getPermission().getProfile());
+        Map<String, ColumnSummary> summaries;
+        try {
+            summaries = executor.summariseColumns(pq, paths);
+        } catch (BagNotFound e) {
+            throw new BadRequestException(e.getMessage());
+        } catch (ObjectStoreQueryDurationException e) {
+            throw new ServiceException("Query would take too long to run");
+        } catch (ObjectStoreException e) {
+            throw new ServiceException("Problem getting summaries.", e);
+        }
+
+        Map<String, Object> result = new HashMap<String, Object>();
+        for (ColumnSummary summary : summaries.values()) {
+            JSONArray rows = new JSONArray();
+            for (List<Object> row : summary.getRows()) {
+                rows.put(new JSONObject(JSONSummaryProcessor.toMap(row)));
+            }
+            JSONObject column = new JSONObject();
+            column.put("uniqueValues", summary.getUniqueValues());
+            column.put("results", rows);
+            result.put(summary.getPath(), column);
+        }
+        addResultItem(result, false);
+    }
+}
@@ -19,7 +19,6 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.profile.InterMineBag;
-import org.intermine.api.profile.Profile;
 import org.intermine.api.profile.TagManager;
 import org.intermine.api.profile.TagManager.TagNameException;
 import org.intermine.api.profile.TagManager.TagNamePermissionException;
@@ -90,7 +89,7 @@ public class EnrichmentWidgetResultService extends WidgetService
         return false;
     }
 
-    private static final String BAD_POPULATION_MSG =
+    static final String BAD_POPULATION_MSG =
             "One or more of the %1$ss in this list are missing from your background population."
             + " The background population should include all %1$ss that were tested as part of"
             + " your experiment.";
@@ -234,20 +233,13 @@ public class EnrichmentWidgetResultService extends WidgetService
         return requestParser.getInput(request);
     }
 
-    private boolean isProfileLoggedIn() {
-        Profile profile = getPermission().getProfile();
-        if (profile.isLoggedIn()) {
-            return true;
-        }
-        return false;
-    }
-
     private InterMineBag getReferencePopulationBag(WidgetsServiceInput input)
         throws TagNamePermissionException, TagNameException {
         String populationBagName = input.getPopulationBagName();
         if (populationBagName == null) {
             //get preferences
-            populationBagName = getReferencePopulationPreference(input);
+            populationBagName = getReferencePopulationPreference(input.getWidgetId(),
+                    input.getBagName());
         }
         if ("".equals(populationBagName)) {
             //json formatter doesn't format empty string
@@ -281,47 +273,20 @@ public class EnrichmentWidgetResultService extends WidgetService
     private void deleteReferencePopulationPreference(WidgetsServiceInput input) {
         if (isProfileLoggedIn()) {
             TagManager tm = im.getTagManager();
-            List<Tag> currentTags = getReferencePopulationTags(input);
+            List<Tag> currentTags = getReferencePopulationTags(input.getWidgetId(),
+                    input.getBagName());
             for (Tag tag : currentTags) {
                 tm.deleteTag(tag);
             }
         }
     }
 
-    private List<Tag> getReferencePopulationTags(WidgetsServiceInput input) {
-        List<Tag> populationTags = new ArrayList<Tag>();
-        if (isProfileLoggedIn()) {
-            Profile profile = getPermission().getProfile();
-            TagManager tm = im.getTagManager();
-            String prefixTagPopulation = TagNames.IM_WIDGET + TagNames.SEPARATOR
-                                       + input.getWidgetId() + TagNames.SEPARATOR;
-            @SuppressWarnings("deprecation")
-            List<Tag> tags = tm.getTags(null, null,
-                             TagTypes.BAG, profile.getUsername());
-            for (Tag tag : tags) {
-                if (tag.getObjectIdentifier().equals(input.getBagName())
-                    && tag.getTagName().startsWith(prefixTagPopulation)) {
-                    populationTags.add(tag);
-                }
-            }
-        }
-        return populationTags;
-    }
-
-    private String getReferencePopulationPreference(WidgetsServiceInput input) {
-        if (isProfileLoggedIn()) {
-            List<Tag> populationTags = getReferencePopulationTags(input);
-            if (!populationTags.isEmpty()) {
-                String prefixTagPopulation = TagNames.IM_WIDGET + TagNames.SEPARATOR
-                                           + input.getWidgetId() + TagNames.SEPARATOR;
-                String tagName = populationTags.get(0).getTagName();
-                return tagName.replace(prefixTagPopulation, "");
-            }
-        }
-        return "";
-    }
-
-    private boolean verifyPopulationContainsBag(InterMineBag bag, InterMineBag populationBag) {
+    /**
+     * @param bag the list being analysed
+     * @param populationBag the background population
+     * @return true if every object of the list is in the population
+     */
+    static boolean verifyPopulationContainsBag(InterMineBag bag, InterMineBag populationBag) {
         //verify the population Bag contains all elements of imBag
         List<Integer> populationBagContentdIds =
             new ArrayList<Integer>(populationBag.getContentsAsIds());
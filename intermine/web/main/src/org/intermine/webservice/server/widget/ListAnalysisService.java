@@ -0,0 +1,270 @@
+package org.intermine.webservice.server.widget;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.intermine.api.InterMineAPI;
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.web.context.InterMineContext;
+import org.intermine.web.logic.widget.CorrectionCoefficient;
+import org.intermine.web.logic.widget.EnrichmentWidget;
+import org.intermine.web.logic.widget.GraphWidget;
+import org.intermine.web.logic.widget.TableWidget;
+import org.intermine.web.logic.widget.Widget;
+import org.intermine.web.logic.widget.WidgetOrchestrator;
+import org.intermine.web.logic.widget.WidgetOrchestrator.Analysis;
+import org.intermine.web.logic.widget.WidgetOrchestrator.Outcome;
+import org.intermine.web.logic.widget.config.EnrichmentWidgetConfig;
+import org.intermine.web.logic.widget.config.GraphWidgetConfig;
+import org.intermine.web.logic.widget.config.TableWidgetConfig;
+import org.intermine.web.logic.widget.config.WidgetConfig;
+import org.intermine.webservice.server.Format;
+import org.intermine.webservice.server.exceptions.BadRequestException;
+import org.intermine.webservice.server.exceptions.ResourceNotFoundException;
+import org.json.JSONString;
+
+/**
+ * Web service that runs a set of widgets over a list in one request. The widgets are processed
+ * at the same time, and each one is written out as soon as it is finished, with the same
+ * information the enrichment, chart and table services give for it.
+ *
+ * Takes the parameters of the enrichment service, with a comma separated list of widget names
+ * in <code>widgets</code> in place of <code>widget</code>. Each widget uses its default
+ * filter.
+ *
+ * @author chenyian
+ */
+public class ListAnalysisService extends WidgetService
+{
+    private static WidgetOrchestrator orchestrator = null;
+
+    private final WidgetsRequestParser requestParser;
+
+    /** @param im The InterMine state object. **/
+    public ListAnalysisService(InterMineAPI im) {
+        super(im);
+        requestParser = new WidgetsRequestParser();
+        requestParser.widgetsAreListed();
+        requestParser.setDefaultValue(
+                WidgetsRequestParser.ERROR_CORRECTION,
+                getProperty("widgets.correction.default"));
+        requestParser.setDefaultValue(
+                WidgetsRequestParser.MAXP,
+                getProperty("widgets.maxp.default"));
+    }
+
+    private synchronized WidgetOrchestrator getOrchestrator() {
+        if (orchestrator == null) {
+            int threads = WidgetOrchestrator.DEFAULT_THREADS;
+            String value = getProperty("widgets.analysis.threads");
+            if (StringUtils.isNotBlank(value)) {
+                threads = Integer.parseInt(value.trim());
+            }
+            orchestrator = new WidgetOrchestrator(threads);
+        }
+        return orchestrator;
+    }
+
+    @Override
+    protected boolean canServe(Format format) {
+        return format == Format.JSON;
+    }
+
+    @Override
+    protected String getResultsKey() {
+        return "results";
+    }
+
+    @Override
+    protected boolean lazyList() {
+        return true;
+    }
+
+    @Override
+    protected void execute() throws Exception {
+        WidgetsServiceInput input = requestParser.getInput(request);
+        InterMineBag imBag = retrieveBag(input.getBagName());
+        addOutputListInfo(imBag);
+        String ids = input.getIds();
+        String populationIds = input.getPopulationIds();
+        addOutputIdsInfo(ids, populationIds);
+
+        Map<String, WidgetConfig> widgets = InterMineContext.getWebConfig().getWidgets();
+        List<WidgetConfig> configs = new ArrayList<WidgetConfig>();
+        for (String widgetId
+                : StringUtils.split(request.getParameter(WidgetsRequestParser.WIDGET_IDS), ",")) {
+            WidgetConfig config = widgets.get(widgetId.trim());
+            if (config == null) {
+                throw new ResourceNotFoundException("Could not find a widget called \""
+                        + widgetId.trim() + "\"");
+            }
+            configs.add(config);
+        }
+
+        // A population given in the request is checked once, for all the enrichment widgets.
+        // Otherwise each enrichment widget uses the population the user saved for it, as it
+        // does on its own.
+        InterMineBag populationBag = retrieveBag(input.getPopulationBagName());
+        if (populationBag != null
+                && !EnrichmentWidgetResultService.verifyPopulationContainsBag(imBag,
+                        populationBag)) {
+            throw new BadRequestException(String.format(
+                    EnrichmentWidgetResultService.BAD_POPULATION_MSG, imBag.getType()));
+        }
+        Map<String, InterMineBag> populationBags = new HashMap<String, InterMineBag>();
+        List<Map<String, Object>> rejected = new ArrayList<Map<String, Object>>();
+        Iterator<WidgetConfig> configIter = configs.iterator();
+        while (configIter.hasNext()) {
+            WidgetConfig config = configIter.next();
+            if (!(config instanceof EnrichmentWidgetConfig)) {
+                continue;
+            }
+            InterMineBag widgetPopulation = populationBag;
+            if (input.getPopulationBagName() == null) {
+                widgetPopulation = retrieveBag(
+                        getReferencePopulationPreference(config.getId(), input.getBagName()));
+                if (widgetPopulation != null
+                        && !EnrichmentWidgetResultService.verifyPopulationContainsBag(imBag,
+                                widgetPopulation)) {
+                    // The enrichment service gives a message instead of results
+                    Map<String, Object> result = new LinkedHashMap<String, Object>();
+                    result.put("id", config.getId());
+                    result.put("error", String.format(
+                            EnrichmentWidgetResultService.BAD_POPULATION_MSG, imBag.getType()));
+                    rejected.add(result);
+                    configIter.remove();
+                    continue;
+                }
+            }
+            populationBags.put(config.getId(), widgetPopulation);
+        }
+        for (int i = 0; i < rejected.size(); i++) {
+            addResultItem(rejected.get(i), i < rejected.size() - 1 || !configs.isEmpty());
+        }
+
+        Analysis analysis = getOrchestrator().analyse(im.getObjectStore(), imBag, populationBags,
+                ids, populationIds, configs, input, im.getClassKeys());
+        try {
+            while (analysis.hasNext()) {
+                Outcome outcome = analysis.next();
+                addResultItem(formatOutcome(outcome, input), analysis.hasNext());
+                // Send each widget on now. Output.flush would end the response.
+                getRawOutput().flush();
+            }
+        } finally {
+            // If the client has gone away there is no point finishing the rest
+            analysis.cancel();
+        }
+    }
+
+    private Map<String, Object> formatOutcome(Outcome outcome, WidgetsServiceInput input)
+        throws Exception {
+        WidgetConfig config = outcome.getConfig();
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("id", config.getId());
+        putIfNotBlank(result, "title", config.getTitle());
+        putIfNotBlank(result, "description", config.getDescription());
+        putIfNotBlank(result, "filterLabel", config.getFilterLabel());
+        List<String> filters = outcome.getFilters();
+        if (filters != null && !filters.isEmpty()) {
+            putIfNotBlank(result, "filters", StringUtils.join(filters, ","));
+            putIfNotBlank(result, "filterSelectedValue", outcome.getFilter());
+        }
+        if (outcome.getError() != null) {
+            result.put("error", String.valueOf(outcome.getError().getMessage()));
+            return result;
+        }
+
+        Widget widget = outcome.getWidget();
+        WidgetResultProcessor processor;
+        if (config instanceof EnrichmentWidgetConfig) {
+            EnrichmentWidgetConfig enrichmentConfig = (EnrichmentWidgetConfig) config;
+            EnrichmentWidget enrichment = (EnrichmentWidget) widget;
+            result.put("type", "enrichment");
+            putIfNotBlank(result, "label", enrichmentConfig.getLabel());
+            putIfNotBlank(result, "externalLink", enrichmentConfig.getExternalLink());
+            result.put("populationCount", enrichment.getPopulationCount());
+            result.put("pathQuery", enrichment.getPathQuery().toJson());
+            result.put("pathConstraint", enrichment.getPathConstraint());
+            result.put("pathQueryForMatches", enrichment.getPathQueryForMatches().toJson());
+            CorrectionCoefficient cc = enrichment.getExtraCorrectionCoefficient();
+            if (cc != null) {
+                EnrichmentJSONProcessor enrichmentProcessor =
+                    (EnrichmentJSONProcessor) EnrichmentJSONProcessor.instance();
+                result.put("extraAttribute", json(enrichmentProcessor.formatExtraAttributes(
+                        cc.getOutputInfo(input.getExtraAttribute()))));
+            }
+            processor = EnrichmentJSONProcessor.instance();
+        } else if (config instanceof GraphWidgetConfig) {
+            GraphWidgetConfig graphConfig = (GraphWidgetConfig) config;
+            GraphWidget graph = (GraphWidget) widget;
+            result.put("type", "chart");
+            result.put("chartType", graphConfig.getGraphType());
+            putIfNotBlank(result, "seriesValues", graphConfig.getSeriesValues());
+            putIfNotBlank(result, "seriesLabels", graphConfig.getSeriesLabels());
+            putIfNotBlank(result, "seriesPath", graphConfig.getSeriesPath());
+            putIfNotBlank(result, "domainLabel", graphConfig.getDomainLabel());
+            putIfNotBlank(result, "rangeLabel", graphConfig.getRangeLabel());
+            result.put("simplePathQuery", graph.getSimplePathQuery().toJson());
+            result.put("pathQuery", graph.getPathQuery().toJson());
+            processor = GraphJSONProcessor.instance();
+        } else if (config instanceof TableWidgetConfig) {
+            TableWidgetConfig tableConfig = (TableWidgetConfig) config;
+            TableWidget table = (TableWidget) widget;
+            result.put("type", "table");
+            result.put("columnTitle", tableConfig.getColumnTitle());
+            result.put("columns", StringUtils.join(table.getColumns().toArray(), ","));
+            result.put("pathQuery", table.getPathQuery().toJson());
+            result.put("pathConstraint", TableWidgetService.getPathConstraint(tableConfig));
+            processor = TableJSONProcessor.instance();
+        } else {
+            result.put("error", "Widgets of this kind cannot be analysed here");
+            return result;
+        }
+        result.put("notAnalysed", widget.getNotAnalysed());
+
+        List<JSONString> rows = new ArrayList<JSONString>();
+        for (List<Object> row : widget.getResults()) {
+            // The processors give each row as a single JSON object
+            rows.add(json(processor.formatRow(row).get(0)));
+        }
+        result.put("results", rows);
+        return result;
+    }
+
+    private static void putIfNotBlank(Map<String, Object> result, String key, String value) {
+        if (StringUtils.isNotBlank(value)) {
+            result.put(key, value);
+        }
+    }
+
+    private static JSONString json(final String value) {
+        return new JSONString() {
+            @Override
+            public String toJSONString() {
+                return value;
+            }
+        };
+    }
+
+    @Override
+    protected WidgetResultProcessor getProcessor() {
+        // Each widget chooses its own processor
+        return null;
+    }
+}
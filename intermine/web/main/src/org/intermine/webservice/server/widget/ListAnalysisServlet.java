@@ -0,0 +1,50 @@
+package org.intermine.webservice.server.widget;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.intermine.api.InterMineAPI;
+import org.intermine.web.context.InterMineContext;
+
+/**
+ * Servlet running ListAnalysisService.
+ * @see ListAnalysisService for more information.
+ * @author chenyian
+ *
+ */
+public class ListAnalysisServlet extends HttpServlet
+{
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * {@inheritDoc}}
+     */
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) {
+        runService(req, resp);
+    }
+
+    /**
+     * {@inheritDoc}}
+     */
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) {
+        runService(req, resp);
+    }
+
+    private void runService(HttpServletRequest request, HttpServletResponse response) {
+        final InterMineAPI im = InterMineContext.getInterMineAPI();
+        new ListAnalysisService(im).service(request, response);
+    }
+
+}
@@ -97,14 +97,21 @@ public class TableWidgetService extends WidgetService
      */
     private void addOutputPathQuery(TableWidget widget, WidgetConfig config) {
         addOutputInfo("pathQuery", widget.getPathQuery().toJson());
-        TableWidgetConfig tableWidgetConfig = (TableWidgetConfig) config;
-        String pathStrings = tableWidgetConfig.getPathStrings();
+        addOutputInfo("pathConstraint", getPathConstraint((TableWidgetConfig) config));
+    }
+
+    /**
+     * @param config the table config
+     * @return the path of the ids the pathConstraint constrains
+     */
+    static String getPathConstraint(TableWidgetConfig config) {
+        String pathStrings = config.getPathStrings();
         if (pathStrings.contains("[") && pathStrings.contains("]")) {
             pathStrings = pathStrings.substring(0, pathStrings.indexOf("["))
                           + pathStrings.substring(pathStrings.indexOf("]") + 1);
         }
         String prefix =  pathStrings + ".";
-        addOutputInfo("pathConstraint", prefix + "id");
+        return prefix + "id";
     }
 
     @Override
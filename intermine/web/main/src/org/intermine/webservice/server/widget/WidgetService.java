@@ -10,6 +10,7 @@ package org.intermine.webservice.server.widget;
  *
  */
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -20,6 +21,10 @@ import org.apache.commons.lang.StringUtils;
 import org.intermine.api.InterMineAPI;
 import org.intermine.api.profile.InterMineBag;
 import org.intermine.api.profile.Profile;
+import org.intermine.api.profile.TagManager;
+import org.intermine.api.tag.TagNames;
+import org.intermine.api.tag.TagTypes;
+import org.intermine.model.userprofile.Tag;
 import org.intermine.web.logic.widget.Widget;
 import org.intermine.web.logic.widget.config.WidgetConfig;
 import org.intermine.webservice.server.core.JSONService;
@@ -57,6 +62,62 @@ public abstract class WidgetService extends JSONService
         return imBag;
     }
 
+    /**
+     * @return true if the user making the request is logged in
+     */
+    protected boolean isProfileLoggedIn() {
+        Profile profile = getPermission().getProfile();
+        if (profile.isLoggedIn()) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the tags with which the user saved a reference population for a widget and list.
+     * @param widgetId The name of the widget.
+     * @param bagName The name of the list being analysed.
+     * @return The tags, empty if the user is not logged in.
+     */
+    protected List<Tag> getReferencePopulationTags(String widgetId, String bagName) {
+        List<Tag> populationTags = new ArrayList<Tag>();
+        if (isProfileLoggedIn()) {
+            Profile profile = getPermission().getProfile();
+            TagManager tm = im.getTagManager();
+            String prefixTagPopulation = TagNames.IM_WIDGET + TagNames.SEPARATOR
+                                       + widgetId + TagNames.SEPARATOR;
+            @SuppressWarnings("deprecation")
+            List<Tag> tags = tm.getTags(null, null,
+                             TagTypes.BAG, profile.getUsername());
+            for (Tag tag : tags) {
+                if (tag.getObjectIdentifier().equals(bagName)
+                    && tag.getTagName().startsWith(prefixTagPopulation)) {
+                    populationTags.add(tag);
+                }
+            }
+        }
+        return populationTags;
+    }
+
+    /**
+     * Get the reference population the user saved for a widget and list.
+     * @param widgetId The name of the widget.
+     * @param bagName The name of the list being analysed.
+     * @return The name of the population list, or an empty string if none was saved.
+     */
+    protected String getReferencePopulationPreference(String widgetId, String bagName) {
+        if (isProfileLoggedIn()) {
+            List<Tag> populationTags = getReferencePopulationTags(widgetId, bagName);
+            if (!populationTags.isEmpty()) {
+                String prefixTagPopulation = TagNames.IM_WIDGET + TagNames.SEPARATOR
+                                           + widgetId + TagNames.SEPARATOR;
+                String tagName = populationTags.get(0).getTagName();
+                return tagName.replace(prefixTagPopulation, "");
+            }
+        }
+        return "";
+    }
+
     /**
      * Wrapper around addOutputInfo that makes sure we don't add empty values.
      * @param label The attribute name.
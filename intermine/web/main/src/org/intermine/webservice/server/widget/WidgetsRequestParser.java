@@ -34,6 +34,10 @@ public class WidgetsRequestParser
      * The identifier for the widget config
      */
     private static final String WIDGET_ID = "widget";
+    /**
+     * The comma separated identifiers of the widget configs, for a list analysis
+     */
+    static final String WIDGET_IDS = "widgets";
 
     // These parameters are part of the public API - please don't change them without:
     //   a) making them backwards compatible where possible, and
@@ -86,6 +90,15 @@ public class WidgetsRequestParser
         requiredParameters.add(parameter);
     }
 
+    /**
+     * Declare that the request names a set of widgets in the widgets parameter, rather than a
+     * single widget.
+     */
+    public void widgetsAreListed() {
+        requiredParameters.remove(WIDGET_ID);
+        requiredParameters.add(WIDGET_IDS);
+    }
+
     private String getOrDefault(HttpServletRequest request, String parameter) {
         return StringUtils.defaultIfBlank(
                 request.getParameter(parameter), defaults.get(parameter));
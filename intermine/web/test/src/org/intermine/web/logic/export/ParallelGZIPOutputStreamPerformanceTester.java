@@ -0,0 +1,64 @@
+package org.intermine.web.logic.export;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares the time taken to compress a large stream of export-like rows with GZIPOutputStream
+ * and with ParallelGZIPOutputStream.  The parallel stream only wins with more than one
+ * processor.  Run with the number of megabytes to compress, or with no arguments for 32.  Each
+ * stream is run a few times so that later runs are measured with a warm JIT.
+ *
+ * @author chenyian
+ */
+public final class ParallelGZIPOutputStreamPerformanceTester
+{
+    private static final int RUNS = 5;
+
+    private ParallelGZIPOutputStreamPerformanceTester() {
+        // don't
+    }
+
+    public static void main(String[] args) throws IOException {
+        int megabytes = (args.length > 0 ? Integer.parseInt(args[0]) : 32);
+        byte[] data = ParallelGZIPOutputStreamTest.makeData(megabytes * 1024 * 1024);
+        System.out.println("Compressing " + data.length + " bytes on "
+                + Runtime.getRuntime().availableProcessors() + " processors");
+        for (int run = 0; run < RUNS; run++) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4);
+            long start = System.currentTimeMillis();
+            compress(new GZIPOutputStream(compressed, 8192), data);
+            report("GZIPOutputStream", System.currentTimeMillis() - start, compressed.size());
+
+            compressed = new ByteArrayOutputStream(data.length / 4);
+            start = System.currentTimeMillis();
+            compress(new ParallelGZIPOutputStream(compressed), data);
+            report("ParallelGZIPOutputStream", System.currentTimeMillis() - start,
+                    compressed.size());
+        }
+    }
+
+    private static void compress(OutputStream out, byte[] data) throws IOException {
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void report(String name, long time, int size) {
+        System.out.println(name + ": " + time + "ms, " + size + " bytes");
+    }
+}
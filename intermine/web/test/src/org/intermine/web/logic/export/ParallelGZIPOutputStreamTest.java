@@ -0,0 +1,192 @@
+package org.intermine.web.logic.export;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for ParallelGZIPOutputStream.
+ *
+ * @author chenyian
+ */
+public class ParallelGZIPOutputStreamTest extends TestCase
+{
+    private ExecutorService pool;
+
+    @Override
+    public void setUp() {
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @Override
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Rows of tab separated text, which compress about as well as an export does.
+     */
+    static byte[] makeData(int size) {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        String[] words = new String[] {"Gene", "Protein", "FBgn", "zen", "eve", "Drosophila",
+            "melanogaster", "chromosome", "2L", "3R"};
+        int row = 0;
+        while (sb.length() < size) {
+            sb.append(row++).append('\t').append(words[random.nextInt(words.length)])
+                .append(random.nextInt(100000)).append('\t')
+                .append(words[random.nextInt(words.length)]).append('\n');
+        }
+        return sb.substring(0, size).getBytes();
+    }
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Write the data in uneven pieces, as a PrintWriter would.
+     */
+    private static void writeInPieces(OutputStream out, byte[] data) throws IOException {
+        Random random = new Random(7);
+        int i = 0;
+        while (i < data.length) {
+            if (random.nextInt(10) == 0) {
+                out.write(data[i++]);
+            } else {
+                int n = Math.min(data.length - i, random.nextInt(20000));
+                out.write(data, i, n);
+                i += n;
+            }
+        }
+    }
+
+    public void testRoundTrip() throws Exception {
+        byte[] data = makeData(3 * 1000 * 1000 + 17);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream out = new ParallelGZIPOutputStream(compressed, pool, 100 * 1000, 3, false);
+        writeInPieces(out, data);
+        out.close();
+        assertTrue(compressed.size() < data.length / 2);
+        assertTrue(Arrays.equals(data, gunzip(compressed.toByteArray())));
+    }
+
+    public void testEmpty() throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new ParallelGZIPOutputStream(compressed, pool, 1000, 2, false).close();
+        assertEquals(0, compressed.size());
+
+        compressed = new ByteArrayOutputStream();
+        new ParallelGZIPOutputStream(compressed, pool, 1000, 2, true).close();
+        assertEquals(0, gunzip(compressed.toByteArray()).length);
+    }
+
+    public void testFlush() throws Exception {
+        byte[] data = makeData(50000);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ParallelGZIPOutputStream out =
+            new ParallelGZIPOutputStream(compressed, pool, 1000 * 1000, 2, false);
+        out.write(data, 0, 20000);
+        out.flush();
+        // Everything so far can be read before the stream is finished
+        assertTrue(Arrays.equals(Arrays.copyOf(data, 20000), gunzip(compressed.toByteArray())));
+        out.write(data, 20000, 30000);
+        out.finish();
+        try {
+            out.write(1);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(Arrays.equals(data, gunzip(compressed.toByteArray())));
+    }
+
+    public void testBgzfBlocks() throws Exception {
+        byte[] data = new byte[300000];
+        // Random bytes do not compress, so the blocks have to be stored
+        new Random(3).nextBytes(data);
+        System.arraycopy(makeData(100000), 0, data, 0, 100000);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        OutputStream out = new ParallelGZIPOutputStream(compressed, true);
+        writeInPieces(out, data);
+        out.close();
+        byte[] bytes = compressed.toByteArray();
+        assertTrue(Arrays.equals(data, gunzip(bytes)));
+
+        // Walk the blocks by the sizes they carry
+        int offset = 0;
+        int blocks = 0;
+        int lastSize = 0;
+        while (offset < bytes.length) {
+            assertEquals(0x1f, bytes[offset] & 0xff);
+            assertEquals(0x8b, bytes[offset + 1] & 0xff);
+            assertEquals(4, bytes[offset + 3]);
+            assertEquals('B', bytes[offset + 12]);
+            assertEquals('C', bytes[offset + 13]);
+            lastSize = (bytes[offset + 16] & 0xff) + ((bytes[offset + 17] & 0xff) << 8) + 1;
+            assertTrue(lastSize <= 0x10000);
+            offset += lastSize;
+            blocks++;
+        }
+        assertEquals(bytes.length, offset);
+        assertEquals(300000 / ParallelGZIPOutputStream.BGZF_BLOCK_SIZE + 2, blocks);
+        // The last block is the empty end-of-file marker
+        assertEquals(28, lastSize);
+    }
+
+    public void testBadArguments() throws Exception {
+        try {
+            new ParallelGZIPOutputStream(new ByteArrayOutputStream(), pool, 0x20000, 2, true);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Compresses a large stream about as well as GZIPOutputStream does.
+     */
+    public void testCompressedSize() throws Exception {
+        byte[] data = makeData(8 * 1024 * 1024);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4);
+        OutputStream out = new GZIPOutputStream(compressed, 8192);
+        out.write(data);
+        out.close();
+        int serialSize = compressed.size();
+
+        compressed = new ByteArrayOutputStream(data.length / 4);
+        out = new ParallelGZIPOutputStream(compressed);
+        out.write(data);
+        out.close();
+        // Each block starts without a dictionary, which costs a little
+        assertTrue(compressed.size() < serialSize * 1.05);
+        assertTrue(Arrays.equals(data, gunzip(compressed.toByteArray())));
+    }
+}
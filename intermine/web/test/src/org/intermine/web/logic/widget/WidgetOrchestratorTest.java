@@ -0,0 +1,119 @@
+package org.intermine.web.logic.widget;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intermine.api.profile.InterMineBag;
+import org.intermine.web.logic.widget.WidgetOrchestrator.Analysis;
+import org.intermine.web.logic.widget.WidgetOrchestrator.Outcome;
+import org.intermine.web.logic.widget.config.WidgetConfig;
+
+public class WidgetOrchestratorTest extends WidgetConfigTestCase
+{
+    private static final String[] WIDGETS = new String[] {"age_groups", "contractor_enrichment",
+        "contractor_enrichment_with_filter1", "contractor_enrichment_with_filter2"};
+
+    private final class Options implements EnrichmentOptions {
+        private final String filter;
+
+        Options(String filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public String getFilter() {
+            return filter;
+        }
+
+        @Override
+        public double getMaxPValue() {
+            return 1.0d;
+        }
+
+        @Override
+        public String getCorrection() {
+            return "Bonferroni";
+        }
+
+        @Override
+        public String getExtraCorrectionCoefficient() {
+            return null;
+        }
+    }
+
+    private WidgetOrchestrator orchestrator;
+
+    public void setUp() throws Exception {
+        super.setUp();
+        orchestrator = new WidgetOrchestrator(4);
+    }
+
+    public void tearDown() throws Exception {
+        orchestrator.shutdown();
+        super.tearDown();
+    }
+
+    private List<WidgetConfig> getConfigs() {
+        List<WidgetConfig> configs = new ArrayList<WidgetConfig>();
+        for (String id : WIDGETS) {
+            configs.add(webConfig.getWidgets().get(id));
+        }
+        return configs;
+    }
+
+    /**
+     * Each widget gives the same results as it does when it is processed on its own, as the
+     * per-widget web services do.
+     */
+    public void testResultsMatchSingleWidgets() throws Exception {
+        InterMineBag bag = createEmployeeLongList();
+
+        Map<String, List<List<Object>>> expected = new HashMap<String, List<List<Object>>>();
+        for (WidgetConfig config : getConfigs()) {
+            List<String> filters = config.getFiltersValues(os, bag, null);
+            String filter = (filters == null || filters.isEmpty()) ? null : filters.get(0);
+            Widget widget = config.getWidget(bag, null, os, new Options(filter), null, null);
+            widget.process();
+            expected.put(config.getId(), widget.getResults());
+        }
+
+        Map<String, List<List<Object>>> got = new HashMap<String, List<List<Object>>>();
+        Analysis analysis = orchestrator.analyse(os, bag, null, null, null, getConfigs(),
+                new Options(null), im.getClassKeys());
+        while (analysis.hasNext()) {
+            Outcome outcome = analysis.next();
+            assertNull(outcome.getError());
+            got.put(outcome.getConfig().getId(), outcome.getWidget().getResults());
+        }
+
+        assertEquals(expected, got);
+    }
+
+    public void testFailuresAreReported() throws Exception {
+        // The widgets are all about employees
+        InterMineBag bag = createCompanyList();
+        Analysis analysis = orchestrator.analyse(os, bag, null, null, null, getConfigs(),
+                new Options(null), im.getClassKeys());
+        int count = 0;
+        while (analysis.hasNext()) {
+            Outcome outcome = analysis.next();
+            assertNull(outcome.getWidget());
+            assertNotNull(outcome.getError());
+            count++;
+        }
+        assertEquals(WIDGETS.length, count);
+        assertFalse(analysis.hasNext());
+    }
+}
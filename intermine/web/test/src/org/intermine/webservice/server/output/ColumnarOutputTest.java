@@ -0,0 +1,165 @@
+package org.intermine.webservice.server.output;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class ColumnarOutputTest extends TestCase {
+
+    private ByteArrayOutputStream bytes;
+    private ColumnarOutput output;
+
+    @Override
+    protected void setUp() throws Exception {
+        bytes = new ByteArrayOutputStream();
+        output = new ColumnarOutput(bytes, 2);
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        attributes.put(ColumnarOutput.COLUMN_NAMES, Arrays.asList("name", "age"));
+        output.setHeaderAttributes(attributes);
+    }
+
+    public void testEmpty() throws Exception {
+        output.flush();
+        ByteBuffer buffer = read();
+        assertHeader(buffer);
+        assertEquals(ColumnarOutput.END, buffer.getInt());
+        assertEquals(24, buffer.getInt());
+        assertEquals(200, buffer.getInt());
+        buffer.getInt();
+        assertEquals(0, buffer.getInt());
+        assertEquals(0, buffer.getInt());
+        assertEquals(0, buffer.getInt());
+        buffer.getInt();
+        assertFalse(buffer.hasRemaining());
+        assertEquals(0, output.getResultsCount());
+    }
+
+    public void testBatches() throws Exception {
+        output.addRow(Arrays.asList("tim", 30, 1.5, Boolean.TRUE, null));
+        output.addRow(Arrays.asList("tim", null, 2, Boolean.FALSE, null));
+        output.addRow(Arrays.asList("dawn", 10000000000L));
+        output.flush();
+        assertEquals(3, output.getResultsCount());
+
+        ByteBuffer buffer = read();
+        assertHeader(buffer);
+
+        // The first batch is full, and has five columns.
+        assertEquals(ColumnarOutput.BATCH, buffer.getInt());
+        int length = buffer.getInt();
+        int start = buffer.position();
+        assertEquals(0, length % 8);
+        assertEquals(2, buffer.getInt());
+        assertEquals(5, buffer.getInt());
+
+        assertEquals(ColumnarOutput.STRING, buffer.getInt());
+        assertEquals(32, buffer.getInt());
+        assertEquals(3L, buffer.getLong());
+        assertEquals(1, buffer.getInt());
+        assertEquals(3, buffer.getInt());
+        assertEquals(0, buffer.getInt());
+        assertEquals(3, buffer.getInt());
+        assertEquals("tim", string(buffer, 3));
+        assertEquals(0, buffer.getInt());
+        assertEquals(0, buffer.getInt());
+
+        assertEquals(ColumnarOutput.INT32, buffer.getInt());
+        assertEquals(8, buffer.getInt());
+        assertEquals(1L, buffer.getLong());
+        assertEquals(30, buffer.getInt());
+        buffer.getInt();
+
+        assertEquals(ColumnarOutput.FLOAT64, buffer.getInt());
+        assertEquals(16, buffer.getInt());
+        assertEquals(3L, buffer.getLong());
+        assertEquals(1.5, buffer.getDouble());
+        assertEquals(2.0, buffer.getDouble());
+
+        assertEquals(ColumnarOutput.BOOLEAN, buffer.getInt());
+        assertEquals(8, buffer.getInt());
+        assertEquals(3L, buffer.getLong());
+        assertEquals(1L, buffer.getLong());
+
+        assertEquals(ColumnarOutput.NULL, buffer.getInt());
+        assertEquals(0, buffer.getInt());
+        assertEquals(0L, buffer.getLong());
+        assertEquals(start + length, buffer.position());
+
+        // The second is the row left over.
+        assertEquals(ColumnarOutput.BATCH, buffer.getInt());
+        buffer.getInt();
+        assertEquals(1, buffer.getInt());
+        assertEquals(2, buffer.getInt());
+        assertEquals(ColumnarOutput.STRING, buffer.getInt());
+        assertEquals(32, buffer.getInt());
+        assertEquals(1L, buffer.getLong());
+        assertEquals(1, buffer.getInt());
+        assertEquals(4, buffer.getInt());
+        assertEquals(0, buffer.getInt());
+        assertEquals(4, buffer.getInt());
+        assertEquals("dawn", string(buffer, 4));
+        assertEquals(0, buffer.getInt());
+        buffer.getInt();
+        assertEquals(ColumnarOutput.INT64, buffer.getInt());
+        assertEquals(8, buffer.getInt());
+        assertEquals(1L, buffer.getLong());
+        assertEquals(10000000000L, buffer.getLong());
+
+        assertEquals(ColumnarOutput.END, buffer.getInt());
+        buffer.getInt();
+        assertEquals(200, buffer.getInt());
+    }
+
+    public void testError() throws Exception {
+        output.addResultItem(Collections.singletonList("foo"));
+        output.setError("Something went wrong", 500);
+        output.flush();
+        ByteBuffer buffer = read();
+        assertHeader(buffer);
+        assertEquals(ColumnarOutput.BATCH, buffer.getInt());
+        buffer.position(buffer.position() + buffer.getInt() + 4);
+        assertEquals(ColumnarOutput.END, buffer.getInt());
+        buffer.getInt();
+        assertEquals(500, buffer.getInt());
+        buffer.getInt();
+        assertEquals(1, buffer.getInt());
+        assertEquals(20, buffer.getInt());
+        assertEquals(0, buffer.getInt());
+        assertEquals(20, buffer.getInt());
+        assertEquals("Something went wrong", string(buffer, 20));
+    }
+
+    private ByteBuffer read() {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] magic = new byte[8];
+        buffer.get(magic);
+        assertTrue(Arrays.equals(ColumnarOutput.MAGIC, magic));
+        return buffer;
+    }
+
+    private void assertHeader(ByteBuffer buffer) throws Exception {
+        assertEquals(ColumnarOutput.HEADER, buffer.getInt());
+        assertEquals(32, buffer.getInt());
+        assertEquals(2, buffer.getInt());
+        assertEquals(7, buffer.getInt());
+        assertEquals(0, buffer.getInt());
+        assertEquals(4, buffer.getInt());
+        assertEquals(7, buffer.getInt());
+        buffer.getInt();
+        assertEquals("nameage", string(buffer, 7));
+    }
+
+    // read a string padded to eight bytes
+    private String string(ByteBuffer buffer, int length) throws Exception {
+        byte[] b = new byte[length];
+        buffer.get(b);
+        buffer.position(buffer.position() + ((8 - length % 8) % 8));
+        return new String(b, "UTF-8");
+    }
+}
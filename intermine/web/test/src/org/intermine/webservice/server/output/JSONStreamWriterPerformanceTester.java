@@ -0,0 +1,86 @@
+package org.intermine.webservice.server.output;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.CharArrayWriter;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**
+ * Compares the time taken to write JSON records by building an org.json JSONObject for each and
+ * by writing them with a JSONStreamWriter.  Run with the number of records to write, or with no
+ * arguments for 100,000 employees.  Each way is run a few times so that later runs are measured
+ * with a warm JIT.
+ *
+ * @author chenyian
+ */
+public final class JSONStreamWriterPerformanceTester
+{
+    private static final int RUNS = 5;
+
+    private JSONStreamWriterPerformanceTester() {
+        // don't
+    }
+
+    public static void main(String[] args) {
+        int count = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+        List<Map<String, Object>> records = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> record = new LinkedHashMap<String, Object>();
+            record.put("class", "Employee");
+            record.put("objectId", i);
+            record.put("name", "Employee " + i);
+            record.put("age", 20 + (i % 40));
+            Map<String, Object> department = new LinkedHashMap<String, Object>();
+            department.put("class", "Department");
+            department.put("name", "Department " + (i % 7));
+            record.put("department", department);
+            records.add(record);
+        }
+        for (int run = 0; run < RUNS; run++) {
+            report("org.json", writeWithJSONObject(records));
+            report("JSONStreamWriter", writeWithStreamWriter(records));
+        }
+    }
+
+    private static void report(String name, long[] result) {
+        System.out.println(name + ": " + result[1] + " characters in " + result[0] + "ms ("
+                + new DecimalFormat("#0.000").format(result[0] * 1000000.0 / result[1])
+                + "ms per million characters)");
+    }
+
+    private static long[] writeWithJSONObject(List<Map<String, Object>> records) {
+        long start = System.currentTimeMillis();
+        long chars = 0;
+        for (Map<String, Object> record : records) {
+            chars += new JSONObject(record).toString().length();
+        }
+        return new long[] {System.currentTimeMillis() - start, chars};
+    }
+
+    private static long[] writeWithStreamWriter(List<Map<String, Object>> records) {
+        long start = System.currentTimeMillis();
+        long chars = 0;
+        CharArrayWriter buffer = new CharArrayWriter();
+        JSONStreamWriter writer = new JSONStreamWriter(buffer);
+        for (Map<String, Object> record : records) {
+            writer.value(record).flush();
+            chars += buffer.size();
+            buffer.reset();
+        }
+        return new long[] {System.currentTimeMillis() - start, chars};
+    }
+}
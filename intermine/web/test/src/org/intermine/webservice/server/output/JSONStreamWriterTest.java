@@ -0,0 +1,119 @@
+package org.intermine.webservice.server.output;
+
+import java.io.CharArrayWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class JSONStreamWriterTest extends TestCase {
+
+    private CharArrayWriter buffer;
+    private JSONStreamWriter writer;
+
+    @Override
+    protected void setUp() throws Exception {
+        buffer = new CharArrayWriter();
+        writer = new JSONStreamWriter(buffer);
+    }
+
+    private String write(Object value) {
+        writer.value(value).flush();
+        String text = buffer.toString();
+        buffer.reset();
+        return text;
+    }
+
+    public void testStrings() throws Exception {
+        String[] strings = new String[] {
+            "", "plain", "quo\"te", "back\\slash", "</script>", "a/b", "tab\tnew\nline\r",
+            "\b\f\u0001\u001f", "\u0085\u00a9", "\u2028\u2029\u20ac", "\u65e5\u672c"
+        };
+        for (String s: strings) {
+            assertEquals(JSONObject.quote(s), write(s));
+        }
+    }
+
+    public void testNumbers() throws Exception {
+        Object[] numbers = new Object[] {
+            0, -12, 10000000000L, 1.5, 2.0, 100.0, 1.0E20, 1.25E-7, 3.5f
+        };
+        for (Object n: numbers) {
+            JSONArray array = new JSONArray();
+            array.put(n);
+            assertEquals(array.toString(), "[" + write(n) + "]");
+        }
+        // org.json gives up on the whole object here.
+        assertEquals("null", write(Double.NaN));
+    }
+
+    public void testNestedValues() throws Exception {
+        Map<String, Object> inner = new LinkedHashMap<String, Object>();
+        inner.put("name", "David </b>");
+        inner.put("age", 39);
+        inner.put("nothing", JSONObject.NULL);
+        Map<String, Object> outer = new LinkedHashMap<String, Object>();
+        outer.put("objectId", 3);
+        outer.put("department", inner);
+        outer.put("employees", Arrays.asList(inner, inner));
+        outer.put("flags", new boolean[] {true, false});
+        outer.put("score", 1.50);
+
+        JSONObject expected = new JSONObject(outer);
+        JSONObject got = new JSONObject(write(outer));
+        assertEquals(null, JSONObjTester.getProblemsComparing(expected, got));
+
+        // With a single key there is no question of order.
+        Map<String, Object> single = new LinkedHashMap<String, Object>();
+        single.put("list", Arrays.asList("a\u2028", null, 2.0));
+        assertEquals(new JSONObject(single).toString(), write(single));
+        assertEquals(new JSONObject(single).toString(), write(new JSONObject(single)));
+    }
+
+    public void testLargeValues() throws Exception {
+        // More than fills the buffer, several times over.
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("x\"");
+        }
+        String s = sb.toString();
+        assertEquals(JSONObject.quote(s), write(s));
+    }
+
+    // Items written straight to a streamed output come out as they do through the formatter.
+    public void testStreamedOutput() throws Exception {
+        List<Object> row = new ArrayList<Object>(Arrays.<Object>asList("a\"b", 1, 2.5, null));
+        Map<String, Object> record = new LinkedHashMap<String, Object>();
+        record.put("name", "x");
+        record.put("row", row);
+        assertEquals(streamed(row, record, false), streamed(row, record, true));
+        assertTrue(streamed(row, record, true).contains(
+                    "\n" + write(row) + ",\n" + write(record) + "\n"));
+    }
+
+    private String streamed(List<Object> row, Map<String, Object> record, boolean direct) {
+        CharArrayWriter text = new CharArrayWriter();
+        Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        attributes.put(JSONResultFormatter.KEY_ROOT_CLASS, "Gene");
+        StreamedOutput out = new StreamedOutput(new PrintWriter(text),
+                new JSONRowFormatter(), "\n");
+        out.setHeaderAttributes(attributes);
+        if (direct) {
+            out.addJSONResultItem(row, true);
+            out.addJSONResultItem(record, false);
+        } else {
+            out.addResultItem(Arrays.asList(write(row), ""));
+            out.addResultItem(Arrays.asList(write(record)));
+        }
+        out.flush();
+        // Leave out the execution time
+        return text.toString().replaceAll("\"executionTime\":\"[^\"]*\"", "");
+    }
+}
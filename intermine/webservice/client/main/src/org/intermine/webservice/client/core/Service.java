@@ -15,6 +15,7 @@ import java.net.URL;
 
 import org.apache.commons.codec.binary.Base64;
 import org.intermine.webservice.client.exceptions.ServiceException;
+import org.intermine.webservice.client.util.ConnectionPool;
 import org.intermine.webservice.client.util.HttpConnection;
 
 
@@ -56,6 +57,8 @@ public class Service
 
     private int apiVersion = -1;
 
+    private ConnectionPool connectionPool = null;
+
     /**
      * Get the ServiceFactory this service was constructed with.
      * @return The parent service-factory.
@@ -144,7 +147,7 @@ public class Service
                 + "JavaLibrary/" + getVersion().toString());
 
         applyAuthentication(request);
-        HttpConnection connection = new HttpConnection(request);
+        HttpConnection connection = new HttpConnection(request, connectionPool);
         connection.setTimeout(timeout);
         connection.connect();
         return connection;
@@ -201,6 +204,8 @@ public class Service
             return "json";
         } else if (contentType == ContentType.TEXT_XML) {
             return "xml";
+        } else if (contentType == ContentType.APPLICATION_COLUMNAR) {
+            return "columnar";
         }
         return null;
     }
@@ -213,6 +218,22 @@ public class Service
         this.timeout = timeout;
     }
 
+    /**
+     * Sets the pool of connections requests are made over. Without one, each request opens a
+     * new connection.
+     * @param pool the pool, or null
+     */
+    public void setConnectionPool(ConnectionPool pool) {
+        this.connectionPool = pool;
+    }
+
+    /**
+     * @return the pool of connections requests are made over, or null
+     */
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
     /**
      * Returns service URL
      * Example: http://www.flymine.org/query/service/query/results
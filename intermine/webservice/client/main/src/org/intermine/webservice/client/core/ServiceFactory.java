@@ -16,6 +16,7 @@ import org.intermine.webservice.client.services.ModelService;
 import org.intermine.webservice.client.services.QueryService;
 import org.intermine.webservice.client.services.TemplateService;
 import org.intermine.webservice.client.services.WidgetService;
+import org.intermine.webservice.client.util.ConnectionPool;
 
 /**
  * The Class that should be used for creating services. You should never need to create instances of
@@ -52,6 +53,7 @@ public class ServiceFactory
     private final String userName;
     private final String userPass;
     private final String authToken;
+    private ConnectionPool connectionPool = null;
 
     /**
      * Construct a service factory with a default application name. (defaults to
@@ -111,12 +113,34 @@ public class ServiceFactory
         this.applicationName = name;
     }
 
+    /**
+     * Make the requests of all the services from this factory over a shared pool of kept-alive
+     * connections, rather than opening a new connection for each request.
+     * @param pool the pool, or null to go back to a connection per request
+     */
+    public void setConnectionPool(ConnectionPool pool) {
+        this.connectionPool = pool;
+        for (Service s : new Service[] {qs, ts, ls, ms, ws}) {
+            if (s != null) {
+                s.setConnectionPool(pool);
+            }
+        }
+    }
+
+    /**
+     * @return the pool of connections the services from this factory share, or null
+     */
+    public ConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
     private void authoriseAndLink(Service s) {
         if (authToken != null) {
             s.setAuthentication(authToken);
         } else if (userName != null && userPass != null) {
             s.setAuthentication(userName, userPass);
         }
+        s.setConnectionPool(connectionPool);
         s.setFactory(this);
     }
 
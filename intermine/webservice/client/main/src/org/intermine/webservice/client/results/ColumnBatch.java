@@ -0,0 +1,242 @@
+package org.intermine.webservice.client.results;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One batch of rows of a columnar result set.  The columns are views onto the buffer the batch
+ * was read into, so nothing is copied until a value is asked for, and numeric columns can be
+ * read directly as IntBuffers, LongBuffers and DoubleBuffers.
+ *
+ * @author chenyian
+ */
+public class ColumnBatch
+{
+    /** The type of a column with no values. **/
+    public static final int NULL = 0;
+    /** The type of a column of integers. **/
+    public static final int INT32 = 1;
+    /** The type of a column of longs. **/
+    public static final int INT64 = 2;
+    /** The type of a column of floating point numbers. **/
+    public static final int FLOAT64 = 3;
+    /** The type of a column of booleans. **/
+    public static final int BOOLEAN = 4;
+    /** The type of a column of dictionary encoded strings. **/
+    public static final int STRING = 5;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final ByteBuffer buffer;
+    private final int rowCount;
+    private final int[] types;
+    private final int[] validityOffsets;
+    private final int[] dataOffsets;
+    private final String[][] dictionaries;
+
+    /**
+     * Constructor.
+     * @param buffer The body of a batch message.
+     */
+    ColumnBatch(ByteBuffer buffer) {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        rowCount = buffer.getInt(0);
+        int columnCount = buffer.getInt(4);
+        types = new int[columnCount];
+        validityOffsets = new int[columnCount];
+        dataOffsets = new int[columnCount];
+        dictionaries = new String[columnCount][];
+        int words = (rowCount + 63) / 64;
+        int position = 8;
+        for (int i = 0; i < columnCount; i++) {
+            types[i] = buffer.getInt(position);
+            int dataLength = buffer.getInt(position + 4);
+            validityOffsets[i] = position + 8;
+            dataOffsets[i] = validityOffsets[i] + 8 * words;
+            position = dataOffsets[i] + dataLength;
+        }
+    }
+
+    /**
+     * @return The number of rows in this batch.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The number of columns in this batch.
+     */
+    public int getColumnCount() {
+        return types.length;
+    }
+
+    /**
+     * @param column The index of a column.
+     * @return The type of the column, one of the type constants of this class.
+     */
+    public int getType(int column) {
+        return types[column];
+    }
+
+    /**
+     * @param column The index of a column.
+     * @param row The index of a row.
+     * @return Whether the value is null.
+     */
+    public boolean isNull(int column, int row) {
+        return !bit(validityOffsets[column], row);
+    }
+
+    /**
+     * Get an INT32 column.  The values of null cells are undefined.
+     * @param column The index of the column.
+     * @return A view of the values.
+     */
+    public IntBuffer getInts(int column) {
+        checkType(column, INT32);
+        return slice(dataOffsets[column], 4 * rowCount).asIntBuffer();
+    }
+
+    /**
+     * Get an INT64 column.  The values of null cells are undefined.
+     * @param column The index of the column.
+     * @return A view of the values.
+     */
+    public LongBuffer getLongs(int column) {
+        checkType(column, INT64);
+        return slice(dataOffsets[column], 8 * rowCount).asLongBuffer();
+    }
+
+    /**
+     * Get a FLOAT64 column.  The values of null cells are undefined.
+     * @param column The index of the column.
+     * @return A view of the values.
+     */
+    public DoubleBuffer getDoubles(int column) {
+        checkType(column, FLOAT64);
+        return slice(dataOffsets[column], 8 * rowCount).asDoubleBuffer();
+    }
+
+    /**
+     * Get a value.
+     * @param column The index of the column.
+     * @param row The index of the row.
+     * @return The value, as an Integer, Long, Double, Boolean or String, or null.
+     */
+    public Object getValue(int column, int row) {
+        if (row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("No row " + row + " in a batch of " + rowCount);
+        }
+        if (isNull(column, row)) {
+            return null;
+        }
+        int data = dataOffsets[column];
+        switch (types[column]) {
+            case INT32:
+                return Integer.valueOf(buffer.getInt(data + 4 * row));
+            case INT64:
+                return Long.valueOf(buffer.getLong(data + 8 * row));
+            case FLOAT64:
+                return Double.valueOf(buffer.getDouble(data + 8 * row));
+            case BOOLEAN:
+                return Boolean.valueOf(bit(data, row));
+            case STRING:
+                String[] dictionary = getDictionary(column);
+                return dictionary[buffer.getInt(data + stringListLength(data) + 4 * row)];
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param row The index of a row.
+     * @return The values of the row.
+     */
+    public List<Object> getRow(int row) {
+        List<Object> values = new ArrayList<Object>(types.length);
+        for (int i = 0; i < types.length; i++) {
+            values.add(getValue(i, row));
+        }
+        return values;
+    }
+
+    /**
+     * Get the distinct values of a STRING column.
+     * @param column The index of the column.
+     * @return The strings the rows of the column refer to.
+     */
+    public String[] getDictionary(int column) {
+        checkType(column, STRING);
+        if (dictionaries[column] == null) {
+            dictionaries[column] = readStrings(buffer, dataOffsets[column]);
+        }
+        return dictionaries[column];
+    }
+
+    /**
+     * Read a string list.
+     * @param buffer A little-endian buffer.
+     * @param position Where the list starts.
+     * @return The strings.
+     */
+    static String[] readStrings(ByteBuffer buffer, int position) {
+        int count = buffer.getInt(position);
+        int bytesStart = position + 8 + pad(4 * (count + 1));
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            int start = buffer.getInt(position + 8 + 4 * i);
+            int end = buffer.getInt(position + 8 + 4 * (i + 1));
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.position(bytesStart + start);
+            bytes.limit(bytesStart + end);
+            strings[i] = UTF8.decode(bytes).toString();
+        }
+        return strings;
+    }
+
+    private int stringListLength(int position) {
+        int count = buffer.getInt(position);
+        int length = buffer.getInt(position + 4);
+        return 8 + pad(4 * (count + 1)) + pad(length);
+    }
+
+    private boolean bit(int position, int row) {
+        long word = buffer.getLong(position + 8 * (row >>> 6));
+        return (word & (1L << (row & 63))) != 0;
+    }
+
+    private ByteBuffer slice(int position, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.limit(position + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void checkType(int column, int type) {
+        if (types[column] != type) {
+            throw new IllegalArgumentException("Column " + column + " has type " + types[column]
+                    + ", not " + type);
+        }
+    }
+
+    private static int pad(int size) {
+        return (size + 7) & ~7;
+    }
+}
@@ -0,0 +1,212 @@
+package org.intermine.webservice.client.results;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.intermine.webservice.client.exceptions.ServiceException;
+import org.intermine.webservice.client.util.HttpConnection;
+
+/**
+ * A result set in the columnar format, which the query results service sends as binary batches
+ * of typed columns.  Batches are read one at a time as they are asked for, either directly with
+ * nextBatch(), or row by row through getListIterator().
+ *
+ * usage:
+ * <pre>
+ * ColumnarResult result = service.getColumnarResults(query, Page.DEFAULT);
+ * ColumnBatch batch;
+ * while ((batch = result.nextBatch()) != null) {
+ *     IntBuffer lengths = batch.getInts(2);
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author chenyian
+ */
+public class ColumnarResult
+{
+    private static final byte[] MAGIC = {'I', 'M', 'C', 'O', 'L', 'S', '0', '1'};
+    private static final int HEADER = 1;
+    private static final int BATCH = 2;
+    private static final int END = 3;
+    private static final int SC_OK = 200;
+
+    private final HttpConnection connection;
+    private final DataInputStream in;
+    private List<String> columnNames = null;
+    private boolean finished = false;
+
+    /**
+     * Constructor.
+     * @param c The connection to read the data from.
+     */
+    public ColumnarResult(HttpConnection c) {
+        this.connection = c;
+        this.in = new DataInputStream(c.getResponseBodyAsStream());
+    }
+
+    /**
+     * Constructor.
+     * @param is The stream to read the data from.
+     */
+    public ColumnarResult(InputStream is) {
+        this.connection = null;
+        this.in = new DataInputStream(is);
+    }
+
+    /**
+     * @return The names of the columns, as given by the service.  There may be fewer names
+     *  than columns.
+     */
+    public List<String> getColumnNames() {
+        if (columnNames == null) {
+            readHeader();
+        }
+        return columnNames;
+    }
+
+    /**
+     * Read the next batch of rows.
+     * @return The batch, or null if there are no more rows.
+     */
+    public ColumnBatch nextBatch() {
+        getColumnNames();
+        while (!finished) {
+            int[] head = readHead();
+            ByteBuffer body = readBody(head[1]);
+            if (head[0] == BATCH) {
+                return new ColumnBatch(body);
+            } else if (head[0] == END) {
+                finished = true;
+                close();
+                int status = body.getInt(0);
+                if (status != SC_OK) {
+                    String[] messages = ColumnBatch.readStrings(body, 8);
+                    throw new ServiceException((messages.length > 0) ? messages[0]
+                            : ("Request failed with status " + status));
+                }
+            }
+            // Skip messages of types we do not know.
+        }
+        return null;
+    }
+
+    /**
+     * Get a memory efficient iterator over the rows.
+     * @return An iterator over rows as lists of values.
+     */
+    public Iterator<List<Object>> getListIterator() {
+        return new RowIterator();
+    }
+
+    /**
+     * Read all the rows.
+     * @return The rows as lists of values.
+     */
+    public List<List<Object>> getRowsAsLists() {
+        List<List<Object>> rows = new ArrayList<List<Object>>();
+        Iterator<List<Object>> it = getListIterator();
+        while (it.hasNext()) {
+            rows.add(it.next());
+        }
+        return rows;
+    }
+
+    private void readHeader() {
+        byte[] magic = new byte[MAGIC.length];
+        try {
+            in.readFully(magic);
+        } catch (IOException e) {
+            close();
+            throw new ServiceException("Reading from response stream failed", e);
+        }
+        if (!Arrays.equals(MAGIC, magic)) {
+            close();
+            throw new ServiceException("The response is not in the columnar format");
+        }
+        int[] head = readHead();
+        ByteBuffer body = readBody(head[1]);
+        if (head[0] != HEADER) {
+            close();
+            throw new ServiceException("The columnar response has no header");
+        }
+        columnNames = Arrays.asList(ColumnBatch.readStrings(body, 0));
+    }
+
+    private int[] readHead() {
+        ByteBuffer head = readBody(8);
+        return new int[] {head.getInt(0), head.getInt(4)};
+    }
+
+    private ByteBuffer readBody(int length) {
+        byte[] bytes = new byte[length];
+        try {
+            in.readFully(bytes);
+        } catch (IOException e) {
+            close();
+            throw new ServiceException("Reading from response stream failed", e);
+        }
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void close() {
+        if (connection != null) {
+            connection.close();
+        } else {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Nothing more can be read either way.
+            }
+        }
+    }
+
+    private class RowIterator implements Iterator<List<Object>>
+    {
+        private ColumnBatch batch = null;
+        private int row = 0;
+
+        @Override
+        public boolean hasNext() {
+            while (batch == null || row >= batch.getRowCount()) {
+                batch = nextBatch();
+                row = 0;
+                if (batch == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public List<Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.getRow(row++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -193,6 +193,23 @@ public abstract class AbstractQueryService<T> extends Service
         return getRows(query, page).getListIterator();
     }
 
+    /**
+     * Get an iterator over the results of a query, which fetches several pages of rows at once
+     * over separate connections. The rows are returned in order. This is faster than
+     * reading one long response when there are many rows, particularly if this service has a
+     * ConnectionPool.
+     *
+     * @param query the query to run.
+     * @param page The subsection of the result set to retrieve.
+     * @param threads The number of pages to fetch at once.
+     * @return an iterator over the rows, where each row is a list of objects. Close it if you do
+     * not read it to the end.
+     */
+    public ParallelRowReader<T> getParallelRowListIterator(T query, Page page, int threads) {
+        return new ParallelRowReader<T>(this, query, page, ParallelRowReader.DEFAULT_PAGE_SIZE,
+                threads, threads * 2);
+    }
+
     /**
      * Get results for a query as rows of objects. Get up to the
      * maximum result size of 10,000,000 rows from the beginning.
@@ -0,0 +1,185 @@
+package org.intermine.webservice.client.services;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.intermine.webservice.client.exceptions.ServiceException;
+import org.intermine.webservice.client.results.Page;
+
+/**
+ * An iterator over the rows of a query, which fetches them as several pages at once.
+ *
+ * The rows are split into pages of a fixed size, and each page is requested and parsed on its
+ * own thread. The rows are still returned in order: pages that arrive early are held until the
+ * pages before them have been read. No more than a fixed number of pages are fetched ahead of
+ * the reader, so memory use stays bounded however large the result set is.
+ *
+ * The service should have a ConnectionPool with at least as many connections as there are
+ * threads, so that the connections are kept alive from one page to the next.
+ *
+ * Call close() if you stop reading before the end.
+ *
+ * @author chenyian
+ *
+ * @param <T> The kind of query the service runs.
+ */
+public class ParallelRowReader<T> implements Iterator<List<Object>>
+{
+    /** The number of rows in each page, unless another is given. **/
+    public static final int DEFAULT_PAGE_SIZE = 10000;
+
+    private final AbstractQueryService<T> service;
+    private final T query;
+    private final int pageSize;
+    private final int window;
+    private final int start;
+    private final int end;
+    private final ThreadPoolExecutor executor;
+    private final LinkedList<Future<List<List<Object>>>> pending
+        = new LinkedList<Future<List<List<Object>>>>();
+    private int nextStart;
+    private Iterator<List<Object>> current = Collections.<List<Object>>emptyList().iterator();
+
+    /**
+     * Constructor. The number of rows is asked for straight away, and the first pages are
+     * requested.
+     *
+     * @param service The service to run the query with.
+     * @param query The query to run.
+     * @param page The subsection of the result set to retrieve.
+     * @param pageSize The number of rows to request at once.
+     * @param threads The number of pages to request at once.
+     * @param window The number of pages that may be requested ahead of the reader, including
+     * those being requested. Must be at least threads.
+     */
+    public ParallelRowReader(AbstractQueryService<T> service, T query, Page page, int pageSize,
+            int threads, int window) {
+        if (pageSize < 1 || threads < 1 || window < threads) {
+            throw new IllegalArgumentException("Bad page size, threads or window: " + pageSize
+                    + ", " + threads + ", " + window);
+        }
+        this.service = service;
+        this.query = query;
+        this.pageSize = pageSize;
+        this.window = window;
+        // Find the version once, rather than from every thread at once
+        service.getAPIVersion();
+        int count = service.getCount(query);
+        start = page.getStart();
+        nextStart = start;
+        if (page.getSize() == null) {
+            end = count;
+        } else {
+            end = Math.min(count, page.getStart() + page.getSize());
+        }
+        executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger number = new AtomicInteger();
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ParallelRowReader "
+                                + number.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        fill();
+    }
+
+    private void fill() {
+        while (pending.size() < window && nextStart < end) {
+            final Page page = new Page(nextStart, Math.min(pageSize, end - nextStart));
+            pending.add(executor.submit(new Callable<List<List<Object>>>() {
+                @Override
+                public List<List<Object>> call() {
+                    return service.getRows(query, page).getRowsAsLists();
+                }
+            }));
+            nextStart += pageSize;
+        }
+        if (pending.isEmpty()) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (pending.isEmpty()) {
+                return false;
+            }
+            Future<List<List<Object>>> future = pending.removeFirst();
+            try {
+                current = future.get().iterator();
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new ServiceException("Interrupted while waiting for results", e);
+            } catch (ExecutionException e) {
+                close();
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new ServiceException("Error fetching results", e.getCause());
+            }
+            fill();
+        }
+        return true;
+    }
+
+    @Override
+    public List<Object> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop fetching pages. Pages already being fetched are read to the end, so that their
+     * connections can be used again.
+     */
+    public void close() {
+        for (Future<List<List<Object>>> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        nextStart = end;
+        current = Collections.<List<Object>>emptyList().iterator();
+        executor.shutdown();
+    }
+
+    /**
+     * @return The number of rows this reader returns in all, unless it is closed early.
+     */
+    public int getRowCount() {
+        return Math.max(0, end - start);
+    }
+}
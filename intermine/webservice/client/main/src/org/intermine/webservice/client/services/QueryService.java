@@ -31,6 +31,7 @@ import org.intermine.webservice.client.core.ContentType;
 import org.intermine.webservice.client.core.Request.RequestType;
 import org.intermine.webservice.client.core.RequestImpl;
 import org.intermine.webservice.client.exceptions.ServiceException;
+import org.intermine.webservice.client.results.ColumnarResult;
 import org.intermine.webservice.client.results.JSONResult;
 import org.intermine.webservice.client.results.Page;
 import org.intermine.webservice.client.results.RowResultSet;
@@ -402,6 +403,22 @@ public class QueryService extends AbstractQueryService<PathQuery>
         return getRows(request, views);
     }
 
+    /**
+     * Fetch results in the columnar format, where each batch of rows comes as typed columns.
+     * This is the cheapest way to read large result sets, as no text has to be parsed.
+     *
+     * @param query The query to run.
+     * @param page The subsection of the result set to retrieve.
+     * @return The result set, which reads its batches as they are asked for.
+     */
+    public ColumnarResult getColumnarResults(PathQuery query, Page page) {
+        QueryRequest request
+            = new QueryRequest(RequestType.POST, getUrl(), ContentType.APPLICATION_COLUMNAR);
+        request.setPage(page);
+        request.setQueryXml(query.toXml(PathQuery.USERPROFILE_VERSION));
+        return new ColumnarResult(executeRequest(request));
+    }
+
     /**
      * Get a summary for the values in column of a query.
      *
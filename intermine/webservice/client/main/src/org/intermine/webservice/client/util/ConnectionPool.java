@@ -0,0 +1,100 @@
+package org.intermine.webservice.client.util;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+/**
+ * A pool of kept-alive connections to the server, which requests share instead of each
+ * opening its own.
+ *
+ * Without a pool every request opens a new TCP connection, which is closed again once its
+ * response has been read. With one, a connection goes back to the pool when its response has
+ * been read (or the HttpConnection closed), and the next request to the same host uses it again.
+ * The pool can be used by several threads at once; a request waits for a connection if all
+ * of them are in use.
+ *
+ * Responses that are not read to the end must be closed, or their connections are never handed
+ * back.
+ *
+ * @author chenyian
+ **/
+public class ConnectionPool
+{
+    /** The number of connections to one host, unless another is given. **/
+    public static final int DEFAULT_MAX_CONNECTIONS = 4;
+
+    private final MultiThreadedHttpConnectionManager manager;
+
+    /**
+     * Constructor, with the default number of connections.
+     */
+    public ConnectionPool() {
+        this(DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Constructor.
+     * @param maxConnections the number of connections to keep open to each host
+     */
+    public ConnectionPool(int maxConnections) {
+        manager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = manager.getParams();
+        params.setDefaultMaxConnectionsPerHost(maxConnections);
+        params.setMaxTotalConnections(maxConnections);
+    }
+
+    /**
+     * Make a client that takes its connections from this pool. Clients are cheap, and each
+     * request has its own so that it can have its own timeout.
+     *
+     * @param timeout the number of milliseconds to wait for a free connection, or 0 to wait as
+     * long as it takes
+     * @return the client
+     */
+    HttpClient getClient(int timeout) {
+        HttpClient client = new HttpClient(manager);
+        client.getParams().setConnectionManagerTimeout(timeout);
+        HttpConnection.setProxy(client);
+        return client;
+    }
+
+    /**
+     * @return the number of connections to each host
+     */
+    public int getMaxConnections() {
+        return manager.getParams().getDefaultMaxConnectionsPerHost();
+    }
+
+    /**
+     * @return the number of connections open, whether in use or not
+     */
+    public int getConnectionsInPool() {
+        return manager.getConnectionsInPool();
+    }
+
+    /**
+     * Close the connections that have not been used for a while.
+     * @param idleTime the number of milliseconds a connection may stay unused
+     */
+    public void closeIdleConnections(long idleTime) {
+        manager.closeIdleConnections(idleTime);
+    }
+
+    /**
+     * Close all the connections. The pool cannot be used afterwards.
+     */
+    public void shutdown() {
+        manager.shutdown();
+    }
+}
@@ -55,6 +55,8 @@ public class HttpConnection
 
     private Request request;
 
+    private ConnectionPool pool;
+
     HttpMethodBase executedMethod;
 
     private int timeout;
@@ -70,6 +72,15 @@ public class HttpConnection
         this.request = request;
     }
 
+    /**
+     * @param request client request
+     * @param pool the pool to take a connection from, or null to open a new one
+     */
+    public HttpConnection(Request request, ConnectionPool pool) {
+        this.request = request;
+        this.pool = pool;
+    }
+
     /**
      * @return response stream
      */
@@ -116,9 +127,14 @@ public class HttpConnection
     }
 
     private void executeMethod() {
-        HttpClient client = new HttpClient();
-        client.getParams().setConnectionManagerTimeout(timeout);
-        setProxy(client);
+        HttpClient client;
+        if (pool == null) {
+            client = new HttpClient();
+            client.getParams().setConnectionManagerTimeout(timeout);
+            setProxy(client);
+        } else {
+            client = pool.getClient(timeout);
+        }
         String url = request.getEncodedUrl();
         if (request.getType() == RequestType.GET) {
             executedMethod = new GetMethod(url);
@@ -153,7 +169,11 @@ public class HttpConnection
         }
     }
 
-    private static void setProxy(HttpClient client) {
+    /**
+     * Use the proxy given in the system properties, if there is one.
+     * @param client the client to set up
+     */
+    static void setProxy(HttpClient client) {
         Properties systemProps = System.getProperties();
         if (systemProps.containsKey("http.proxyHost")) {
             String server = systemProps.getProperty("http.proxyHost");
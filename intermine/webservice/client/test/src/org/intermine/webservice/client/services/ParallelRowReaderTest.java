@@ -0,0 +1,245 @@
+package org.intermine.webservice.client.services;
+
+/*
+ * Copyright (C) 2002-2017 FlyMine
+ *
+ * This code may be freely distributed and modified under the
+ * terms of the GNU Lesser General Public Licence.  This should
+ * be distributed with the code.  See the LICENSE file for more
+ * information or http://www.gnu.org/copyleft/lesser.html.
+ *
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.intermine.metadata.Model;
+import org.intermine.pathquery.PathQuery;
+import org.intermine.webservice.client.exceptions.ServiceException;
+import org.intermine.webservice.client.results.Page;
+import org.intermine.webservice.client.util.ConnectionPool;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests ParallelRowReader against a local stand-in for the query service, which serves canned
+ * pages of rows.
+ */
+public class ParallelRowReaderTest extends TestCase
+{
+    private static final int ROWS = 20000;
+
+    private HttpServer server;
+    private String rootUrl;
+    private PathQuery query;
+    private final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long delayPerThousandRows = 0;
+    private volatile int brokenStart = -1;
+
+    @Override
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/service", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                if (exchange.getRequestURI().getPath().endsWith("/version")) {
+                    respond(exchange, 200, "20");
+                    return;
+                }
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+                requests.incrementAndGet();
+                Map<String, String> params = readParameters(exchange);
+                if ("count".equals(params.get("format"))) {
+                    respond(exchange, 200, String.valueOf(ROWS));
+                    return;
+                }
+                int start = Integer.parseInt(params.get("start"));
+                int end = ROWS;
+                if (params.containsKey("size")) {
+                    end = Math.min(ROWS, start + Integer.parseInt(params.get("size")));
+                }
+                if (start == brokenStart) {
+                    respond(exchange, 500, "{\"error\":\"Broken page\"}");
+                    return;
+                }
+                try {
+                    // The time the server takes to run its part of the query
+                    Thread.sleep(delayPerThousandRows * (end - start) / 1000);
+                } catch (InterruptedException e) {
+                    // Answer now
+                }
+                respond(exchange, 200, page(start, end));
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        rootUrl = "http://localhost:" + server.getAddress().getPort() + "/service";
+        Model model = new ModelServiceTest().getModelService().getModel();
+        query = new PathQuery(model);
+        query.addViews("Employee.age", "Employee.name");
+    }
+
+    @Override
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    private static String page(int start, int end) {
+        StringBuilder sb = new StringBuilder("{\"results\":[\n");
+        for (int i = start; i < end; i++) {
+            sb.append("[" + i + ",\"Employee" + i + "\"]");
+            sb.append(i < end - 1 ? ",\n" : "\n");
+        }
+        sb.append("],\"wasSuccessful\":true,\"error\":null,\"statusCode\":200}\n");
+        return sb.toString();
+    }
+
+    private static Map<String, String> readParameters(HttpExchange exchange) throws IOException {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        String params = body.toString("UTF-8");
+        if (exchange.getRequestURI().getRawQuery() != null) {
+            params = params + "&" + exchange.getRequestURI().getRawQuery();
+        }
+        Map<String, String> ret = new HashMap<String, String>();
+        for (String param : params.split("&")) {
+            String[] parts = param.split("=", 2);
+            if (parts.length == 2) {
+                ret.put(URLDecoder.decode(parts[0], "UTF-8"),
+                        URLDecoder.decode(parts[1], "UTF-8"));
+            }
+        }
+        return ret;
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private QueryService getService(ConnectionPool pool) {
+        QueryService service = new QueryService(rootUrl, "ParallelRowReaderTest");
+        service.setConnectionPool(pool);
+        return service;
+    }
+
+    private static void checkRows(Iterator<List<Object>> rows, int start, int end) {
+        for (int i = start; i < end; i++) {
+            assertTrue("Missing row " + i, rows.hasNext());
+            assertEquals(Arrays.asList((Object) i, "Employee" + i), rows.next());
+        }
+        assertFalse(rows.hasNext());
+    }
+
+    public void testRowsAreInOrder() throws Exception {
+        ConnectionPool pool = new ConnectionPool(4);
+        ParallelRowReader<PathQuery> reader = new ParallelRowReader<PathQuery>(
+                getService(pool), query, Page.DEFAULT, 777, 4, 8);
+        assertEquals(ROWS, reader.getRowCount());
+        checkRows(reader, 0, ROWS);
+        pool.shutdown();
+    }
+
+    public void testSubsection() throws Exception {
+        ConnectionPool pool = new ConnectionPool(4);
+        ParallelRowReader<PathQuery> reader = new ParallelRowReader<PathQuery>(
+                getService(pool), query, new Page(1234, 5000), 1000, 4, 4);
+        assertEquals(5000, reader.getRowCount());
+        checkRows(reader, 1234, 6234);
+
+        reader = new ParallelRowReader<PathQuery>(
+                getService(pool), query, new Page(ROWS - 10, 5000), 1000, 4, 4);
+        checkRows(reader, ROWS - 10, ROWS);
+        pool.shutdown();
+    }
+
+    public void testConnectionsAreReused() throws Exception {
+        ConnectionPool pool = new ConnectionPool(3);
+        ParallelRowReader<PathQuery> reader = new ParallelRowReader<PathQuery>(
+                getService(pool), query, Page.DEFAULT, 500, 3, 6);
+        checkRows(reader, 0, ROWS);
+        // One request for the count, and forty pages
+        assertEquals(41, requests.get());
+        assertTrue("Opened " + clientPorts.size() + " connections", clientPorts.size() <= 3);
+        pool.shutdown();
+    }
+
+    public void testErrorsAreReported() throws Exception {
+        brokenStart = 5000;
+        ConnectionPool pool = new ConnectionPool(2);
+        ParallelRowReader<PathQuery> reader = new ParallelRowReader<PathQuery>(
+                getService(pool), query, Page.DEFAULT, 1000, 2, 2);
+        int read = 0;
+        try {
+            while (reader.hasNext()) {
+                reader.next();
+                read++;
+            }
+            fail("Expected a ServiceException");
+        } catch (ServiceException e) {
+            // The rows before the broken page were all read
+            assertEquals(5000, read);
+        }
+        assertFalse(reader.hasNext());
+        pool.shutdown();
+    }
+
+    /**
+     * Reads all the rows as one response and as pages at once, when the server takes a while to
+     * produce the rows.
+     */
+    public void testSlowServer() throws Exception {
+        delayPerThousandRows = 20;
+        checkRows(getService(null).getRowsAsLists(query).iterator(), 0, ROWS);
+
+        ConnectionPool pool = new ConnectionPool(4);
+        ParallelRowReader<PathQuery> reader = new ParallelRowReader<PathQuery>(
+                getService(pool), query, Page.DEFAULT, 2000, 4, 8);
+        checkRows(reader, 0, ROWS);
+        pool.shutdown();
+    }
+
+    public void testPoolTimeout() throws Exception {
+        ConnectionPool pool = new ConnectionPool(1);
+        QueryService service = getService(pool);
+        service.setConnectionTimeout(200);
+        // Holds the only connection until the rows have been read
+        Iterator<List<Object>> rows = service.getRows(query, Page.DEFAULT).getListIterator();
+        assertTrue(rows.hasNext());
+        try {
+            service.getCount(query);
+            fail("Expected the request to time out waiting for a connection");
+        } catch (RuntimeException e) {
+            assertTrue(String.valueOf(e.getCause()),
+                    e.getCause() instanceof ConnectionPoolTimeoutException);
+        }
+        pool.shutdown();
+    }
+}
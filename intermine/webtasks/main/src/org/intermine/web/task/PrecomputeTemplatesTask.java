@@ -10,9 +10,15 @@ package org.intermine.web.task;
  *
  */
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -40,8 +46,11 @@ import org.intermine.objectstore.query.QueryNode;
 import org.intermine.api.template.TemplateManager;
 
 /**
- * A Task that reads a list of queries from a properties file (eg. testmodel_precompute.properties)
- * and calls ObjectStoreInterMineImpl.precompute() using the Query.
+ * A Task that precomputes and summarises the superuser's public templates.  The precompute
+ * queries and the summary queries of all templates are gathered first, identical queries are
+ * only run once, and all of them are run through a ParallelPrecomputer with the configured
+ * number of threads.  With resume set, templates that are already precomputed or summarised
+ * are skipped, so a run that failed part of the way through can be restarted.
  *
  * @author Kim Rutherford
  */
@@ -64,6 +73,9 @@ public class PrecomputeTemplatesTask extends Task
     protected String ignore = "";
     protected Set<String> ignoreNames = new HashSet<String>();
     protected boolean doSummarise = true;
+    protected int threads = 4;
+    protected boolean resume = false;
+    protected File report = null;
 
     /**
      * Set the ObjectStore alias
@@ -120,6 +132,31 @@ public class PrecomputeTemplatesTask extends Task
         LOG.info("Set summarise to " + doSummarise + " (with string " + summarise + ")");
     }
 
+    /**
+     * Set the number of queries to run at once.
+     * @param threads the number of threads, defaults to 4
+     */
+    public void setThreads(Integer threads) {
+        this.threads = threads.intValue();
+    }
+
+    /**
+     * Set the resume flag.
+     * @param resume if true, skip templates that are already precomputed and summarised, and
+     * carry on after a template fails
+     */
+    public void setResume(String resume) {
+        this.resume = "true".equals(resume);
+    }
+
+    /**
+     * Set a file to write a report of the time spent on each template to.
+     * @param report the report file
+     */
+    public void setReport(File report) {
+        this.report = report;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -133,6 +170,10 @@ public class PrecomputeTemplatesTask extends Task
             throw new BuildException("minRows attribute is not set");
         }
 
+        if (threads < 1) {
+            throw new BuildException("threads attribute must be at least 1");
+        }
+
         if (!StringUtils.isBlank(ignore)) {
             String[] bits = ignore.split(",");
             for (String ignoreName : bits) {
@@ -166,8 +207,16 @@ public class PrecomputeTemplatesTask extends Task
      * Create precomputed tables for all template queries in the given ObjectStore.
      */
     protected void precomputeTemplates() {
-        List<ApiTemplate> toSummarise = new ArrayList<ApiTemplate>();
-        List<ParallelPrecomputer.Job> jobs = new ArrayList<ParallelPrecomputer.Job>();
+        ObjectStoreInterMineImpl osInterMineImpl = (ObjectStoreInterMineImpl) os;
+        // TODO:  don't require servlet context to create oss, we can't get it here yet
+        ObjectStoreSummary oss = null;
+        TemplateSummariser summariser = new TemplateSummariser(os, userProfileOS, oss);
+
+        Map<String, ParallelPrecomputer.Job> jobs
+            = new LinkedHashMap<String, ParallelPrecomputer.Job>();
+        Map<String, List<String>> templateJobs = new LinkedHashMap<String, List<String>>();
+        Map<String, ApiTemplate> toSummarise = new LinkedHashMap<String, ApiTemplate>();
+        Map<String, SummaryJob> summaryJobs = new HashMap<String, SummaryJob>();
         for (Map.Entry<String, ApiTemplate> entry : getPrecomputeTemplateQueries().entrySet()) {
             ApiTemplate template = entry.getValue();
 
@@ -206,26 +255,150 @@ public class PrecomputeTemplatesTask extends Task
                 }
             }
 
-            toSummarise.add(template);
+            List<String> keys = new ArrayList<String>();
+            templateJobs.put(template.getName(), keys);
+            String precomputeKey = "precompute " + q.toString();
+            try {
+                if (resume && osInterMineImpl.isPrecomputed(q, PRECOMPUTE_CATEGORY_TEMPLATE)) {
+                    LOG.info("Skipping template " + template.getName()
+                            + " - already precomputed.");
+                } else {
+                    // templates that differ only in their editable constraints share a precompute
+                    if (!jobs.containsKey(precomputeKey)) {
+                        jobs.put(precomputeKey, new ParallelPrecomputer.Job(precomputeKey, q,
+                                    indexes, false, PRECOMPUTE_CATEGORY_TEMPLATE));
+                    }
+                    keys.add(precomputeKey);
+                }
+            } catch (ObjectStoreException e) {
+                throw new BuildException(e);
+            }
+
+            if (!doSummarise || (resume && summariser.isSummarised(template))) {
+                continue;
+            }
+            toSummarise.put(template.getName(), template);
+            for (String node : template.getEditablePaths()) {
+                Query summaryQuery = summariser.getSummaryQuery(template, node);
+                String summaryKey = "summary " + summaryQuery.toString();
+                SummaryJob summaryJob = summaryJobs.get(summaryKey);
+                if (summaryJob == null) {
+                    summaryJob = new SummaryJob(summaryKey, summaryQuery, summariser, template,
+                            node);
+                    summaryJobs.put(summaryKey, summaryJob);
+                    jobs.put(summaryKey, summaryJob);
+                }
+                keys.add(summaryKey);
+            }
+        }
 
-            jobs.add(new ParallelPrecomputer.Job(template.getName(), q, indexes, false,
-                        PRECOMPUTE_CATEGORY_TEMPLATE));
+        ParallelPrecomputer pp = new ParallelPrecomputer(osInterMineImpl, threads);
+        pp.setFailFast(!resume);
+        // a summary with no values is still a summary, so only the precomputes use minRows
+        List<ParallelPrecomputer.Job> precomputeJobs = new ArrayList<ParallelPrecomputer.Job>();
+        List<ParallelPrecomputer.Job> otherJobs = new ArrayList<ParallelPrecomputer.Job>();
+        for (ParallelPrecomputer.Job job : jobs.values()) {
+            if (job instanceof SummaryJob) {
+                otherJobs.add(job);
+            } else {
+                precomputeJobs.add(job);
+            }
         }
-        ParallelPrecomputer pp = new ParallelPrecomputer((ObjectStoreInterMineImpl) os, 4);
+        Map<String, Exception> failedPrecomputes;
         try {
-            pp.precompute(jobs);
+            pp.setMinRows(minRows);
+            pp.precompute(precomputeJobs);
+            failedPrecomputes = pp.getFailedJobs();
+            // as before, a template that cannot be summarised does not stop the others
+            pp.setFailFast(false);
+            pp.setMinRows(-1);
+            pp.precompute(otherJobs);
         } catch (ObjectStoreException e) {
             throw new BuildException(e);
         }
-        // TODO:  don't require servlet context to create oss, we can't get it here yet
-        ObjectStoreSummary oss = null;
-        TemplateSummariser summariser = new TemplateSummariser(os, userProfileOS, oss);
-        for (ApiTemplate template : toSummarise) {
-            if (doSummarise) {
-                try {
-                    summariser.summarise(template);
-                } catch (ObjectStoreException e) {
-                    LOG.error("Exception while summarising template " + template.getName(), e);
+
+        Map<String, Exception> failedJobs = pp.getFailedJobs();
+        for (ApiTemplate template : toSummarise.values()) {
+            Map<String, List<Object>> possibleValues = new HashMap<String, List<Object>>();
+            boolean complete = true;
+            for (String node : template.getEditablePaths()) {
+                String summaryKey = "summary " + summariser.getSummaryQuery(template, node);
+                SummaryJob summaryJob = summaryJobs.get(summaryKey);
+                if (failedJobs.containsKey(summaryKey) || !summaryJob.isDone()) {
+                    complete = false;
+                } else if (summaryJob.getValues() != null) {
+                    possibleValues.put(node, summaryJob.getValues());
+                }
+            }
+            if (!complete) {
+                LOG.error("Not storing summary for template " + template.getName()
+                        + " because one of its summary queries failed");
+                continue;
+            }
+            try {
+                summariser.storeSummary(template, possibleValues);
+            } catch (ObjectStoreException e) {
+                LOG.error("Exception while summarising template " + template.getName(), e);
+            }
+        }
+
+        writeReport(templateJobs, pp.getJobTimes(), failedJobs);
+        if (!failedPrecomputes.isEmpty()) {
+            throw new BuildException(failedPrecomputes.size() + " precompute queries failed, run"
+                    + " again with resume=\"true\" to retry them. First failure: "
+                    + failedPrecomputes.keySet().iterator().next(),
+                    failedPrecomputes.values().iterator().next());
+        }
+    }
+
+    /**
+     * Log the time spent on each template and write it to the report file, if there is one.
+     * Queries shared by several templates are counted against each of them.
+     *
+     * @param templateJobs a Map from template name to the keys of its jobs
+     * @param jobTimes a Map from job key to elapsed milliseconds
+     * @param failedJobs a Map from job key to exception, for failed jobs
+     */
+    protected void writeReport(Map<String, List<String>> templateJobs, Map<String, Long> jobTimes,
+            Map<String, Exception> failedJobs) {
+        List<String> lines = new ArrayList<String>();
+        lines.add("template\tprecompute_ms\tsummary_ms\tstatus");
+        for (Map.Entry<String, List<String>> entry : templateJobs.entrySet()) {
+            long precomputeTime = 0;
+            long summaryTime = 0;
+            String status = "ok";
+            for (String key : entry.getValue()) {
+                Long time = jobTimes.get(key);
+                if (time == null) {
+                    // below minRows, so not run
+                    continue;
+                }
+                if (key.startsWith("summary ")) {
+                    summaryTime += time.longValue();
+                } else {
+                    precomputeTime += time.longValue();
+                }
+                if (failedJobs.containsKey(key)) {
+                    status = "failed";
+                }
+            }
+            String line = entry.getKey() + "\t" + precomputeTime + "\t" + summaryTime + "\t"
+                + status;
+            LOG.info("Template time: " + line);
+            lines.add(line);
+        }
+        if (report != null) {
+            PrintWriter out = null;
+            try {
+                out = new PrintWriter(new FileWriter(report));
+                for (String line : lines) {
+                    out.println(line);
+                }
+            } catch (IOException e) {
+                LOG.error("Could not write template precompute report to " + report, e);
+            } finally {
+                if (out != null) {
+                    out.close();
                 }
             }
         }
@@ -260,6 +433,42 @@ public class PrecomputeTemplatesTask extends Task
                  + " seconds for: " + query);
     }
 
+    /**
+     * A job that runs the summary query for one editable node.  The result is kept until all
+     * jobs have finished, and is shared by all templates with the same summary query.
+     */
+    private static class SummaryJob extends ParallelPrecomputer.Job
+    {
+        private TemplateSummariser summariser;
+        private ApiTemplate template;
+        private String node;
+        private List<Object> values = null;
+        private volatile boolean done = false;
+
+        SummaryJob(String key, Query query, TemplateSummariser summariser, ApiTemplate template,
+                String node) {
+            super(key, query, null, false, null);
+            this.summariser = summariser;
+            this.template = template;
+            this.node = node;
+        }
+
+        @Override
+        protected void execute(ParallelPrecomputer pp, int threadNo)
+            throws ObjectStoreException {
+            values = summariser.summarise(template, node);
+            done = true;
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        List<Object> getValues() {
+            return values;
+        }
+    }
+
     /**
      * Get the super user's public templates
      * @return Map from template name to TemplateQuery